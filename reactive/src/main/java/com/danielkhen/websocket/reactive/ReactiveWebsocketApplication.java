@@ -0,0 +1,15 @@
+package com.danielkhen.websocket.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+
+@SpringBootApplication
+@ConfigurationPropertiesScan
+public class ReactiveWebsocketApplication {
+
+	public static void main(String[] args) {
+		SpringApplication.run(ReactiveWebsocketApplication.class, args);
+	}
+
+}
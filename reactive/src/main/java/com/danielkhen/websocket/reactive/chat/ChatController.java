@@ -0,0 +1,53 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Controller providing the REST endpoint for chat history.
+ * Messages are sent over the STOMP endpoint handled by {@link com.danielkhen.websocket.reactive.stomp.StompWebSocketHandler}.
+ */
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+public class ChatController {
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final ChatMessageService chatMessageService;
+
+    /**
+     * REST endpoint to retrieve the newest messages between two users.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param limit Maximum number of messages to return
+     * @return The newest messages, oldest first
+     */
+    @GetMapping("/messages/{senderId}/{recipientId}")
+    public Mono<ResponseEntity<List<ChatMessage>>> findChatMessages(
+            @PathVariable("senderId") String senderId,
+            @PathVariable("recipientId") String recipientId,
+            @RequestParam(name = "limit", required = false) Integer limit
+    ) {
+        var pageSize = Math.min(limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : limit, MAX_PAGE_SIZE);
+        return chatMessageService.findNewestChatMessages(senderId, recipientId, pageSize)
+                .collectList()
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> {
+                    // Log the error
+                    log.error("Error retrieving messages senderId={} recipientId={}", senderId, recipientId, e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                });
+    }
+}
@@ -0,0 +1,22 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import lombok.*;
+
+/**
+ * Represents a notification to a sender that their message was not accepted.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChatErrorNotification {
+    /** ID of the rejected message, if it had one */
+    private String messageId;
+
+    /** ID of the intended recipient */
+    private String recipientId;
+
+    /** Why the message was rejected */
+    private String reason;
+}
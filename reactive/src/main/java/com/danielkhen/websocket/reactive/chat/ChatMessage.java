@@ -0,0 +1,50 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.Date;
+
+/**
+ * Represents a chat message in the system.
+ * Stored in the same collection and compact layout as the servlet server's messages, so history
+ * written by either server can be read by the other. The recipient is not stored.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document("chatMessage")
+public class ChatMessage {
+    /** Unique identifier for the message */
+    @Id
+    private String id;
+
+    /** Unique identifier for the chat room this message belongs to */
+    @Field("c")
+    private String chatId;
+
+    /** ID of the user who sent this message */
+    @Field("s")
+    private String senderId;
+
+    /** ID of the user who should receive this message; derived from the chat room, not stored */
+    @Transient
+    private String recipientId;
+
+    /** Content of the message */
+    @Field("m")
+    private String content;
+
+    /** Timestamp when the message was sent */
+    @Field("t")
+    private Date timestamp;
+
+    /** Position of the message in its chat, increasing by one per message */
+    @Field("q")
+    private Long sequence;
+}
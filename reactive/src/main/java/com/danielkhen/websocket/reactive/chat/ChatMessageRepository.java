@@ -0,0 +1,6 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+public interface ChatMessageRepository extends ReactiveMongoRepository<ChatMessage, String>, ChatMessageRepositoryCustom {
+}
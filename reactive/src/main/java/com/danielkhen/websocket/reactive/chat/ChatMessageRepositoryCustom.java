@@ -0,0 +1,18 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Custom chat message queries that derived repository methods cannot express.
+ */
+public interface ChatMessageRepositoryCustom {
+
+    /**
+     * Streams the newest messages of a chat, newest first.
+     *
+     * @param chatId The chat room ID
+     * @param limit Maximum number of messages to return
+     * @return The messages, newest first
+     */
+    Flux<ChatMessage> findNewest(String chatId, int limit);
+}
@@ -0,0 +1,26 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+/**
+ * ReactiveMongoTemplate-backed implementation of {@link ChatMessageRepositoryCustom}.
+ */
+@RequiredArgsConstructor
+public class ChatMessageRepositoryImpl implements ChatMessageRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Flux<ChatMessage> findNewest(String chatId, int limit) {
+        // Same order as the servlet server's history, served by its (chatId, timestamp, id) index
+        var query = Query.query(Criteria.where("chatId").is(chatId))
+                .with(Sort.by(Sort.Direction.DESC, "timestamp", "id"))
+                .limit(limit);
+        return mongoTemplate.find(query, ChatMessage.class);
+    }
+}
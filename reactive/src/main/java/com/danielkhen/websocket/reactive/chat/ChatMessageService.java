@@ -0,0 +1,71 @@
+package com.danielkhen.websocket.reactive.chat;
+
+import com.danielkhen.websocket.reactive.chatroom.ChatRoomService;
+import com.danielkhen.websocket.reactive.config.StompProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Service class for managing chat messages without blocking.
+ * The send path is the servlet server's synchronous one: allocate a sequence number in the chat
+ * room, then insert the message, with no thread held while either call is in flight.
+ */
+@Service
+@RequiredArgsConstructor
+public class ChatMessageService {
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatRoomService chatRoomService;
+    private final StompProperties stompProperties;
+
+    /**
+     * Saves a chat message.
+     *
+     * @param chatMessage The message to save
+     * @return The saved message, with its chat room ID and sequence number
+     */
+    public Mono<ChatMessage> save(ChatMessage chatMessage) {
+        var content = chatMessage.getContent();
+        if (content != null && content.length() > stompProperties.getMaxContentLength()) {
+            return Mono.error(new MessageTooLargeException(String.format(
+                    "Message is longer than %d characters", stompProperties.getMaxContentLength())));
+        }
+
+        return chatRoomService.allocateSequence(chatMessage.getSenderId(), chatMessage.getRecipientId())
+                .flatMap(chatRoom -> {
+                    chatMessage.setChatId(chatRoom.getChatId());
+                    chatMessage.setSequence(chatRoom.getLastSequence());
+                    if (chatMessage.getTimestamp() == null) {
+                        chatMessage.setTimestamp(new Date());
+                    }
+                    var recipientId = chatMessage.getRecipientId();
+                    return chatMessageRepository.insert(chatMessage)
+                            .doOnNext(saved -> saved.setRecipientId(recipientId));
+                });
+    }
+
+    /**
+     * Retrieves the newest messages between two users.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param limit Maximum number of messages to return
+     * @return The messages, oldest first, or an empty list if no chat room exists
+     */
+    public Flux<ChatMessage> findNewestChatMessages(String senderId, String recipientId, int limit) {
+        return chatRoomService.findChatRoomId(senderId, recipientId)
+                .flatMapMany(chatId -> chatMessageRepository.findNewest(chatId, limit))
+                .doOnNext(message -> message.setRecipientId(
+                        senderId.equals(message.getSenderId()) ? recipientId : senderId))
+                .collectList()
+                .flatMapIterable(messages -> {
+                    Collections.reverse(messages);
+                    return messages;
+                });
+    }
+}
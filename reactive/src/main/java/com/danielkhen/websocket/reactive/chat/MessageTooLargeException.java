@@ -0,0 +1,10 @@
+package com.danielkhen.websocket.reactive.chat;
+
+/**
+ * Exception thrown when a message's content is longer than the configured limit.
+ */
+public class MessageTooLargeException extends RuntimeException {
+    public MessageTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,34 @@
+package com.danielkhen.websocket.reactive.chatroom;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Represents a chat room between two users.
+ * Stored in the same collection and layout as the servlet server's chat rooms, which also owns
+ * the unique index on the canonical pair of users.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Document("chatRoom")
+public class ChatRoom {
+    /** Unique identifier for the chat room */
+    @Id
+    private String id;
+
+    /** A composite ID representing the unique pairing of sender and recipient */
+    private String chatId;
+
+    /** ID of the user that sorts first in the pairing */
+    private String senderId;
+
+    /** ID of the user that sorts second in the pairing */
+    private String recipientId;
+
+    /** Sequence number given to the latest message in the room */
+    private long lastSequence;
+}
@@ -0,0 +1,86 @@
+package com.danielkhen.websocket.reactive.chatroom;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Service class for managing chat rooms without blocking.
+ * Rooms are keyed by the canonical (lexicographic) pair of users, exactly as the servlet server
+ * keys them, so both servers share rooms and sequence numbers.
+ */
+@Service
+@RequiredArgsConstructor
+public class ChatRoomService {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    /**
+     * Allocates the next message sequence number in the chat room of two users,
+     * creating the room if it does not exist yet.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @return The chat room with its newly allocated {@code lastSequence}
+     */
+    public Mono<ChatRoom> allocateSequence(String senderId, String recipientId) {
+        var query = pairQuery(senderId, recipientId);
+        var update = new Update().setOnInsert("chatId", canonicalChatId(senderId, recipientId)).inc("lastSequence", 1);
+
+        return mongoTemplate.findAndModify(
+                        query,
+                        update,
+                        FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        ChatRoom.class
+                )
+                // Another upsert created the room first; it exists now, so a plain update increments it
+                .onErrorResume(DuplicateKeyException.class, e -> mongoTemplate.findAndModify(
+                        query,
+                        update,
+                        FindAndModifyOptions.options().returnNew(true),
+                        ChatRoom.class
+                ));
+    }
+
+    /**
+     * Looks up the chat room ID of two users.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @return The chat room ID, or empty if the users have no chat room
+     */
+    public Mono<String> findChatRoomId(String senderId, String recipientId) {
+        return mongoTemplate.findOne(pairQuery(senderId, recipientId), ChatRoom.class)
+                .map(ChatRoom::getChatId);
+    }
+
+    /**
+     * Builds the order-independent chat room ID for two users.
+     *
+     * @param senderId ID of one user
+     * @param recipientId ID of the other user
+     * @return The canonical chat room ID
+     */
+    static String canonicalChatId(String senderId, String recipientId) {
+        return String.format("%s_%s", firstOf(senderId, recipientId), secondOf(senderId, recipientId));
+    }
+
+    private static Query pairQuery(String senderId, String recipientId) {
+        return Query.query(Criteria.where("senderId").is(firstOf(senderId, recipientId))
+                .and("recipientId").is(secondOf(senderId, recipientId)));
+    }
+
+    private static String firstOf(String a, String b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static String secondOf(String a, String b) {
+        return a.compareTo(b) <= 0 ? b : a;
+    }
+}
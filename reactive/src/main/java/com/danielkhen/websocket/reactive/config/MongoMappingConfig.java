@@ -0,0 +1,33 @@
+package com.danielkhen.websocket.reactive.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Configuration class for mapping documents to MongoDB.
+ */
+@Configuration
+public class MongoMappingConfig {
+
+    /**
+     * Creates the converter between document classes and BSON.
+     * Like the servlet server, no "_class" type hint is written, so both servers read and write
+     * the same documents.
+     *
+     * @param context The mapping context
+     * @param conversions The custom conversions configured by Spring Boot
+     * @return The converter
+     */
+    @Bean
+    public MappingMongoConverter mappingMongoConverter(MongoMappingContext context, MongoCustomConversions conversions) {
+        var converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setCustomConversions(conversions);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        return converter;
+    }
+}
@@ -0,0 +1,22 @@
+package com.danielkhen.websocket.reactive.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for the non-blocking STOMP endpoint.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.stomp")
+public class StompProperties {
+    /** Maximum number of frames queued for one session; a session that falls further behind is closed */
+    private int outboundBufferSize = 1024;
+
+    /** Maximum number of characters of a frame split across WebSocket messages; a session sending a larger one is closed */
+    private int maxFrameSize = 512 * 1024;
+
+    /** Maximum number of characters accepted in a message's content */
+    private int maxContentLength = 100_000;
+}
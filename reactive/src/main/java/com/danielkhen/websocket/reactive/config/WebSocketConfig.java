@@ -0,0 +1,30 @@
+package com.danielkhen.websocket.reactive.config;
+
+import com.danielkhen.websocket.reactive.stomp.StompWebSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+
+import java.util.Map;
+
+/**
+ * Configuration class for the WebSocket endpoint.
+ * STOMP is served on /ws-native, the same path as the raw WebSocket endpoint of the servlet
+ * server, so STOMP clients can be pointed at either server. SockJS is not supported.
+ */
+@Configuration
+public class WebSocketConfig {
+
+    /**
+     * Maps /ws-native to the STOMP handler.
+     *
+     * @param handler The STOMP handler
+     * @return The handler mapping
+     */
+    @Bean
+    public HandlerMapping webSocketHandlerMapping(StompWebSocketHandler handler) {
+        return new SimpleUrlHandlerMapping(Map.of("/ws-native", handler), Ordered.HIGHEST_PRECEDENCE);
+    }
+}
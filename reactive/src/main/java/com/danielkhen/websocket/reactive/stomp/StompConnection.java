@@ -0,0 +1,115 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one STOMP session: its user, its subscriptions and its bounded outbound queue.
+ * Frames are queued without waiting for the client; a client that lets the queue fill up is
+ * disconnected instead of holding memory for it, like the servlet server's send buffer limit.
+ * Frames for one session can be sent from several event loop threads at once, and the sink
+ * accepts one emission at a time, so emissions are serialized on the sink rather than retried.
+ */
+class StompConnection {
+
+    /** Close status the servlet stack uses for sessions that exceed their send buffer */
+    private static final CloseStatus SESSION_NOT_RELIABLE = new CloseStatus(4500, "Outbound buffer full");
+
+    private final WebSocketSession session;
+    private final Sinks.Many<String> outbound;
+    /** Subscription ID by destination */
+    private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong messageIds = new AtomicLong();
+    private volatile String userId;
+
+    StompConnection(WebSocketSession session, int bufferSize) {
+        this.session = session;
+        Queue<String> queue = new ArrayBlockingQueue<>(bufferSize);
+        this.outbound = Sinks.many().unicast().onBackpressureBuffer(queue);
+    }
+
+    String getSessionId() {
+        return session.getId();
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * @return The encoded frames to write to the WebSocket, in order
+     */
+    Flux<String> outbound() {
+        return outbound.asFlux();
+    }
+
+    void subscribe(String destination, String subscriptionId) {
+        subscriptions.put(destination, subscriptionId);
+    }
+
+    void unsubscribe(String subscriptionId) {
+        subscriptions.values().remove(subscriptionId);
+    }
+
+    /**
+     * Queues a MESSAGE frame if the session subscribed to the destination.
+     *
+     * @param destination The destination the session subscribed to
+     * @param json The JSON body
+     */
+    void sendMessage(String destination, String json) {
+        var subscriptionId = subscriptions.get(destination);
+        if (subscriptionId == null) {
+            return;
+        }
+        var headers = new LinkedHashMap<String, String>();
+        headers.put("destination", destination);
+        headers.put("subscription", subscriptionId);
+        headers.put("message-id", session.getId() + "-" + messageIds.incrementAndGet());
+        headers.put("content-type", "application/json");
+        send(new StompFrame("MESSAGE", headers, json));
+    }
+
+    /**
+     * Queues a frame, closing the session if its queue is full.
+     *
+     * @param frame The frame to send
+     */
+    void send(StompFrame frame) {
+        var encoded = frame.encode();
+        Sinks.EmitResult result;
+        synchronized (outbound) {
+            result = outbound.tryEmitNext(encoded);
+        }
+        if (result == Sinks.EmitResult.FAIL_OVERFLOW) {
+            close(SESSION_NOT_RELIABLE);
+        }
+    }
+
+    /**
+     * Completes the outbound queue after the frames already queued are written.
+     */
+    void complete() {
+        synchronized (outbound) {
+            outbound.tryEmitComplete();
+        }
+    }
+
+    void close(CloseStatus status) {
+        complete();
+        session.close(status).subscribe();
+    }
+}
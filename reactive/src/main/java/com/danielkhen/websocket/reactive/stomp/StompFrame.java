@@ -0,0 +1,142 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A STOMP 1.2 frame, with the parsing and encoding needed for text WebSocket messages.
+ * Only the client commands used by the chat clients are interpreted by the handler; unknown
+ * commands are still parsed so they can be ignored.
+ *
+ * @param command The frame command, e.g. SEND
+ * @param headers The frame headers, unescaped, first occurrence wins
+ * @param body The frame body
+ */
+public record StompFrame(String command, Map<String, String> headers, String body) {
+
+    private static final char NULL = '\0';
+
+    /**
+     * Builds a frame without a body.
+     *
+     * @param command The frame command
+     * @param headers The frame headers
+     * @return The frame
+     */
+    public static StompFrame of(String command, Map<String, String> headers) {
+        return new StompFrame(command, headers, "");
+    }
+
+    /**
+     * @param name Name of the header
+     * @return The header's value, or null if the frame does not have it
+     */
+    public String header(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * Parses the frames of one WebSocket text message.
+     * A message may hold several frames, and end-of-line heart-beats between them are skipped.
+     *
+     * @param text The message payload
+     * @return The frames in order
+     * @throws IllegalArgumentException if a frame is malformed
+     */
+    public static List<StompFrame> parseAll(String text) {
+        var frames = new ArrayList<StompFrame>();
+        int position = 0;
+        while (position < text.length()) {
+            // Skip heart-beats
+            while (position < text.length() && (text.charAt(position) == '\n' || text.charAt(position) == '\r')) {
+                position++;
+            }
+            if (position >= text.length()) {
+                break;
+            }
+            int end = text.indexOf(NULL, position);
+            if (end < 0) {
+                throw new IllegalArgumentException("Frame is not terminated by NULL");
+            }
+            frames.add(parse(text.substring(position, end)));
+            position = end + 1;
+        }
+        return frames;
+    }
+
+    private static StompFrame parse(String frame) {
+        int headerEnd = frame.indexOf("\n\n");
+        int bodyStart = headerEnd + 2;
+        if (headerEnd < 0) {
+            headerEnd = frame.indexOf("\r\n\r\n");
+            bodyStart = headerEnd + 4;
+        }
+        if (headerEnd < 0) {
+            throw new IllegalArgumentException("Frame has no header terminator");
+        }
+
+        var lines = frame.substring(0, headerEnd).split("\r?\n");
+        var command = lines[0];
+        // CONNECT and CONNECTED frames are not escaped, for compatibility with STOMP 1.0
+        var escaped = !command.equals("CONNECT") && !command.equals("CONNECTED");
+        var headers = new LinkedHashMap<String, String>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Malformed header: " + lines[i]);
+            }
+            var name = lines[i].substring(0, colon);
+            var value = lines[i].substring(colon + 1);
+            headers.putIfAbsent(escaped ? unescape(name) : name, escaped ? unescape(value) : value);
+        }
+        return new StompFrame(command, headers, frame.substring(bodyStart));
+    }
+
+    /**
+     * Encodes the frame, including its NULL terminator.
+     *
+     * @return The frame as a WebSocket text payload
+     */
+    public String encode() {
+        var escaped = !command.equals("CONNECT") && !command.equals("CONNECTED");
+        var out = new StringBuilder(64 + body.length()).append(command).append('\n');
+        headers.forEach((name, value) -> out
+                .append(escaped ? escape(name) : name)
+                .append(':')
+                .append(escaped ? escape(value) : value)
+                .append('\n'));
+        return out.append('\n').append(body).append(NULL).toString();
+    }
+
+    private static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0 && value.indexOf(':') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n").replace(":", "\\c");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        var out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                out.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 'r' -> out.append('\r');
+                case 'n' -> out.append('\n');
+                case 'c' -> out.append(':');
+                case '\\' -> out.append('\\');
+                default -> throw new IllegalArgumentException("Undefined escape sequence: \\" + next);
+            }
+        }
+        return out.toString();
+    }
+}
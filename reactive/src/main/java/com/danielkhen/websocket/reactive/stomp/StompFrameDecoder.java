@@ -0,0 +1,48 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import java.util.List;
+
+/**
+ * Splits the text a session receives into STOMP frames.
+ * A client may split a frame across several WebSocket messages, so the text after the last
+ * NULL terminator is kept until the rest of its frame arrives. Each session has its own decoder,
+ * used only by its receive pipeline, so it is not thread-safe.
+ */
+class StompFrameDecoder {
+
+    private final int maxFrameSize;
+    private final StringBuilder partial = new StringBuilder();
+
+    /**
+     * @param maxFrameSize Maximum number of characters kept for an incomplete frame
+     */
+    StompFrameDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Decodes the frames completed by the text of one WebSocket message.
+     *
+     * @param text The message payload
+     * @return The completed frames in order, empty if the message only continues a frame
+     * @throws IllegalArgumentException if a frame is malformed or an incomplete frame grows too large
+     */
+    List<StompFrame> decode(String text) {
+        var input = text;
+        if (!partial.isEmpty()) {
+            input = partial.append(text).toString();
+            partial.setLength(0);
+        }
+
+        int end = input.lastIndexOf('\0');
+        var rest = input.substring(end + 1);
+        // Heart-beats after the last frame do not start a new one
+        if (!rest.isBlank()) {
+            if (rest.length() > maxFrameSize) {
+                throw new IllegalArgumentException("Frame is larger than " + maxFrameSize + " characters");
+            }
+            partial.append(rest);
+        }
+        return end < 0 ? List.of() : StompFrame.parseAll(input.substring(0, end + 1));
+    }
+}
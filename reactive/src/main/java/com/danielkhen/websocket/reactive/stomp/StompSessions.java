@@ -0,0 +1,135 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of open STOMP sessions by session ID and by user, used to route messages.
+ * It plays the part of the simple broker and user registry of the servlet server, so this
+ * server is single-instance only.
+ */
+@Component
+@RequiredArgsConstructor
+public class StompSessions implements MeterBinder {
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, StompConnection> bySessionId = new ConcurrentHashMap<>();
+    private final Map<String, Set<StompConnection>> byUserId = new ConcurrentHashMap<>();
+
+    void open(StompConnection connection) {
+        bySessionId.put(connection.getSessionId(), connection);
+    }
+
+    /**
+     * Removes a closed session.
+     *
+     * @param connection The session
+     * @return true if it was the last session of its user
+     */
+    boolean close(StompConnection connection) {
+        bySessionId.remove(connection.getSessionId());
+        return unbind(connection);
+    }
+
+    /**
+     * Associates a session with a user.
+     *
+     * @param connection The session
+     * @param userId ID of the user
+     * @return true if it is the user's first session
+     */
+    boolean bind(StompConnection connection, String userId) {
+        connection.setUserId(userId);
+        var first = new boolean[1];
+        byUserId.compute(userId, (id, connections) -> {
+            if (connections == null) {
+                connections = ConcurrentHashMap.newKeySet();
+                first[0] = true;
+            }
+            connections.add(connection);
+            return connections;
+        });
+        return first[0];
+    }
+
+    /**
+     * Dissociates a session from its user.
+     *
+     * @param connection The session
+     * @return true if it was the user's last session
+     */
+    boolean unbind(StompConnection connection) {
+        var userId = connection.getUserId();
+        if (userId == null) {
+            return false;
+        }
+        connection.setUserId(null);
+        var last = new boolean[1];
+        byUserId.computeIfPresent(userId, (id, connections) -> {
+            connections.remove(connection);
+            last[0] = connections.isEmpty();
+            return last[0] ? null : connections;
+        });
+        return last[0];
+    }
+
+    /**
+     * Sends a payload to every session of a user subscribed to the user destination.
+     *
+     * @param userId ID of the user
+     * @param destination The user destination, e.g. /user/queue/messages
+     * @param payload The payload, serialized as JSON
+     */
+    public void sendToUser(String userId, String destination, Object payload) {
+        var connections = byUserId.get(userId);
+        if (connections == null) {
+            return;
+        }
+        var json = toJson(payload);
+        connections.forEach(connection -> connection.sendMessage(destination, json));
+    }
+
+    /**
+     * Sends a payload to every session subscribed to a destination.
+     *
+     * @param destination The destination, e.g. /topic/presence
+     * @param payload The payload, serialized as JSON
+     */
+    public void broadcast(String destination, Object payload) {
+        var json = toJson(payload);
+        bySessionId.values().forEach(connection -> connection.sendMessage(destination, json));
+    }
+
+    /**
+     * Publishes the number of open sessions and online users as chat.sessions.active and
+     * chat.users.online, the gauges the servlet server publishes.
+     *
+     * @param registry The registry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.sessions.active", bySessionId, Map::size)
+                .description("Open STOMP sessions")
+                .register(registry);
+        Gauge.builder("chat.users.online", byUserId, Map::size)
+                .description("Users with at least one open session")
+                .register(registry);
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize " + payload.getClass().getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import com.danielkhen.websocket.reactive.chat.ChatErrorNotification;
+import com.danielkhen.websocket.reactive.chat.ChatMessage;
+import com.danielkhen.websocket.reactive.chat.ChatMessageService;
+import com.danielkhen.websocket.reactive.chat.ChatNotification;
+import com.danielkhen.websocket.reactive.chat.MessageTooLargeException;
+import com.danielkhen.websocket.reactive.config.StompProperties;
+import com.danielkhen.websocket.reactive.user.Status;
+import com.danielkhen.websocket.reactive.user.User;
+import com.danielkhen.websocket.reactive.user.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Non-blocking STOMP endpoint serving the chat and user flows of the servlet server's
+ * /app destinations. Frames of one session are handled in order, each as a chain of reactive
+ * MongoDB calls, so no thread waits on the database while a frame is in flight.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StompWebSocketHandler implements WebSocketHandler {
+
+    /** Native CONNECT header naming the user, as sent by the chat clients */
+    static final String NICKNAME_HEADER = "nickName";
+
+    private final StompSessions sessions;
+    private final ChatMessageService chatMessageService;
+    private final UserService userService;
+    private final StompProperties stompProperties;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        var connection = new StompConnection(session, stompProperties.getOutboundBufferSize());
+        var decoder = new StompFrameDecoder(stompProperties.getMaxFrameSize());
+        sessions.open(connection);
+
+        var input = session.receive()
+                .map(WebSocketMessage::getPayloadAsText)
+                .concatMapIterable(decoder::decode)
+                .concatMap(frame -> handleFrame(connection, frame))
+                .onErrorResume(e -> {
+                    // A protocol error ends the session after telling the client why
+                    log.warn("Closing STOMP session sessionId={} error=\"{}\"", session.getId(), e.getMessage());
+                    connection.send(StompFrame.of("ERROR", Map.of("message", String.valueOf(e.getMessage()))));
+                    return Mono.empty();
+                })
+                .doFinally(signal -> closed(connection))
+                .then();
+        var output = session.send(connection.outbound().map(session::textMessage));
+
+        return Mono.zip(input, output).then();
+    }
+
+    private Mono<Void> handleFrame(StompConnection connection, StompFrame frame) {
+        return switch (frame.command()) {
+            case "CONNECT", "STOMP" -> connect(connection, frame);
+            case "SUBSCRIBE" -> {
+                connection.subscribe(frame.header("destination"), frame.header("id"));
+                yield Mono.empty();
+            }
+            case "UNSUBSCRIBE" -> {
+                connection.unsubscribe(frame.header("id"));
+                yield Mono.empty();
+            }
+            case "SEND" -> send(connection, frame);
+            case "DISCONNECT" -> {
+                if (frame.header("receipt") != null) {
+                    connection.send(StompFrame.of("RECEIPT", Map.of("receipt-id", frame.header("receipt"))));
+                }
+                yield Mono.empty();
+            }
+            default -> Mono.empty();
+        };
+    }
+
+    private Mono<Void> connect(StompConnection connection, StompFrame frame) {
+        var headers = new LinkedHashMap<String, String>();
+        headers.put("version", "1.2");
+        headers.put("heart-beat", "0,0");
+        connection.send(StompFrame.of("CONNECTED", headers));
+
+        var nickName = frame.header(NICKNAME_HEADER);
+        if (nickName == null || nickName.isBlank()) {
+            return Mono.empty();
+        }
+        return join(connection, new User(nickName, frame.header("fullName"), Status.ONLINE));
+    }
+
+    private Mono<Void> send(StompConnection connection, StompFrame frame) {
+        var destination = String.valueOf(frame.header("destination"));
+        return switch (destination) {
+            case "/app/chat" -> read(frame, ChatMessage.class).flatMap(this::processMessage);
+            case "/app/user.addUser" -> read(frame, User.class).flatMap(user -> connection.getUserId() == null
+                    ? join(connection, user)
+                    : Mono.empty());
+            case "/app/user.disconnectUser" -> {
+                var userId = connection.getUserId();
+                yield userId != null && sessions.unbind(connection) ? userService.userLeft(userId) : Mono.empty();
+            }
+            default -> {
+                log.debug("Ignoring frame for unknown destination={}", destination);
+                yield Mono.empty();
+            }
+        };
+    }
+
+    /**
+     * Saves a message and notifies its recipient, as the servlet server's /app/chat handler does.
+     */
+    private Mono<Void> processMessage(ChatMessage message) {
+        return chatMessageService.save(message)
+                .doOnNext(saved -> sessions.sendToUser(saved.getRecipientId(), "/user/queue/messages",
+                        ChatNotification.builder()
+                                .id(saved.getId())
+                                .senderId(saved.getSenderId())
+                                .recipientId(saved.getRecipientId())
+                                .content(saved.getContent())
+                                .chatId(saved.getChatId())
+                                .sequence(saved.getSequence())
+                                .build()))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Error processing message senderId={} recipientId={} error=\"{}\"",
+                            message.getSenderId(), message.getRecipientId(), e.getMessage());
+                    sessions.sendToUser(message.getSenderId(), "/user/queue/errors", ChatErrorNotification.builder()
+                            .recipientId(message.getRecipientId())
+                            .reason(e instanceof MessageTooLargeException ? e.getMessage() : "Message could not be stored")
+                            .build());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> join(StompConnection connection, User user) {
+        return sessions.bind(connection, user.getNickName()) ? userService.userJoined(user) : Mono.empty();
+    }
+
+    private void closed(StompConnection connection) {
+        connection.complete();
+        var userId = connection.getUserId();
+        if (sessions.close(connection)) {
+            userService.userLeft(userId).subscribe();
+        }
+    }
+
+    private <T> Mono<T> read(StompFrame frame, Class<T> type) {
+        return Mono.fromCallable(() -> objectMapper.readValue(frame.body(), type));
+    }
+}
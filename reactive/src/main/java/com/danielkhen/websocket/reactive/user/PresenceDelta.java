@@ -0,0 +1,28 @@
+package com.danielkhen.websocket.reactive.user;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents a presence change, in the format clients of the servlet server already apply.
+ * Every change is sent as its own delta; versions increase by one per delta from the same instance.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PresenceDelta {
+    /** Identifier of the instance that sent this delta */
+    private String origin;
+
+    /** Presence version of the sending instance after applying this delta */
+    private long version;
+
+    /** Users who came online */
+    private List<User> joined;
+
+    /** Nicknames of users who went offline */
+    private List<String> left;
+}
@@ -0,0 +1,12 @@
+package com.danielkhen.websocket.reactive.user;
+
+/**
+ * Enumeration representing the possible statuses of a user.
+ */
+public enum Status {
+    /** Indicates that the user is currently online and available for chat */
+    ONLINE,
+
+    /** Indicates that the user is currently offline or unavailable */
+    OFFLINE
+}
@@ -0,0 +1,27 @@
+package com.danielkhen.websocket.reactive.user;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Represents a user in the chat system.
+ * Stored in the same collection and layout as the servlet server's users.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Document("user")
+public class User {
+    /** Unique identifier for the user, also serves as their nickname */
+    @Id
+    private String nickName;
+
+    /** The full name of the user */
+    private String fullName;
+
+    /** The current status of the user (online/offline) */
+    private Status status;
+}
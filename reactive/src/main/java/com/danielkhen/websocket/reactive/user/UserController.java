@@ -0,0 +1,40 @@
+package com.danielkhen.websocket.reactive.user;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Controller providing the REST endpoint for user queries.
+ * Connections and disconnections arrive over the STOMP endpoint.
+ */
+@Slf4j
+@Controller
+@RequiredArgsConstructor
+public class UserController {
+
+    private final UserService service;
+
+    /**
+     * REST endpoint to retrieve all connected users.
+     *
+     * @return List of connected users
+     */
+    @GetMapping("/users")
+    public Mono<ResponseEntity<List<User>>> findConnectedUsers() {
+        return service.findConnectedUsers()
+                .collectList()
+                .map(ResponseEntity::ok)
+                .onErrorResume(e -> {
+                    // Log the error
+                    log.error("Error retrieving connected users", e);
+                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+                });
+    }
+}
@@ -0,0 +1,8 @@
+package com.danielkhen.websocket.reactive.user;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+public interface UserRepository extends ReactiveMongoRepository<User, String> {
+    Flux<User> findAllByStatus(Status status);
+}
@@ -0,0 +1,81 @@
+package com.danielkhen.websocket.reactive.user;
+
+import com.danielkhen.websocket.reactive.stomp.StompSessions;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Service class for managing user presence without blocking.
+ * Sessions are counted by {@link StompSessions}; this service is told when a user's first session
+ * opens and their last one closes, stores the new status and publishes a presence delta.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserService {
+
+    private final UserRepository repository;
+    private final StompSessions sessions;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Marks a user ONLINE and tells other users.
+     *
+     * @param user The user whose first session opened
+     * @return Completes once the status is stored
+     */
+    public Mono<Void> userJoined(User user) {
+        user.setStatus(Status.ONLINE);
+        publish(List.of(user), List.of());
+        return persist(user);
+    }
+
+    /**
+     * Marks a user OFFLINE and tells other users.
+     *
+     * @param nickName Nickname of the user whose last session closed
+     * @return Completes once the status is stored
+     */
+    public Mono<Void> userLeft(String nickName) {
+        publish(List.of(), List.of(nickName));
+        return repository.findById(nickName)
+                .flatMap(user -> {
+                    user.setStatus(Status.OFFLINE);
+                    return persist(user);
+                });
+    }
+
+    /**
+     * Retrieves all users with ONLINE status.
+     *
+     * @return The online users
+     */
+    public Flux<User> findConnectedUsers() {
+        return repository.findAllByStatus(Status.ONLINE);
+    }
+
+    private void publish(List<User> joined, List<String> left) {
+        sessions.broadcast("/topic/presence", PresenceDelta.builder()
+                .origin(nodeId)
+                .version(version.incrementAndGet())
+                .joined(joined)
+                .left(left)
+                .build());
+    }
+
+    private Mono<Void> persist(User user) {
+        return repository.save(user)
+                .doOnError(e -> log.warn("Could not persist user status nickName={} status={} error=\"{}\"",
+                        user.getNickName(), user.getStatus(), e.getMessage()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+}
@@ -0,0 +1,41 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StompFrameDecoderTests {
+
+	private final StompFrameDecoder decoder = new StompFrameDecoder(64);
+
+	@Test
+	void joinsFrameSplitAcrossMessages() {
+		assertTrue(decoder.decode("SEND\ndestination:/app/chat\n\n{\"con").isEmpty());
+		assertTrue(decoder.decode("tent\":").isEmpty());
+
+		var frames = decoder.decode("\"hi\"}\0SUBSCRIBE\nid:sub-0\n");
+
+		assertEquals(1, frames.size());
+		assertEquals("{\"content\":\"hi\"}", frames.get(0).body());
+
+		var next = decoder.decode("destination:/topic/presence\n\n\0");
+		assertEquals("SUBSCRIBE", next.get(0).command());
+		assertEquals("/topic/presence", next.get(0).header("destination"));
+	}
+
+	@Test
+	void doesNotKeepHeartBeats() {
+		for (int i = 0; i < 100; i++) {
+			assertTrue(decoder.decode("\n").isEmpty());
+		}
+
+		assertEquals("CONNECT", decoder.decode("CONNECT\nnickName:a\n\n\0").get(0).command());
+	}
+
+	@Test
+	void rejectsIncompleteFrameOverMaximumSize() {
+		decoder.decode("SEND\ndestination:/app/chat\n\n");
+
+		assertThrows(IllegalArgumentException.class, () -> decoder.decode("x".repeat(64)));
+	}
+}
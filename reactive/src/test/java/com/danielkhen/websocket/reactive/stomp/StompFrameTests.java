@@ -0,0 +1,53 @@
+package com.danielkhen.websocket.reactive.stomp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StompFrameTests {
+
+	@Test
+	void parsesFramesAndSkipsHeartBeats() {
+		var frames = StompFrame.parseAll("\nSUBSCRIBE\nid:sub-0\ndestination:/user/queue/messages\n\n\0"
+				+ "\n\nSEND\ndestination:/app/chat\ncontent-length:2\n\n{}\0");
+
+		assertEquals(2, frames.size());
+		assertEquals("SUBSCRIBE", frames.get(0).command());
+		assertEquals("/user/queue/messages", frames.get(0).header("destination"));
+		assertEquals("{}", frames.get(1).body());
+	}
+
+	@Test
+	void roundTripsEscapedHeaders() {
+		var headers = new LinkedHashMap<String, String>();
+		headers.put("message", "a:b\nc\\d");
+		var frame = new StompFrame("ERROR", headers, "body");
+
+		var parsed = StompFrame.parseAll(frame.encode()).get(0);
+
+		assertEquals("a:b\nc\\d", parsed.header("message"));
+		assertEquals("body", parsed.body());
+	}
+
+	@Test
+	void doesNotUnescapeConnectHeaders() {
+		var parsed = StompFrame.parseAll("CONNECT\nnickName:a\\cb\n\n\0").get(0);
+
+		assertEquals("a\\cb", parsed.header("nickName"));
+	}
+
+	@Test
+	void rejectsUnterminatedFrame() {
+		assertThrows(IllegalArgumentException.class, () -> StompFrame.parseAll("SEND\ndestination:/app/chat\n\n{}"));
+	}
+
+	@Test
+	void encodesNullTerminatedFrame() {
+		var encoded = StompFrame.of("RECEIPT", Map.of("receipt-id", "1")).encode();
+
+		assertEquals("RECEIPT\nreceipt-id:1\n\n\0", encoded);
+	}
+}
@@ -0,0 +1,106 @@
+package com.danielkhen.websocket.benchmark;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a page of history as read from MongoDB, in the full field layout with every
+ * field returned and in the compact layout restricted to the fields of a history view.
+ * The documents are encoded once up front, so this measures the driver's share of a read; the
+ * server's share scales with the same document sizes, which are printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageLayoutBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"full", "compact"})
+    public String layout;
+
+    private final DocumentCodec codec = new DocumentCodec();
+    private final List<byte[]> page = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        var converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            var message = ChatMessage.builder()
+                    .id(new ObjectId().toHexString())
+                    .chatId("alice_bob")
+                    .senderId(i % 2 == 0 ? "alice" : "bob")
+                    .recipientId(i % 2 == 0 ? "bob" : "alice")
+                    .content("See you at the station at " + (i % 12 + 1) + " o'clock")
+                    .timestamp(new Date(start + i))
+                    .sequence((long) i + 1)
+                    .build();
+            page.add(encode(layout.equals("full") ? full(message) : compact(converter, message)));
+        }
+        System.out.printf("%n%s layout: %d bytes per document%n", layout, page.get(0).length);
+    }
+
+    @Benchmark
+    public List<Document> decodePage() {
+        var documents = new ArrayList<Document>(PAGE_SIZE);
+        for (var bytes : page) {
+            documents.add(codec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DecoderContext.builder().build()));
+        }
+        return documents;
+    }
+
+    /**
+     * @return The message as stored before the compact layout, with the type hint the converter wrote then
+     */
+    private static Document full(ChatMessage message) {
+        return new Document("_id", new ObjectId(message.getId()))
+                .append("chatId", message.getChatId())
+                .append("senderId", message.getSenderId())
+                .append("recipientId", message.getRecipientId())
+                .append("content", message.getContent())
+                .append("timestamp", message.getTimestamp())
+                .append("sequence", message.getSequence())
+                .append("_class", ChatMessage.class.getName());
+    }
+
+    /**
+     * @return The message as the application stores it, without the chat ID a history query leaves out
+     */
+    private static Document compact(MappingMongoConverter converter, ChatMessage message) {
+        var document = new Document();
+        converter.write(message, document);
+        document.remove("c");
+        return document;
+    }
+
+    private byte[] encode(Document document) {
+        var buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+}
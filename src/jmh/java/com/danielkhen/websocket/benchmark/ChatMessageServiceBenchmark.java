@@ -0,0 +1,151 @@
+package com.danielkhen.websocket.benchmark;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessagePage;
+import com.danielkhen.websocket.chat.ChatMessageService;
+import com.danielkhen.websocket.chat.ChatMessageStore;
+import com.danielkhen.websocket.chat.HistoryCursor;
+import com.danielkhen.websocket.chat.HistoryProperties;
+import com.danielkhen.websocket.chat.MessageProperties;
+import com.danielkhen.websocket.chatroom.ChatRoomIdCache;
+import com.danielkhen.websocket.chatroom.ChatRoomService;
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.storage.LocalChatMessageStore;
+import com.danielkhen.websocket.storage.LocalChatRoomStore;
+import com.danielkhen.websocket.storage.MappedChatMessageStore;
+import com.danielkhen.websocket.storage.StorageProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures saving a message and reading history pages across history sizes,
+ * against in-memory repositories, the local append-only logs and the local mapped segments.
+ * With mapped segments, history pages are also read and serialized in their stored form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatMessageServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int historySize;
+
+    @Param({"memory", "local", "mapped"})
+    public String storage;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ChatMessageService chatMessageService;
+    private HistoryCursor middleCursor;
+    private Path directory;
+    private LocalChatMessageStore localChatMessageStore;
+    private MappedChatMessageStore mappedChatMessageStore;
+    private LocalChatRoomStore localChatRoomStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        var chatMetrics = new ChatMetrics(new SimpleMeterRegistry());
+        ChatRoomService chatRoomService;
+        ChatMessageStore chatMessageStore;
+        if (storage.equals("memory")) {
+            chatMessageStore = InMemoryRepositories.chatMessages();
+            chatRoomService = new ChatRoomService(InMemoryRepositories.chatRooms(), new ChatRoomIdCache(10_000), chatMetrics);
+        } else {
+            directory = Files.createTempDirectory("chat-storage-benchmark");
+            var properties = new StorageProperties();
+            properties.setDirectory(directory.toString());
+            if (storage.equals("mapped")) {
+                mappedChatMessageStore = new MappedChatMessageStore(properties, objectMapper);
+                chatMessageStore = mappedChatMessageStore;
+                localChatRoomStore = new LocalChatRoomStore(properties, mappedChatMessageStore);
+            } else {
+                localChatMessageStore = new LocalChatMessageStore(properties);
+                chatMessageStore = localChatMessageStore;
+                localChatRoomStore = new LocalChatRoomStore(properties, localChatMessageStore);
+            }
+            chatRoomService = new ChatRoomService(localChatRoomStore, new ChatRoomIdCache(10_000), chatMetrics);
+        }
+        chatMessageService = new ChatMessageService(
+                chatMessageStore,
+                chatRoomService,
+                Optional.empty(),
+                new HistoryProperties(),
+                chatMetrics,
+                InMemoryRepositories.attachments(),
+                new MessageProperties(),
+                Optional.empty(),
+                Optional.ofNullable(mappedChatMessageStore)
+        );
+
+        long start = System.currentTimeMillis() - historySize;
+        ChatMessage middle = null;
+        for (int i = 0; i < historySize; i++) {
+            var saved = chatMessageService.save(message("alice", "bob", new Date(start + i)));
+            if (i == historySize / 2) {
+                middle = saved;
+            }
+        }
+        middleCursor = HistoryCursor.of(middle);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (directory != null) {
+            if (mappedChatMessageStore != null) {
+                mappedChatMessageStore.close();
+            } else {
+                localChatMessageStore.close();
+            }
+            localChatRoomStore.close();
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    public ChatMessage save() {
+        return chatMessageService.save(message("carol", "dave", null));
+    }
+
+    @Benchmark
+    public ChatMessagePage findNewestPage() {
+        return chatMessageService.findChatMessages("alice", "bob", null, null, null);
+    }
+
+    @Benchmark
+    public ChatMessagePage findPageBeforeCursor() {
+        return chatMessageService.findChatMessages("alice", "bob", middleCursor, null, null);
+    }
+
+    /**
+     * Reads the newest page and serializes it as the history endpoint does, in the stored form
+     * when the storage keeps one.
+     */
+    @Benchmark
+    public byte[] findAndSerializeNewestPage() throws IOException {
+        var rawPage = chatMessageService.findRawChatMessages("alice", "bob", null, null, null);
+        if (rawPage.isPresent()) {
+            return objectMapper.writeValueAsBytes(rawPage.get());
+        }
+        return objectMapper.writeValueAsBytes(chatMessageService.findChatMessages("alice", "bob", null, null, null));
+    }
+
+    private static ChatMessage message(String senderId, String recipientId, Date timestamp) {
+        return ChatMessage.builder()
+                .senderId(senderId)
+                .recipientId(recipientId)
+                .content("Hello, how are you doing today?")
+                .timestamp(timestamp)
+                .build();
+    }
+}
@@ -0,0 +1,48 @@
+package com.danielkhen.websocket.benchmark;
+
+import com.danielkhen.websocket.chat.ChatNotification;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing a chat notification in the JSON and CBOR wire formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatNotificationSerializationBenchmark {
+
+    @Param({"32", "1024"})
+    public int contentLength;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    private ChatNotification notification;
+
+    @Setup
+    public void setUp() {
+        notification = ChatNotification.builder()
+                .id("6697d0f3c2a4b1e5f0a1b2c3")
+                .senderId("alice")
+                .recipientId("bob")
+                .content("x".repeat(contentLength))
+                .build();
+    }
+
+    @Benchmark
+    public byte[] json() throws JsonProcessingException {
+        return jsonMapper.writeValueAsBytes(notification);
+    }
+
+    @Benchmark
+    public byte[] cbor() throws JsonProcessingException {
+        return cborMapper.writeValueAsBytes(notification);
+    }
+}
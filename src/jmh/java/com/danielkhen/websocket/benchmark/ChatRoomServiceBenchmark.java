@@ -0,0 +1,48 @@
+package com.danielkhen.websocket.benchmark;
+
+import com.danielkhen.websocket.chatroom.ChatRoomIdCache;
+import com.danielkhen.websocket.chatroom.ChatRoomService;
+import com.danielkhen.websocket.config.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures chat room ID lookups with a warm cache and with the cache disabled,
+ * in which case every lookup reaches the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatRoomServiceBenchmark {
+
+    @Param({"0", "10000"})
+    public long cacheSize;
+
+    private ChatRoomService chatRoomService;
+    private String[] users;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        chatRoomService = new ChatRoomService(InMemoryRepositories.chatRooms(), new ChatRoomIdCache(cacheSize),
+                new ChatMetrics(new SimpleMeterRegistry()));
+        users = new String[64];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = "user" + i;
+        }
+        for (int i = 0; i < users.length - 1; i++) {
+            chatRoomService.getChatRoomId(users[i], users[i + 1], true);
+        }
+    }
+
+    @Benchmark
+    public Object getChatRoomId() {
+        int i = next++ & 31;
+        return chatRoomService.getChatRoomId(users[i], users[i + 1], true);
+    }
+}
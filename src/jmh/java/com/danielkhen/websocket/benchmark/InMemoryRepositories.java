@@ -0,0 +1,243 @@
+package com.danielkhen.websocket.benchmark;
+
+import com.danielkhen.websocket.attachment.AttachmentStore;
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessageStore;
+import com.danielkhen.websocket.chat.HistoryCursor;
+import com.danielkhen.websocket.chatroom.ChatRoom;
+import com.danielkhen.websocket.chatroom.ChatRoomStore;
+import org.bson.types.ObjectId;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * In-memory stand-ins for the storage backends and GridFS so that benchmarks run without a database.
+ */
+final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    /**
+     * @return A chat room store keeping rooms in a map
+     */
+    static ChatRoomStore chatRooms() {
+        return new InMemoryChatRoomStore();
+    }
+
+    /**
+     * @return A chat message store keeping each chat's history in a list sorted by (timestamp, id)
+     */
+    static ChatMessageStore chatMessages() {
+        return new InMemoryChatMessageStore();
+    }
+
+    /**
+     * @return An attachment store keeping content in a map
+     */
+    static AttachmentStore attachments() {
+        return new InMemoryAttachmentStore();
+    }
+
+    /**
+     * Chat rooms and their sequence counters, keyed by the pair of users and by chat ID.
+     */
+    private static final class InMemoryChatRoomStore implements ChatRoomStore {
+
+        private final Map<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+        private final Map<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+
+        @Override
+        public Optional<ChatRoom> findBySenderIdAndRecipientId(String senderId, String recipientId) {
+            return Optional.ofNullable(rooms.get(senderId + "|" + recipientId));
+        }
+
+        @Override
+        public ChatRoom upsertChatRoom(String senderId, String recipientId, String chatId) {
+            return rooms.computeIfAbsent(senderId + "|" + recipientId, key -> ChatRoom.builder()
+                    .id(new ObjectId().toHexString())
+                    .senderId(senderId)
+                    .recipientId(recipientId)
+                    .chatId(chatId)
+                    .build());
+        }
+
+        @Override
+        public long nextSequence(String chatId) {
+            return sequences.computeIfAbsent(chatId, key -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Chat histories sorted by (timestamp, id), each guarded by its own monitor.
+     */
+    private static final class InMemoryChatMessageStore implements ChatMessageStore {
+
+        private static final Comparator<ChatMessage> HISTORY_ORDER = Comparator
+                .comparing(ChatMessage::getTimestamp)
+                .thenComparing(ChatMessage::getId);
+
+        private final Map<String, Chat> chats = new ConcurrentHashMap<>();
+
+        @Override
+        public ChatMessage save(ChatMessage message) {
+            saveAll(List.of(message));
+            return message;
+        }
+
+        @Override
+        public void insertAll(List<ChatMessage> messages) {
+            for (var message : messages) {
+                var chat = chat(message);
+                synchronized (chat) {
+                    if (message.getId() != null && chat.byId.containsKey(message.getId())) {
+                        throw new DuplicateKeyException("Duplicate chat message id=" + message.getId());
+                    }
+                    chat.store(message);
+                }
+            }
+        }
+
+        @Override
+        public void saveAll(List<ChatMessage> messages) {
+            for (var message : messages) {
+                var chat = chat(message);
+                synchronized (chat) {
+                    chat.store(message);
+                }
+            }
+        }
+
+        @Override
+        public void saveDeadLetters(List<ChatMessage> messages) {
+            // Benchmarks do not fail writes, so there is nothing to keep
+        }
+
+        @Override
+        public List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit) {
+            var chat = chats.get(chatId);
+            if (chat == null) {
+                return List.of();
+            }
+            synchronized (chat) {
+                int end = before == null ? chat.history.size() : chat.position(before);
+                var page = new ArrayList<>(chat.history.subList(Math.max(0, end - limit), end));
+                Collections.reverse(page);
+                return page;
+            }
+        }
+
+        @Override
+        public List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit) {
+            var chat = chats.get(chatId);
+            if (chat == null) {
+                return List.of();
+            }
+            synchronized (chat) {
+                int start = chat.position(after);
+                if (start < chat.history.size() && chat.history.get(start).getId().equals(after.id())) {
+                    start++;
+                }
+                return new ArrayList<>(chat.history.subList(start, Math.min(chat.history.size(), start + limit)));
+            }
+        }
+
+        @Override
+        public List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit) {
+            var chat = chats.get(chatId);
+            if (chat == null) {
+                return List.of();
+            }
+            synchronized (chat) {
+                return chat.history.stream()
+                        .filter(message -> message.getSequence() != null && message.getSequence() > sequence)
+                        .sorted(Comparator.comparing(ChatMessage::getSequence))
+                        .limit(limit)
+                        .toList();
+            }
+        }
+
+        @Override
+        public Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to) {
+            var chat = chats.get(chatId);
+            if (chat == null) {
+                return Stream.empty();
+            }
+            List<ChatMessage> history;
+            synchronized (chat) {
+                history = List.copyOf(chat.history);
+            }
+            return history.stream()
+                    .filter(message -> from == null || !message.getTimestamp().before(from))
+                    .filter(message -> to == null || message.getTimestamp().before(to));
+        }
+
+        private Chat chat(ChatMessage message) {
+            if (message.getId() == null) {
+                message.setId(new ObjectId().toHexString());
+            }
+            if (message.getTimestamp() == null) {
+                message.setTimestamp(new Date());
+            }
+            return chats.computeIfAbsent(message.getChatId(), key -> new Chat());
+        }
+
+        private static final class Chat {
+            private final List<ChatMessage> history = new ArrayList<>();
+            private final Map<String, ChatMessage> byId = new HashMap<>();
+
+            void store(ChatMessage message) {
+                var previous = byId.put(message.getId(), message);
+                if (previous != null) {
+                    history.remove(Collections.binarySearch(history, previous, HISTORY_ORDER));
+                }
+                int index = Collections.binarySearch(history, message, HISTORY_ORDER);
+                history.add(index < 0 ? -index - 1 : index, message);
+            }
+
+            int position(HistoryCursor cursor) {
+                var probe = ChatMessage.builder().timestamp(cursor.timestamp()).id(cursor.id()).build();
+                int index = Collections.binarySearch(history, probe, HISTORY_ORDER);
+                return index < 0 ? -index - 1 : index;
+            }
+        }
+    }
+
+    /**
+     * Attachment contents keyed by generated ID.
+     */
+    private static final class InMemoryAttachmentStore implements AttachmentStore {
+
+        private final Map<String, byte[]> attachments = new ConcurrentHashMap<>();
+
+        @Override
+        public String store(String chatId, byte[] content) {
+            var id = new ObjectId().toHexString();
+            attachments.put(id, content);
+            return id;
+        }
+
+        @Override
+        public Optional<Resource> load(String attachmentId) {
+            return Optional.ofNullable(attachments.get(attachmentId)).map(ByteArrayResource::new);
+        }
+
+        @Override
+        public void delete(String attachmentId) {
+            attachments.remove(attachmentId);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.danielkhen.websocket.benchmark;
+
+import com.danielkhen.websocket.chat.ChatErrorNotification;
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatNotification;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load generator for a running chat server.
+ * Connects pairs of STOMP clients, has each sender send messages to its recipient, and reports
+ * send-to-deliver latency percentiles and throughput. Senders and recipients run in this JVM,
+ * so send times embedded in the messages can be compared with delivery times directly.
+ * Optionally holds extra idle connections open during the run and reports the server's heap growth
+ * per connection, read from its actuator metrics, to compare connections per GB of heap.
+ * <p>
+ * Usage: {@code StompLoadGenerator [url] [pairs] [messagesPerSender] [idleConnections] [messagesPerSecond]},
+ * with the url defaulting to {@code ws://localhost:8088/ws-native}. The reactive server in {@code reactive/}
+ * serves the same endpoint on port 8089. Senders send as fast as they can unless a rate per sender is given.
+ * The server rate limits each session, so either start it with {@code CHAT_RATE_LIMIT_ENABLED=false} or
+ * pace the senders below {@code chat.rate-limit.session}; messages the server rejects are reported. Run it with
+ * {@code mvn -Pbenchmark test-compile exec:exec -Djmh.main=com.danielkhen.websocket.benchmark.StompLoadGenerator}.
+ */
+public final class StompLoadGenerator {
+
+    private StompLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var url = args.length > 0 ? args[0] : "ws://localhost:8088/ws-native";
+        var pairs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        var messagesPerSender = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        var idleConnections = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        var messagesPerSecond = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+
+        var client = new WebSocketStompClient(new StandardWebSocketClient());
+        client.setMessageConverter(new MappingJackson2MessageConverter());
+        // Heartbeats keep idle connections from being evicted by the server
+        var heartbeatScheduler = new ThreadPoolTaskScheduler();
+        heartbeatScheduler.setDaemon(true);
+        heartbeatScheduler.initialize();
+        client.setTaskScheduler(heartbeatScheduler);
+
+        var latencies = new ConcurrentLinkedQueue<Long>();
+        var rejected = new AtomicInteger();
+        // Counts down for rejected messages too, so a throttled run does not wait for them
+        var delivered = new CountDownLatch(pairs * messagesPerSender);
+        List<StompSession> sessions = new ArrayList<>();
+        List<StompSession> senders = new ArrayList<>();
+        var heapBefore = heapUsed(url);
+
+        for (int i = 0; i < pairs; i++) {
+            var recipient = connect(client, url, "load-recipient-" + i);
+            recipient.subscribe("/user/queue/messages", new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return ChatNotification.class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    var sentAt = Long.parseLong(((ChatNotification) payload).getContent());
+                    latencies.add(System.nanoTime() - sentAt);
+                    delivered.countDown();
+                }
+            });
+            sessions.add(recipient);
+
+            var sender = connect(client, url, "load-sender-" + i);
+            sender.subscribe("/user/queue/errors", new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return ChatErrorNotification.class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    rejected.incrementAndGet();
+                    delivered.countDown();
+                }
+            });
+            sessions.add(sender);
+            senders.add(sender);
+        }
+
+        for (int i = 0; i < idleConnections; i++) {
+            sessions.add(connect(client, url, "load-idle-" + i));
+        }
+
+        // Give the server time to register the subscriptions before sending
+        Thread.sleep(1000);
+        var heapAfter = heapUsed(url);
+
+        var start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            var sender = senders.get(i);
+            var senderId = "load-sender-" + i;
+            var recipientId = "load-recipient-" + i;
+            var thread = new Thread(() -> {
+                for (int m = 0; m < messagesPerSender; m++) {
+                    if (messagesPerSecond > 0) {
+                        var sendAt = start + (long) (m * 1e9 / messagesPerSecond);
+                        LockSupport.parkNanos(sendAt - System.nanoTime());
+                    }
+                    sender.send("/app/chat", ChatMessage.builder()
+                            .senderId(senderId)
+                            .recipientId(recipientId)
+                            .content(Long.toString(System.nanoTime()))
+                            .build());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        var completed = delivered.await(2, TimeUnit.MINUTES);
+        var elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        sessions.forEach(StompSession::disconnect);
+
+        var sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        System.out.printf("Delivered %d of %d messages%s%n",
+                sorted.length, pairs * messagesPerSender, completed ? "" : " (timed out)");
+        if (rejected.get() > 0) {
+            System.out.printf("Rejected %d messages; disable the server's rate limit or lower messagesPerSecond%n",
+                    rejected.get());
+        }
+        System.out.printf("Throughput: %.0f msg/s%n", sorted.length / elapsedSeconds);
+        if (sorted.length > 0) {
+            System.out.printf("Latency p50: %.2f ms, p99: %.2f ms, max: %.2f ms%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+        }
+        if (heapBefore > 0 && heapAfter > heapBefore) {
+            // Heap use includes garbage not yet collected, so this is a lower bound on connections per GB
+            var connections = 2 * pairs + idleConnections;
+            var bytesPerConnection = (heapAfter - heapBefore) / connections;
+            System.out.printf("Server heap: %.1f MB for %d connections, %.0f KB per connection, %.0f connections per GB%n",
+                    (heapAfter - heapBefore) / 1e6, connections, bytesPerConnection / 1e3, 1e9 / bytesPerConnection);
+        }
+        System.exit(completed ? 0 : 1);
+    }
+
+    private static StompSession connect(WebSocketStompClient client, String url, String nickName) throws Exception {
+        var connectHeaders = new StompHeaders();
+        connectHeaders.add("nickName", nickName);
+        connectHeaders.add("fullName", nickName);
+        return client.connectAsync(url, new WebSocketHttpHeaders(), connectHeaders, new StompSessionHandlerAdapter() {
+        }).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reads the server's used heap from its actuator metrics.
+     *
+     * @param url The server's WebSocket url
+     * @return Used heap in bytes, or -1 if the metrics endpoint could not be read
+     */
+    private static double heapUsed(String url) {
+        var endpoint = URI.create(url.replaceFirst("^ws", "http"))
+                .resolve("/actuator/metrics/jvm.memory.used?tag=area:heap");
+        try {
+            var response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(endpoint).build(), HttpResponse.BodyHandlers.ofString());
+            return new ObjectMapper().readTree(response.body()).path("measurements").path(0).path("value").asDouble(-1);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,41 @@
+package com.danielkhen.websocket.attachment;
+
+import com.danielkhen.websocket.exception.AttachmentNotFoundException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Controller for downloading message content that was stored outside the chat message.
+ */
+@Controller
+@RequiredArgsConstructor
+public class AttachmentController {
+
+    private final AttachmentStore attachmentStore;
+
+    /**
+     * REST endpoint to download the full content of a message.
+     * Range requests are supported, so clients can read large content in parts.
+     *
+     * @param attachmentId ID of the attachment, as found on the message
+     * @return The content as UTF-8 text
+     * @throws AttachmentNotFoundException if no attachment has that ID
+     */
+    @GetMapping("/attachments/{attachmentId}")
+    public ResponseEntity<Resource> downloadAttachment(@PathVariable("attachmentId") String attachmentId) {
+        var resource = attachmentStore.load(attachmentId)
+                .orElseThrow(() -> new AttachmentNotFoundException("Attachment not found: " + attachmentId));
+        return ResponseEntity.ok()
+                .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .body(resource);
+    }
+}
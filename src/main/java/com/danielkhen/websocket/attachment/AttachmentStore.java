@@ -0,0 +1,36 @@
+package com.danielkhen.websocket.attachment;
+
+import org.springframework.core.io.Resource;
+
+import java.util.Optional;
+
+/**
+ * Storage for message content that is too large to keep inline in chat messages.
+ */
+public interface AttachmentStore {
+
+    /**
+     * Stores the content of a message.
+     *
+     * @param chatId ID of the chat room the message belongs to
+     * @param content The content to store
+     * @return ID under which the content can be loaded
+     */
+    String store(String chatId, byte[] content);
+
+    /**
+     * Loads stored content.
+     * The returned resource can be opened more than once, so it can serve byte-range requests.
+     *
+     * @param attachmentId ID returned by {@link #store}
+     * @return Optional containing the content, or empty if no attachment has that ID
+     */
+    Optional<Resource> load(String attachmentId);
+
+    /**
+     * Deletes stored content. Deleting an attachment that does not exist does nothing.
+     *
+     * @param attachmentId ID returned by {@link #store}
+     */
+    void delete(String attachmentId);
+}
@@ -0,0 +1,88 @@
+package com.danielkhen.websocket.attachment;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * GridFS-backed implementation of {@link AttachmentStore}.
+ * Content is split into chunks by GridFS, so reading a byte range only fetches the chunks it covers.
+ */
+@Component
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class GridFsAttachmentStore implements AttachmentStore {
+
+    private final GridFsTemplate gridFsTemplate;
+
+    @Override
+    public String store(String chatId, byte[] content) {
+        var metadata = new Document("chatId", chatId);
+        return gridFsTemplate.store(
+                new ByteArrayInputStream(content),
+                chatId,
+                MimeTypeUtils.TEXT_PLAIN_VALUE,
+                metadata
+        ).toHexString();
+    }
+
+    @Override
+    public Optional<Resource> load(String attachmentId) {
+        if (!ObjectId.isValid(attachmentId)) {
+            return Optional.empty();
+        }
+        var file = gridFsTemplate.findOne(Query.query(Criteria.where("_id").is(new ObjectId(attachmentId))));
+        return Optional.ofNullable(file).map(this::resourceOf);
+    }
+
+    @Override
+    public void delete(String attachmentId) {
+        if (ObjectId.isValid(attachmentId)) {
+            gridFsTemplate.delete(Query.query(Criteria.where("_id").is(new ObjectId(attachmentId))));
+        }
+    }
+
+    private Resource resourceOf(GridFSFile file) {
+        // GridFsResource can only be read once, so each read opens a new download stream
+        return new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return "GridFS attachment " + file.getObjectId().toHexString();
+            }
+
+            @Override
+            public String getFilename() {
+                return file.getObjectId().toHexString() + ".txt";
+            }
+
+            @Override
+            public boolean exists() {
+                return true;
+            }
+
+            @Override
+            public long contentLength() {
+                return file.getLength();
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return gridFsTemplate.getResource(file).getInputStream();
+            }
+        };
+    }
+}
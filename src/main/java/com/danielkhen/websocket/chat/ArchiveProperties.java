@@ -0,0 +1,35 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for archiving old chat messages.
+ * Archived messages are still returned in history pages but are no longer covered by the text
+ * index, so enabling the archive limits search to messages younger than {@code maxAge}.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.archive")
+public class ArchiveProperties {
+
+    /** Whether old messages are moved to the archive in the background */
+    private boolean enabled = false;
+
+    /** Messages older than this are archived; only whole days are archived */
+    private Duration maxAge = Duration.ofDays(30);
+
+    /** Time between the end of one archive run and the start of the next */
+    private Duration interval = Duration.ofHours(1);
+
+    /** Maximum number of messages in one bucket; a bucket is filled by a single update */
+    private int batchSize = 1000;
+
+    /** Maximum estimated size of the messages in one bucket, kept well below the 16MB document limit */
+    private DataSize maxBucketSize = DataSize.ofMegabytes(4);
+}
@@ -0,0 +1,23 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.*;
+
+/**
+ * Represents a client acknowledgement of a delivered chat message.
+ * This is sent by the recipient once a notification has been received.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChatAck {
+    /** Unique identifier for the acknowledged message */
+    private String messageId;
+
+    /** Unique identifier for the chat room the message belongs to */
+    private String chatId;
+
+    /** Sequence number of the acknowledged message */
+    private Long sequence;
+}
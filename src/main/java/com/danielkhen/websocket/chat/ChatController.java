@@ -1,8 +1,19 @@
 package com.danielkhen.websocket.chat;
 
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.config.WireFormatRegistry;
 import com.danielkhen.websocket.exception.ChatRoomNotFoundException;
+import com.danielkhen.websocket.exception.InvalidCursorException;
+import com.danielkhen.websocket.exception.MessageQueueFullException;
+import com.danielkhen.websocket.exception.MessageTooLargeException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -10,23 +21,48 @@ import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Controller for handling chat-related operations.
  * Manages WebSocket messages and provides REST endpoints for chat history.
  */
+@Slf4j
 @Controller
 @RequiredArgsConstructor
 public class ChatController {
 
+    /** ETag of the history of a chat without messages; cursors never take this form */
+    private static final String EMPTY_HISTORY_ETAG = "empty";
+
     private final SimpMessagingTemplate messagingTemplate;
     private final ChatMessageService chatMessageService;
+    private final ObjectMapper objectMapper;
+    private final WireFormatRegistry wireFormatRegistry;
+    private final ChatMetrics chatMetrics;
+    private final PendingDeliveries pendingDeliveries;
+    private final HistoryProperties historyProperties;
 
     /**
      * Handles incoming chat messages via WebSocket.
-     * Saves the message and sends a notification to the recipient.
+     * Saves the message and sends a notification to the recipient, in the wire format the
+     * recipient asked for. The notification is kept as pending until the recipient acknowledges it.
      *
      * @param message The incoming chat message
      */
@@ -34,41 +70,313 @@ public class ChatController {
     public void processMessage(@Payload ChatMessage message) {
         try {
             ChatMessage savedMessage = chatMessageService.save(message);
-            messagingTemplate.convertAndSendToUser(
-                    savedMessage.getRecipientId(),
-                    "/queue/messages",
-                    ChatNotification.builder()
-                            .id(savedMessage.getId())
-                            .senderId(savedMessage.getSenderId())
-                            .recipientId(savedMessage.getRecipientId())
-                            .content(savedMessage.getContent())
-                            .build()
-            );
+            var notification = ChatNotification.builder()
+                    .id(savedMessage.getId())
+                    .senderId(savedMessage.getSenderId())
+                    .recipientId(savedMessage.getRecipientId())
+                    .content(savedMessage.getContent())
+                    .attachmentId(savedMessage.getAttachmentId())
+                    .contentLength(savedMessage.getContentLength())
+                    .chatId(savedMessage.getChatId())
+                    .sequence(savedMessage.getSequence())
+                    .build();
+            pendingDeliveries.add(savedMessage.getRecipientId(), notification);
+            sendNotification(savedMessage.getRecipientId(), notification);
         } catch (ChatRoomNotFoundException e) {
             // Log the error and possibly send an error message back to the sender
-            System.err.println("Error processing message: " + e.getMessage());
+            chatMetrics.countFailedSend("room_not_found");
+            log.warn("Error processing message senderId={} recipientId={} error=\"{}\"",
+                    message.getSenderId(), message.getRecipientId(), e.getMessage());
+        } catch (MessageQueueFullException e) {
+            // The message was not accepted, so tell the sender instead of notifying the recipient
+            chatMetrics.countFailedSend("queue_full");
+            log.warn("Error queueing message senderId={} recipientId={} error=\"{}\"",
+                    message.getSenderId(), message.getRecipientId(), e.getMessage());
+            sendError(message, e.getMessage());
+        } catch (MessageTooLargeException e) {
+            chatMetrics.countFailedSend("too_large");
+            log.warn("Rejected message senderId={} recipientId={} error=\"{}\"",
+                    message.getSenderId(), message.getRecipientId(), e.getMessage());
+            sendError(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Handles a recipient's acknowledgement of a delivered message via WebSocket.
+     *
+     * @param ack The acknowledgement
+     * @param principal The user acknowledging the message
+     */
+    @MessageMapping("/chat.ack")
+    public void acknowledgeMessage(@Payload ChatAck ack, Principal principal) {
+        if (principal == null || ack.getMessageId() == null) {
+            return;
         }
+        pendingDeliveries.acknowledge(principal.getName(), ack.getMessageId());
     }
 
     /**
-     * REST endpoint to retrieve chat history between two users.
+     * Sends the unacknowledged messages of a user again.
+     * Clients send this after subscribing to their message queue, so that nothing sent while they
+     * were offline or reconnecting is lost.
+     *
+     * @param principal The user resuming
+     */
+    @MessageMapping("/chat.resume")
+    public void resumeDelivery(Principal principal) {
+        if (principal == null) {
+            return;
+        }
+        pendingDeliveries.pending(principal.getName())
+                .forEach(notification -> sendNotification(principal.getName(), notification));
+    }
+
+    /**
+     * REST endpoint to retrieve one page of the chat history between two users.
+     * Without a cursor the newest page is returned; "before" pages backwards and "after" forwards.
+     * When the store keeps messages serialized, their stored JSON is sent as it is.
+     * Responses carry the newest message of the chat as ETag and Last-Modified, so a client
+     * whose copy is still current gets a 304 without the page being loaded.
      *
      * @param senderId ID of the sender
      * @param recipientId ID of the recipient
-     * @return List of chat messages between the sender and recipient
+     * @param before Cursor of the page to load messages older than
+     * @param after Cursor of the page to load messages newer than
+     * @param limit Maximum number of messages to return
+     * @param request The request, for its conditional headers
+     * @return Page of chat messages between the sender and recipient, or null if not modified
      */
     @GetMapping("/messages/{senderId}/{recipientId}")
-    public ResponseEntity<List<ChatMessage>> findChatMessages(
+    public ResponseEntity<?> findChatMessages(
             @PathVariable("senderId") String senderId,
-            @PathVariable("recipientId") String recipientId
+            @PathVariable("recipientId") String recipientId,
+            @RequestParam(name = "before", required = false) String before,
+            @RequestParam(name = "after", required = false) String after,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            WebRequest request
+    ) {
+        var beforeCursor = HistoryCursor.decode(before);
+        var afterCursor = HistoryCursor.decode(after);
+        try {
+            if (historyNotModified(senderId, recipientId, request)) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .body(findPage(senderId, recipientId, beforeCursor, afterCursor, limit));
+        } catch (InvalidCursorException e) {
+            throw e;
+        } catch (Exception e) {
+            // Log the error
+            log.error("Error retrieving messages senderId={} recipientId={}", senderId, recipientId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST endpoint to retrieve the messages between two users that follow a sequence number.
+     * Reconnecting clients use it to fetch only what they missed since their last acknowledgement.
+     * Conditional requests are answered like those for a history page.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param sequence Last sequence number the client acknowledged
+     * @param limit Maximum number of messages to return
+     * @param request The request, for its conditional headers
+     * @return Page of chat messages after the sequence, oldest first, or null if not modified
+     */
+    @GetMapping("/messages/{senderId}/{recipientId}/since")
+    public ResponseEntity<?> findChatMessagesSince(
+            @PathVariable("senderId") String senderId,
+            @PathVariable("recipientId") String recipientId,
+            @RequestParam(name = "sequence", defaultValue = "0") long sequence,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            WebRequest request
+    ) {
+        try {
+            if (historyNotModified(senderId, recipientId, request)) {
+                return null;
+            }
+            var rawPage = chatMessageService.findRawChatMessagesSince(senderId, recipientId, sequence, limit);
+            var page = rawPage.isPresent()
+                    ? rawPage.get()
+                    : chatMessageService.findChatMessagesSince(senderId, recipientId, sequence, limit);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .body(page);
+        } catch (Exception e) {
+            // Log the error
+            log.error("Error retrieving messages senderId={} recipientId={} sequence={}",
+                    senderId, recipientId, sequence, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST endpoint to retrieve the newest page of several of a user's chats in one request.
+     * Clients use it to prefetch their conversations when they log in; each page is the one
+     * {@link #findChatMessages} returns without a cursor.
+     *
+     * @param userId ID of the user
+     * @param otherUserIds IDs of the conversation partners; only the first ones up to the configured maximum are used
+     * @param limit Maximum number of messages to return per chat
+     * @return Newest page of each chat, by conversation partner
+     */
+    @GetMapping("/messages/{userId}")
+    public ResponseEntity<Map<String, Object>> findLatestChatMessages(
+            @PathVariable("userId") String userId,
+            @RequestParam(name = "with") List<String> otherUserIds,
+            @RequestParam(name = "limit", required = false) Integer limit
     ) {
         try {
-            List<ChatMessage> messages = chatMessageService.findChatMessages(senderId, recipientId);
-            return ResponseEntity.ok(messages);
+            Map<String, Object> pages = new LinkedHashMap<>();
+            otherUserIds.stream()
+                    .distinct()
+                    .limit(historyProperties.getMaxBatchChats())
+                    .forEach(otherUserId -> pages.put(otherUserId, findPage(userId, otherUserId, null, null, limit)));
+            return ResponseEntity.ok(pages);
         } catch (Exception e) {
             // Log the error
-            System.err.println("Error retrieving messages: " + e.getMessage());
+            log.error("Error retrieving latest messages userId={} count={}", userId, otherUserIds.size(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * REST endpoint to export the chat history between two users as newline-delimited JSON.
+     * Messages are streamed from a database cursor, so memory use does not grow with the
+     * length of the conversation; messages the store keeps serialized are copied as they are
+     * stored. The response is gzip-compressed when the client accepts it.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param from Inclusive lower bound on the message timestamp (ISO-8601)
+     * @param to Exclusive upper bound on the message timestamp (ISO-8601)
+     * @param acceptEncoding The Accept-Encoding request header
+     * @return Streaming response with one JSON message per line, oldest first
+     */
+    @GetMapping("/messages/{senderId}/{recipientId}/export")
+    public ResponseEntity<StreamingResponseBody> exportChatMessages(
+            @PathVariable("senderId") String senderId,
+            @PathVariable("recipientId") String recipientId,
+            @RequestParam(name = "from", required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @RequestParam(name = "to", required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) {
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        StreamingResponseBody body = outputStream -> {
+            OutputStream out = gzip ? new GZIPOutputStream(outputStream, 8192) : outputStream;
+            var rawMessages = chatMessageService.streamRawChatMessages(senderId, recipientId, from, to);
+            if (rawMessages.isPresent()) {
+                writeRawMessages(rawMessages.get(), out, senderId, recipientId);
+            } else {
+                try (Stream<ChatMessage> messages = chatMessageService.streamChatMessages(senderId, recipientId, from, to)) {
+                    var iterator = messages.iterator();
+                    while (iterator.hasNext()) {
+                        out.write(objectMapper.writeValueAsBytes(iterator.next()));
+                        out.write('\n');
+                    }
+                }
+            }
+            out.flush();
+            if (out instanceof GZIPOutputStream gzipOut) {
+                gzipOut.finish();
+            }
+        };
+
+        var response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        String.format("attachment; filename=\"%s_%s.ndjson\"", senderId, recipientId));
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    /**
+     * Loads one page of history, as stored JSON when the store keeps messages serialized.
+     */
+    private Object findPage(String senderId, String recipientId, HistoryCursor before, HistoryCursor after, Integer limit) {
+        var rawPage = chatMessageService.findRawChatMessages(senderId, recipientId, before, after, limit);
+        if (rawPage.isPresent()) {
+            return rawPage.get();
+        }
+        return chatMessageService.findChatMessages(senderId, recipientId, before, after, limit);
+    }
+
+    /**
+     * Checks a history request's conditional headers against the newest message of the chat,
+     * and sets the ETag and Last-Modified headers of the response. A newest message without a
+     * timestamp is identified by its ID alone, and no Last-Modified is sent.
+     *
+     * @return true if the client's copy is current, in which case the response is a 304
+     */
+    private boolean historyNotModified(String senderId, String recipientId, WebRequest request) {
+        return chatMessageService.findLatestCursor(senderId, recipientId)
+                .map(latest -> latest.timestamp() == null
+                        // Messages stored before timestamps were set only have their ID to go by
+                        ? request.checkNotModified(latest.id())
+                        : request.checkNotModified(latest.encode(), latest.timestamp().getTime()))
+                .orElseGet(() -> request.checkNotModified(EMPTY_HISTORY_ETAG));
+    }
+
+    /**
+     * Writes stored messages as export lines, adding the chat and recipient to their stored JSON.
+     *
+     * @param messages Stream of stored messages, which is closed
+     * @param out Stream to write to
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     */
+    private void writeRawMessages(Stream<RawChatMessage> messages, OutputStream out, String senderId, String recipientId)
+            throws IOException {
+        var channel = Channels.newChannel(out);
+        ByteBuffer toRecipient = null;
+        ByteBuffer toSender = null;
+        try (messages) {
+            var iterator = messages.iterator();
+            while (iterator.hasNext()) {
+                var message = iterator.next();
+                if (toRecipient == null) {
+                    toRecipient = leadingFields(message.chatId(), recipientId);
+                    toSender = leadingFields(message.chatId(), senderId);
+                }
+                message.writeMessageTo(channel, senderId.equals(message.senderId()) ? toRecipient : toSender);
+                out.write('\n');
+            }
+        }
+    }
+
+    private ByteBuffer leadingFields(String chatId, String recipientId) throws IOException {
+        var fields = "{\"chatId\":" + objectMapper.writeValueAsString(chatId)
+                + ",\"recipientId\":" + objectMapper.writeValueAsString(recipientId) + ",";
+        return ByteBuffer.wrap(fields.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendError(ChatMessage message, String reason) {
+        chatMetrics.countDelivery("error");
+        messagingTemplate.convertAndSendToUser(
+                message.getSenderId(),
+                "/queue/errors",
+                ChatErrorNotification.builder()
+                        .recipientId(message.getRecipientId())
+                        .reason(reason)
+                        .build()
+        );
+    }
+
+    private void sendNotification(String recipientId, ChatNotification notification) {
+        messagingTemplate.convertAndSendToUser(
+                recipientId,
+                "/queue/messages",
+                notification,
+                wireFormatRegistry.headersFor(recipientId)
+        );
+        chatMetrics.countDelivery("message");
+    }
+}
@@ -0,0 +1,23 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.*;
+
+/**
+ * Represents an error reported back to the sender of a chat message.
+ * This is sent to the sender's error queue when a message could not be handled.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChatErrorNotification {
+    /** Unique identifier for the message the error is about, if one was assigned */
+    private String messageId;
+
+    /** ID of the user the message was addressed to */
+    private String recipientId;
+
+    /** Human-readable description of the error */
+    private String reason;
+}
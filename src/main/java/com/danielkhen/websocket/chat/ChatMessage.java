@@ -2,13 +2,24 @@ package com.danielkhen.websocket.chat;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.util.Date;
 
 /**
  * Represents a chat message in the system.
- * This entity is stored in MongoDB.
+ * This entity is stored in MongoDB with single-letter field names, since the names are repeated in
+ * every document. The recipient is not stored: it is the other participant of the chat room and is
+ * filled in when messages are read.
+ * History is read by keyset pagination on (chatId, timestamp, id), backed by a compound index.
+ * Reconnecting clients catch up by sequence number, which is backed by a second index.
+ * Content is searched through a text index that also holds the chat ID, so a search over several
+ * chats is filtered to them without reading the documents of other chats. Only the inline content
+ * is indexed; for content stored as an attachment, that is the preview.
  */
 @Getter
 @Setter
@@ -16,23 +27,45 @@ import java.util.Date;
 @AllArgsConstructor
 @Builder
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "c_t_id", def = "{'c': 1, 't': 1, '_id': 1}"),
+        @CompoundIndex(name = "c_q", def = "{'c': 1, 'q': 1}"),
+        @CompoundIndex(name = "m_text_c", def = "{'m': 'text', 'c': 1}")
+})
 public class ChatMessage {
     /** Unique identifier for the message */
     @Id
     private String id;
 
     /** Unique identifier for the chat room this message belongs to */
+    @Field("c")
     private String chatId;
 
     /** ID of the user who sent this message */
+    @Field("s")
     private String senderId;
 
-    /** ID of the user who should receive this message */
+    /** ID of the user who should receive this message; derived from the chat room, not stored */
+    @Transient
     private String recipientId;
 
-    /** Content of the message */
+    /** Content of the message, or its leading part if the full content is stored as an attachment */
+    @Field("m")
     private String content;
 
+    /** ID of the attachment holding the full content, or null if the content is stored inline */
+    @Field("a")
+    private String attachmentId;
+
+    /** Size of the full content in UTF-8 bytes, set when the content is stored as an attachment */
+    @Field("l")
+    private Integer contentLength;
+
     /** Timestamp when the message was sent */
+    @Field("t")
     private Date timestamp;
-}
\ No newline at end of file
+
+    /** Position of the message in its chat, increasing by one per message; null for messages stored before sequencing */
+    @Field("q")
+    private Long sequence;
+}
@@ -0,0 +1,158 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import com.mongodb.MongoException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that moves old chat messages into {@link ChatMessageBucket}s.
+ * Messages are read in history order and cut into batches of one chat and day, each capped in
+ * message count and size, and every batch becomes one bucket. Each batch is added to its bucket
+ * before it is deleted from the chat message collection, and the bucket ID only depends on the
+ * batch's first message, so an interrupted run is completed by the next one. History reads fall
+ * through to the archive in {@link ChatMessageRepositoryImpl}, so archiving is invisible to clients.
+ */
+@Slf4j
+@Component
+@ConditionalOnMongoStorage
+@ConditionalOnProperty(name = "chat.archive.enabled", havingValue = "true")
+public class ChatMessageArchiver {
+
+    /** Estimated size of an archived message apart from its content: IDs, timestamp and field names */
+    private static final int MESSAGE_OVERHEAD = 160;
+
+    private final MongoTemplate mongoTemplate;
+    private final ArchiveProperties properties;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "chat-archiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChatMessageArchiver(MongoTemplate mongoTemplate, ArchiveProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+    }
+
+    /**
+     * Starts archiving periodically once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(
+                this::archiveSafely,
+                0,
+                properties.getInterval().toMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Archives every message sent before the start of the day that is the archive age ago.
+     *
+     * @return Number of messages archived
+     */
+    public long archive() {
+        var cutoff = ChatMessageBucket.dayOf(new Date(System.currentTimeMillis() - properties.getMaxAge().toMillis()));
+        var query = Query.query(Criteria.where("timestamp").lt(cutoff))
+                .with(Sort.by(Sort.Direction.ASC, "chatId", "timestamp", "id"))
+                .cursorBatchSize(properties.getBatchSize());
+
+        long maxBucketSize = properties.getMaxBucketSize().toBytes();
+        long archived = 0;
+        long batchBytes = 0;
+        List<ChatMessage> batch = new ArrayList<>(properties.getBatchSize());
+        try (var messages = mongoTemplate.stream(query, ChatMessage.class)) {
+            var iterator = messages.iterator();
+            while (iterator.hasNext()) {
+                var message = iterator.next();
+                long messageBytes = estimateSize(message);
+                if (!batch.isEmpty() && (batch.size() >= properties.getBatchSize()
+                        || batchBytes + messageBytes > maxBucketSize
+                        || !sameBucket(batch.get(0), message))) {
+                    archived += moveToBucket(batch);
+                    batch.clear();
+                    batchBytes = 0;
+                }
+                batch.add(message);
+                batchBytes += messageBytes;
+            }
+        }
+        if (!batch.isEmpty()) {
+            archived += moveToBucket(batch);
+        }
+        return archived;
+    }
+
+    private void archiveSafely() {
+        try {
+            long archived = archive();
+            if (archived > 0) {
+                log.info("Archived chat messages count={}", archived);
+            }
+        } catch (DataAccessException | MongoException e) {
+            log.warn("Could not archive chat messages error=\"{}\"", e.getMessage());
+        }
+    }
+
+    private long moveToBucket(List<ChatMessage> batch) {
+        var first = batch.get(0);
+        var chatId = first.getChatId();
+        var day = ChatMessageBucket.dayOf(first.getTimestamp());
+
+        var update = new Update()
+                .setOnInsert("chatId", chatId)
+                .setOnInsert("day", day)
+                .min("firstTimestamp", first.getTimestamp())
+                .max("lastTimestamp", batch.get(batch.size() - 1).getTimestamp())
+                .addToSet("messages").each(batch.toArray());
+        batch.stream()
+                .map(ChatMessage::getSequence)
+                .filter(Objects::nonNull)
+                .max(Long::compare)
+                .ifPresent(maxSequence -> update.max("maxSequence", maxSequence));
+        mongoTemplate.upsert(
+                Query.query(Criteria.where("id").is(ChatMessageBucket.idOf(chatId, day, first.getId()))),
+                update,
+                ChatMessageBucket.class
+        );
+
+        var ids = batch.stream().map(ChatMessage::getId).toList();
+        return mongoTemplate.remove(Query.query(Criteria.where("id").in(ids)), ChatMessage.class).getDeletedCount();
+    }
+
+    private static long estimateSize(ChatMessage message) {
+        var content = message.getContent();
+        return MESSAGE_OVERHEAD + (content == null ? 0 : content.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static boolean sameBucket(ChatMessage first, ChatMessage message) {
+        return first.getChatId().equals(message.getChatId())
+                && ChatMessageBucket.dayOf(first.getTimestamp()).equals(ChatMessageBucket.dayOf(message.getTimestamp()));
+    }
+}
@@ -0,0 +1,82 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Represents a run of archived messages of one chat, all sent on the same day (UTC).
+ * Messages older than the archive age are moved here from the chat message collection by
+ * {@link ChatMessageArchiver}, so one document replaces many small ones and their index entries.
+ * A busy day is split over several buckets, each capped in message count and size so that it
+ * stays well below the document size limit.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document("chatMessageArchive")
+@CompoundIndexes({
+        @CompoundIndex(name = "c_f", def = "{'c': 1, 'f': 1}"),
+        @CompoundIndex(name = "c_l", def = "{'c': 1, 'l': 1}"),
+        @CompoundIndex(name = "c_q", def = "{'c': 1, 'q': 1}")
+})
+public class ChatMessageBucket {
+    /** Unique identifier for the bucket, made of the chat ID, the day and the ID of its first message */
+    @Id
+    private String id;
+
+    /** Unique identifier for the chat room the messages belong to */
+    @Field("c")
+    private String chatId;
+
+    /** Start of the day the messages were sent on */
+    @Field("d")
+    private Date day;
+
+    /** Timestamp of the oldest message in the bucket */
+    @Field("f")
+    private Date firstTimestamp;
+
+    /** Timestamp of the newest message in the bucket */
+    @Field("l")
+    private Date lastTimestamp;
+
+    /** Highest sequence number among the messages, or null if none of them is sequenced */
+    @Field("q")
+    private Long maxSequence;
+
+    /** The archived messages, ordered by (timestamp, id) */
+    @Field("msgs")
+    private List<ChatMessage> messages;
+
+    /**
+     * Builds the ID of the bucket starting with a given message.
+     * The ID only depends on the bucket's first message, so archiving the same run of messages
+     * again after an interrupted run adds them to the same bucket.
+     *
+     * @param chatId ID of the chat room
+     * @param day Start of the day, as returned by {@link #dayOf}
+     * @param firstMessageId ID of the first message in the bucket
+     * @return The bucket ID
+     */
+    public static String idOf(String chatId, Date day, String firstMessageId) {
+        return chatId + "/" + day.toInstant().toString().substring(0, 10) + "/" + firstMessageId;
+    }
+
+    /**
+     * @param timestamp A message timestamp
+     * @return The start of the UTC day containing the timestamp
+     */
+    public static Date dayOf(Date timestamp) {
+        return Date.from(timestamp.toInstant().truncatedTo(ChronoUnit.DAYS));
+    }
+}
@@ -0,0 +1,126 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Migrates chat messages stored with full field names to the compact layout of {@link ChatMessage}.
+ * Runs before the application starts serving, and then again every minute for as long as a run
+ * finds messages to convert. Instances of an older version still running during a rolling
+ * deployment keep writing the full layout, so the migration is only recorded as applied in the
+ * migrations collection once a run finds nothing left, and later startups skip it from then on.
+ * Messages are converted in place by a single server-side update, so the migration does not read
+ * them into the application.
+ */
+@Slf4j
+@Component
+@ConditionalOnMongoStorage
+@ConditionalOnProperty(name = "chat.mongo.migrate", havingValue = "true", matchIfMissing = true)
+public class ChatMessageLayoutMigration implements ApplicationRunner {
+
+    /** Collection recording the migrations that have been applied */
+    static final String MIGRATIONS_COLLECTION = "migrations";
+
+    /** ID of this migration in the migrations collection */
+    static final String MIGRATION_ID = "chat-message-compact-layout";
+
+    /** Time between runs while messages in the full layout are still found */
+    private static final Duration RERUN_INTERVAL = Duration.ofMinutes(1);
+
+    private final MongoTemplate mongoTemplate;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "chat-layout-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChatMessageLayoutMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Applies the migration unless it has been applied before, and schedules it again while it is not complete.
+     *
+     * @param args The application arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        runAndReschedule();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Converts the messages still stored in the full layout.
+     * Failures are logged rather than thrown so that an unreachable database does not stop startup;
+     * the migration is then simply not complete.
+     *
+     * @return true if the migration is complete, either now or before
+     */
+    boolean migrate() {
+        try {
+            var migrations = mongoTemplate.getCollection(MIGRATIONS_COLLECTION);
+            if (migrations.find(new Document("_id", MIGRATION_ID)).first() != null) {
+                return true;
+            }
+
+            var collectionName = mongoTemplate.getCollectionName(ChatMessage.class);
+            var result = mongoTemplate.getCollection(collectionName).updateMany(
+                    new Document("chatId", new Document("$exists", true)),
+                    new Document("$rename", new Document()
+                            .append("chatId", "c")
+                            .append("senderId", "s")
+                            .append("content", "m")
+                            .append("attachmentId", "a")
+                            .append("contentLength", "l")
+                            .append("timestamp", "t")
+                            .append("sequence", "q"))
+                            .append("$unset", new Document("recipientId", "").append("_class", ""))
+            );
+            if (result.getModifiedCount() > 0) {
+                log.info("Migrated chat messages to compact layout count={}", result.getModifiedCount());
+                return false;
+            }
+
+            try {
+                migrations.insertOne(new Document("_id", MIGRATION_ID).append("appliedAt", new Date()));
+            } catch (MongoWriteException e) {
+                // Another instance may have recorded it first
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+            log.info("Completed chat message compact layout migration");
+            return true;
+        } catch (DataAccessException | MongoException e) {
+            log.warn("Could not migrate chat messages to compact layout error=\"{}\"", e.getMessage());
+            return false;
+        }
+    }
+
+    private void runAndReschedule() {
+        if (!migrate()) {
+            scheduler.schedule(this::runAndReschedule, RERUN_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+}
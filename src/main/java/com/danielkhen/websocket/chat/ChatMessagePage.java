@@ -0,0 +1,28 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents one page of a chat history.
+ * Messages are in chronological order; the cursors are used to fetch the adjacent pages.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChatMessagePage {
+    /** Messages in this page, oldest first */
+    private List<ChatMessageView> messages;
+
+    /** Cursor to pass as "before" to load older messages, or null if there are none */
+    private String olderCursor;
+
+    /** Cursor to pass as "after" to load messages newer than this page, or null if the page is empty */
+    private String newerCursor;
+
+    /** Whether more messages exist beyond this page in the direction that was requested */
+    private boolean hasMore;
+}
@@ -2,8 +2,5 @@ package com.danielkhen.websocket.chat;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-import java.util.List;
-
-public interface ChatMessageRepository extends MongoRepository<ChatMessage, String> {
-    List<ChatMessage> findByChatId(String chatId);
+public interface ChatMessageRepository extends MongoRepository<ChatMessage, String>, ChatMessageRepositoryCustom {
 }
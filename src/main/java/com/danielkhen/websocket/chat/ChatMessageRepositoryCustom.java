@@ -0,0 +1,66 @@
+package com.danielkhen.websocket.chat;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Chat message queries that cannot be expressed as derived repository queries.
+ * History queries only populate the fields of {@link ChatMessageView}.
+ */
+public interface ChatMessageRepositoryCustom {
+
+    /**
+     * Finds the messages of a chat that come before a cursor, newest first.
+     *
+     * @param chatId ID of the chat room
+     * @param before Cursor to start from, or null to start from the newest message
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by descending (timestamp, id)
+     */
+    List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit);
+
+    /**
+     * Finds the messages of a chat that come after a cursor, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param after Cursor to start from
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending (timestamp, id)
+     */
+    List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit);
+
+    /**
+     * Finds the messages of a chat with a sequence number above the given one, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param sequence Sequence number to start after
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending sequence
+     */
+    List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit);
+
+    /**
+     * Finds the messages of several chats whose content matches a text search, best match first.
+     * Only the inline content is searched, which for offloaded content is its preview.
+     *
+     * @param chatIds IDs of the chat rooms to search
+     * @param terms Words to search for; a message matches if it contains any of them
+     * @param offset Number of matches to skip
+     * @param limit Maximum number of messages to return
+     * @return Matching messages ordered by descending text score, then descending (timestamp, id)
+     */
+    List<ChatMessage> searchChats(Collection<String> chatIds, String terms, int offset, int limit);
+
+    /**
+     * Streams the messages of a chat from a database cursor, oldest first.
+     * The returned stream holds an open cursor and must be closed by the caller.
+     *
+     * @param chatId ID of the chat room
+     * @param from Inclusive lower bound on the timestamp, or null for no bound
+     * @param to Exclusive upper bound on the timestamp, or null for no bound
+     * @return Stream of messages ordered by ascending (timestamp, id)
+     */
+    Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to);
+}
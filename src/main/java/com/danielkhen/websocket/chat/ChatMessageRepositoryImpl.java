@@ -0,0 +1,354 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * MongoTemplate-backed implementation of {@link ChatMessageRepositoryCustom}.
+ * History queries are keyset queries on (chatId, timestamp, id) or (chatId, sequence) and are
+ * served by the compound indexes declared on {@link ChatMessage}. They only read the fields of
+ * {@link ChatMessageView}.
+ * Messages moved to the archive by {@link ChatMessageArchiver} are read from their
+ * {@link ChatMessageBucket}s when the chat message collection cannot fill a page on its own.
+ */
+@RequiredArgsConstructor
+public class ChatMessageRepositoryImpl implements ChatMessageRepositoryCustom {
+
+    /** Number of documents fetched per round trip when streaming a chat */
+    private static final int STREAM_BATCH_SIZE = 1000;
+
+    /** Number of archive buckets fetched per round trip; each holds up to a day of messages */
+    private static final int BUCKET_BATCH_SIZE = 4;
+
+    /** Order of messages in a chat history */
+    private static final Comparator<ChatMessage> HISTORY_ORDER = Comparator
+            .comparing(ChatMessage::getTimestamp)
+            .thenComparing(ChatMessage::getId);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit) {
+        var criteria = Criteria.where("chatId").is(chatId);
+        if (before != null) {
+            criteria = criteria.orOperator(before(before));
+        }
+
+        var query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "timestamp", "id"))
+                .limit(limit);
+        var live = mongoTemplate.find(withViewFields(query), ChatMessage.class);
+
+        // Archived messages come after the live messages with a timestamp and before those without one
+        int dated = (int) live.stream().filter(message -> message.getTimestamp() != null).count();
+        if (dated == limit || (before != null && before.timestamp() == null)) {
+            return live;
+        }
+        var archiveCursor = dated == 0 ? before : HistoryCursor.of(live.get(dated - 1));
+        var messages = new ArrayList<>(live.subList(0, dated));
+        messages.addAll(findArchivedOlderThan(chatId, archiveCursor, limit - dated));
+        live.subList(dated, live.size()).stream()
+                .limit(limit - messages.size())
+                .forEach(messages::add);
+        return messages;
+    }
+
+    @Override
+    public List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit) {
+        // History order: live messages without a timestamp, then archived messages, then the live
+        // messages with a timestamp, which are all newer than the archive
+        var messages = new ArrayList<ChatMessage>(limit);
+        if (after.timestamp() == null) {
+            var undated = Query.query(Criteria.where("chatId").is(chatId)
+                            .and("timestamp").is(null)
+                            .and("id").gt(after.id()))
+                    .with(Sort.by(Sort.Direction.ASC, "id"))
+                    .limit(limit);
+            messages.addAll(mongoTemplate.find(withViewFields(undated), ChatMessage.class));
+            if (messages.size() == limit) {
+                return messages;
+            }
+        }
+
+        // The archive can only hold messages after a dated cursor when no message with a timestamp
+        // at or before the cursor is left in the collection
+        var cursor = after;
+        if (after.timestamp() == null || !mongoTemplate.exists(datedAtOrBefore(chatId, after), ChatMessage.class)) {
+            var archived = findArchivedNewerThan(chatId, after, limit - messages.size());
+            messages.addAll(archived);
+            if (messages.size() == limit) {
+                return messages;
+            }
+            if (!archived.isEmpty()) {
+                cursor = HistoryCursor.of(archived.get(archived.size() - 1));
+            }
+        }
+
+        var criteria = Criteria.where("chatId").is(chatId);
+        if (cursor.timestamp() == null) {
+            criteria = criteria.and("timestamp").ne(null);
+        } else {
+            criteria = criteria.orOperator(
+                    Criteria.where("timestamp").gt(cursor.timestamp()),
+                    Criteria.where("timestamp").is(cursor.timestamp()).and("id").gt(cursor.id())
+            );
+        }
+        var query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "timestamp", "id"))
+                .limit(limit - messages.size());
+        messages.addAll(mongoTemplate.find(withViewFields(query), ChatMessage.class));
+        return messages;
+    }
+
+    @Override
+    public List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit) {
+        var query = Query.query(Criteria.where("chatId").is(chatId).and("sequence").gt(sequence))
+                .with(Sort.by(Sort.Direction.ASC, "sequence"))
+                .limit(limit);
+        var messages = mongoTemplate.find(withViewFields(query), ChatMessage.class);
+        if (!messages.isEmpty() && messages.get(0).getSequence() == sequence + 1) {
+            return messages;
+        }
+
+        // The next message is missing from the collection, so it may have been archived
+        var bucketQuery = Query.query(Criteria.where("chatId").is(chatId).and("maxSequence").gt(sequence))
+                .with(Sort.by(Sort.Direction.ASC, "firstTimestamp"))
+                .cursorBatchSize(BUCKET_BATCH_SIZE);
+        var merged = new LinkedHashMap<String, ChatMessage>();
+        try (var buckets = mongoTemplate.stream(bucketQuery, ChatMessageBucket.class)) {
+            var iterator = buckets.iterator();
+            while (iterator.hasNext() && merged.size() < limit) {
+                iterator.next().getMessages().stream()
+                        .filter(message -> message.getSequence() != null && message.getSequence() > sequence)
+                        .forEach(message -> merged.put(message.getId(), message));
+            }
+        }
+        messages.forEach(message -> merged.putIfAbsent(message.getId(), message));
+        return merged.values().stream()
+                .sorted(Comparator.comparing(ChatMessage::getSequence))
+                .limit(limit)
+                .toList();
+    }
+
+    @Override
+    public List<ChatMessage> searchChats(Collection<String> chatIds, String terms, int offset, int limit) {
+        var query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(terms))
+                .sortByScore()
+                .addCriteria(Criteria.where("chatId").in(chatIds))
+                .with(Sort.by(Sort.Direction.DESC, "timestamp", "id"))
+                .skip(offset)
+                .limit(limit);
+        withViewFields(query).fields().include("chatId");
+        return mongoTemplate.find(query, ChatMessage.class);
+    }
+
+    @Override
+    public Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to) {
+        var criteria = Criteria.where("chatId").is(chatId);
+        if (from != null || to != null) {
+            var timestamp = Criteria.where("timestamp");
+            if (from != null) {
+                timestamp = timestamp.gte(from);
+            }
+            if (to != null) {
+                timestamp = timestamp.lt(to);
+            }
+            criteria = criteria.andOperator(timestamp);
+        }
+
+        var query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "timestamp", "id"))
+                .cursorBatchSize(STREAM_BATCH_SIZE);
+        return Stream.concat(streamArchived(chatId, from, to), mongoTemplate.stream(query, ChatMessage.class));
+    }
+
+    /**
+     * Finds archived messages of a chat that come before a cursor, newest first.
+     * Only the bucket holding the cursor is read whole. Buckets wholly before it are read newest
+     * first, and only as many of their newest messages as the page still needs are fetched.
+     *
+     * @param chatId ID of the chat room
+     * @param before Cursor to start from, or null to start from the newest archived message
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by descending (timestamp, id)
+     */
+    private List<ChatMessage> findArchivedOlderThan(String chatId, HistoryCursor before, int limit) {
+        var messages = new ArrayList<ChatMessage>(limit);
+        var older = Criteria.where("chatId").is(chatId);
+        if (before != null) {
+            collectFromBuckets(holding(chatId, before, Sort.Direction.DESC), message -> isBefore(message, before),
+                    HISTORY_ORDER.reversed(), limit, messages);
+            older = older.and("lastTimestamp").lt(before.timestamp());
+        }
+        if (messages.size() < limit) {
+            var query = Query.query(older)
+                    .with(Sort.by(Sort.Direction.DESC, "lastTimestamp"))
+                    .cursorBatchSize(BUCKET_BATCH_SIZE);
+            query.fields().slice("messages", -(limit - messages.size()));
+            collectFromBuckets(query, message -> true, HISTORY_ORDER.reversed(), limit, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Finds archived messages of a chat that come after a cursor, oldest first.
+     * Only the bucket holding the cursor is read whole. Buckets wholly after it are read oldest
+     * first, and only as many of their oldest messages as the page still needs are fetched.
+     *
+     * @param chatId ID of the chat room
+     * @param after Cursor to start from; all archived messages follow a cursor without a timestamp
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending (timestamp, id)
+     */
+    private List<ChatMessage> findArchivedNewerThan(String chatId, HistoryCursor after, int limit) {
+        var messages = new ArrayList<ChatMessage>(limit);
+        var newer = Criteria.where("chatId").is(chatId);
+        if (after.timestamp() != null) {
+            collectFromBuckets(holding(chatId, after, Sort.Direction.ASC), message -> isAfter(message, after),
+                    HISTORY_ORDER, limit, messages);
+            newer = newer.and("firstTimestamp").gt(after.timestamp());
+        }
+        if (messages.size() < limit) {
+            var query = Query.query(newer)
+                    .with(Sort.by(Sort.Direction.ASC, "firstTimestamp"))
+                    .cursorBatchSize(BUCKET_BATCH_SIZE);
+            query.fields().slice("messages", limit - messages.size());
+            collectFromBuckets(query, message -> true, HISTORY_ORDER, limit, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Streams the archived messages of a chat, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param from Inclusive lower bound on the timestamp, or null for no bound
+     * @param to Exclusive upper bound on the timestamp, or null for no bound
+     * @return Stream of messages ordered by ascending (timestamp, id)
+     */
+    private Stream<ChatMessage> streamArchived(String chatId, Date from, Date to) {
+        var criteria = Criteria.where("chatId").is(chatId);
+        if (from != null) {
+            criteria = criteria.and("lastTimestamp").gte(from);
+        }
+        if (to != null) {
+            criteria = criteria.and("firstTimestamp").lt(to);
+        }
+        var query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, "firstTimestamp"))
+                .cursorBatchSize(BUCKET_BATCH_SIZE);
+
+        return mongoTemplate.stream(query, ChatMessageBucket.class)
+                .flatMap(bucket -> bucket.getMessages().stream()
+                        .filter(message -> from == null || !message.getTimestamp().before(from))
+                        .filter(message -> to == null || message.getTimestamp().before(to))
+                        .sorted(HISTORY_ORDER));
+    }
+
+    /**
+     * Builds a query for the buckets of a chat whose time range contains a cursor.
+     * Buckets cover consecutive runs of messages, so this is one bucket, or two when the
+     * cursor's timestamp is shared across a bucket boundary.
+     */
+    private static Query holding(String chatId, HistoryCursor cursor, Sort.Direction direction) {
+        return Query.query(Criteria.where("chatId").is(chatId)
+                        .and("firstTimestamp").lte(cursor.timestamp())
+                        .and("lastTimestamp").gte(cursor.timestamp()))
+                .with(Sort.by(direction, "firstTimestamp"));
+    }
+
+    /**
+     * Reads buckets in the order of a query and adds the matching messages of each bucket, in the
+     * given order, to a page until it is full. Messages already on the page are skipped, since an
+     * interrupted archive run can leave a message in two buckets.
+     */
+    private void collectFromBuckets(
+            Query query,
+            Predicate<ChatMessage> filter,
+            Comparator<ChatMessage> order,
+            int limit,
+            List<ChatMessage> page
+    ) {
+        var ids = new HashSet<String>();
+        page.forEach(message -> ids.add(message.getId()));
+        try (var buckets = mongoTemplate.stream(query, ChatMessageBucket.class)) {
+            var iterator = buckets.iterator();
+            while (iterator.hasNext() && page.size() < limit) {
+                iterator.next().getMessages().stream()
+                        .filter(filter)
+                        .filter(message -> !ids.contains(message.getId()))
+                        .sorted(order)
+                        .limit(limit - page.size())
+                        .forEach(message -> {
+                            ids.add(message.getId());
+                            page.add(message);
+                        });
+            }
+        }
+    }
+
+    /**
+     * Builds the alternatives matching the messages before a cursor in history order.
+     * Messages without a timestamp come before all others, as in MongoDB's sort order.
+     *
+     * @param cursor The cursor
+     * @return Criteria to combine with $or
+     */
+    private static Criteria[] before(HistoryCursor cursor) {
+        var sameTimestamp = Criteria.where("timestamp").is(cursor.timestamp()).and("id").lt(cursor.id());
+        if (cursor.timestamp() == null) {
+            return new Criteria[] {sameTimestamp};
+        }
+        return new Criteria[] {
+                Criteria.where("timestamp").lt(cursor.timestamp()),
+                sameTimestamp,
+                Criteria.where("timestamp").is(null)
+        };
+    }
+
+    /**
+     * Builds a query for the messages of a chat that have a timestamp and are at or before a dated cursor.
+     */
+    private static Query datedAtOrBefore(String chatId, HistoryCursor cursor) {
+        return Query.query(Criteria.where("chatId").is(chatId).orOperator(
+                Criteria.where("timestamp").lt(cursor.timestamp()),
+                Criteria.where("timestamp").is(cursor.timestamp()).and("id").lte(cursor.id())
+        ));
+    }
+
+    private static boolean isBefore(ChatMessage message, HistoryCursor cursor) {
+        int byTimestamp = message.getTimestamp().compareTo(cursor.timestamp());
+        return byTimestamp < 0 || (byTimestamp == 0 && message.getId().compareTo(cursor.id()) < 0);
+    }
+
+    private static boolean isAfter(ChatMessage message, HistoryCursor cursor) {
+        int byTimestamp = message.getTimestamp().compareTo(cursor.timestamp());
+        return byTimestamp > 0 || (byTimestamp == 0 && message.getId().compareTo(cursor.id()) > 0);
+    }
+
+    /**
+     * Restricts a history query to the fields of {@link ChatMessageView}.
+     *
+     * @param query The query to restrict
+     * @return The same query
+     */
+    private static Query withViewFields(Query query) {
+        query.fields().include("id", "senderId", "content", "attachmentId", "contentLength", "timestamp", "sequence");
+        return query;
+    }
+}
@@ -1,51 +1,394 @@
 package com.danielkhen.websocket.chat;
 
+import com.danielkhen.websocket.attachment.AttachmentStore;
 import com.danielkhen.websocket.chatroom.ChatRoomService;
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.conversation.ConversationService;
 import com.danielkhen.websocket.exception.ChatRoomNotFoundException;
+import com.danielkhen.websocket.exception.InvalidCursorException;
+import com.danielkhen.websocket.exception.MessageQueueFullException;
+import com.danielkhen.websocket.exception.MessageTooLargeException;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Service class for managing chat messages.
  * Handles saving new messages and retrieving message history.
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ChatMessageService {
 
-    private final ChatMessageRepository chatMessageRepository;
+    /** Number of locks the chats are spread over */
+    private static final int CHAT_LOCK_STRIPES = 64;
+
+    private final ChatMessageStore chatMessageStore;
     private final ChatRoomService chatRoomService;
+    private final Optional<ChatMessageWriteBehind> writeBehind;
+    private final HistoryProperties historyProperties;
+    private final ChatMetrics chatMetrics;
+    private final AttachmentStore attachmentStore;
+    private final MessageProperties messageProperties;
+    private final Optional<ConversationService> conversationService;
+    private final Optional<RawChatMessageStore> rawChatMessageStore;
+    /** Locks that keep numbering, stamping and queueing a message atomic within its chat */
+    private final Object[] chatLocks = IntStream.range(0, CHAT_LOCK_STRIPES).mapToObj(i -> new Object()).toArray();
 
     /**
      * Saves a new chat message.
      * If a chat room doesn't exist for the sender and recipient, it creates one.
+     * The message is stamped with the server time and given the next sequence number of its chat;
+     * a timestamp sent by the client is ignored. Content above the inline limit
+     * is stored as an attachment, and only its leading part is kept on the message. The conversation
+     * summaries of both users are updated once the message is stored.
+     * When write-behind is enabled, the message gets its ID immediately and is persisted
+     * asynchronously by {@link ChatMessageWriteBehind}. Its sequence number, timestamp and place in
+     * the queue are taken under one lock of its chat, so within a chat they agree with each other.
      *
      * @param chatMessage The message to be saved
      * @return The saved chat message
      * @throws ChatRoomNotFoundException if the chat room cannot be found or created
+     * @throws MessageQueueFullException if write-behind is enabled and its queue stays full
+     * @throws MessageTooLargeException if the content is longer than the maximum content length
      */
     public ChatMessage save(ChatMessage chatMessage) {
+        var content = chatMessage.getContent();
+        if (content != null && content.length() > messageProperties.getMaxContentLength()) {
+            throw new MessageTooLargeException(String.format(
+                    "Message is longer than %d characters", messageProperties.getMaxContentLength()));
+        }
+
         var chatId = chatRoomService.getChatRoomId(
                 chatMessage.getSenderId(),
                 chatMessage.getRecipientId(),
                 true
         ).orElseThrow(() -> new ChatRoomNotFoundException("Could not create or find chat room"));
         chatMessage.setChatId(chatId);
-        return chatMessageRepository.save(chatMessage);
+        // Offloading comes first, so that failing to store the content does not use up a sequence number
+        if (content != null && content.length() > messageProperties.getInlineContentLimit()) {
+            offloadContent(chatMessage);
+        }
+        try {
+            synchronized (chatLocks[Math.floorMod(chatId.hashCode(), CHAT_LOCK_STRIPES)]) {
+                chatMessage.setSequence(chatRoomService.nextSequence(chatId));
+                // Client clocks are not trusted: history order, retention and exports all go by this time
+                chatMessage.setTimestamp(new Date());
+
+                if (writeBehind.isPresent()) {
+                    chatMessage.setId(new ObjectId().toHexString());
+                    chatMetrics.timeEnqueue(() -> writeBehind.get().enqueue(chatMessage));
+                    return chatMessage;
+                }
+            }
+        } catch (RuntimeException e) {
+            // The message was not stored, so nothing refers to its offloaded content
+            deleteAttachment(chatMessage);
+            throw e;
+        }
+        // A failed save may still have written the message, so its offloaded content is kept
+        var savedMessage = chatMetrics.timePersist(() -> chatMessageStore.save(chatMessage));
+        conversationService.ifPresent(service -> service.recordMessages(List.of(savedMessage)));
+        return savedMessage;
+    }
+
+    /**
+     * Retrieves one page of the chat history between two users.
+     * Without a cursor, the newest messages are returned.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param before Cursor to load messages older than, or null
+     * @param after Cursor to load messages newer than, or null
+     * @param limit Requested page size, or null for the default; capped at the configured maximum
+     * @return Page of chat messages, which is empty if no chat room exists
+     * @throws InvalidCursorException if both cursors are given
+     */
+    public ChatMessagePage findChatMessages(
+            String senderId,
+            String recipientId,
+            HistoryCursor before,
+            HistoryCursor after,
+            Integer limit
+    ) {
+        checkCursors(before, after);
+        // After-queries start from a known message, so older messages always exist
+        return findPage(senderId, recipientId, limit,
+                (chatId, count) -> after != null
+                        ? chatMessageStore.findNewerThan(chatId, after, count)
+                        : chatMessageStore.findOlderThan(chatId, before, count),
+                after == null, after != null, HistoryCursor::of, ChatMessageService::viewPage);
+    }
+
+    /**
+     * Retrieves the messages between two users that follow a sequence number.
+     * Reconnecting clients pass the last sequence they acknowledged to catch up without
+     * reloading the history.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param sequence Sequence number to load messages after
+     * @param limit Requested page size, or null for the default; capped at the configured maximum
+     * @return Page of chat messages, oldest first, which is empty if no chat room exists
+     */
+    public ChatMessagePage findChatMessagesSince(String senderId, String recipientId, long sequence, Integer limit) {
+        // Messages up to the given sequence exist unless the client is catching up from the start
+        return findPage(senderId, recipientId, limit,
+                (chatId, count) -> chatMessageStore.findAfterSequence(chatId, sequence, count),
+                false, sequence > 0, HistoryCursor::of, ChatMessageService::viewPage);
     }
 
     /**
-     * Retrieves the chat history between two users.
+     * Retrieves one page of the chat history between two users in the serialized form the store
+     * keeps messages in, to be sent without building them. The page is the one
+     * {@link #findChatMessages} returns.
      *
      * @param senderId ID of the sender
      * @param recipientId ID of the recipient
-     * @return List of chat messages, or an empty list if no chat room exists
+     * @param before Cursor to load messages older than, or null
+     * @param after Cursor to load messages newer than, or null
+     * @param limit Requested page size, or null for the default; capped at the configured maximum
+     * @return Page of stored messages, or empty if the store does not keep messages serialized
+     * @throws InvalidCursorException if both cursors are given
      */
-    public List<ChatMessage> findChatMessages(String senderId, String recipientId) {
+    public Optional<RawChatMessagePage> findRawChatMessages(
+            String senderId,
+            String recipientId,
+            HistoryCursor before,
+            HistoryCursor after,
+            Integer limit
+    ) {
+        if (rawChatMessageStore.isEmpty()) {
+            return Optional.empty();
+        }
+        checkCursors(before, after);
+        var store = rawChatMessageStore.get();
+        return Optional.of(findPage(senderId, recipientId, limit,
+                (chatId, count) -> after != null
+                        ? store.findRawNewerThan(chatId, after, count)
+                        : store.findRawOlderThan(chatId, before, count),
+                after == null, after != null, RawChatMessage::cursor, RawChatMessagePage::new));
+    }
+
+    /**
+     * Retrieves the messages between two users that follow a sequence number, in the serialized
+     * form the store keeps messages in. The page is the one {@link #findChatMessagesSince} returns.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param sequence Sequence number to load messages after
+     * @param limit Requested page size, or null for the default; capped at the configured maximum
+     * @return Page of stored messages, or empty if the store does not keep messages serialized
+     */
+    public Optional<RawChatMessagePage> findRawChatMessagesSince(String senderId, String recipientId, long sequence, Integer limit) {
+        if (rawChatMessageStore.isEmpty()) {
+            return Optional.empty();
+        }
+        var store = rawChatMessageStore.get();
+        return Optional.of(findPage(senderId, recipientId, limit,
+                (chatId, count) -> store.findRawAfterSequence(chatId, sequence, count),
+                false, sequence > 0, RawChatMessage::cursor, RawChatMessagePage::new));
+    }
+
+    /**
+     * Retrieves the position of the newest message between two users. Messages are only ever
+     * added after it, so it identifies the state of the whole history for caching.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @return Cursor of the newest message, or empty if the users have no messages
+     */
+    public Optional<HistoryCursor> findLatestCursor(String senderId, String recipientId) {
         var chatId = chatRoomService.getChatRoomId(senderId, recipientId, false);
-        return chatId.map(chatMessageRepository::findByChatId).orElse(new ArrayList<>());
+        if (chatId.isEmpty()) {
+            return Optional.empty();
+        }
+        if (rawChatMessageStore.isPresent()) {
+            return rawChatMessageStore.get().findRawOlderThan(chatId.get(), null, 1).stream()
+                    .findFirst()
+                    .map(RawChatMessage::cursor);
+        }
+        return chatMessageStore.findOlderThan(chatId.get(), null, 1).stream()
+                .findFirst()
+                .map(HistoryCursor::of);
+    }
+
+    /**
+     * Streams the chat history between two users without loading it into memory.
+     * The returned stream holds an open database cursor and must be closed by the caller.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param from Inclusive lower bound on the message timestamp, or null
+     * @param to Exclusive upper bound on the message timestamp, or null
+     * @return Stream of chat messages, oldest first, which is empty if no chat room exists
+     */
+    public Stream<ChatMessage> streamChatMessages(String senderId, String recipientId, Date from, Date to) {
+        return chatRoomService.getChatRoomId(senderId, recipientId, false)
+                .map(chatId -> chatMessageStore.streamChatMessages(chatId, from, to))
+                .orElseGet(Stream::empty)
+                .map(message -> withRecipient(message, senderId, recipientId));
+    }
+
+    /**
+     * Streams the chat history between two users in the serialized form the store keeps messages in.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param from Inclusive lower bound on the message timestamp, or null
+     * @param to Exclusive upper bound on the message timestamp, or null
+     * @return Stream of stored messages, oldest first, or empty if the store does not keep messages serialized
+     */
+    public Optional<Stream<RawChatMessage>> streamRawChatMessages(String senderId, String recipientId, Date from, Date to) {
+        return rawChatMessageStore.map(store -> chatRoomService.getChatRoomId(senderId, recipientId, false)
+                .map(chatId -> store.streamRawChatMessages(chatId, from, to))
+                .orElseGet(Stream::empty));
+    }
+
+    /**
+     * Moves the content of a message to the attachment store, keeping a preview inline.
+     *
+     * @param chatMessage The message whose content is too long to keep inline
+     */
+    private void offloadContent(ChatMessage chatMessage) {
+        var bytes = chatMessage.getContent().getBytes(StandardCharsets.UTF_8);
+        chatMessage.setAttachmentId(attachmentStore.store(chatMessage.getChatId(), bytes));
+        chatMessage.setContentLength(bytes.length);
+        chatMessage.setContent(preview(chatMessage.getContent(), messageProperties.getPreviewLength()));
+    }
+
+    private void deleteAttachment(ChatMessage chatMessage) {
+        if (chatMessage.getAttachmentId() == null) {
+            return;
+        }
+        try {
+            attachmentStore.delete(chatMessage.getAttachmentId());
+        } catch (RuntimeException e) {
+            log.warn("Could not delete attachment of unsent message attachmentId={} error=\"{}\"",
+                    chatMessage.getAttachmentId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Fills in the recipient of a stored message, which is the participant that did not send it.
+     *
+     * @param message The stored message
+     * @param userId ID of one participant of the chat
+     * @param otherUserId ID of the other participant
+     * @return The same message
+     */
+    private static ChatMessage withRecipient(ChatMessage message, String userId, String otherUserId) {
+        message.setRecipientId(userId.equals(message.getSenderId()) ? otherUserId : userId);
+        return message;
+    }
+
+    /**
+     * Loads one page of the chat history between two users with a store query and builds the page
+     * with its cursors. The query is asked for one more message than the page size, which tells
+     * whether another page exists in the requested direction.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param limit Requested page size, or null for the default
+     * @param query Store query taking the chat room ID and the number of messages to load
+     * @param newestFirst Whether the query returns messages newest first, looking for older ones
+     * @param olderExist Whether messages older than the page are known to exist regardless of the query
+     * @param cursorOf Cursor of a loaded message
+     * @param pageFactory Builds the page from its messages, older cursor, newer cursor and whether there are more
+     * @return The page, which is empty if no chat room exists
+     */
+    private <T, P> P findPage(
+            String senderId,
+            String recipientId,
+            Integer limit,
+            BiFunction<String, Integer, List<T>> query,
+            boolean newestFirst,
+            boolean olderExist,
+            Function<T, HistoryCursor> cursorOf,
+            PageFactory<T, P> pageFactory
+    ) {
+        var pageSize = pageSize(limit);
+
+        var chatId = chatRoomService.getChatRoomId(senderId, recipientId, false);
+        if (chatId.isEmpty()) {
+            return pageFactory.create(List.of(), null, null, false);
+        }
+
+        var messages = query.apply(chatId.get(), pageSize + 1);
+        var hasMore = messages.size() > pageSize;
+        messages = chronological(messages, pageSize, newestFirst);
+        if (messages.isEmpty()) {
+            return pageFactory.create(messages, null, null, hasMore);
+        }
+
+        var olderCursor = olderExist || (newestFirst && hasMore) ? cursorOf.apply(messages.get(0)).encode() : null;
+        var newerCursor = cursorOf.apply(messages.get(messages.size() - 1)).encode();
+        return pageFactory.create(messages, olderCursor, newerCursor, hasMore);
+    }
+
+    private static ChatMessagePage viewPage(List<ChatMessage> messages, String olderCursor, String newerCursor, boolean hasMore) {
+        return new ChatMessagePage(messages.stream().map(ChatMessageView::of).toList(), olderCursor, newerCursor, hasMore);
+    }
+
+    private static void checkCursors(HistoryCursor before, HistoryCursor after) {
+        if (before != null && after != null) {
+            throw new InvalidCursorException("Only one of 'before' and 'after' may be given");
+        }
+    }
+
+    /**
+     * @param limit Requested page size, or null for the default
+     * @return The page size, capped at the configured maximum
+     */
+    private int pageSize(Integer limit) {
+        return Math.min(
+                limit == null || limit <= 0 ? historyProperties.getDefaultPageSize() : limit,
+                historyProperties.getMaxPageSize()
+        );
+    }
+
+    /**
+     * Drops the extra message fetched to detect another page and puts the page in chronological order.
+     *
+     * @param messages Messages fetched with one more than the page size
+     * @param pageSize The page size
+     * @param newestFirst Whether the messages were fetched newest first
+     * @return The page, oldest first
+     */
+    private static <T> List<T> chronological(List<T> messages, int pageSize, boolean newestFirst) {
+        var page = messages.size() > pageSize ? messages.subList(0, pageSize) : messages;
+        if (!newestFirst) {
+            return page;
+        }
+        page = new ArrayList<>(page);
+        Collections.reverse(page);
+        return page;
+    }
+
+    private static String preview(String content, int length) {
+        if (content.length() <= length) {
+            return content;
+        }
+        // Do not cut a surrogate pair in half
+        int end = Character.isHighSurrogate(content.charAt(length - 1)) ? length - 1 : length;
+        return content.substring(0, end);
+    }
+
+    @FunctionalInterface
+    private interface PageFactory<T, P> {
+        P create(List<T> messages, String olderCursor, String newerCursor, boolean hasMore);
     }
-}
\ No newline at end of file
+}
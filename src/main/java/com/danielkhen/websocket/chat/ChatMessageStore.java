@@ -0,0 +1,85 @@
+package com.danielkhen.websocket.chat;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Storage of chat messages, implemented for MongoDB and for local append-only logs.
+ * History queries only need to populate the fields of {@link ChatMessageView}.
+ */
+public interface ChatMessageStore {
+
+    /**
+     * Stores a message, replacing any stored message with the same ID.
+     * A message without an ID or timestamp is given one.
+     *
+     * @param message The message to store
+     * @return The stored message
+     */
+    ChatMessage save(ChatMessage message);
+
+    /**
+     * Stores a batch of new messages.
+     *
+     * @param messages Messages whose IDs are not stored yet
+     * @throws org.springframework.dao.DuplicateKeyException if one of the IDs is already stored
+     */
+    void insertAll(List<ChatMessage> messages);
+
+    /**
+     * Stores a batch of messages, replacing any stored messages with the same IDs.
+     * Unlike {@link #insertAll(List)}, this can safely be repeated after a partial failure.
+     *
+     * @param messages The messages to store
+     */
+    void saveAll(List<ChatMessage> messages);
+
+    /**
+     * Keeps messages that could not be stored for manual recovery.
+     *
+     * @param messages The messages that could not be stored
+     */
+    void saveDeadLetters(List<ChatMessage> messages);
+
+    /**
+     * Finds the messages of a chat that come before a cursor, newest first.
+     *
+     * @param chatId ID of the chat room
+     * @param before Cursor to start from, or null to start from the newest message
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by descending (timestamp, id)
+     */
+    List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit);
+
+    /**
+     * Finds the messages of a chat that come after a cursor, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param after Cursor to start from
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending (timestamp, id)
+     */
+    List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit);
+
+    /**
+     * Finds the messages of a chat with a sequence number above the given one, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param sequence Sequence number to start after
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending sequence
+     */
+    List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit);
+
+    /**
+     * Streams the messages of a chat without loading them into memory, oldest first.
+     * The returned stream may hold an open cursor and must be closed by the caller.
+     *
+     * @param chatId ID of the chat room
+     * @param from Inclusive lower bound on the timestamp, or null for no bound
+     * @param to Exclusive upper bound on the timestamp, or null for no bound
+     * @return Stream of messages ordered by ascending (timestamp, id)
+     */
+    Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to);
+}
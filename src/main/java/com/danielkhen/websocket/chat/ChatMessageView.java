@@ -0,0 +1,56 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.*;
+
+import java.util.Date;
+
+/**
+ * Represents a chat message as returned in a page of history.
+ * The chat room and recipient are implied by the conversation that was requested, so only the
+ * fields that differ between messages are read from the database and sent to the client.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChatMessageView {
+    /** Unique identifier for the message */
+    private String id;
+
+    /** ID of the user who sent this message */
+    private String senderId;
+
+    /** Content of the message, or its leading part if the full content is stored as an attachment */
+    private String content;
+
+    /** ID of the attachment holding the full content, or null if the content is inline */
+    private String attachmentId;
+
+    /** Size of the full content in UTF-8 bytes, set when the content is stored as an attachment */
+    private Integer contentLength;
+
+    /** Timestamp when the message was sent */
+    private Date timestamp;
+
+    /** Position of the message in its chat */
+    private Long sequence;
+
+    /**
+     * Creates the view of a stored message.
+     *
+     * @param message The message to view
+     * @return The view of the message
+     */
+    public static ChatMessageView of(ChatMessage message) {
+        return ChatMessageView.builder()
+                .id(message.getId())
+                .senderId(message.getSenderId())
+                .content(message.getContent())
+                .attachmentId(message.getAttachmentId())
+                .contentLength(message.getContentLength())
+                .timestamp(message.getTimestamp())
+                .sequence(message.getSequence())
+                .build();
+    }
+}
@@ -0,0 +1,233 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.conversation.ConversationService;
+import com.danielkhen.websocket.exception.MessageQueueFullException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind pipeline for chat messages.
+ * Messages are queued by {@link ChatMessageService} and persisted by a single background thread
+ * in bulk inserts bounded by batch size and flush interval. A single writer keeps messages in
+ * arrival order. {@link ChatMessageService} numbers, stamps and queues the messages of a chat under
+ * one lock, so within every chat that order is the order of their sequence numbers and timestamps.
+ * Conversation summaries are updated once per stored batch. A failing batch is handled by the
+ * failure policy and never stops the writer, and every message accepted by {@link #enqueue} is
+ * persisted before {@link #stop} returns.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.write-behind.enabled", havingValue = "true")
+public class ChatMessageWriteBehind implements SmartLifecycle, MeterBinder {
+
+    private final ChatMessageStore chatMessageStore;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final WriteBehindProperties properties;
+    private final ChatMetrics chatMetrics;
+    private final Optional<ConversationService> conversationService;
+    private final BlockingQueue<ChatMessage> queue;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public ChatMessageWriteBehind(
+            ChatMessageStore chatMessageStore,
+            SimpMessagingTemplate messagingTemplate,
+            WriteBehindProperties properties,
+            ChatMetrics chatMetrics,
+            Optional<ConversationService> conversationService
+    ) {
+        this.chatMessageStore = chatMessageStore;
+        this.messagingTemplate = messagingTemplate;
+        this.properties = properties;
+        this.chatMetrics = chatMetrics;
+        this.conversationService = conversationService;
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+    }
+
+    /**
+     * Queues a message for persistence.
+     * Blocks for up to the configured offer timeout while the queue is full.
+     *
+     * @param chatMessage The message to persist, with its ID already assigned
+     * @throws MessageQueueFullException if the message could not be queued in time, or persistence is stopping
+     */
+    public void enqueue(ChatMessage chatMessage) {
+        if (!running) {
+            throw new MessageQueueFullException("Message persistence is shutting down");
+        }
+        try {
+            if (!queue.offer(chatMessage, properties.getOfferTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new MessageQueueFullException("Message persistence queue is full");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessageQueueFullException("Interrupted while queueing message");
+        }
+        // The writer may have seen an empty queue and exited between the check above and the offer.
+        // If the message is still queued it would never be written, so it is taken back and rejected.
+        if (!running && queue.remove(chatMessage)) {
+            throw new MessageQueueFullException("Message persistence is shutting down");
+        }
+    }
+
+    /**
+     * @return Number of messages waiting to be persisted
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Publishes the number of queued messages as chat.message.queue.depth.
+     *
+     * @param registry The registry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.message.queue.depth", queue, BlockingQueue::size)
+                .description("Chat messages waiting to be persisted")
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        writer = new Thread(this::drain, "chat-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting messages and waits for the queue to be flushed.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            writer.join(properties.getShutdownTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.error("Shut down with chat messages not persisted count={}", queue.size());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void drain() {
+        List<ChatMessage> batch = new ArrayList<>(properties.getBatchSize());
+        long flushIntervalNanos = properties.getFlushInterval().toNanos();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatMessage first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < properties.getBatchSize()) {
+                    queue.drainTo(batch, properties.getBatchSize() - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= properties.getBatchSize() || remaining <= 0 || !running) {
+                        break;
+                    }
+                    ChatMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                persist(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // Later messages must still be written, so the writer moves on to the next batch
+                log.error("Could not handle chat message batch size={} ids={}",
+                        batch.size(), batch.stream().map(ChatMessage::getId).toList(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void persist(List<ChatMessage> batch) throws InterruptedException {
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            long start = System.nanoTime();
+            try {
+                if (attempt == 1) {
+                    chatMessageStore.insertAll(batch);
+                } else {
+                    // Part of the batch may already be stored, so retries use idempotent saves
+                    chatMessageStore.saveAll(batch);
+                }
+                chatMetrics.recordBatchPersist(System.nanoTime() - start, batch.size());
+                break;
+            } catch (RuntimeException e) {
+                log.warn("Chat message batch failed attempt={} size={} error=\"{}\"", attempt, batch.size(), e.getMessage());
+                if (properties.getFailurePolicy() != WriteBehindProperties.FailurePolicy.RETRY
+                        && attempt >= properties.getMaxAttempts()) {
+                    handleFailedBatch(batch);
+                    return;
+                }
+                Thread.sleep(properties.getRetryBackoff().toMillis());
+            }
+        }
+
+        // The batch is stored, so a failed summary update must not make it be stored again
+        try {
+            conversationService.ifPresent(service -> service.recordMessages(batch));
+        } catch (DataAccessException e) {
+            log.warn("Could not update conversation summaries size={} error=\"{}\"", batch.size(), e.getMessage());
+        }
+    }
+
+    private void handleFailedBatch(List<ChatMessage> batch) {
+        batch.forEach(message -> chatMetrics.countFailedSend("batch_failed"));
+        switch (properties.getFailurePolicy()) {
+            case DEAD_LETTER -> {
+                try {
+                    chatMessageStore.saveDeadLetters(batch);
+                } catch (RuntimeException e) {
+                    log.error("Dropped chat messages that could not be dead-lettered size={} ids={}",
+                            batch.size(), batch.stream().map(ChatMessage::getId).toList());
+                }
+            }
+            case NOTIFY_SENDER -> batch.forEach(message -> messagingTemplate.convertAndSendToUser(
+                    message.getSenderId(),
+                    "/queue/errors",
+                    ChatErrorNotification.builder()
+                            .messageId(message.getId())
+                            .recipientId(message.getRecipientId())
+                            .reason("Message could not be stored")
+                            .build()
+            ));
+            default -> throw new IllegalStateException("Unexpected failure policy: " + properties.getFailurePolicy());
+        }
+    }
+}
@@ -21,6 +21,18 @@ public class ChatNotification {
     /** ID of the user who should receive the message */
     private String recipientId;
 
-    /** Content of the notification */
+    /** Content of the notification, or its leading part if the full content is stored as an attachment */
     private String content;
+
+    /** ID of the attachment holding the full content, or null if the content is inline */
+    private String attachmentId;
+
+    /** Size of the full content in UTF-8 bytes, set when the content is stored as an attachment */
+    private Integer contentLength;
+
+    /** Unique identifier for the chat room the message belongs to */
+    private String chatId;
+
+    /** Sequence number of the message within its chat */
+    private Long sequence;
 }
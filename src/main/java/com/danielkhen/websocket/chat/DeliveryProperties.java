@@ -0,0 +1,22 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for tracking message deliveries until the recipient acknowledges them.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.delivery")
+public class DeliveryProperties {
+
+    /** Maximum number of unacknowledged messages kept per user; the oldest are dropped beyond it */
+    private int maxPendingPerUser = 500;
+
+    /** How long the unacknowledged messages of an inactive user are kept */
+    private Duration pendingTtl = Duration.ofMinutes(10);
+}
@@ -0,0 +1,69 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position in a chat history, identified by the (timestamp, id) of a message.
+ * Clients receive cursors as opaque strings and pass them back to page through the history.
+ * Messages stored before timestamps were recorded have none; like MongoDB, the history orders
+ * them before all messages that have one.
+ *
+ * @param timestamp Timestamp of the message at the cursor, or null if the message has none
+ * @param id ID of the message at the cursor, breaking ties between equal timestamps
+ */
+public record HistoryCursor(Date timestamp, String id) {
+
+    /**
+     * Creates a cursor pointing at the given message.
+     *
+     * @param message The message to point at
+     * @return The cursor for the message
+     */
+    public static HistoryCursor of(ChatMessage message) {
+        return new HistoryCursor(message.getTimestamp(), message.getId());
+    }
+
+    /**
+     * Decodes a cursor previously produced by {@link #encode()}.
+     *
+     * @param value The encoded cursor, may be null
+     * @return The decoded cursor, or null if no cursor was given
+     * @throws InvalidCursorException if the value is not a valid cursor
+     */
+    public static HistoryCursor decode(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            var decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+            var separator = decoded.indexOf(':');
+            var timestamp = decoded.substring(0, separator);
+            return new HistoryCursor(
+                    timestamp.isEmpty() ? null : new Date(Long.parseLong(timestamp)),
+                    decoded.substring(separator + 1)
+            );
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidCursorException("Invalid history cursor: " + value);
+        }
+    }
+
+    /**
+     * @return The cursor as an opaque URL-safe string
+     */
+    public String encode() {
+        var raw = (timestamp == null ? "" : Long.toString(timestamp.getTime())) + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The cursor's timestamp in milliseconds, or {@link Long#MIN_VALUE} if it has none,
+     *         so that comparisons order messages without a timestamp first
+     */
+    public long timeMillis() {
+        return timestamp == null ? Long.MIN_VALUE : timestamp.getTime();
+    }
+}
@@ -0,0 +1,23 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for chat history queries.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.history")
+public class HistoryProperties {
+
+    /** Number of messages returned when the client does not ask for a page size */
+    private int defaultPageSize = 50;
+
+    /** Upper bound on the page size a client can ask for */
+    private int maxPageSize = 200;
+
+    /** Upper bound on the number of chats whose newest page is loaded in one batch request */
+    private int maxBatchChats = 50;
+}
@@ -0,0 +1,27 @@
+package com.danielkhen.websocket.chat;
+
+import jakarta.validation.constraints.Min;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Configuration properties for the content of chat messages.
+ */
+@Getter
+@Setter
+@Validated
+@ConfigurationProperties(prefix = "chat.messages")
+public class MessageProperties {
+
+    /** Maximum number of characters in a message; longer messages are rejected */
+    private int maxContentLength = 100_000;
+
+    /** Messages longer than this many characters have their content stored as an attachment */
+    private int inlineContentLimit = 4_096;
+
+    /** Number of leading characters kept on a message whose content is stored as an attachment */
+    @Min(1)
+    private int previewLength = 280;
+}
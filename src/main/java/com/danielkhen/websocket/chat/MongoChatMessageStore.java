@@ -0,0 +1,63 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * {@link ChatMessageStore} backed by the chat message collection, including its archive buckets.
+ */
+@Component
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class MongoChatMessageStore implements ChatMessageStore {
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final MongoTemplate mongoTemplate;
+    private final WriteBehindProperties writeBehindProperties;
+
+    @Override
+    public ChatMessage save(ChatMessage message) {
+        return chatMessageRepository.save(message);
+    }
+
+    @Override
+    public void insertAll(List<ChatMessage> messages) {
+        chatMessageRepository.insert(messages);
+    }
+
+    @Override
+    public void saveAll(List<ChatMessage> messages) {
+        chatMessageRepository.saveAll(messages);
+    }
+
+    @Override
+    public void saveDeadLetters(List<ChatMessage> messages) {
+        mongoTemplate.insert(messages, writeBehindProperties.getDeadLetterCollection());
+    }
+
+    @Override
+    public List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit) {
+        return chatMessageRepository.findOlderThan(chatId, before, limit);
+    }
+
+    @Override
+    public List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit) {
+        return chatMessageRepository.findNewerThan(chatId, after, limit);
+    }
+
+    @Override
+    public List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit) {
+        return chatMessageRepository.findAfterSequence(chatId, sequence, limit);
+    }
+
+    @Override
+    public Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to) {
+        return chatMessageRepository.streamChatMessages(chatId, from, to);
+    }
+}
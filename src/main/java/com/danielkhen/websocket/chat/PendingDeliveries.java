@@ -0,0 +1,128 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user queue of chat notifications that were sent but not yet acknowledged.
+ * Notifications stay queued while the recipient is offline or reconnecting, and are sent again
+ * when the recipient resumes. Queues are bounded per user and expire when the user stays away,
+ * after which the client catches up from the history by sequence number instead.
+ * The queues are held in memory by the instance that handled the send, so they only work with a
+ * single instance. In RELAY broker mode the acknowledgement or the resume can reach another
+ * instance, so nothing is tracked and clients always catch up from the history.
+ */
+@Slf4j
+@Component
+public class PendingDeliveries implements MeterBinder {
+
+    private final Cache<String, UserQueue> queues;
+    private final int maxPendingPerUser;
+    private final boolean tracking;
+
+    public PendingDeliveries(DeliveryProperties properties, BrokerProperties brokerProperties) {
+        this.maxPendingPerUser = properties.getMaxPendingPerUser();
+        this.tracking = brokerProperties.getMode() == BrokerProperties.Mode.SIMPLE;
+        if (!tracking) {
+            log.info("Unacknowledged messages are not tracked in relay mode; clients catch up from the history");
+        }
+        this.queues = Caffeine.newBuilder()
+                .expireAfterAccess(properties.getPendingTtl())
+                .build();
+    }
+
+    /**
+     * Records a notification as sent and awaiting acknowledgement.
+     *
+     * @param userId ID of the recipient
+     * @param notification The notification that was sent
+     */
+    public void add(String userId, ChatNotification notification) {
+        if (!tracking) {
+            return;
+        }
+        queues.get(userId, key -> new UserQueue(maxPendingPerUser)).add(notification);
+    }
+
+    /**
+     * Removes an acknowledged notification.
+     *
+     * @param userId ID of the recipient that acknowledged the message
+     * @param messageId ID of the acknowledged message
+     */
+    public void acknowledge(String userId, String messageId) {
+        var queue = queues.getIfPresent(userId);
+        if (queue != null) {
+            queue.remove(messageId);
+        }
+    }
+
+    /**
+     * @param userId ID of the recipient
+     * @return The unacknowledged notifications of the user, oldest first
+     */
+    public List<ChatNotification> pending(String userId) {
+        var queue = queues.getIfPresent(userId);
+        return queue == null ? List.of() : queue.snapshot();
+    }
+
+    /**
+     * @return Number of unacknowledged notifications across all users
+     */
+    public long size() {
+        return queues.asMap().values().stream().mapToLong(UserQueue::size).sum();
+    }
+
+    /**
+     * Publishes the number of unacknowledged notifications as chat.delivery.pending.
+     *
+     * @param registry The registry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.delivery.pending", this, PendingDeliveries::size)
+                .description("Chat notifications awaiting acknowledgement")
+                .register(registry);
+    }
+
+    private static final class UserQueue {
+
+        private final Map<String, ChatNotification> notifications;
+
+        UserQueue(int capacity) {
+            this.notifications = new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ChatNotification> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized void add(ChatNotification notification) {
+            notifications.put(notification.getId(), notification);
+        }
+
+        synchronized void remove(String messageId) {
+            notifications.remove(messageId);
+        }
+
+        synchronized List<ChatNotification> snapshot() {
+            return new ArrayList<>(notifications.values());
+        }
+
+        synchronized int size() {
+            return notifications.size();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.danielkhen.websocket.chat;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * A stored chat message in its serialized form: the JSON of its {@link ChatMessageView}, as kept by a
+ * {@link RawChatMessageStore}, with the fields needed to page through history read from the record.
+ * Serializing it to JSON writes the stored JSON as it is, so a page of history is sent without
+ * building its messages.
+ *
+ * @param chatId ID of the chat room
+ * @param id ID of the message
+ * @param senderId ID of the user who sent the message
+ * @param timestamp Timestamp of the message, in milliseconds
+ * @param sequence Position of the message in its chat, or null
+ * @param json UTF-8 JSON of the message view; read with absolute offsets and never modified
+ */
+public record RawChatMessage(
+        String chatId,
+        String id,
+        String senderId,
+        long timestamp,
+        Long sequence,
+        ByteBuffer json
+) implements JsonSerializable {
+
+    private static final ObjectReader VIEW_READER = new ObjectMapper().readerFor(ChatMessageView.class);
+
+    /**
+     * @return The cursor pointing at this message
+     */
+    public HistoryCursor cursor() {
+        return new HistoryCursor(new Date(timestamp), id);
+    }
+
+    /**
+     * Writes the message in the form of a {@link ChatMessage}, for exports. The chat and recipient
+     * fields are written in front of the fields of the view, which the message has in common.
+     *
+     * @param channel Channel to write to
+     * @param leadingFields The opening brace and the chatId and recipientId members, each followed by a comma
+     * @throws IOException if writing fails
+     */
+    public void writeMessageTo(WritableByteChannel channel, ByteBuffer leadingFields) throws IOException {
+        writeFully(channel, leadingFields.duplicate());
+        // Skip the opening brace of the view
+        writeFully(channel, json.slice(json.position() + 1, json.remaining() - 1));
+    }
+
+    /**
+     * Writes the stored JSON as it is to JSON output. Other formats cannot embed JSON text, so for
+     * them the message view is parsed from it and written by the generator's own serializers.
+     */
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+        if (generator instanceof JsonGeneratorImpl) {
+            generator.writeRawValue(StandardCharsets.UTF_8.decode(json.duplicate()).toString());
+            return;
+        }
+        serializers.defaultSerializeValue(VIEW_READER.readValue(new ByteBufferBackedInputStream(json.duplicate())), generator);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer)
+            throws IOException {
+        serialize(generator, serializers);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents one page of a chat history read from a {@link RawChatMessageStore}.
+ * It is serialized exactly like a {@link ChatMessagePage}, with the stored JSON of each message.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RawChatMessagePage {
+    /** Messages in this page, oldest first */
+    private List<RawChatMessage> messages;
+
+    /** Cursor to pass as "before" to load older messages, or null if there are none */
+    private String olderCursor;
+
+    /** Cursor to pass as "after" to load messages newer than this page, or null if the page is empty */
+    private String newerCursor;
+
+    /** Whether more messages exist beyond this page in the direction that was requested */
+    private boolean hasMore;
+}
@@ -0,0 +1,54 @@
+package com.danielkhen.websocket.chat;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ChatMessageStore} that keeps messages as the JSON of their {@link ChatMessageView}.
+ * Its queries return the stored JSON as it is, so history and exports are copied to the response
+ * without building message objects. Results are ordered as by the matching queries of
+ * {@link ChatMessageStore}.
+ */
+public interface RawChatMessageStore {
+
+    /**
+     * Finds the messages of a chat that come before a cursor, newest first.
+     *
+     * @param chatId ID of the chat room
+     * @param before Cursor to start from, or null to start from the newest message
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by descending (timestamp, id)
+     */
+    List<RawChatMessage> findRawOlderThan(String chatId, HistoryCursor before, int limit);
+
+    /**
+     * Finds the messages of a chat that come after a cursor, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param after Cursor to start from
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending (timestamp, id)
+     */
+    List<RawChatMessage> findRawNewerThan(String chatId, HistoryCursor after, int limit);
+
+    /**
+     * Finds the messages of a chat with a sequence number above the given one, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param sequence Sequence number to start after
+     * @param limit Maximum number of messages to return
+     * @return Messages ordered by ascending sequence
+     */
+    List<RawChatMessage> findRawAfterSequence(String chatId, long sequence, int limit);
+
+    /**
+     * Streams the messages of a chat without loading them into memory, oldest first.
+     *
+     * @param chatId ID of the chat room
+     * @param from Inclusive lower bound on the timestamp, or null for no bound
+     * @param to Exclusive upper bound on the timestamp, or null for no bound
+     * @return Stream of messages ordered by ascending (timestamp, id)
+     */
+    Stream<RawChatMessage> streamRawChatMessages(String chatId, Date from, Date to);
+}
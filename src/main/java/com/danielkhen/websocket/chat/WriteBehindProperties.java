@@ -0,0 +1,60 @@
+package com.danielkhen.websocket.chat;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the write-behind message persistence pipeline.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.write-behind")
+public class WriteBehindProperties {
+
+    /** Whether messages are persisted asynchronously in batches instead of one insert per message */
+    private boolean enabled = false;
+
+    /** Maximum number of messages written in a single bulk insert */
+    private int batchSize = 500;
+
+    /** Maximum time a message waits in the queue before its batch is flushed */
+    private Duration flushInterval = Duration.ofMillis(50);
+
+    /** Maximum number of messages waiting to be persisted */
+    private int queueCapacity = 10_000;
+
+    /** How long a sender blocks on a full queue before the message is rejected */
+    private Duration offerTimeout = Duration.ofSeconds(1);
+
+    /** What to do with a batch that could not be persisted */
+    private FailurePolicy failurePolicy = FailurePolicy.RETRY;
+
+    /** Number of attempts before DEAD_LETTER or NOTIFY_SENDER gives up on a batch */
+    private int maxAttempts = 3;
+
+    /** Delay between attempts to persist a failed batch */
+    private Duration retryBackoff = Duration.ofMillis(200);
+
+    /** Collection that receives batches under the DEAD_LETTER policy */
+    private String deadLetterCollection = "chatMessageDeadLetter";
+
+    /** Maximum time to wait for the queue to drain on shutdown */
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Enumeration of the ways a failed batch can be handled.
+     */
+    public enum FailurePolicy {
+        /** Keep retrying the batch until it succeeds, holding back later batches */
+        RETRY,
+
+        /** After the last attempt, write the batch to the dead-letter collection */
+        DEAD_LETTER,
+
+        /** After the last attempt, tell each sender that their message was not stored */
+        NOTIFY_SENDER
+    }
+}
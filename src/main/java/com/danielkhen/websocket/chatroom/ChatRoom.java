@@ -2,11 +2,14 @@ package com.danielkhen.websocket.chatroom;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
  * Represents a chat room between two users.
- * This entity is stored in MongoDB.
+ * This entity is stored in MongoDB, one document per pair of users.
+ * The pair is stored in canonical (lexicographic) order, and a unique index on it
+ * guarantees that concurrent first messages cannot create duplicate rooms.
  */
 @Getter
 @Setter
@@ -14,6 +17,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @NoArgsConstructor
 @Builder
 @Document
+@CompoundIndex(name = "sender_recipient", def = "{'senderId': 1, 'recipientId': 1}", unique = true)
 public class ChatRoom {
     /** Unique identifier for the chat room */
     @Id
@@ -22,9 +26,9 @@ public class ChatRoom {
     /** A composite ID representing the unique pairing of sender and recipient */
     private String chatId;
 
-    /** ID of the user who initiated the chat or sent the first message */
+    /** ID of the user that sorts first in the pairing */
     private String senderId;
 
-    /** ID of the user who is receiving the message or participating in the chat */
+    /** ID of the user that sorts second in the pairing */
     private String recipientId;
 }
@@ -0,0 +1,89 @@
+package com.danielkhen.websocket.chatroom;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Bounded in-memory cache of chat room IDs keyed by the pair of users.
+ * A chat room ID never changes once the room exists, so entries are only evicted by size.
+ * Keys are order-independent, so one entry serves both directions of a conversation.
+ */
+@Component
+public class ChatRoomIdCache implements MeterBinder {
+
+    private final Cache<Key, String> cache;
+
+    public ChatRoomIdCache(@Value("${chat.room-cache.max-size:10000}") long maxSize) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Looks up a cached chat room ID.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @return Optional containing the chat room ID, or empty on a cache miss
+     */
+    public Optional<String> get(String senderId, String recipientId) {
+        return Optional.ofNullable(cache.getIfPresent(Key.of(senderId, recipientId)));
+    }
+
+    /**
+     * Caches a chat room ID for the pairing.
+     *
+     * @param senderId ID of the sender
+     * @param recipientId ID of the recipient
+     * @param chatId The chat room ID shared by both users
+     */
+    public void put(String senderId, String recipientId, String chatId) {
+        cache.put(Key.of(senderId, recipientId), chatId);
+    }
+
+    /**
+     * @return Number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return Number of lookups that had to go to the database
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return A snapshot of the underlying cache statistics
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Publishes the cache size, hit, miss and eviction counts as "chatRoomIds" cache metrics.
+     *
+     * @param registry The registry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "chatRoomIds");
+    }
+
+    private record Key(String first, String second) {
+        static Key of(String a, String b) {
+            return a.compareTo(b) <= 0 ? new Key(a, b) : new Key(b, a);
+        }
+    }
+}
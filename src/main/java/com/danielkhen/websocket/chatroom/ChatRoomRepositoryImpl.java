@@ -0,0 +1,47 @@
+package com.danielkhen.websocket.chatroom;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * MongoTemplate-backed implementation of {@link ChatRoomRepositoryCustom}.
+ */
+@RequiredArgsConstructor
+public class ChatRoomRepositoryImpl implements ChatRoomRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public ChatRoom upsertChatRoom(String senderId, String recipientId, String chatId) {
+        Query query = Query.query(Criteria.where("senderId").is(senderId).and("recipientId").is(recipientId));
+        Update update = new Update().setOnInsert("chatId", chatId);
+
+        try {
+            return mongoTemplate.findAndModify(
+                    query,
+                    update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    ChatRoom.class
+            );
+        } catch (DuplicateKeyException e) {
+            // Another upsert for the same pairing won the race; the unique index guarantees it is the only room
+            return mongoTemplate.findOne(query, ChatRoom.class);
+        }
+    }
+
+    @Override
+    public long nextSequence(String chatId) {
+        // The first message of a chat creates its counter
+        return mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(chatId)),
+                new Update().inc("lastSequence", 1),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                ChatSequence.class
+        ).getLastSequence();
+    }
+}
@@ -1,5 +1,6 @@
 package com.danielkhen.websocket.chatroom;
 
+import com.danielkhen.websocket.config.ChatMetrics;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -13,10 +14,14 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class ChatRoomService {
 
-    private final ChatRoomRepository chatRoomRepository;
+    private final ChatRoomStore chatRoomStore;
+    private final ChatRoomIdCache chatRoomIdCache;
+    private final ChatMetrics chatMetrics;
 
     /**
      * Retrieves or creates a chat room ID for two users.
+     * The ID is the same regardless of which user sends first.
+     * Known IDs are served from {@link ChatRoomIdCache} without touching the database.
      *
      * @param senderId ID of the sender
      * @param recipientId ID of the recipient
@@ -28,42 +33,79 @@ public class ChatRoomService {
             String recipientId,
             boolean createNewRoomIfNotExists
     ) {
-        return chatRoomRepository.findBySenderIdAndRecipientId(senderId, recipientId)
-                .map(ChatRoom::getChatId)
-                .or(() -> {
-                    if (createNewRoomIfNotExists) {
-                        var chatId = createChatId(senderId, recipientId);
-                        return Optional.of(chatId);
-                    }
-                    return Optional.empty();
-                });
+        long start = System.nanoTime();
+        var cachedChatId = chatRoomIdCache.get(senderId, recipientId);
+        if (cachedChatId.isPresent()) {
+            chatMetrics.recordRoomLookup(System.nanoTime() - start, true);
+            return cachedChatId;
+        }
+
+        try {
+            if (createNewRoomIfNotExists) {
+                return Optional.of(createChatId(senderId, recipientId));
+            }
+
+            var first = firstOf(senderId, recipientId);
+            var second = secondOf(senderId, recipientId);
+            return chatRoomStore.findBySenderIdAndRecipientId(first, second)
+                    .map(ChatRoom::getChatId)
+                    .map(chatId -> {
+                        chatRoomIdCache.put(senderId, recipientId, chatId);
+                        return chatId;
+                    });
+        } finally {
+            chatMetrics.recordRoomLookup(System.nanoTime() - start, false);
+        }
+    }
+
+    /**
+     * Allocates the next message sequence number in a chat room.
+     * The caller resolves the room through {@link #getChatRoomId}, which serves known rooms from the cache,
+     * so numbering a message is a single increment of the room's counter.
+     *
+     * @param chatId ID of the chat room
+     * @return The newly allocated sequence number
+     */
+    public long nextSequence(String chatId) {
+        return chatRoomStore.nextSequence(chatId);
     }
 
     /**
-     * Creates a new chat room for two users.
+     * Creates the chat room for two users with a single idempotent upsert.
+     * If the room already exists, its stored ID is returned instead, which keeps rooms
+     * created before IDs were canonical pointing at their existing history.
      *
      * @param senderId ID of the sender
      * @param recipientId ID of the recipient
-     * @return The newly created chat room ID
+     * @return The chat room ID
      */
     private String createChatId(String senderId, String recipientId) {
-        var chatId = String.format("%s_%s", senderId, recipientId);
+        var first = firstOf(senderId, recipientId);
+        var second = secondOf(senderId, recipientId);
+
+        var chatId = chatRoomStore.upsertChatRoom(first, second, canonicalChatId(senderId, recipientId))
+                .getChatId();
+        chatRoomIdCache.put(senderId, recipientId, chatId);
 
-        ChatRoom senderRecipient = ChatRoom.builder()
-                .chatId(chatId)
-                .senderId(senderId)
-                .recipientId(recipientId)
-                .build();
+        return chatId;
+    }
 
-        ChatRoom recipientSender = ChatRoom.builder()
-                .chatId(chatId)
-                .senderId(recipientId)
-                .recipientId(senderId)
-                .build();
+    /**
+     * Builds the order-independent chat room ID for two users.
+     *
+     * @param senderId ID of one user
+     * @param recipientId ID of the other user
+     * @return The canonical chat room ID
+     */
+    static String canonicalChatId(String senderId, String recipientId) {
+        return String.format("%s_%s", firstOf(senderId, recipientId), secondOf(senderId, recipientId));
+    }
 
-        chatRoomRepository.save(senderRecipient);
-        chatRoomRepository.save(recipientSender);
+    private static String firstOf(String a, String b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
 
-        return chatId;
+    private static String secondOf(String a, String b) {
+        return a.compareTo(b) <= 0 ? b : a;
     }
-}
\ No newline at end of file
+}
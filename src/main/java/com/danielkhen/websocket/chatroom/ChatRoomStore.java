@@ -0,0 +1,37 @@
+package com.danielkhen.websocket.chatroom;
+
+import java.util.Optional;
+
+/**
+ * Storage of chat rooms, implemented for MongoDB and for local append-only logs.
+ * Rooms are keyed by the pair of users in canonical (lexicographic) order.
+ */
+public interface ChatRoomStore {
+
+    /**
+     * Finds the chat room of a pairing.
+     *
+     * @param senderId ID of the user that sorts first in the pairing
+     * @param recipientId ID of the user that sorts second in the pairing
+     * @return Optional containing the chat room, or empty if none exists
+     */
+    Optional<ChatRoom> findBySenderIdAndRecipientId(String senderId, String recipientId);
+
+    /**
+     * Atomically inserts a chat room for the given pairing unless one already exists.
+     *
+     * @param senderId ID of the user that sorts first in the pairing
+     * @param recipientId ID of the user that sorts second in the pairing
+     * @param chatId Chat room ID to use if the room has to be created
+     * @return The existing or newly created chat room
+     */
+    ChatRoom upsertChatRoom(String senderId, String recipientId, String chatId);
+
+    /**
+     * Atomically increments the message sequence counter of a chat room, creating the counter if needed.
+     *
+     * @param chatId ID of the chat room
+     * @return The newly allocated sequence number
+     */
+    long nextSequence(String chatId);
+}
@@ -0,0 +1,25 @@
+package com.danielkhen.websocket.chatroom;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Message sequence counter of a chat room.
+ * Counters are kept in their own collection, keyed by chat room ID, so that numbering a message
+ * is a single increment that follows the cached room ID lookup and leaves the room document alone.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Document
+public class ChatSequence {
+    /** ID of the chat room the counter belongs to */
+    @Id
+    private String chatId;
+
+    /** Sequence number given to the latest message in the room */
+    private long lastSequence;
+}
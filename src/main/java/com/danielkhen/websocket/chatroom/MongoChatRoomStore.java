@@ -0,0 +1,33 @@
+package com.danielkhen.websocket.chatroom;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * {@link ChatRoomStore} backed by the chat room collection.
+ */
+@Component
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class MongoChatRoomStore implements ChatRoomStore {
+
+    private final ChatRoomRepository chatRoomRepository;
+
+    @Override
+    public Optional<ChatRoom> findBySenderIdAndRecipientId(String senderId, String recipientId) {
+        return chatRoomRepository.findBySenderIdAndRecipientId(senderId, recipientId);
+    }
+
+    @Override
+    public ChatRoom upsertChatRoom(String senderId, String recipientId, String chatId) {
+        return chatRoomRepository.upsertChatRoom(senderId, recipientId, chatId);
+    }
+
+    @Override
+    public long nextSequence(String chatId) {
+        return chatRoomRepository.nextSequence(chatId);
+    }
+}
@@ -0,0 +1,64 @@
+package com.danielkhen.websocket.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Configuration properties for the STOMP message broker.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.broker")
+public class BrokerProperties {
+
+    /** Which broker delivers messages to subscribers */
+    private Mode mode = Mode.SIMPLE;
+
+    /** Identifier of this instance, used to tell apart events that originate on different nodes */
+    private String nodeId = UUID.randomUUID().toString();
+
+    /** Host of the external STOMP broker in RELAY mode */
+    private String relayHost = "localhost";
+
+    /** STOMP port of the external broker in RELAY mode */
+    private int relayPort = 61613;
+
+    /** Login used for client connections relayed to the external broker */
+    private String clientLogin = "guest";
+
+    /** Passcode used for client connections relayed to the external broker */
+    private String clientPasscode = "guest";
+
+    /** Login used for the shared system connection to the external broker */
+    private String systemLogin = "guest";
+
+    /** Passcode used for the shared system connection to the external broker */
+    private String systemPasscode = "guest";
+
+    /** Virtual host to use on the external broker, if any */
+    private String virtualHost;
+
+    /** How often each instance confirms in the database that its users are still ONLINE, in RELAY mode */
+    private Duration presenceRefreshInterval = Duration.ofSeconds(10);
+
+    /**
+     * How long an ONLINE status stays valid without being confirmed, in RELAY mode; once it has
+     * passed, the instance holding the user's sessions is presumed gone and the user goes OFFLINE
+     */
+    private Duration presenceTtl = Duration.ofSeconds(30);
+
+    /**
+     * Enumeration of the supported broker modes.
+     */
+    public enum Mode {
+        /** In-process broker; only reaches users connected to this instance */
+        SIMPLE,
+
+        /** External STOMP broker shared by all instances, for running more than one node */
+        RELAY
+    }
+}
@@ -0,0 +1,86 @@
+package com.danielkhen.websocket.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Builds the executors behind the client inbound and outbound channels.
+ * Each executor publishes its queue depth and number of busy threads as gauges tagged with
+ * the channel name, so the pools can be sized under load.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChannelExecutors {
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Creates the executor for a channel.
+     *
+     * @param channel Name of the channel, used for thread names and metric tags
+     * @param settings Executor settings for the channel
+     * @return The executor
+     */
+    public TaskExecutor create(String channel, ChannelProperties.Executor settings) {
+        return switch (settings.getMode()) {
+            case POOL -> createPool(channel, settings);
+            case VIRTUAL -> createVirtual(channel);
+        };
+    }
+
+    private TaskExecutor createPool(String channel, ChannelProperties.Executor settings) {
+        var executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("client-" + channel + "-");
+        executor.setCorePoolSize(settings.getCorePoolSize());
+        executor.setMaxPoolSize(settings.getMaxPoolSize());
+        executor.setQueueCapacity(settings.getQueueCapacity());
+        executor.setKeepAliveSeconds((int) settings.getKeepAlive().toSeconds());
+
+        registerGauges(channel, executor, ThreadPoolTaskExecutor::getQueueSize, ThreadPoolTaskExecutor::getActiveCount);
+        return executor;
+    }
+
+    private TaskExecutor createVirtual(String channel) {
+        var delegate = new VirtualThreadTaskExecutor("client-" + channel + "-");
+        var active = new AtomicInteger();
+
+        // Virtual threads start immediately, so there is never a queue, only tasks in flight
+        registerGauges(channel, active, counter -> 0, AtomicInteger::get);
+        return task -> {
+            active.incrementAndGet();
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                }
+            });
+        };
+    }
+
+    private <T> void registerGauges(
+            String channel,
+            T state,
+            ToDoubleFunction<T> queueDepth,
+            ToDoubleFunction<T> activeThreads
+    ) {
+        Gauge.builder("chat.channel.queue.depth", state, queueDepth)
+                .description("Tasks waiting for a thread on the channel executor")
+                .tag("channel", channel)
+                .strongReference(true)
+                .register(meterRegistry);
+        Gauge.builder("chat.channel.active.threads", state, activeThreads)
+                .description("Tasks currently running on the channel executor")
+                .tag("channel", channel)
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,70 @@
+package com.danielkhen.websocket.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the executors behind the client inbound and outbound channels,
+ * and for the limits on the frames exchanged with each WebSocket session.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.channels")
+public class ChannelProperties {
+
+    /** Whether messages of one session are handled and delivered in the order they were sent */
+    private boolean preserveOrder = true;
+
+    /** Executor for frames coming from clients, which run the @MessageMapping handlers */
+    private Executor inbound = new Executor();
+
+    /** Executor for frames going to clients */
+    private Executor outbound = new Executor();
+
+    /** Maximum size of a STOMP frame received from a client; larger frames close the session */
+    private DataSize messageSizeLimit = DataSize.ofKilobytes(512);
+
+    /** Maximum time a single send to a session may take before the session is closed */
+    private Duration sendTimeLimit = Duration.ofSeconds(5);
+
+    /** Maximum amount of data buffered for a slow session before it is closed */
+    private DataSize sendBufferSizeLimit = DataSize.ofKilobytes(256);
+
+    /**
+     * Settings for one channel executor.
+     */
+    @Getter
+    @Setter
+    public static class Executor {
+
+        /** Kind of threads that run the channel's tasks */
+        private Mode mode = Mode.POOL;
+
+        /** Number of threads kept alive in POOL mode */
+        private int corePoolSize = 32;
+
+        /** Maximum number of threads in POOL mode, only reached once the queue is full */
+        private int maxPoolSize = 128;
+
+        /** Number of tasks that can wait for a thread in POOL mode */
+        private int queueCapacity = 1000;
+
+        /** How long threads above the core size stay idle before they are stopped */
+        private Duration keepAlive = Duration.ofSeconds(60);
+    }
+
+    /**
+     * Enumeration of the supported executor kinds.
+     */
+    public enum Mode {
+        /** Bounded pool of platform threads */
+        POOL,
+
+        /** One virtual thread per task; requires a Java 21 runtime */
+        VIRTUAL
+    }
+}
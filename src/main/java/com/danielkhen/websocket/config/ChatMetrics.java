@@ -0,0 +1,131 @@
+package com.danielkhen.websocket.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Meters for the chat hot path.
+ * Keeping them in one place gives the services a small API and keeps meter names consistent.
+ */
+@Component
+public class ChatMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Timer messagePersist;
+    private final Timer messageQueue;
+    private final Timer batchPersist;
+    private final DistributionSummary batchSize;
+    private final Timer roomLookupHit;
+    private final Timer roomLookupMiss;
+
+    public ChatMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.messagePersist = Timer.builder("chat.message.persist")
+                .description("Time to store a chat message before the recipient is notified")
+                .tag("mode", "sync")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.messageQueue = Timer.builder("chat.message.persist")
+                .description("Time to store a chat message before the recipient is notified")
+                .tag("mode", "write-behind")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchPersist = Timer.builder("chat.message.batch.persist")
+                .description("Time to store one write-behind batch")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chat.message.batch.size")
+                .description("Messages per write-behind batch")
+                .register(meterRegistry);
+        this.roomLookupHit = roomLookupTimer("hit");
+        this.roomLookupMiss = roomLookupTimer("miss");
+    }
+
+    /**
+     * Times a synchronous message insert.
+     *
+     * @param persist The insert
+     * @return The result of the insert
+     */
+    public <T> T timePersist(Supplier<T> persist) {
+        return messagePersist.record(persist);
+    }
+
+    /**
+     * Times handing a message to the write-behind queue, including any backpressure wait.
+     *
+     * @param enqueue The enqueue operation
+     */
+    public void timeEnqueue(Runnable enqueue) {
+        messageQueue.record(enqueue);
+    }
+
+    /**
+     * Records a write-behind batch insert.
+     *
+     * @param nanos Time the insert took
+     * @param size Number of messages in the batch
+     */
+    public void recordBatchPersist(long nanos, int size) {
+        batchPersist.record(nanos, TimeUnit.NANOSECONDS);
+        batchSize.record(size);
+    }
+
+    /**
+     * Records a chat room ID lookup.
+     *
+     * @param nanos Time the lookup took
+     * @param cacheHit Whether the ID came from the cache
+     */
+    public void recordRoomLookup(long nanos, boolean cacheHit) {
+        (cacheHit ? roomLookupHit : roomLookupMiss).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a frame handed to the broker for delivery.
+     *
+     * @param type Kind of frame, such as "message", "error" or "presence"
+     */
+    public void countDelivery(String type) {
+        Counter.builder("chat.delivery")
+                .description("Frames handed to the broker for delivery")
+                .tag("type", type)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Counts a chat message that could not be handled.
+     *
+     * @param reason Short reason, used as tag
+     */
+    public void countFailedSend(String reason) {
+        Counter.builder("chat.send.failed")
+                .description("Chat messages that could not be stored or delivered")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Counts a session closed for sending nothing within the idle timeout.
+     */
+    public void countEvictedSession() {
+        Counter.builder("chat.sessions.evicted")
+                .description("Sessions closed for being idle")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Timer roomLookupTimer(String cache) {
+        return Timer.builder("chat.room.lookup")
+                .description("Time to resolve the chat room ID of a message")
+                .tag("cache", cache)
+                .register(meterRegistry);
+    }
+}
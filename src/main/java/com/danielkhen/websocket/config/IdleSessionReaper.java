@@ -0,0 +1,129 @@
+package com.danielkhen.websocket.config;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes WebSocket sessions that have not sent a frame for longer than the idle timeout.
+ * Clients that negotiate STOMP heartbeats send one at least every heartbeat interval, so only
+ * dead connections and clients without heartbeats are evicted. Sessions are closed with
+ * {@link CloseStatus#SESSION_NOT_RELIABLE} rather than a normal close on purpose: an idle session
+ * is most often a connection that dropped without the server noticing, so it is parked by
+ * {@link com.danielkhen.websocket.user.SessionResumption} and its user stays online for the resume
+ * grace window, in which the client can reconnect and resume it.
+ */
+@Slf4j
+@Component
+public class IdleSessionReaper implements WebSocketHandlerDecoratorFactory {
+
+    private final SessionProperties properties;
+    private final ChatMetrics chatMetrics;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "idle-session-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Open sessions by ID, with the time their last frame was received */
+    private final Map<String, TrackedSession> sessions = new ConcurrentHashMap<>();
+
+    public IdleSessionReaper(SessionProperties properties, ChatMetrics chatMetrics) {
+        this.properties = properties;
+        this.chatMetrics = chatMetrics;
+    }
+
+    /**
+     * Starts checking sessions periodically once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long interval = properties.getReaperInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::reap, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                sessions.put(session.getId(), new TrackedSession(session, System.nanoTime()));
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                var tracked = sessions.get(session.getId());
+                if (tracked != null) {
+                    tracked.lastReceived = System.nanoTime();
+                }
+                super.handleMessage(session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Closes every session that has been idle for longer than the idle timeout.
+     *
+     * @return Number of sessions closed
+     */
+    public int reap() {
+        long now = System.nanoTime();
+        long idleTimeout = properties.getIdleTimeout().toNanos();
+        int evicted = 0;
+        for (var tracked : sessions.values()) {
+            if (now - tracked.lastReceived < idleTimeout) {
+                continue;
+            }
+            sessions.remove(tracked.session.getId());
+            try {
+                tracked.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Could not close idle session sessionId={} error=\"{}\"", tracked.session.getId(), e.getMessage());
+            }
+            chatMetrics.countEvictedSession();
+            evicted++;
+        }
+        if (evicted > 0) {
+            log.info("Evicted idle sessions count={}", evicted);
+        }
+        return evicted;
+    }
+
+    private static class TrackedSession {
+        final WebSocketSession session;
+        volatile long lastReceived;
+
+        TrackedSession(WebSocketSession session, long lastReceived) {
+            this.session = session;
+            this.lastReceived = lastReceived;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.danielkhen.websocket.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.util.MimeType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson message converter that records how long each outbound frame takes to serialize
+ * and how large it is, tagged with the wire format.
+ */
+public class MeteredJacksonMessageConverter extends MappingJackson2MessageConverter {
+
+    private final Timer serializationTimer;
+    private final DistributionSummary frameSize;
+
+    /**
+     * Creates a converter for one wire format.
+     *
+     * @param objectMapper Mapper producing the wire format
+     * @param format Name of the wire format, used as metric tag
+     * @param meterRegistry Registry to publish the metrics to
+     * @param supportedMimeTypes Content types handled by this converter
+     */
+    public MeteredJacksonMessageConverter(
+            ObjectMapper objectMapper,
+            String format,
+            MeterRegistry meterRegistry,
+            MimeType... supportedMimeTypes
+    ) {
+        super(objectMapper, supportedMimeTypes);
+        this.serializationTimer = Timer.builder("chat.frame.serialization")
+                .description("Time to serialize an outbound STOMP payload")
+                .tag("format", format)
+                .register(meterRegistry);
+        this.frameSize = DistributionSummary.builder("chat.frame.size")
+                .description("Size of serialized outbound STOMP payloads")
+                .baseUnit("bytes")
+                .tag("format", format)
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        long start = System.nanoTime();
+        Object converted = super.convertToInternal(payload, headers, conversionHint);
+        serializationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (converted instanceof byte[] bytes) {
+            frameSize.record(bytes.length);
+        }
+        return converted;
+    }
+}
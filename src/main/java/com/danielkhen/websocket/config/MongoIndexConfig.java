@@ -0,0 +1,56 @@
+package com.danielkhen.websocket.config;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessageBucket;
+import com.danielkhen.websocket.chatroom.ChatRoom;
+import com.danielkhen.websocket.conversation.ConversationSummary;
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.List;
+
+/**
+ * Configuration class for MongoDB indexes.
+ * Creates the indexes declared on the document classes once the application has started.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.mongo.ensure-indexes", havingValue = "true", matchIfMissing = true)
+public class MongoIndexConfig {
+
+    /** Document classes whose annotated indexes are created at startup */
+    private static final List<Class<?>> INDEXED_DOCUMENTS = List.of(
+            ChatRoom.class, ChatMessage.class, ChatMessageBucket.class, ConversationSummary.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mongoMappingContext;
+
+    /**
+     * Ensures that every index declared on the indexed document classes exists.
+     * Failures are logged rather than thrown so that an unreachable database does not stop startup.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        var resolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+
+        for (Class<?> documentClass : INDEXED_DOCUMENTS) {
+            try {
+                var indexOps = mongoTemplate.indexOps(documentClass);
+                resolver.resolveIndexFor(documentClass).forEach(indexOps::ensureIndex);
+            } catch (DataAccessException e) {
+                log.warn("Could not ensure indexes document={} error=\"{}\"", documentClass.getSimpleName(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.danielkhen.websocket.config;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Configuration class for mapping documents to MongoDB.
+ */
+@Configuration
+@ConditionalOnMongoStorage
+public class MongoMappingConfig {
+
+    /**
+     * Creates the converter between document classes and BSON.
+     * No document class has subtypes, so the converter does not write a "_class" type hint,
+     * which would otherwise be the longest field of every chat message.
+     *
+     * @param factory The database factory
+     * @param context The mapping context
+     * @param conversions The custom conversions configured by Spring Boot
+     * @return The converter
+     */
+    @Bean
+    public MappingMongoConverter mappingMongoConverter(
+            MongoDatabaseFactory factory,
+            MongoMappingContext context,
+            MongoCustomConversions conversions
+    ) {
+        var converter = new MappingMongoConverter(new DefaultDbRefResolver(factory), context);
+        converter.setCustomConversions(conversions);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        return converter;
+    }
+}
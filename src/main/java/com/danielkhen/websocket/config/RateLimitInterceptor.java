@@ -0,0 +1,110 @@
+package com.danielkhen.websocket.config;
+
+import com.danielkhen.websocket.chat.ChatErrorNotification;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Channel interceptor that rate limits chat messages before they reach the message handler.
+ * Each session and each user has a token bucket; a message is dropped when either is empty,
+ * and the sender is told so on its error queue. Must run after {@link UserPrincipalInterceptor}.
+ */
+@Slf4j
+@Component
+public class RateLimitInterceptor implements ChannelInterceptor {
+
+    /** Destination of chat messages sent by clients */
+    static final String CHAT_DESTINATION = "/app/chat";
+
+    /** How long the bucket of a user without any traffic is kept */
+    private static final Duration USER_BUCKET_IDLE_TIMEOUT = Duration.ofMinutes(5);
+
+    private final RateLimitProperties properties;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ChatMetrics chatMetrics;
+    private final Map<String, TokenBucket> sessionBuckets = new ConcurrentHashMap<>();
+    private final Cache<String, TokenBucket> userBuckets = Caffeine.newBuilder()
+            .expireAfterAccess(USER_BUCKET_IDLE_TIMEOUT)
+            .build();
+
+    // The messaging template is created by the broker configuration that uses this interceptor
+    public RateLimitInterceptor(
+            RateLimitProperties properties,
+            @Lazy SimpMessagingTemplate messagingTemplate,
+            ChatMetrics chatMetrics
+    ) {
+        this.properties = properties;
+        this.messagingTemplate = messagingTemplate;
+        this.chatMetrics = chatMetrics;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!properties.isEnabled()) {
+            return message;
+        }
+        var accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.SEND.equals(accessor.getCommand())
+                || !CHAT_DESTINATION.equals(accessor.getDestination())) {
+            return message;
+        }
+
+        long now = System.nanoTime();
+        var sessionId = accessor.getSessionId();
+        var user = accessor.getUser();
+        boolean allowed = sessionId == null || sessionBuckets
+                .computeIfAbsent(sessionId, key -> newBucket(properties.getSession(), now))
+                .tryAcquire(now);
+        if (allowed && user != null) {
+            allowed = userBuckets.get(user.getName(), key -> newBucket(properties.getUser(), now))
+                    .tryAcquire(now);
+        }
+        if (allowed) {
+            return message;
+        }
+
+        chatMetrics.countFailedSend("rate_limited");
+        log.debug("Rate limited chat message sessionId={} user={}", sessionId, user == null ? null : user.getName());
+        if (user != null) {
+            chatMetrics.countDelivery("error");
+            messagingTemplate.convertAndSendToUser(
+                    user.getName(),
+                    "/queue/errors",
+                    ChatErrorNotification.builder()
+                            .reason("Rate limit exceeded")
+                            .build()
+            );
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the bucket of a closed session.
+     *
+     * @param event The session disconnect event
+     */
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        sessionBuckets.remove(event.getSessionId());
+    }
+
+    private static TokenBucket newBucket(RateLimitProperties.Limit limit, long now) {
+        return new TokenBucket(limit.getPermitsPerSecond(), limit.getBurst(), now);
+    }
+}
@@ -0,0 +1,45 @@
+package com.danielkhen.websocket.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for rate limiting chat messages sent by clients.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.rate-limit")
+public class RateLimitProperties {
+
+    /** Whether messages sent to /app/chat are rate limited */
+    private boolean enabled = true;
+
+    /** Limit applied to each STOMP session */
+    private Limit session = new Limit(10, 20);
+
+    /** Limit applied to all sessions of a user together */
+    private Limit user = new Limit(20, 40);
+
+    /**
+     * Token bucket settings for one limit.
+     */
+    @Getter
+    @Setter
+    public static class Limit {
+
+        /** Sustained number of messages allowed per second */
+        private double permitsPerSecond;
+
+        /** Number of messages that can be sent in a burst before the sustained rate applies */
+        private int burst;
+
+        public Limit() {
+        }
+
+        public Limit(double permitsPerSecond, int burst) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+}
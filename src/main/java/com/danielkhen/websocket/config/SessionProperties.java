@@ -0,0 +1,35 @@
+package com.danielkhen.websocket.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the liveness of STOMP sessions: heartbeats, eviction of idle
+ * sessions, and how long a dropped session can be resumed.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.sessions")
+public class SessionProperties {
+
+    /** How often the server sends heartbeats to clients that accept them; zero disables them */
+    private Duration heartbeatSendInterval = Duration.ofSeconds(10);
+
+    /** How often clients are asked to send heartbeats; zero disables them */
+    private Duration heartbeatReceiveInterval = Duration.ofSeconds(10);
+
+    /** Sessions that send no frame, not even a heartbeat, for this long are closed */
+    private Duration idleTimeout = Duration.ofSeconds(60);
+
+    /** How often sessions are checked for the idle timeout */
+    private Duration reaperInterval = Duration.ofSeconds(15);
+
+    /**
+     * How long the user of a dropped session stays online, and the session can be resumed with
+     * its resume token; zero turns resumption off
+     */
+    private Duration resumeGrace = Duration.ofSeconds(30);
+}
@@ -0,0 +1,45 @@
+package com.danielkhen.websocket.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ * Instead of counting tokens, the bucket tracks the time at which it would be full again,
+ * so that taking a token is a single compare-and-set on one long.
+ */
+final class TokenBucket {
+
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param permitsPerSecond Sustained rate at which tokens are added
+     * @param burst Capacity of the bucket
+     * @param nowNanos Current {@link System#nanoTime()}; the bucket starts full
+     */
+    TokenBucket(double permitsPerSecond, int burst, long nowNanos) {
+        this.nanosPerPermit = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = nanosPerPermit * burst;
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param nowNanos Current {@link System#nanoTime()}
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current - nowNanos, 0) + nanosPerPermit;
+            if (next > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, nowNanos + next)) {
+                return true;
+            }
+        }
+    }
+}
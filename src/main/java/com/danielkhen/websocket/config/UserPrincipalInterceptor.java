@@ -0,0 +1,46 @@
+package com.danielkhen.websocket.config;
+
+import com.danielkhen.websocket.user.PresenceEventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+
+/**
+ * Channel interceptor that names each STOMP session after the nickname sent on CONNECT.
+ * Having a principal lets user destinations such as /user/queue/messages be resolved through
+ * the user registry, which in RELAY mode spans every instance.
+ */
+@Component
+public class UserPrincipalInterceptor implements ChannelInterceptor {
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        var accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor != null && StompCommand.CONNECT.equals(accessor.getCommand())) {
+            var nickName = accessor.getFirstNativeHeader(PresenceEventListener.NICKNAME_HEADER);
+            if (nickName != null && !nickName.isBlank()) {
+                accessor.setUser(new UserPrincipal(nickName));
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Principal identifying a chat user by nickname.
+     *
+     * @param name The user's nickname
+     */
+    public record UserPrincipal(String name) implements Principal {
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package com.danielkhen.websocket.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.messaging.converter.DefaultContentTypeResolver;
-import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 import java.util.List;
 
 import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
+import static org.springframework.util.MimeTypeUtils.APPLICATION_OCTET_STREAM;
 
 /**
  * Configuration class for WebSocket communication.
@@ -20,19 +30,71 @@ import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
  */
 @Configuration
 @EnableWebSocketMessageBroker
+@RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final BrokerProperties brokerProperties;
+    private final UserPrincipalInterceptor userPrincipalInterceptor;
+    private final ChannelProperties channelProperties;
+    private final ChannelExecutors channelExecutors;
+    private final WireFormatInterceptor wireFormatInterceptor;
+    private final RateLimitInterceptor rateLimitInterceptor;
+    private final ObjectMapper objectMapper;
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+    private final MeterRegistry meterRegistry;
+    private final SessionProperties sessionProperties;
+    private final IdleSessionReaper idleSessionReaper;
+    private TaskScheduler heartbeatScheduler;
+
+    /**
+     * Receives the broker's task scheduler, which sends and checks heartbeats.
+     * It is created by the broker configuration this class contributes to, hence the lazy proxy.
+     *
+     * @param taskScheduler The message broker task scheduler
+     */
+    @Autowired
+    public void setHeartbeatScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler taskScheduler) {
+        this.heartbeatScheduler = taskScheduler;
+    }
+
     /**
      * Configures the message broker for WebSocket communication.
      * This method sets up the destinations for the broker and the application.
+     * In RELAY mode, messages go through an external STOMP broker shared by all instances,
+     * and the user registry is broadcast through it so that any instance can reach any user;
+     * heartbeats are then negotiated with the external broker. The in-memory broker sends and
+     * expects heartbeats itself and closes sessions that miss them.
      *
      * @param registry The MessageBrokerRegistry to configure
      */
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        // Enable a simple in-memory message broker with the /user prefix
-        // This is where messages will be broadcast from
-        registry.enableSimpleBroker("/user");
+        if (brokerProperties.getMode() == BrokerProperties.Mode.RELAY) {
+            // Relay /topic and /queue destinations to the external broker
+            // Messages for users connected to another instance are forwarded through it
+            registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(brokerProperties.getRelayHost())
+                    .setRelayPort(brokerProperties.getRelayPort())
+                    .setClientLogin(brokerProperties.getClientLogin())
+                    .setClientPasscode(brokerProperties.getClientPasscode())
+                    .setSystemLogin(brokerProperties.getSystemLogin())
+                    .setSystemPasscode(brokerProperties.getSystemPasscode())
+                    .setVirtualHost(brokerProperties.getVirtualHost())
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+        } else {
+            // Enable a simple in-memory message broker for /topic and /queue destinations
+            // This is where messages will be broadcast from
+            registry.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[]{
+                            sessionProperties.getHeartbeatSendInterval().toMillis(),
+                            sessionProperties.getHeartbeatReceiveInterval().toMillis()
+                    })
+                    .setTaskScheduler(heartbeatScheduler);
+        }
+
+        // Deliver messages to each session in the order they were published
+        registry.setPreservePublishOrder(channelProperties.isPreserveOrder());
 
         // Set the prefix for messages sent from client to server-side methods
         // Client will need to prepend this to any destinations
@@ -43,6 +105,47 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.setUserDestinationPrefix("/user");
     }
 
+    /**
+     * Configures the channel carrying messages from clients.
+     * This method names each session after the user who connected with it, rate limits chat
+     * messages and runs the message handlers on the configured executor.
+     *
+     * @param registration The ChannelRegistration to configure
+     */
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(userPrincipalInterceptor, wireFormatInterceptor, rateLimitInterceptor);
+        registration.executor(channelExecutors.create("inbound", channelProperties.getInbound()));
+    }
+
+    /**
+     * Configures the channel carrying messages to clients.
+     * This method sends the messages on the configured executor.
+     *
+     * @param registration The ChannelRegistration to configure
+     */
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.executor(channelExecutors.create("outbound", channelProperties.getOutbound()));
+    }
+
+    /**
+     * Configures the limits on the frames exchanged with WebSocket sessions.
+     * Incoming frames are bounded so that one client cannot make the server buffer arbitrarily large
+     * messages. Messages to a session are buffered while a send is in progress; a session that is too
+     * slow to keep up is closed once a send takes too long or the buffer grows too large, and a
+     * session that sends nothing for the idle timeout is closed by the {@link IdleSessionReaper}.
+     *
+     * @param registration The WebSocketTransportRegistration to configure
+     */
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit((int) channelProperties.getMessageSizeLimit().toBytes());
+        registration.setSendTimeLimit((int) channelProperties.getSendTimeLimit().toMillis());
+        registration.setSendBufferSizeLimit((int) channelProperties.getSendBufferSizeLimit().toBytes());
+        registration.addDecoratorFactory(idleSessionReaper);
+    }
+
     /**
      * Registers STOMP endpoints for WebSocket communication.
      * This method sets up the endpoint that the clients will use to connect to our WebSocket server.
@@ -54,11 +157,19 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // Registers an endpoint for WebSocket connections at /ws and enables SockJS fallback options
         // SockJS is used for browsers that don't support WebSocket
         registry.addEndpoint("/ws").withSockJS();
+
+        // Registers a plain WebSocket endpoint for clients using the binary wire format
+        // SockJS only carries text, so binary frames need a native WebSocket connection
+        registry.addEndpoint("/ws-native");
+
+        // Handle the messages of each session in the order they were received
+        registry.setPreserveReceiveOrder(channelProperties.isPreserveOrder());
     }
 
     /**
      * Configures the message converters for WebSocket communication.
-     * This method sets up JSON as the default message format.
+     * This method sets up JSON as the default message format and CBOR as a compact binary
+     * alternative. Both share the settings of the application's ObjectMapper.
      *
      * @param messageConverters The list of message converters to configure
      * @return true to allow other converters to be added, false otherwise
@@ -69,13 +180,21 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         DefaultContentTypeResolver resolver = new DefaultContentTypeResolver();
         resolver.setDefaultMimeType(APPLICATION_JSON);
 
-        // Creates a JSON message converter
-        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
-        converter.setObjectMapper(new ObjectMapper());
-        converter.setContentTypeResolver(resolver);
+        // Creates a JSON message converter using the application's ObjectMapper
+        MeteredJacksonMessageConverter jsonConverter =
+                new MeteredJacksonMessageConverter(objectMapper, "json", meterRegistry, APPLICATION_JSON);
+        jsonConverter.setContentTypeResolver(resolver);
+
+        // Creates a CBOR message converter configured like the application's ObjectMapper
+        // Binary frames are sent as application/octet-stream, so that content type is read as CBOR too
+        ObjectMapper cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+        MeteredJacksonMessageConverter cborConverter = new MeteredJacksonMessageConverter(
+                cborMapper, "cbor", meterRegistry, WireFormatRegistry.APPLICATION_CBOR, APPLICATION_OCTET_STREAM);
+        cborConverter.setStrictContentTypeMatch(true);
 
-        // Adds the JSON message converter to the list of message converters
-        messageConverters.add(converter);
+        // Adds the message converters to the list of message converters
+        messageConverters.add(jsonConverter);
+        messageConverters.add(cborConverter);
 
         // Return true to allow other converters to be added if needed
         return true;
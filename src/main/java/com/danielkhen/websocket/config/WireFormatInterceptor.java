@@ -0,0 +1,45 @@
+package com.danielkhen.websocket.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Channel interceptor that records the wire format of every session on CONNECT: the one the client
+ * asks for, or JSON.
+ * Must run after {@link UserPrincipalInterceptor}, which names the session's user.
+ */
+@Component
+@RequiredArgsConstructor
+public class WireFormatInterceptor implements ChannelInterceptor {
+
+    private final WireFormatRegistry wireFormatRegistry;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        var accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || !StompCommand.CONNECT.equals(accessor.getCommand()) || accessor.getUser() == null) {
+            return message;
+        }
+
+        // Every session is recorded, so a user's JSON sessions keep the other sessions off CBOR
+        var format = MimeTypeUtils.APPLICATION_JSON;
+        var acceptFormat = accessor.getFirstNativeHeader(WireFormatRegistry.ACCEPT_FORMAT_HEADER);
+        if (acceptFormat != null) {
+            try {
+                format = MimeTypeUtils.parseMimeType(acceptFormat);
+            } catch (InvalidMimeTypeException e) {
+                // Unknown formats fall back to JSON
+            }
+        }
+        wireFormatRegistry.register(accessor.getUser().getName(), accessor.getSessionId(), format);
+        return message;
+    }
+}
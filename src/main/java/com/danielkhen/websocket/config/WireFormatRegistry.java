@@ -0,0 +1,83 @@
+package com.danielkhen.websocket.config;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the wire format of each session, as asked for on CONNECT.
+ * Clients send an "accept-format" header; sessions that do not send one are recorded as JSON.
+ */
+@Component
+public class WireFormatRegistry {
+
+    /** CONNECT header naming the wire format the client wants to receive */
+    public static final String ACCEPT_FORMAT_HEADER = "accept-format";
+
+    /** Native header telling the client which wire format a frame is encoded in */
+    public static final String WIRE_FORMAT_HEADER = "wire-format";
+
+    /** Compact binary wire format */
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+
+    private final Map<String, Map<String, MimeType>> formatsByUser = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionOwners = new ConcurrentHashMap<>();
+
+    /**
+     * Records the wire format of a session.
+     *
+     * @param userId ID of the user owning the session
+     * @param sessionId ID of the STOMP session
+     * @param format The wire format the session asked for, or JSON
+     */
+    public void register(String userId, String sessionId, MimeType format) {
+        sessionOwners.put(sessionId, userId);
+        formatsByUser.computeIfAbsent(userId, key -> new ConcurrentHashMap<>()).put(sessionId, format);
+    }
+
+    /**
+     * Builds the headers for a message sent to all sessions of a user.
+     * CBOR is only used when every session of the user asked for it. Binary frames are sent
+     * as application/octet-stream, which is what makes the WebSocket layer use binary frames.
+     *
+     * @param userId ID of the recipient
+     * @return Headers to pass to convertAndSendToUser, or null for the default JSON encoding
+     */
+    public MessageHeaders headersFor(String userId) {
+        var formats = formatsByUser.get(userId);
+        if (formats == null || formats.isEmpty()
+                || !formats.values().stream().allMatch(APPLICATION_CBOR::equalsTypeAndSubtype)) {
+            return null;
+        }
+
+        var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        accessor.setNativeHeader(WIRE_FORMAT_HEADER, APPLICATION_CBOR.toString());
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+
+    /**
+     * Forgets the wire format of a closed session.
+     *
+     * @param event The session disconnect event
+     */
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        var userId = sessionOwners.remove(event.getSessionId());
+        if (userId != null) {
+            formatsByUser.computeIfPresent(userId, (key, formats) -> {
+                formats.remove(event.getSessionId());
+                return formats.isEmpty() ? null : formats;
+            });
+        }
+    }
+}
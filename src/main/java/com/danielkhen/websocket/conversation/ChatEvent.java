@@ -0,0 +1,31 @@
+package com.danielkhen.websocket.conversation;
+
+import lombok.*;
+
+/**
+ * Represents an ephemeral conversation event: a user starting or stopping typing, or reading messages.
+ * Events are relayed to the conversation partner and never stored; only the latest read position
+ * of each conversation is persisted.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChatEvent {
+    /** Kind of event */
+    private Type type;
+
+    /** ID of the user the event comes from; set by the server */
+    private String senderId;
+
+    /** ID of the conversation partner the event is for */
+    private String recipientId;
+
+    /** For READ events, sequence number of the latest message read, or null if all messages were read */
+    private Long sequence;
+
+    public enum Type {
+        TYPING, STOPPED_TYPING, READ
+    }
+}
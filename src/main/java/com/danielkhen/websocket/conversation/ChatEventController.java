@@ -0,0 +1,35 @@
+package com.danielkhen.websocket.conversation;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+
+import java.security.Principal;
+
+/**
+ * Controller for ephemeral conversation events.
+ * Receives typing and read events via WebSocket and hands them to the {@link ChatEventRelay}.
+ */
+@Controller
+@RequiredArgsConstructor
+public class ChatEventController {
+
+    private final ChatEventRelay chatEventRelay;
+
+    /**
+     * Handles a typing or read event via WebSocket.
+     *
+     * @param event The event; its sender is taken from the session
+     * @param principal The user the event comes from
+     */
+    @MessageMapping("/chat.event")
+    public void relayEvent(@Payload ChatEvent event, Principal principal) {
+        if (principal == null || event.getType() == null || event.getRecipientId() == null
+                || event.getRecipientId().equals(principal.getName())) {
+            return;
+        }
+        event.setSenderId(principal.getName());
+        chatEventRelay.record(event);
+    }
+}
@@ -0,0 +1,28 @@
+package com.danielkhen.websocket.conversation;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for typing indicators and read receipts.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.events")
+public class ChatEventProperties {
+
+    /** How long events for a conversation are collected before the latest state is relayed */
+    private Duration window = Duration.ofMillis(250);
+
+    /**
+     * Minimum time between two relayed typing events for a conversation; clients should show
+     * the indicator for somewhat longer than this after the last one
+     */
+    private Duration typingRefresh = Duration.ofSeconds(3);
+
+    /** How often the latest read positions are written to the conversation summaries */
+    private Duration readFlushInterval = Duration.ofSeconds(2);
+}
@@ -0,0 +1,156 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.config.WireFormatRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays typing and read events to /user/{recipientId}/queue/events without storing them.
+ * The first event in an idle period opens a window; within it, events of each sender and
+ * recipient pair are folded into the latest typing state and the furthest read position, so
+ * a burst of keystrokes or receipts leaves as at most one typing and one read event. A typing
+ * state is not relayed again until the typing refresh interval has passed, and a stop is only
+ * relayed if the start was. Read positions are also handed to {@link ReadPositions} when
+ * conversation summaries are stored.
+ */
+@Component
+public class ChatEventRelay {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ChatEventProperties properties;
+    private final ChatMetrics chatMetrics;
+    private final WireFormatRegistry wireFormatRegistry;
+    private final Optional<ReadPositions> readPositions;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "chat-event-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Pending events per sender and recipient, in order of first event */
+    private final Map<Pair, PendingEvents> pending = new LinkedHashMap<>();
+    /** When a typing event was last relayed per sender and recipient, in nanoseconds */
+    private final Map<Pair, Long> typingRelayedAt = new HashMap<>();
+    private boolean flushScheduled;
+
+    public ChatEventRelay(
+            SimpMessagingTemplate messagingTemplate,
+            ChatEventProperties properties,
+            ChatMetrics chatMetrics,
+            WireFormatRegistry wireFormatRegistry,
+            Optional<ReadPositions> readPositions
+    ) {
+        this.messagingTemplate = messagingTemplate;
+        this.properties = properties;
+        this.chatMetrics = chatMetrics;
+        this.wireFormatRegistry = wireFormatRegistry;
+        this.readPositions = readPositions;
+    }
+
+    /**
+     * Records an event to relay to its recipient.
+     *
+     * @param event The event, with its sender set
+     */
+    public void record(ChatEvent event) {
+        if (event.getType() == ChatEvent.Type.READ) {
+            readPositions.ifPresent(positions ->
+                    positions.record(event.getSenderId(), event.getRecipientId(), event.getSequence()));
+        }
+
+        synchronized (this) {
+            var events = pending.computeIfAbsent(new Pair(event.getSenderId(), event.getRecipientId()), pair -> new PendingEvents());
+            switch (event.getType()) {
+                case TYPING -> events.typing = true;
+                case STOPPED_TYPING -> events.typing = false;
+                case READ -> {
+                    long sequence = event.getSequence() == null ? Long.MAX_VALUE : event.getSequence();
+                    events.read = events.read == null ? sequence : Math.max(events.read, sequence);
+                }
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, properties.getWindow().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Sends the events of the window that just closed. The pending events are taken under the
+     * lock and sent after releasing it, so that senders recording new events do not wait on
+     * delivery to the broker.
+     */
+    void flush() {
+        var events = new ArrayList<ChatEvent>();
+        synchronized (this) {
+            flushScheduled = false;
+            long now = System.nanoTime();
+            long typingRefresh = properties.getTypingRefresh().toNanos();
+
+            pending.forEach((pair, pairEvents) -> {
+                if (Boolean.TRUE.equals(pairEvents.typing)) {
+                    var relayedAt = typingRelayedAt.get(pair);
+                    if (relayedAt == null || now - relayedAt >= typingRefresh) {
+                        typingRelayedAt.put(pair, now);
+                        events.add(event(pair, ChatEvent.Type.TYPING, null));
+                    }
+                } else if (Boolean.FALSE.equals(pairEvents.typing) && typingRelayedAt.remove(pair) != null) {
+                    events.add(event(pair, ChatEvent.Type.STOPPED_TYPING, null));
+                }
+                if (pairEvents.read != null) {
+                    events.add(event(pair, ChatEvent.Type.READ, pairEvents.read == Long.MAX_VALUE ? null : pairEvents.read));
+                }
+            });
+            pending.clear();
+
+            // Recipients have stopped showing an indicator that was not refreshed for this long
+            typingRelayedAt.values().removeIf(relayedAt -> now - relayedAt >= 2 * typingRefresh);
+        }
+
+        events.forEach(this::send);
+    }
+
+    private static ChatEvent event(Pair pair, ChatEvent.Type type, Long sequence) {
+        return ChatEvent.builder()
+                .type(type)
+                .senderId(pair.senderId())
+                .recipientId(pair.recipientId())
+                .sequence(sequence)
+                .build();
+    }
+
+    private void send(ChatEvent event) {
+        messagingTemplate.convertAndSendToUser(
+                event.getRecipientId(),
+                "/queue/events",
+                event,
+                wireFormatRegistry.headersFor(event.getRecipientId())
+        );
+        chatMetrics.countDelivery("event");
+    }
+
+    private record Pair(String senderId, String recipientId) {
+    }
+
+    /** Latest typing state, or null if none was reported, and furthest read position, or null */
+    private static class PendingEvents {
+        Boolean typing;
+        Long read;
+    }
+}
@@ -0,0 +1,14 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+
+/**
+ * Change to apply to one conversation summary after messages were saved.
+ *
+ * @param userId ID of the inbox owner
+ * @param otherUserId ID of the conversation partner
+ * @param lastMessage The latest of the saved messages in the conversation
+ * @param unreadIncrement Number of saved messages the inbox owner received
+ */
+public record ConversationActivity(String userId, String otherUserId, ChatMessage lastMessage, int unreadIncrement) {
+}
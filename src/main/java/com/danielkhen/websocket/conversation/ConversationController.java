@@ -0,0 +1,71 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.security.Principal;
+import java.util.List;
+
+/**
+ * Controller for handling conversation-related operations.
+ * Receives read receipts via WebSocket and provides a REST endpoint for a user's inbox.
+ * Read receipts are relayed and persisted like READ events sent to /app/chat.event.
+ */
+@Slf4j
+@Controller
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class ConversationController {
+
+    private final ConversationService conversationService;
+    private final ChatEventRelay chatEventRelay;
+
+    /**
+     * Handles a read receipt via WebSocket.
+     *
+     * @param receipt The read receipt
+     * @param principal The user who read the messages
+     */
+    @MessageMapping("/chat.read")
+    public void markRead(@Payload ReadReceipt receipt, Principal principal) {
+        if (principal == null || receipt.getOtherUserId() == null) {
+            return;
+        }
+        chatEventRelay.record(ChatEvent.builder()
+                .type(ChatEvent.Type.READ)
+                .senderId(principal.getName())
+                .recipientId(receipt.getOtherUserId())
+                .sequence(receipt.getSequence())
+                .build());
+    }
+
+    /**
+     * REST endpoint to retrieve a user's conversations.
+     *
+     * @param userId ID of the user
+     * @param limit Maximum number of conversations to return
+     * @return The user's conversations, most recently active first
+     */
+    @GetMapping("/conversations/{userId}")
+    public ResponseEntity<List<ConversationSummary>> findConversations(
+            @PathVariable("userId") String userId,
+            @RequestParam(name = "limit", required = false) Integer limit
+    ) {
+        try {
+            return ResponseEntity.ok(conversationService.findConversations(userId, limit));
+        } catch (Exception e) {
+            // Log the error
+            log.error("Error retrieving conversations userId={}", userId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Service class for managing conversation summaries.
+ * Keeps each user's inbox up to date as messages are saved and read.
+ */
+@Slf4j
+@Service
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class ConversationService {
+
+    /** Number of conversations returned when the client does not ask for a count */
+    private static final int DEFAULT_LIMIT = 50;
+
+    /** Upper bound on the number of conversations a client can ask for */
+    private static final int MAX_LIMIT = 200;
+
+    private final ConversationSummaryRepository conversationSummaryRepository;
+
+    /**
+     * Updates the summaries of both participants for newly saved messages.
+     * Messages are folded into one change per summary, so a batch costs a single bulk write.
+     * Summaries can be rebuilt from the history, so a failed update is logged rather than thrown.
+     *
+     * @param messages The saved messages, oldest first
+     */
+    public void recordMessages(List<ChatMessage> messages) {
+        var activities = new LinkedHashMap<String, ConversationActivity>();
+        for (var message : messages) {
+            fold(activities, message.getSenderId(), message.getRecipientId(), message, 0);
+            fold(activities, message.getRecipientId(), message.getSenderId(), message, 1);
+        }
+
+        try {
+            conversationSummaryRepository.recordActivity(List.copyOf(activities.values()));
+        } catch (DataAccessException e) {
+            log.warn("Could not update conversation summaries count={} error=\"{}\"", messages.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Marks conversations as read up to the given messages in a single bulk write.
+     * A failed write is logged and reported rather than thrown, so the caller can retry it.
+     *
+     * @param positions The latest read position of each conversation, at most one per summary
+     * @return true if the positions were written
+     */
+    public boolean markRead(List<ReadPosition> positions) {
+        try {
+            conversationSummaryRepository.markRead(positions);
+            return true;
+        } catch (DataAccessException e) {
+            log.warn("Could not mark conversations read count={} error=\"{}\"", positions.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves a user's conversations, most recently active first.
+     *
+     * @param userId ID of the user
+     * @param limit Requested number of conversations, or null for the default; capped at the maximum
+     * @return The user's conversation summaries
+     */
+    public List<ConversationSummary> findConversations(String userId, Integer limit) {
+        var pageSize = Math.min(limit == null || limit <= 0 ? DEFAULT_LIMIT : limit, MAX_LIMIT);
+        return conversationSummaryRepository.findByUserIdOrderByLastActivityDesc(userId, PageRequest.of(0, pageSize));
+    }
+
+    private static void fold(
+            LinkedHashMap<String, ConversationActivity> activities,
+            String userId,
+            String otherUserId,
+            ChatMessage message,
+            int unreadIncrement
+    ) {
+        activities.merge(
+                ConversationSummary.idOf(userId, otherUserId),
+                new ConversationActivity(userId, otherUserId, message, unreadIncrement),
+                (previous, next) -> new ConversationActivity(
+                        userId, otherUserId, next.lastMessage(), previous.unreadIncrement() + next.unreadIncrement())
+        );
+    }
+}
@@ -0,0 +1,64 @@
+package com.danielkhen.websocket.conversation;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Represents one conversation in a user's inbox.
+ * This entity is stored in MongoDB, one document per user and conversation partner, and is
+ * updated whenever a message is saved or read, so the inbox never has to be computed from history.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document
+@CompoundIndex(name = "user_activity", def = "{'userId': 1, 'lastActivity': -1}")
+public class ConversationSummary {
+    /** Unique identifier for the summary, made of the user ID and the partner ID */
+    @Id
+    private String id;
+
+    /** ID of the user whose inbox this summary belongs to */
+    private String userId;
+
+    /** ID of the other participant of the conversation */
+    private String otherUserId;
+
+    /** Unique identifier for the chat room of the conversation */
+    private String chatId;
+
+    /** Unique identifier for the latest message */
+    private String lastMessageId;
+
+    /** ID of the user who sent the latest message */
+    private String lastSenderId;
+
+    /** Leading part of the content of the latest message */
+    private String lastMessagePreview;
+
+    /** Sequence number of the latest message */
+    private Long lastSequence;
+
+    /** Timestamp of the latest message */
+    private Date lastActivity;
+
+    /** Number of messages from the other participant that the user has not read */
+    private int unreadCount;
+
+    /**
+     * Builds the ID of the summary of a conversation in a user's inbox.
+     *
+     * @param userId ID of the inbox owner
+     * @param otherUserId ID of the conversation partner
+     * @return The summary ID
+     */
+    public static String idOf(String userId, String otherUserId) {
+        return userId + "/" + otherUserId;
+    }
+}
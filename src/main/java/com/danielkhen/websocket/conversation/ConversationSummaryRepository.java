@@ -0,0 +1,12 @@
+package com.danielkhen.websocket.conversation;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface ConversationSummaryRepository
+        extends MongoRepository<ConversationSummary, String>, ConversationSummaryRepositoryCustom {
+
+    List<ConversationSummary> findByUserIdOrderByLastActivityDesc(String userId, Pageable pageable);
+}
@@ -0,0 +1,25 @@
+package com.danielkhen.websocket.conversation;
+
+import java.util.List;
+
+/**
+ * Conversation summary updates that cannot be expressed as derived repository queries.
+ */
+public interface ConversationSummaryRepositoryCustom {
+
+    /**
+     * Applies new activity to conversation summaries in a single bulk write, creating summaries
+     * for conversations that have none yet.
+     *
+     * @param activities The changes to apply, at most one per summary
+     */
+    void recordActivity(List<ConversationActivity> activities);
+
+    /**
+     * Resets the unread counts of conversations in a single bulk write. A count is only reset if
+     * nothing newer than the read message arrived.
+     *
+     * @param positions The latest message each user has read, at most one per summary
+     */
+    void markRead(List<ReadPosition> positions);
+}
@@ -0,0 +1,90 @@
+package com.danielkhen.websocket.conversation;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+/**
+ * MongoTemplate-backed implementation of {@link ConversationSummaryRepositoryCustom}.
+ * Summaries are addressed by their natural ID, so concurrent upserts of the same summary are
+ * retried by the server instead of failing on the unique _id index. Batches from different
+ * writers can arrive out of order, so the latest message of a summary is only replaced by a
+ * message with a higher sequence number.
+ */
+@RequiredArgsConstructor
+public class ConversationSummaryRepositoryImpl implements ConversationSummaryRepositoryCustom {
+
+    /** Number of characters of the latest message kept in a summary */
+    private static final int PREVIEW_LENGTH = 100;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void recordActivity(List<ConversationActivity> activities) {
+        if (activities.isEmpty()) {
+            return;
+        }
+
+        // Ordered, so that each summary exists before its latest message is set
+        var bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ConversationSummary.class);
+        for (var activity : activities) {
+            var message = activity.lastMessage();
+            bulk.upsert(byId(activity.userId(), activity.otherUserId()), new Update()
+                    .setOnInsert("userId", activity.userId())
+                    .setOnInsert("otherUserId", activity.otherUserId())
+                    .inc("unreadCount", activity.unreadIncrement()));
+
+            var query = byId(activity.userId(), activity.otherUserId());
+            if (message.getSequence() != null) {
+                query.addCriteria(new Criteria().orOperator(
+                        Criteria.where("lastSequence").lt(message.getSequence()),
+                        Criteria.where("lastSequence").is(null)
+                ));
+            }
+            bulk.updateOne(query, new Update()
+                    .set("chatId", message.getChatId())
+                    .set("lastMessageId", message.getId())
+                    .set("lastSenderId", message.getSenderId())
+                    .set("lastMessagePreview", preview(message.getContent()))
+                    .set("lastSequence", message.getSequence())
+                    .set("lastActivity", message.getTimestamp()));
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public void markRead(List<ReadPosition> positions) {
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        var bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ConversationSummary.class);
+        for (var position : positions) {
+            var query = byId(position.userId(), position.otherUserId());
+            query.addCriteria(new Criteria().orOperator(
+                    Criteria.where("lastSequence").lte(position.sequence()),
+                    Criteria.where("lastSequence").is(null)
+            ));
+            bulk.updateOne(query, new Update().set("unreadCount", 0));
+        }
+        bulk.execute();
+    }
+
+    private static Query byId(String userId, String otherUserId) {
+        return Query.query(Criteria.where("id").is(ConversationSummary.idOf(userId, otherUserId)));
+    }
+
+    private static String preview(String content) {
+        if (content == null || content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+        // Do not cut a surrogate pair in half
+        int end = Character.isHighSurrogate(content.charAt(PREVIEW_LENGTH - 1)) ? PREVIEW_LENGTH - 1 : PREVIEW_LENGTH;
+        return content.substring(0, end);
+    }
+}
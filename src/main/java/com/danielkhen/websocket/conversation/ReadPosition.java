@@ -0,0 +1,11 @@
+package com.danielkhen.websocket.conversation;
+
+/**
+ * Latest message a user has read in a conversation.
+ *
+ * @param userId ID of the inbox owner
+ * @param otherUserId ID of the conversation partner
+ * @param sequence Sequence number of the latest message read; Long.MAX_VALUE if all messages were read
+ */
+public record ReadPosition(String userId, String otherUserId, long sequence) {
+}
@@ -0,0 +1,96 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects read positions and writes them to the conversation summaries on a timer.
+ * Only the furthest position per user and conversation is kept between flushes, so a client
+ * reporting every message it shows costs at most one write per conversation and interval,
+ * and all conversations read in an interval share a single bulk write.
+ */
+@Component
+@ConditionalOnMongoStorage
+public class ReadPositions {
+
+    private final ConversationService conversationService;
+    private final ChatEventProperties properties;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "read-positions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Furthest unwritten position per conversation summary ID */
+    private Map<String, ReadPosition> pending = new HashMap<>();
+
+    public ReadPositions(ConversationService conversationService, ChatEventProperties properties) {
+        this.conversationService = conversationService;
+        this.properties = properties;
+    }
+
+    /**
+     * Starts writing read positions periodically once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long interval = properties.getReadFlushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the remaining positions before the repositories are closed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Records that a user has read a conversation up to a message.
+     *
+     * @param userId ID of the user who read the messages
+     * @param otherUserId ID of the conversation partner
+     * @param sequence Sequence number of the latest message read, or null if all messages were read
+     */
+    public void record(String userId, String otherUserId, Long sequence) {
+        merge(new ReadPosition(userId, otherUserId, sequence == null ? Long.MAX_VALUE : sequence));
+    }
+
+    /**
+     * Writes the pending positions. Positions that could not be written are kept for the next flush.
+     */
+    public void flush() {
+        Map<String, ReadPosition> positions;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            positions = pending;
+            pending = new HashMap<>();
+        }
+
+        if (!conversationService.markRead(List.copyOf(positions.values()))) {
+            positions.values().forEach(this::merge);
+        }
+    }
+
+    private synchronized void merge(ReadPosition position) {
+        pending.merge(
+                ConversationSummary.idOf(position.userId(), position.otherUserId()),
+                position,
+                (previous, next) -> previous.sequence() >= next.sequence() ? previous : next
+        );
+    }
+}
@@ -0,0 +1,19 @@
+package com.danielkhen.websocket.conversation;
+
+import lombok.*;
+
+/**
+ * Represents a client's report that it has shown a conversation's messages to the user.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ReadReceipt {
+    /** ID of the conversation partner whose messages were read */
+    private String otherUserId;
+
+    /** Sequence number of the latest message read, or null if all messages were read */
+    private Long sequence;
+}
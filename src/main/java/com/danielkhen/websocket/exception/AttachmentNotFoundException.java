@@ -0,0 +1,16 @@
+package com.danielkhen.websocket.exception;
+
+/**
+ * Exception thrown when requested message content does not exist.
+ */
+public class AttachmentNotFoundException extends RuntimeException {
+
+    /**
+     * Constructs a new AttachmentNotFoundException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public AttachmentNotFoundException(String message) {
+        super(message);
+    }
+}
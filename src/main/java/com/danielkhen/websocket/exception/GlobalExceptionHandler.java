@@ -1,5 +1,6 @@
 package com.danielkhen.websocket.exception;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -9,6 +10,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
  * Global exception handler for the application.
  * Handles various exceptions and returns appropriate HTTP responses.
  */
+@Slf4j
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
@@ -20,6 +22,7 @@ public class GlobalExceptionHandler {
      */
     @ExceptionHandler(ChatRoomNotFoundException.class)
     public ResponseEntity<String> handleChatRoomNotFoundException(ChatRoomNotFoundException ex) {
+        log.warn("Chat room not found error=\"{}\"", ex.getMessage());
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
     }
 
@@ -31,9 +34,34 @@ public class GlobalExceptionHandler {
      */
     @ExceptionHandler(UserNotFoundException.class)
     public ResponseEntity<String> handleUserNotFoundException(UserNotFoundException ex) {
+        log.warn("User not found error=\"{}\"", ex.getMessage());
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
     }
 
+    /**
+     * Handles AttachmentNotFoundException and returns a 404 Not Found response.
+     *
+     * @param ex The caught AttachmentNotFoundException
+     * @return ResponseEntity with error details and 404 status
+     */
+    @ExceptionHandler(AttachmentNotFoundException.class)
+    public ResponseEntity<String> handleAttachmentNotFoundException(AttachmentNotFoundException ex) {
+        log.warn("Attachment not found error=\"{}\"", ex.getMessage());
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * Handles InvalidCursorException and returns a 400 Bad Request response.
+     *
+     * @param ex The caught InvalidCursorException
+     * @return ResponseEntity with error details and 400 status
+     */
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<String> handleInvalidCursorException(InvalidCursorException ex) {
+        log.warn("Invalid cursor error=\"{}\"", ex.getMessage());
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
     /**
      * Handles general exceptions and returns a 500 Internal Server Error response.
      *
@@ -42,6 +70,7 @@ public class GlobalExceptionHandler {
      */
     @ExceptionHandler(Exception.class)
     public ResponseEntity<String> handleGeneralException(Exception ex) {
+        log.error("Unexpected error", ex);
         return new ResponseEntity<>("An unexpected error occurred: " + ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
     }
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.danielkhen.websocket.exception;
+
+/**
+ * Exception thrown when a history cursor supplied by a client cannot be used.
+ */
+public class InvalidCursorException extends RuntimeException {
+
+    /**
+     * Constructs a new InvalidCursorException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+}
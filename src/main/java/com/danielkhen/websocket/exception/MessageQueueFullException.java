@@ -0,0 +1,16 @@
+package com.danielkhen.websocket.exception;
+
+/**
+ * Exception thrown when a message cannot be queued for persistence because the queue is full.
+ */
+public class MessageQueueFullException extends RuntimeException {
+
+    /**
+     * Constructs a new MessageQueueFullException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public MessageQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package com.danielkhen.websocket.exception;
+
+/**
+ * Exception thrown when a chat message exceeds the maximum content length.
+ */
+public class MessageTooLargeException extends RuntimeException {
+
+    /**
+     * Constructs a new MessageTooLargeException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public MessageTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.danielkhen.websocket.search;
+
+/**
+ * Position of a matched word within a snippet.
+ *
+ * @param start Index of the first character of the match
+ * @param end Index after the last character of the match
+ */
+public record Highlight(int start, int end) {
+}
@@ -0,0 +1,55 @@
+package com.danielkhen.websocket.search;
+
+import com.danielkhen.websocket.exception.InvalidCursorException;
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Controller for searching chat messages.
+ * Provides a REST endpoint for full-text search over a user's conversations.
+ */
+@Slf4j
+@Controller
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class SearchController {
+
+    private final SearchService searchService;
+
+    /**
+     * REST endpoint to search a user's messages.
+     *
+     * @param userId ID of the user searching
+     * @param search Words to search for
+     * @param otherUserId ID of the conversation partner to restrict the search to, if any
+     * @param cursor Cursor returned by a previous page, to load the next one
+     * @param limit Maximum number of results to return
+     * @return A page of matching messages with snippets, best match first
+     */
+    @GetMapping("/search/{userId}")
+    public ResponseEntity<SearchPage> search(
+            @PathVariable("userId") String userId,
+            @RequestParam(name = "q") String search,
+            @RequestParam(name = "with", required = false) String otherUserId,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "limit", required = false) Integer limit
+    ) {
+        try {
+            return ResponseEntity.ok(searchService.search(
+                    userId, search, otherUserId, SearchCursor.decode(cursor), limit));
+        } catch (InvalidCursorException e) {
+            throw e;
+        } catch (Exception e) {
+            // Log the error
+            log.error("Error searching messages userId={}", userId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.danielkhen.websocket.search;
+
+import com.danielkhen.websocket.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the results of a search, identified by the number of matches before it.
+ * Results are ordered by relevance, which cannot be expressed as a keyset, so pages are read by
+ * offset. Clients receive cursors as opaque strings and pass them back to load the next page.
+ *
+ * @param offset Number of matches that come before the cursor
+ */
+public record SearchCursor(int offset) {
+
+    /**
+     * Decodes a cursor previously produced by {@link #encode()}.
+     *
+     * @param value The encoded cursor, may be null
+     * @return The decoded cursor, or null if no cursor was given
+     * @throws InvalidCursorException if the value is not a valid cursor
+     */
+    public static SearchCursor decode(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            var offset = Integer.parseInt(new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8));
+            if (offset < 0) {
+                throw new InvalidCursorException("Invalid search cursor: " + value);
+            }
+            return new SearchCursor(offset);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Invalid search cursor: " + value);
+        }
+    }
+
+    /**
+     * @return The cursor as an opaque URL-safe string
+     */
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                Integer.toString(offset).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,28 @@
+package com.danielkhen.websocket.search;
+
+import com.danielkhen.websocket.chat.ChatMessageView;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents a message that matched a search.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SearchHit {
+    /** The matching message */
+    private ChatMessageView message;
+
+    /** ID of the other participant of the conversation the message belongs to */
+    private String otherUserId;
+
+    /** Part of the content around the first match */
+    private String snippet;
+
+    /** Positions of the matched words within the snippet */
+    private List<Highlight> highlights;
+}
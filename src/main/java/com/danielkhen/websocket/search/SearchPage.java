@@ -0,0 +1,21 @@
+package com.danielkhen.websocket.search;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents one page of search results, best match first.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SearchPage {
+    /** Matching messages in this page, best match first */
+    private List<SearchHit> hits;
+
+    /** Cursor to pass as "cursor" to load the next page, or null if there are none */
+    private String nextCursor;
+}
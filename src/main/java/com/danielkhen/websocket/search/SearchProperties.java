@@ -0,0 +1,26 @@
+package com.danielkhen.websocket.search;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Configuration properties for searching chat messages.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.search")
+public class SearchProperties {
+
+    /** Number of results returned when the client does not ask for a page size */
+    private int defaultPageSize = 20;
+
+    /** Upper bound on the page size a client can ask for */
+    private int maxPageSize = 100;
+
+    /** Number of most recently active conversations searched when no conversation is given */
+    private int maxConversations = 50;
+
+    /** Number of characters of content around the first match returned as a snippet */
+    private int snippetLength = 120;
+}
@@ -0,0 +1,106 @@
+package com.danielkhen.websocket.search;
+
+import com.danielkhen.websocket.chat.ChatMessageRepository;
+import com.danielkhen.websocket.chat.ChatMessageView;
+import com.danielkhen.websocket.chatroom.ChatRoomService;
+import com.danielkhen.websocket.conversation.ConversationSummaryRepository;
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Service class for searching a user's chat messages.
+ * All conversations searched are covered by one text query, which MongoDB ranks by text score
+ * and cuts to the page, so only the page is sent back.
+ * Only messages in the chat message collection are searched. Messages moved into archive buckets
+ * (see {@link com.danielkhen.websocket.chat.ArchiveProperties}) are outside the text index and are
+ * not found.
+ */
+@Service
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class SearchService {
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatRoomService chatRoomService;
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final SearchProperties searchProperties;
+
+    /**
+     * Searches the messages of a user's conversations.
+     *
+     * @param userId ID of the user searching
+     * @param search Words to search for; a message matches if it contains any of them
+     * @param otherUserId ID of the conversation partner to search with, or null for the user's most
+     *                    recently active conversations
+     * @param cursor Cursor to load the next page from, or null for the first page
+     * @param limit Requested page size, or null for the default; capped at the configured maximum
+     * @return Page of matching messages, best match first
+     */
+    public SearchPage search(String userId, String search, String otherUserId, SearchCursor cursor, Integer limit) {
+        var terms = search == null ? List.<String>of() : Snippets.terms(search);
+        if (terms.isEmpty()) {
+            return SearchPage.builder().hits(List.of()).build();
+        }
+        var pageSize = Math.min(
+                limit == null || limit <= 0 ? searchProperties.getDefaultPageSize() : limit,
+                searchProperties.getMaxPageSize()
+        );
+
+        var partnersByChatId = conversationsOf(userId, otherUserId);
+        if (partnersByChatId.isEmpty()) {
+            return SearchPage.builder().hits(List.of()).build();
+        }
+        var offset = cursor == null ? 0 : cursor.offset();
+        // One extra match tells whether another page exists
+        var matches = chatMessageRepository.searchChats(partnersByChatId.keySet(), search, offset, pageSize + 1);
+
+        var hasMore = matches.size() > pageSize;
+        var page = hasMore ? matches.subList(0, pageSize) : matches;
+        var hits = page.stream()
+                .map(message -> {
+                    var snippet = Snippets.snippet(
+                            Objects.requireNonNullElse(message.getContent(), ""),
+                            terms,
+                            searchProperties.getSnippetLength()
+                    );
+                    return SearchHit.builder()
+                            .message(ChatMessageView.of(message))
+                            .otherUserId(partnersByChatId.get(message.getChatId()))
+                            .snippet(snippet)
+                            .highlights(Snippets.highlights(snippet, terms))
+                            .build();
+                })
+                .toList();
+
+        return SearchPage.builder()
+                .hits(hits)
+                .nextCursor(hasMore ? new SearchCursor(offset + pageSize).encode() : null)
+                .build();
+    }
+
+    /**
+     * @return The conversation partners to search, keyed by chat room ID
+     */
+    private Map<String, String> conversationsOf(String userId, String otherUserId) {
+        var partnersByChatId = new LinkedHashMap<String, String>();
+        if (otherUserId != null) {
+            chatRoomService.getChatRoomId(userId, otherUserId, false)
+                    .ifPresent(chatId -> partnersByChatId.put(chatId, otherUserId));
+            return partnersByChatId;
+        }
+
+        conversationSummaryRepository.findByUserIdOrderByLastActivityDesc(
+                        userId, PageRequest.of(0, searchProperties.getMaxConversations()))
+                .stream()
+                .filter(summary -> summary.getChatId() != null)
+                .forEach(summary -> partnersByChatId.put(summary.getChatId(), summary.getOtherUserId()));
+        return partnersByChatId;
+    }
+}
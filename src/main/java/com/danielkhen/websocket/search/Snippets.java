@@ -0,0 +1,95 @@
+package com.danielkhen.websocket.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds highlighted snippets of message content for search results.
+ * Words are matched by prefix, which approximates the stemming of the text index closely enough
+ * to point at the word that made the message match.
+ */
+final class Snippets {
+
+    private Snippets() {
+    }
+
+    /**
+     * Splits a search string into the words to highlight.
+     * Negated words and quotes are dropped, since they never appear in a match as written.
+     *
+     * @param search The search string as given by the user
+     * @return The lower-cased words of the search
+     */
+    static List<String> terms(String search) {
+        return Arrays.stream(search.toLowerCase(Locale.ROOT).split("\\s+"))
+                .filter(term -> !term.startsWith("-"))
+                .map(term -> term.replace("\"", ""))
+                .filter(term -> !term.isEmpty())
+                .toList();
+    }
+
+    /**
+     * Cuts the part of the content around the first match.
+     *
+     * @param content The message content
+     * @param terms The words to look for, lower-cased
+     * @param length Maximum length of the snippet
+     * @return The snippet, starting a third of its length before the first match
+     */
+    static String snippet(String content, List<String> terms, int length) {
+        if (content.length() <= length) {
+            return content;
+        }
+        var lower = content.toLowerCase(Locale.ROOT);
+        int first = terms.stream()
+                .mapToInt(term -> indexOfWord(lower, term, 0))
+                .filter(index -> index >= 0)
+                .min()
+                .orElse(0);
+        int start = Math.max(0, Math.min(first - length / 3, content.length() - length));
+        return content.substring(start, start + length);
+    }
+
+    /**
+     * Finds the words of a snippet that start with one of the terms.
+     *
+     * @param snippet The snippet
+     * @param terms The words to look for, lower-cased
+     * @return The matched words in order of position
+     */
+    static List<Highlight> highlights(String snippet, List<String> terms) {
+        var lower = snippet.toLowerCase(Locale.ROOT);
+        var highlights = new ArrayList<Highlight>();
+        int position = 0;
+        while (position < lower.length()) {
+            int next = -1;
+            int end = -1;
+            for (var term : terms) {
+                int index = indexOfWord(lower, term, position);
+                if (index >= 0 && (next < 0 || index < next)) {
+                    next = index;
+                    end = index + term.length();
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            while (end < lower.length() && Character.isLetterOrDigit(lower.charAt(end))) {
+                end++;
+            }
+            highlights.add(new Highlight(next, end));
+            position = end;
+        }
+        return highlights;
+    }
+
+    private static int indexOfWord(String text, String term, int from) {
+        int index = text.indexOf(term, from);
+        while (index > 0 && Character.isLetterOrDigit(text.charAt(index - 1))) {
+            index = text.indexOf(term, index + 1);
+        }
+        return index;
+    }
+}
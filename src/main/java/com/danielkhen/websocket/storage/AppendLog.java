@@ -0,0 +1,233 @@
+package com.danielkhen.websocket.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A file of length-prefixed, checksummed records that only ever grows at the end.
+ * Each record is stored as its length, the CRC32C of its payload and the payload. Opening a log
+ * replays it and cuts off a torn or corrupt tail left by a crash, so every record that was
+ * acknowledged before the crash is read back intact.
+ * I/O failures are thrown as {@link DataAccessResourceFailureException}, like database failures.
+ */
+@Slf4j
+public class AppendLog implements Closeable {
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean forceWrites;
+    private long size;
+
+    private AppendLog(Path path, FileChannel channel, boolean forceWrites, long size) {
+        this.path = path;
+        this.channel = channel;
+        this.forceWrites = forceWrites;
+        this.size = size;
+    }
+
+    /**
+     * Opens a log, creating it if it does not exist, and replays its records.
+     *
+     * @param path The log file
+     * @param forceWrites Whether appends are forced to disk before they return
+     * @param replay Called with the offset and payload of every intact record, in order
+     * @return The open log, positioned after the last intact record
+     */
+    public static AppendLog open(Path path, boolean forceWrites, BiConsumer<Long, byte[]> replay) {
+        try {
+            Files.createDirectories(path.getParent());
+            var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = replay(path, channel, replay);
+            if (end < channel.size()) {
+                log.warn("Truncating torn log tail path={} validBytes={} fileBytes={}", path, end, channel.size());
+                channel.truncate(end);
+                channel.force(true);
+            }
+            return new AppendLog(path, channel, forceWrites, end);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not open log " + path, e);
+        }
+    }
+
+    /**
+     * Replaces the content of a log file with the given records, atomically.
+     * Used to compact logs whose older records have been superseded.
+     *
+     * @param path The log file, which must not be open
+     * @param payloads The records to keep
+     */
+    public static void rewrite(Path path, List<byte[]> payloads) {
+        var temporary = path.resolveSibling(path.getFileName() + ".compact");
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (var payload : payloads) {
+                write(channel, payload);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not compact log " + path, e);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not replace log " + path, e);
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param payload The record
+     * @return Offset of the record, for {@link #read(long)}
+     */
+    public long append(byte[] payload) {
+        return appendAll(List.of(payload))[0];
+    }
+
+    /**
+     * Appends records with a single write, and a single force when writes are forced.
+     *
+     * @param payloads The records
+     * @return Offsets of the records, in order
+     */
+    public synchronized long[] appendAll(List<byte[]> payloads) {
+        var offsets = new long[payloads.size()];
+        int total = 0;
+        for (var payload : payloads) {
+            total += HEADER_SIZE + payload.length;
+        }
+        var buffer = ByteBuffer.allocate(total);
+        long offset = size;
+        for (int i = 0; i < payloads.size(); i++) {
+            offsets[i] = offset;
+            putRecord(buffer, payloads.get(i));
+            offset += HEADER_SIZE + payloads.get(i).length;
+        }
+        buffer.flip();
+        try {
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            if (forceWrites) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // Drop whatever part of the batch was written, so the log stays a sequence of whole records
+            truncateQuietly();
+            throw new DataAccessResourceFailureException("Could not append to log " + path, e);
+        }
+        size = offset;
+        return offsets;
+    }
+
+    /**
+     * Reads the record at an offset returned by an append or a replay.
+     *
+     * @param offset Offset of the record
+     * @return The record
+     */
+    public byte[] read(long offset) {
+        try {
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, offset);
+            var payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(payload, offset + HEADER_SIZE);
+            return payload.array();
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not read log " + path, e);
+        }
+    }
+
+    /**
+     * @return Number of bytes of intact records in the log
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static long replay(Path path, FileChannel channel, BiConsumer<Long, byte[]> replay) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+        long offset = 0;
+        long fileSize = channel.size();
+        while (offset + HEADER_SIZE <= fileSize) {
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || offset + HEADER_SIZE + length > fileSize) {
+                    break;
+                }
+                var payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    log.warn("Corrupt log record path={} offset={}", path, offset);
+                    break;
+                }
+                replay.accept(offset, payload);
+                offset += HEADER_SIZE + length;
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        return offset;
+    }
+
+    private static void write(FileChannel channel, byte[] payload) throws IOException {
+        var buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        putRecord(buffer, payload);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte[] payload) {
+        buffer.putInt(payload.length).putInt(checksum(payload)).put(payload);
+    }
+
+    private static int checksum(byte[] payload) {
+        var crc = new CRC32C();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Record extends past the end of " + path);
+            }
+        }
+    }
+
+    private void truncateQuietly() {
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            log.error("Could not truncate partial append path={} error=\"{}\"", path, e.getMessage());
+        }
+    }
+}
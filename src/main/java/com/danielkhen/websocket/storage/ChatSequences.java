@@ -0,0 +1,16 @@
+package com.danielkhen.websocket.storage;
+
+/**
+ * Source of the sequence numbers already used in each chat, from which the local chat room store
+ * continues numbering after a restart.
+ */
+public interface ChatSequences {
+
+    /**
+     * Finds the highest sequence number stored in a chat, to continue numbering after a restart.
+     *
+     * @param chatId ID of the chat room
+     * @return The highest stored sequence number, or 0 if the chat has none
+     */
+    long lastSequence(String chatId);
+}
@@ -0,0 +1,19 @@
+package com.danielkhen.websocket.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers a bean only when the local append-only logs are the storage backend.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@ConditionalOnProperty(name = "chat.storage.type", havingValue = "local")
+public @interface ConditionalOnLocalStorage {
+}
@@ -0,0 +1,20 @@
+package com.danielkhen.websocket.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Registers a bean only when MongoDB is the storage backend, which is the default.
+ * Can be combined with other {@link ConditionalOnProperty} conditions.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@ConditionalOnProperty(name = "chat.storage.type", havingValue = "mongo", matchIfMissing = true)
+public @interface ConditionalOnMongoStorage {
+}
@@ -0,0 +1,66 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.attachment.AttachmentStore;
+import org.bson.types.ObjectId;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * {@link AttachmentStore} keeping each attachment in its own file on local disk.
+ * Files are written under a temporary name and moved into place, so a partly written
+ * attachment is never served.
+ */
+@Component
+@ConditionalOnLocalStorage
+public class LocalAttachmentStore implements AttachmentStore {
+
+    private final Path directory;
+
+    public LocalAttachmentStore(StorageProperties properties) {
+        this.directory = Path.of(properties.getDirectory(), "attachments");
+    }
+
+    @Override
+    public String store(String chatId, byte[] content) {
+        var id = new ObjectId().toHexString();
+        var temporary = directory.resolve(id + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            Files.write(temporary, content);
+            Files.move(temporary, directory.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not store attachment", e);
+        }
+        return id;
+    }
+
+    @Override
+    public Optional<Resource> load(String attachmentId) {
+        // Only IDs this store generated are looked up, which also keeps paths inside the directory
+        if (!ObjectId.isValid(attachmentId)) {
+            return Optional.empty();
+        }
+        var path = directory.resolve(attachmentId);
+        return Files.isRegularFile(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    @Override
+    public void delete(String attachmentId) {
+        if (!ObjectId.isValid(attachmentId)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(attachmentId));
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not delete attachment", e);
+        }
+    }
+}
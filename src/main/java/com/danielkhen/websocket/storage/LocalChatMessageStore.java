@@ -0,0 +1,372 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessageStore;
+import com.danielkhen.websocket.chat.HistoryCursor;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * {@link ChatMessageStore} keeping one append-only log per chat on local disk.
+ * A chat's log is opened and replayed the first time the chat is used, building an in-memory
+ * index of every message by (timestamp, id), by ID and by sequence number. Reads find their
+ * records through the index and read only those records, so a page costs one positional read
+ * per message. A message saved again is appended again and the index points at the newest copy.
+ * At most {@code chat.storage.max-open-chats} logs are kept open with their index; beyond that,
+ * the least used ones are evicted, closed once their reads have finished, and replayed again when
+ * their chat is next used.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+@ConditionalOnProperty(name = "chat.storage.message-log", havingValue = "append", matchIfMissing = true)
+public class LocalChatMessageStore implements ChatMessageStore, ChatSequences {
+
+    private static final Comparator<Entry> HISTORY_ORDER = Comparator
+            .comparingLong(Entry::timestamp)
+            .thenComparing(Entry::id);
+
+    private final Path chatsDirectory;
+    private final boolean forceWrites;
+    private final AppendLog deadLetters;
+    private final Cache<String, CompletableFuture<ChatLog>> chats;
+
+    public LocalChatMessageStore(StorageProperties properties) {
+        var directory = Path.of(properties.getDirectory());
+        this.chatsDirectory = directory.resolve("chats");
+        this.forceWrites = properties.isForceWrites();
+        this.deadLetters = AppendLog.open(directory.resolve("dead-letters.log"), true, (offset, payload) -> { });
+        // Evictions run on the calling thread, so an evicted log stops taking writes before its chat can be opened again
+        this.chats = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxOpenChats())
+                .executor(Runnable::run)
+                .<String, CompletableFuture<ChatLog>>evictionListener((chatId, chat, cause) -> chat.thenAccept(ChatLog::retire))
+                .build();
+    }
+
+    @Override
+    public ChatMessage save(ChatMessage message) {
+        saveAll(List.of(message));
+        return message;
+    }
+
+    @Override
+    public void insertAll(List<ChatMessage> messages) {
+        write(messages, true);
+    }
+
+    @Override
+    public void saveAll(List<ChatMessage> messages) {
+        write(messages, false);
+    }
+
+    @Override
+    public void saveDeadLetters(List<ChatMessage> messages) {
+        deadLetters.appendAll(messages.stream().map(Records::encode).toList());
+    }
+
+    @Override
+    public List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit) {
+        return read(chatId, List.of(), chat -> {
+            List<Entry> page;
+            synchronized (chat) {
+                int end = before == null ? chat.entries.size() : chat.lowerBound(before);
+                page = new ArrayList<>(chat.entries.subList(Math.max(0, end - limit), end));
+            }
+            Collections.reverse(page);
+            return chat.read(page);
+        });
+    }
+
+    @Override
+    public List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit) {
+        return read(chatId, List.of(), chat -> {
+            List<Entry> page;
+            synchronized (chat) {
+                int start = chat.upperBound(after);
+                page = new ArrayList<>(chat.entries.subList(start, Math.min(chat.entries.size(), start + limit)));
+            }
+            return chat.read(page);
+        });
+    }
+
+    @Override
+    public List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit) {
+        return read(chatId, List.of(), chat -> {
+            List<Entry> page;
+            synchronized (chat) {
+                page = chat.bySequence.tailMap(sequence, false).values().stream().limit(limit).toList();
+            }
+            return chat.read(page);
+        });
+    }
+
+    @Override
+    public Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to) {
+        var chat = acquireExistingChat(chatId);
+        if (chat == null) {
+            return Stream.empty();
+        }
+        List<Entry> entries;
+        synchronized (chat) {
+            entries = List.copyOf(chat.entries);
+        }
+        // Only the index is copied; records are read one at a time as the stream is consumed,
+        // so the log stays open until the stream is closed
+        return entries.stream()
+                .filter(entry -> from == null || entry.timestamp() >= from.getTime())
+                .filter(entry -> to == null || entry.timestamp() < to.getTime())
+                .map(chat::read)
+                .onClose(chat::release);
+    }
+
+    @Override
+    public long lastSequence(String chatId) {
+        return read(chatId, 0L, chat -> {
+            synchronized (chat) {
+                return chat.bySequence.isEmpty() ? 0 : chat.bySequence.lastKey();
+            }
+        });
+    }
+
+    /**
+     * Closes every open log.
+     */
+    @PreDestroy
+    public void close() {
+        chats.asMap().values().forEach(chat -> chat.thenAccept(open -> closeQuietly(open.log)));
+        closeQuietly(deadLetters);
+    }
+
+    private void write(List<ChatMessage> messages, boolean insert) {
+        var byChat = new LinkedHashMap<String, List<ChatMessage>>();
+        for (var message : messages) {
+            if (message.getId() == null) {
+                message.setId(new ObjectId().toHexString());
+            }
+            if (message.getTimestamp() == null) {
+                message.setTimestamp(new Date());
+            }
+            byChat.computeIfAbsent(message.getChatId(), key -> new ArrayList<>()).add(message);
+        }
+
+        byChat.forEach((chatId, chatMessages) -> {
+            var payloads = chatMessages.stream().map(Records::encode).toList();
+            // An evicted log takes no more writes; the next lookup opens the chat again
+            boolean appended;
+            do {
+                appended = append(chat(chatId), chatMessages, payloads, insert);
+            } while (!appended);
+        });
+    }
+
+    /**
+     * Appends messages to a chat's log and indexes them.
+     *
+     * @return Whether the messages were appended, which they are not if the log was evicted
+     */
+    private static boolean append(ChatLog chat, List<ChatMessage> messages, List<byte[]> payloads, boolean insert) {
+        synchronized (chat) {
+            if (chat.retired) {
+                return false;
+            }
+            if (insert) {
+                var ids = new HashSet<String>();
+                for (var message : messages) {
+                    if (chat.byId.containsKey(message.getId()) || !ids.add(message.getId())) {
+                        throw new DuplicateKeyException("Duplicate chat message id=" + message.getId());
+                    }
+                }
+            }
+            var offsets = chat.log.appendAll(payloads);
+            for (int i = 0; i < messages.size(); i++) {
+                chat.index(messages.get(i), offsets[i]);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Runs a read against a chat's log, keeping the log open until the read is done.
+     *
+     * @param empty Result if nothing was ever stored in the chat
+     */
+    private <T> T read(String chatId, T empty, Function<ChatLog, T> reader) {
+        var chat = acquireExistingChat(chatId);
+        if (chat == null) {
+            return empty;
+        }
+        try {
+            return reader.apply(chat);
+        } finally {
+            chat.release();
+        }
+    }
+
+    /**
+     * @return The chat's log, which the caller must release, or null if nothing was ever stored in the chat
+     */
+    private ChatLog acquireExistingChat(String chatId) {
+        while (true) {
+            if (chats.getIfPresent(chatId) == null && !Files.exists(pathOf(chatId))) {
+                return null;
+            }
+            var chat = chat(chatId);
+            if (chat.acquire()) {
+                return chat;
+            }
+        }
+    }
+
+    /**
+     * Finds the open log of a chat, opening it if needed. The log is replayed outside the map of
+     * open chats, so only lookups of the same chat wait for the replay.
+     */
+    private ChatLog chat(String chatId) {
+        var opening = new CompletableFuture<ChatLog>();
+        var open = chats.asMap().putIfAbsent(chatId, opening);
+        if (open == null) {
+            try {
+                opening.complete(openChat(chatId));
+            } catch (RuntimeException e) {
+                chats.asMap().remove(chatId, opening);
+                opening.completeExceptionally(e);
+            }
+            open = opening;
+        }
+        try {
+            return open.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private ChatLog openChat(String chatId) {
+        var chat = new ChatLog();
+        chat.log = AppendLog.open(pathOf(chatId), forceWrites,
+                (offset, payload) -> chat.index(Records.decode(payload, ChatMessage.class), offset));
+        return chat;
+    }
+
+    private Path pathOf(String chatId) {
+        // Chat IDs are built from user IDs, so they are encoded to be safe as file names
+        var name = Base64.getUrlEncoder().withoutPadding().encodeToString(chatId.getBytes(StandardCharsets.UTF_8));
+        return chatsDirectory.resolve(name + ".log");
+    }
+
+    private static void closeQuietly(AppendLog appendLog) {
+        try {
+            appendLog.close();
+        } catch (IOException e) {
+            log.warn("Could not close chat log error=\"{}\"", e.getMessage());
+        }
+    }
+
+    /**
+     * Position of a stored message in its chat's log.
+     */
+    private record Entry(long timestamp, String id, Long sequence, long offset) {
+    }
+
+    /**
+     * A chat's log with its in-memory index. Guarded by its own monitor.
+     */
+    private static final class ChatLog {
+        private final List<Entry> entries = new ArrayList<>();
+        private final Map<String, Entry> byId = new HashMap<>();
+        private final NavigableMap<Long, Entry> bySequence = new TreeMap<>();
+        private AppendLog log;
+        /** Number of reads in progress */
+        private int readers;
+        /** Whether the log was evicted; it takes no more reads or writes and is closed once its readers are done */
+        private boolean retired;
+
+        synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        synchronized void release() {
+            if (--readers == 0 && retired) {
+                closeQuietly(log);
+            }
+        }
+
+        synchronized void retire() {
+            retired = true;
+            if (readers == 0) {
+                closeQuietly(log);
+            }
+        }
+
+        synchronized void index(ChatMessage message, long offset) {
+            var previous = byId.get(message.getId());
+            if (previous != null) {
+                entries.remove(Collections.binarySearch(entries, previous, HISTORY_ORDER));
+                if (previous.sequence() != null) {
+                    bySequence.remove(previous.sequence(), previous);
+                }
+            }
+            var entry = new Entry(message.getTimestamp().getTime(), message.getId(), message.getSequence(), offset);
+            // Messages nearly always arrive in timestamp order, so this is an append at the end
+            int index = Collections.binarySearch(entries, entry, HISTORY_ORDER);
+            entries.add(index < 0 ? -index - 1 : index, entry);
+            byId.put(entry.id(), entry);
+            if (entry.sequence() != null) {
+                bySequence.put(entry.sequence(), entry);
+            }
+        }
+
+        /** Index of the first entry at or after the cursor */
+        int lowerBound(HistoryCursor cursor) {
+            var probe = new Entry(cursor.timeMillis(), cursor.id(), null, 0);
+            int index = Collections.binarySearch(entries, probe, HISTORY_ORDER);
+            return index < 0 ? -index - 1 : index;
+        }
+
+        /** Index of the first entry after the cursor */
+        int upperBound(HistoryCursor cursor) {
+            var probe = new Entry(cursor.timeMillis(), cursor.id(), null, 0);
+            int index = Collections.binarySearch(entries, probe, HISTORY_ORDER);
+            return index < 0 ? -index - 1 : index + 1;
+        }
+
+        List<ChatMessage> read(List<Entry> page) {
+            return page.stream().map(this::read).toList();
+        }
+
+        ChatMessage read(Entry entry) {
+            return Records.decode(log.read(entry.offset()), ChatMessage.class);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.chatroom.ChatRoom;
+import com.danielkhen.websocket.chatroom.ChatRoomStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ChatRoomStore} keeping every chat room in memory, backed by an append-only log of
+ * created rooms on local disk.
+ * Sequence numbers are counted in memory. Before a chat hands out a block of them, the end of
+ * the block is forced to a log of sequence reservations, and a clean shutdown records the last
+ * numbers handed out. After a restart a chat continues from the higher of its reservation and the
+ * highest sequence number stored in it, so numbers given to messages that were acknowledged but
+ * lost in a crash, such as those still queued for write-behind, are never handed out again.
+ * Only one allocation per block touches the disk.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+public class LocalChatRoomStore implements ChatRoomStore {
+
+    /** Superseded reservations tolerated per chat before the reservation log is compacted at startup */
+    private static final int COMPACTION_RATIO = 4;
+
+    private final ChatSequences chatSequences;
+    private final int sequenceBlockSize;
+    private final Map<Key, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private final Map<String, Long> reservations = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sequences = new ConcurrentHashMap<>();
+    private final AppendLog roomLog;
+    private final AppendLog sequenceLog;
+
+    public LocalChatRoomStore(StorageProperties properties, ChatSequences chatSequences) {
+        this.chatSequences = chatSequences;
+        this.sequenceBlockSize = properties.getSequenceBlockSize();
+        this.roomLog = AppendLog.open(Path.of(properties.getDirectory(), "rooms.log"), properties.isForceWrites(),
+                (offset, payload) -> {
+                    var room = Records.decode(payload, ChatRoom.class);
+                    rooms.put(new Key(room.getSenderId(), room.getRecipientId()), room);
+                });
+
+        // Reservations are always forced: they are written once per block and must outlive every acknowledgement
+        var path = Path.of(properties.getDirectory(), "sequences.log");
+        var records = new AtomicLong();
+        var replayed = AppendLog.open(path, true, (offset, payload) -> {
+            var reservation = Records.decode(payload, SequenceReservation.class);
+            reservations.put(reservation.chatId(), reservation.lastSequence());
+            records.incrementAndGet();
+        });
+        if (records.get() > (long) COMPACTION_RATIO * Math.max(reservations.size(), 1)) {
+            closeQuietly(replayed);
+            AppendLog.rewrite(path, reservations.entrySet().stream()
+                    .map(reservation -> Records.encode(new SequenceReservation(reservation.getKey(), reservation.getValue())))
+                    .toList());
+            log.info("Compacted sequence log records={} chats={}", records.get(), reservations.size());
+            replayed = AppendLog.open(path, true, (offset, payload) -> { });
+        }
+        this.sequenceLog = replayed;
+    }
+
+    @Override
+    public Optional<ChatRoom> findBySenderIdAndRecipientId(String senderId, String recipientId) {
+        return Optional.ofNullable(rooms.get(new Key(senderId, recipientId))).map(LocalChatRoomStore::copyOf);
+    }
+
+    @Override
+    public ChatRoom upsertChatRoom(String senderId, String recipientId, String chatId) {
+        var room = room(new Key(senderId, recipientId), chatId);
+        return copyOf(room);
+    }
+
+    @Override
+    public long nextSequence(String chatId) {
+        var counter = sequences.computeIfAbsent(chatId, id ->
+                new Counter(Math.max(chatSequences.lastSequence(id), reservations.getOrDefault(id, 0L))));
+        synchronized (counter) {
+            if (counter.last == counter.reserved) {
+                counter.reserved = counter.last + sequenceBlockSize;
+                sequenceLog.append(Records.encode(new SequenceReservation(chatId, counter.reserved)));
+            }
+            return ++counter.last;
+        }
+    }
+
+    /**
+     * Records the last sequence number handed out in each chat, so a restart continues without a
+     * gap, and closes the logs.
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        sequences.forEach((chatId, counter) -> {
+            synchronized (counter) {
+                if (counter.reserved > counter.last) {
+                    sequenceLog.append(Records.encode(new SequenceReservation(chatId, counter.last)));
+                    counter.reserved = counter.last;
+                }
+            }
+        });
+        sequenceLog.close();
+        roomLog.close();
+    }
+
+    private ChatRoom room(Key key, String chatId) {
+        return rooms.computeIfAbsent(key, k -> {
+            var room = ChatRoom.builder()
+                    .id(new ObjectId().toHexString())
+                    .senderId(k.first())
+                    .recipientId(k.second())
+                    .chatId(chatId)
+                    .build();
+            roomLog.append(Records.encode(room));
+            return room;
+        });
+    }
+
+    /**
+     * Rooms are shared between threads, so callers get their own copy.
+     */
+    private static ChatRoom copyOf(ChatRoom room) {
+        return ChatRoom.builder()
+                .id(room.getId())
+                .chatId(room.getChatId())
+                .senderId(room.getSenderId())
+                .recipientId(room.getRecipientId())
+                .build();
+    }
+
+    private static void closeQuietly(AppendLog appendLog) {
+        try {
+            appendLog.close();
+        } catch (IOException e) {
+            log.warn("Could not close sequence log error=\"{}\"", e.getMessage());
+        }
+    }
+
+    private record Key(String first, String second) {
+    }
+
+    /**
+     * The sequence numbers of a chat up to which numbers may have been handed out.
+     */
+    private record SequenceReservation(String chatId, long lastSequence) {
+    }
+
+    /**
+     * Sequence counter of a chat. Guarded by its own monitor.
+     */
+    private static final class Counter {
+        /** Last number handed out */
+        private long last;
+        /** Last number covered by the newest reservation in the log */
+        private long reserved;
+
+        Counter(long last) {
+            this.last = last;
+            this.reserved = last;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.danielkhen.websocket.storage;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * Turns off the MongoDB auto-configuration when local storage is selected, so the application
+ * starts without MONGODB_URI and never opens a connection.
+ * Runs after the configuration files are loaded, so chat.storage.type can be set in any of them.
+ */
+public class LocalStorageEnvironmentPostProcessor implements EnvironmentPostProcessor, Ordered {
+
+    private static final String EXCLUDE_PROPERTY = "spring.autoconfigure.exclude";
+
+    /** Auto-configurations that create the MongoDB client, templates and repositories */
+    private static final String MONGO_AUTO_CONFIGURATIONS = String.join(",",
+            "org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration");
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        var type = environment.getProperty("chat.storage.type", "mongo");
+        if (!StorageProperties.Type.LOCAL.name().equalsIgnoreCase(type)) {
+            return;
+        }
+        var excluded = environment.getProperty(EXCLUDE_PROPERTY);
+        var exclude = excluded == null || excluded.isBlank()
+                ? MONGO_AUTO_CONFIGURATIONS
+                : excluded + "," + MONGO_AUTO_CONFIGURATIONS;
+        environment.getPropertySources().addFirst(
+                new MapPropertySource("localStorage", Map.of(EXCLUDE_PROPERTY, exclude)));
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+}
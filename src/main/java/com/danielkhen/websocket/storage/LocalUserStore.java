@@ -0,0 +1,121 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.user.Status;
+import com.danielkhen.websocket.user.User;
+import com.danielkhen.websocket.user.UserStore;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link UserStore} keeping every user in memory, backed by an append-only log of saved users on
+ * local disk. The newest record of a user wins on replay. Every status change adds a record, so
+ * the log is compacted to one record per user at startup once it has grown well past that.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+public class LocalUserStore implements UserStore {
+
+    /** Superseded records tolerated per user before the log is compacted at startup */
+    private static final int COMPACTION_RATIO = 4;
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final AppendLog userLog;
+
+    public LocalUserStore(StorageProperties properties) {
+        var path = Path.of(properties.getDirectory(), "users.log");
+        var records = new AtomicLong();
+        var replayed = AppendLog.open(path, properties.isForceWrites(), (offset, payload) -> {
+            var user = Records.decode(payload, User.class);
+            users.put(user.getNickName(), user);
+            records.incrementAndGet();
+        });
+
+        if (records.get() > (long) COMPACTION_RATIO * Math.max(users.size(), 1)) {
+            closeQuietly(replayed);
+            AppendLog.rewrite(path, users.values().stream().map(Records::encode).toList());
+            log.info("Compacted user log records={} users={}", records.get(), users.size());
+            replayed = AppendLog.open(path, properties.isForceWrites(), (offset, payload) -> { });
+        }
+        this.userLog = replayed;
+    }
+
+    @Override
+    public User save(User user) {
+        // The log and the map are updated under one lock, so the newest record is the one in memory
+        synchronized (userLog) {
+            userLog.append(Records.encode(user));
+            users.put(user.getNickName(), user);
+        }
+        return user;
+    }
+
+    @Override
+    public List<User> findAllByStatus(Status status) {
+        return users.values().stream().filter(user -> user.getStatus() == status).toList();
+    }
+
+    @Override
+    public void markSeen(Collection<String> nickNames, Date seenAt) {
+        synchronized (userLog) {
+            for (var nickName : nickNames) {
+                var user = users.get(nickName);
+                if (user != null) {
+                    save(copy(user, Status.ONLINE, seenAt));
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<User> expireOnline(Date seenBefore) {
+        var expired = new ArrayList<User>();
+        synchronized (userLog) {
+            for (var user : findAllByStatus(Status.ONLINE)) {
+                if (user.getLastSeen() == null || user.getLastSeen().before(seenBefore)) {
+                    expired.add(save(copy(user, Status.OFFLINE, user.getLastSeen())));
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Closes the user log.
+     */
+    @PreDestroy
+    public void close() {
+        closeQuietly(userLog);
+    }
+
+    /**
+     * Copies a user with another status, since stored users may still be read by other threads.
+     */
+    private static User copy(User user, Status status, Date lastSeen) {
+        var copy = new User();
+        copy.setNickName(user.getNickName());
+        copy.setFullName(user.getFullName());
+        copy.setStatus(status);
+        copy.setLastSeen(lastSeen);
+        return copy;
+    }
+
+    private static void closeQuietly(AppendLog appendLog) {
+        try {
+            appendLog.close();
+        } catch (IOException e) {
+            log.warn("Could not close user log error=\"{}\"", e.getMessage());
+        }
+    }
+}
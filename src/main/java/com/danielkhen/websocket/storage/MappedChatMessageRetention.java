@@ -0,0 +1,69 @@
+package com.danielkhen.websocket.storage;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically deletes the messages of the mapped message log that are older than the retention,
+ * when one is configured.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+@ConditionalOnProperty(name = "chat.storage.message-log", havingValue = "mapped")
+public class MappedChatMessageRetention {
+
+    private final MappedChatMessageStore chatMessageStore;
+    private final StorageProperties.Mapped properties;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "chat-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MappedChatMessageRetention(MappedChatMessageStore chatMessageStore, StorageProperties properties) {
+        this.chatMessageStore = chatMessageStore;
+        this.properties = properties.getMapped();
+    }
+
+    /**
+     * Starts applying the retention periodically once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (properties.getRetention() == null) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(
+                this::applySafely,
+                0,
+                properties.getRetentionInterval().toMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void applySafely() {
+        var cutoff = new Date(System.currentTimeMillis() - properties.getRetention().toMillis());
+        try {
+            chatMessageStore.deleteOlderThan(cutoff);
+            log.debug("Applied chat message retention cutoff={}", cutoff.toInstant());
+        } catch (DataAccessException e) {
+            log.warn("Could not apply chat message retention error=\"{}\"", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessageStore;
+import com.danielkhen.websocket.chat.ChatMessageView;
+import com.danielkhen.websocket.chat.HistoryCursor;
+import com.danielkhen.websocket.chat.RawChatMessage;
+import com.danielkhen.websocket.chat.RawChatMessageStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link ChatMessageStore} keeping each chat in a {@link SegmentLog} of memory-mapped segments.
+ * Every record holds the JSON of the message's {@link ChatMessageView}, as the application's
+ * ObjectMapper writes it, behind a small header with the fields used to page through history.
+ * History and exports are read as {@link RawChatMessage}s that point into the mapped segments, so
+ * they reach the response without building message objects.
+ * Records are appended in history order. Messages are stamped with the server time when they are
+ * sent, so they arrive nearly in order; one that would still sort before the last one of its chat,
+ * because it was stamped concurrently or the clock stepped back, is given the timestamp after it.
+ * The in-memory index of a chat then only needs every index-interval-th record; a query starts
+ * from the nearest entry and reads the record headers from there.
+ * Messages are never replaced. Their IDs are made when they are saved, so a message stored again
+ * is a retry of a recent batch: storing an ID among the chat's last duplicate-window messages is
+ * skipped, or rejected by inserts. Older IDs are not checked.
+ * At most {@code chat.storage.max-open-chats} chats are kept open with their index; beyond that,
+ * the least used ones are evicted and their segments indexed again when their chat is next used.
+ */
+@Slf4j
+@Component
+@ConditionalOnLocalStorage
+@ConditionalOnProperty(name = "chat.storage.message-log", havingValue = "mapped")
+public class MappedChatMessageStore implements ChatMessageStore, RawChatMessageStore, ChatSequences {
+
+    /** Timestamp, sequence, then the lengths of the ID and the sender ID, each before its bytes */
+    private static final int TIMESTAMP = 0;
+    private static final int SEQUENCE = TIMESTAMP + Long.BYTES;
+    private static final int ID = SEQUENCE + Long.BYTES;
+    private static final long NO_SEQUENCE = Long.MIN_VALUE;
+
+    private final Path chatsDirectory;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final int duplicateWindow;
+    private final boolean forceWrites;
+    private final ObjectMapper objectMapper;
+    private final AppendLog deadLetters;
+    private final Cache<String, CompletableFuture<Chat>> chats;
+
+    public MappedChatMessageStore(StorageProperties properties, ObjectMapper objectMapper) {
+        var directory = Path.of(properties.getDirectory());
+        this.chatsDirectory = directory.resolve("segments");
+        this.segmentSize = (int) properties.getMapped().getSegmentSize().toBytes();
+        this.indexInterval = properties.getMapped().getIndexInterval();
+        this.duplicateWindow = properties.getMapped().getDuplicateWindow();
+        this.forceWrites = properties.isForceWrites();
+        this.objectMapper = objectMapper;
+        this.deadLetters = AppendLog.open(directory.resolve("dead-letters.log"), true, (offset, payload) -> { });
+        // Evictions run on the calling thread, so an evicted chat stops taking writes before it can be opened again
+        this.chats = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxOpenChats())
+                .executor(Runnable::run)
+                .<String, CompletableFuture<Chat>>evictionListener((chatId, chat, cause) -> chat.thenAccept(Chat::retire))
+                .build();
+    }
+
+    @Override
+    public ChatMessage save(ChatMessage message) {
+        saveAll(List.of(message));
+        return message;
+    }
+
+    @Override
+    public void insertAll(List<ChatMessage> messages) {
+        write(messages, true);
+    }
+
+    @Override
+    public void saveAll(List<ChatMessage> messages) {
+        write(messages, false);
+    }
+
+    @Override
+    public void saveDeadLetters(List<ChatMessage> messages) {
+        deadLetters.appendAll(messages.stream().map(Records::encode).toList());
+    }
+
+    @Override
+    public List<ChatMessage> findOlderThan(String chatId, HistoryCursor before, int limit) {
+        return findRawOlderThan(chatId, before, limit).stream().map(this::toMessage).toList();
+    }
+
+    @Override
+    public List<ChatMessage> findNewerThan(String chatId, HistoryCursor after, int limit) {
+        return findRawNewerThan(chatId, after, limit).stream().map(this::toMessage).toList();
+    }
+
+    @Override
+    public List<ChatMessage> findAfterSequence(String chatId, long sequence, int limit) {
+        return findRawAfterSequence(chatId, sequence, limit).stream().map(this::toMessage).toList();
+    }
+
+    @Override
+    public Stream<ChatMessage> streamChatMessages(String chatId, Date from, Date to) {
+        return streamRawChatMessages(chatId, from, to).map(this::toMessage);
+    }
+
+    @Override
+    public List<RawChatMessage> findRawOlderThan(String chatId, HistoryCursor before, int limit) {
+        var chat = existingChat(chatId);
+        if (chat == null) {
+            return List.of();
+        }
+        synchronized (chat) {
+            int entry = before == null
+                    ? chat.index.size() - 1
+                    : chat.lastEntry(indexEntry -> compare(indexEntry, before) < 0);
+            // Start far enough back that the page fits between the start and the cursor
+            var cursor = chat.cursorFrom(entry - (limit + indexInterval - 1) / indexInterval);
+            var positions = new ArrayDeque<Long>(limit + 1);
+            for (; cursor.hasRecord(); cursor.advance()) {
+                if (before != null && compare(cursor, before) >= 0) {
+                    break;
+                }
+                positions.addLast(cursor.position());
+                if (positions.size() > limit) {
+                    positions.removeFirst();
+                }
+            }
+            var page = new ArrayList<RawChatMessage>(positions.size());
+            positions.descendingIterator().forEachRemaining(
+                    position -> page.add(read(chat, chat.segmentLog.cursorAt(position))));
+            return page;
+        }
+    }
+
+    @Override
+    public List<RawChatMessage> findRawNewerThan(String chatId, HistoryCursor after, int limit) {
+        var chat = existingChat(chatId);
+        if (chat == null) {
+            return List.of();
+        }
+        synchronized (chat) {
+            var cursor = chat.cursorFrom(chat.lastEntry(indexEntry -> compare(indexEntry, after) <= 0));
+            var page = new ArrayList<RawChatMessage>(limit);
+            for (; cursor.hasRecord() && page.size() < limit; cursor.advance()) {
+                if (compare(cursor, after) > 0) {
+                    page.add(read(chat, cursor));
+                }
+            }
+            return page;
+        }
+    }
+
+    @Override
+    public List<RawChatMessage> findRawAfterSequence(String chatId, long sequence, int limit) {
+        var chat = existingChat(chatId);
+        if (chat == null) {
+            return List.of();
+        }
+        synchronized (chat) {
+            // Sequence numbers are allocated before messages are stored, so concurrent senders can
+            // store them slightly out of order; one index interval on either side covers the difference
+            var cursor = chat.cursorFrom(chat.lastEntry(indexEntry -> indexEntry.sequence() <= sequence) - 1);
+            var page = new ArrayList<RawChatMessage>(limit);
+            int readPastLimit = 0;
+            for (; cursor.hasRecord() && readPastLimit < indexInterval; cursor.advance()) {
+                if (cursor.buffer().getLong(cursor.payloadOffset() + SEQUENCE) > sequence) {
+                    page.add(read(chat, cursor));
+                }
+                if (page.size() >= limit) {
+                    readPastLimit++;
+                }
+            }
+            page.sort(Comparator.comparing(RawChatMessage::sequence));
+            return page.size() > limit ? List.copyOf(page.subList(0, limit)) : page;
+        }
+    }
+
+    @Override
+    public Stream<RawChatMessage> streamRawChatMessages(String chatId, Date from, Date to) {
+        var chat = existingChat(chatId);
+        if (chat == null) {
+            return Stream.empty();
+        }
+        SegmentLog.Cursor cursor;
+        synchronized (chat) {
+            cursor = chat.cursorFrom(from == null ? -1 : chat.lastEntry(indexEntry -> indexEntry.timestamp() < from.getTime()));
+        }
+        // The cursor keeps the segments it reads, so the stream is not affected by retention
+        var records = new Spliterators.AbstractSpliterator<RawChatMessage>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super RawChatMessage> action) {
+                for (; cursor.hasRecord(); cursor.advance()) {
+                    long timestamp = cursor.buffer().getLong(cursor.payloadOffset() + TIMESTAMP);
+                    if (to != null && timestamp >= to.getTime()) {
+                        return false;
+                    }
+                    if (from == null || timestamp >= from.getTime()) {
+                        action.accept(read(chat, cursor));
+                        cursor.advance();
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+        return StreamSupport.stream(records, false);
+    }
+
+    @Override
+    public long lastSequence(String chatId) {
+        var chat = existingChat(chatId);
+        if (chat == null) {
+            return 0;
+        }
+        synchronized (chat) {
+            return chat.lastSequence;
+        }
+    }
+
+    /**
+     * Deletes the messages sent before a cutoff from every chat on disk. Whole segments are deleted
+     * and the segment holding the cutoff is rewritten from it, except for the segment each chat
+     * appends to, which keeps its older messages until it is full.
+     *
+     * @param cutoff Timestamp of the oldest message to keep
+     */
+    public void deleteOlderThan(Date cutoff) {
+        if (!Files.isDirectory(chatsDirectory)) {
+            return;
+        }
+        List<String> chatIds;
+        try (var listing = Files.list(chatsDirectory)) {
+            chatIds = listing
+                    .map(path -> new String(Base64.getUrlDecoder().decode(path.getFileName().toString()), StandardCharsets.UTF_8))
+                    .toList();
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not list chats in " + chatsDirectory, e);
+        }
+        for (var chatId : chatIds) {
+            // An evicted chat takes no more cuts; the next lookup opens the chat again
+            boolean cut;
+            do {
+                cut = cutBefore(chat(chatId), cutoff);
+            } while (!cut);
+        }
+    }
+
+    /**
+     * Forces the segments each chat appends to onto disk and closes the dead letter log.
+     */
+    @PreDestroy
+    public void close() {
+        chats.asMap().values().forEach(chat -> chat.thenAccept(open -> open.segmentLog.close()));
+        try {
+            deadLetters.close();
+        } catch (IOException e) {
+            log.warn("Could not close dead letter log error=\"{}\"", e.getMessage());
+        }
+    }
+
+    private void write(List<ChatMessage> messages, boolean insert) {
+        var byChat = new LinkedHashMap<String, List<ChatMessage>>();
+        for (var message : messages) {
+            if (message.getId() == null) {
+                message.setId(new ObjectId().toHexString());
+            }
+            if (message.getTimestamp() == null) {
+                message.setTimestamp(new Date());
+            }
+            byChat.computeIfAbsent(message.getChatId(), key -> new ArrayList<>()).add(message);
+        }
+
+        byChat.forEach((chatId, chatMessages) -> {
+            // An evicted chat takes no more writes; the next lookup opens the chat again
+            boolean appended;
+            do {
+                appended = append(chat(chatId), chatMessages, insert);
+            } while (!appended);
+        });
+    }
+
+    /**
+     * Appends messages to a chat's segments and indexes them.
+     *
+     * @return Whether the messages were appended, which they are not if the chat was evicted
+     */
+    private boolean append(Chat chat, List<ChatMessage> chatMessages, boolean insert) {
+        synchronized (chat) {
+            if (chat.retired) {
+                return false;
+            }
+            var ids = new HashSet<String>();
+            var stored = chat.recentIds(chatMessages, duplicateWindow);
+            var newMessages = new ArrayList<ChatMessage>(chatMessages.size());
+            for (var message : chatMessages) {
+                if (!ids.add(message.getId()) || stored.contains(message.getId())) {
+                    if (insert) {
+                        throw new DuplicateKeyException("Duplicate chat message id=" + message.getId());
+                    }
+                    continue;
+                }
+                newMessages.add(message);
+            }
+
+            long lastTimestamp = chat.lastTimestamp;
+            String lastId = chat.lastId;
+            var payloads = new ArrayList<byte[]>(newMessages.size());
+            for (var message : newMessages) {
+                long timestamp = message.getTimestamp().getTime();
+                if (timestamp < lastTimestamp || (timestamp == lastTimestamp && message.getId().compareTo(lastId) < 0)) {
+                    message.setTimestamp(new Date(lastTimestamp + 1));
+                }
+                lastTimestamp = message.getTimestamp().getTime();
+                lastId = message.getId();
+                payloads.add(encode(message));
+            }
+            var positions = chat.segmentLog.appendAll(payloads);
+            for (int i = 0; i < newMessages.size(); i++) {
+                var message = newMessages.get(i);
+                chat.indexed(positions[i], message.getTimestamp().getTime(), message.getId(),
+                        message.getSequence() == null ? NO_SEQUENCE : message.getSequence());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Cuts a chat's messages sent before a cutoff.
+     *
+     * @return Whether the chat was cut, which it is not if the chat was evicted
+     */
+    private static boolean cutBefore(Chat chat, Date cutoff) {
+        synchronized (chat) {
+            if (chat.retired) {
+                return false;
+            }
+            var cursor = chat.cursorFrom(chat.lastEntry(indexEntry -> indexEntry.timestamp() < cutoff.getTime()));
+            while (cursor.hasRecord() && cursor.buffer().getLong(cursor.payloadOffset() + TIMESTAMP) < cutoff.getTime()) {
+                cursor.advance();
+            }
+            chat.segmentLog.cutBefore(cursor.hasRecord() ? cursor.position() : Long.MAX_VALUE);
+            long start = chat.segmentLog.start();
+            chat.index.removeIf(indexEntry -> indexEntry.position() < start);
+            return true;
+        }
+    }
+
+    private byte[] encode(ChatMessage message) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(ChatMessageView.of(message));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode chat message id=" + message.getId(), e);
+        }
+        var id = message.getId().getBytes(StandardCharsets.UTF_8);
+        var senderId = message.getSenderId() == null ? new byte[0] : message.getSenderId().getBytes(StandardCharsets.UTF_8);
+        if (id.length > 0xFFFF || senderId.length > 0xFFFF) {
+            throw new IllegalArgumentException("Chat message IDs are limited to 65535 bytes");
+        }
+        return ByteBuffer.allocate(ID + Short.BYTES + id.length + Short.BYTES + senderId.length + json.length)
+                .putLong(message.getTimestamp().getTime())
+                .putLong(message.getSequence() == null ? NO_SEQUENCE : message.getSequence())
+                .putShort((short) id.length)
+                .put(id)
+                .putShort((short) senderId.length)
+                .put(senderId)
+                .put(json)
+                .array();
+    }
+
+    private static RawChatMessage read(Chat chat, SegmentLog.Cursor cursor) {
+        var buffer = cursor.buffer();
+        int offset = cursor.payloadOffset();
+        int end = offset + cursor.payloadLength();
+        long sequence = buffer.getLong(offset + SEQUENCE);
+        int idLength = Short.toUnsignedInt(buffer.getShort(offset + ID));
+        int senderOffset = offset + ID + Short.BYTES + idLength;
+        int senderLength = Short.toUnsignedInt(buffer.getShort(senderOffset));
+        int jsonOffset = senderOffset + Short.BYTES + senderLength;
+        return new RawChatMessage(
+                chat.chatId,
+                string(buffer, offset + ID + Short.BYTES, idLength),
+                senderLength == 0 ? null : string(buffer, senderOffset + Short.BYTES, senderLength),
+                buffer.getLong(offset + TIMESTAMP),
+                sequence == NO_SEQUENCE ? null : sequence,
+                buffer.slice(jsonOffset, end - jsonOffset)
+        );
+    }
+
+    private ChatMessage toMessage(RawChatMessage raw) {
+        ChatMessageView view;
+        try {
+            view = objectMapper.readValue(new ByteBufferBackedInputStream(raw.json().duplicate()), ChatMessageView.class);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not decode chat message id=" + raw.id(), e);
+        }
+        return ChatMessage.builder()
+                .id(view.getId())
+                .chatId(raw.chatId())
+                .senderId(view.getSenderId())
+                .content(view.getContent())
+                .attachmentId(view.getAttachmentId())
+                .contentLength(view.getContentLength())
+                .timestamp(view.getTimestamp())
+                .sequence(view.getSequence())
+                .build();
+    }
+
+    private static int compare(SegmentLog.Cursor cursor, HistoryCursor historyCursor) {
+        var buffer = cursor.buffer();
+        int offset = cursor.payloadOffset();
+        int byTimestamp = Long.compare(buffer.getLong(offset + TIMESTAMP), historyCursor.timeMillis());
+        if (byTimestamp != 0) {
+            return byTimestamp;
+        }
+        // IDs are only decoded to break ties between equal timestamps
+        return string(buffer, offset + ID + Short.BYTES, Short.toUnsignedInt(buffer.getShort(offset + ID)))
+                .compareTo(historyCursor.id());
+    }
+
+    private static int compare(IndexEntry indexEntry, HistoryCursor historyCursor) {
+        int byTimestamp = Long.compare(indexEntry.timestamp(), historyCursor.timeMillis());
+        return byTimestamp != 0 ? byTimestamp : indexEntry.id().compareTo(historyCursor.id());
+    }
+
+    private static String string(ByteBuffer buffer, int offset, int length) {
+        var bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The chat's log, or null if nothing was ever stored in the chat
+     */
+    private Chat existingChat(String chatId) {
+        if (chats.getIfPresent(chatId) == null && !Files.isDirectory(directoryOf(chatId))) {
+            return null;
+        }
+        return chat(chatId);
+    }
+
+    /**
+     * Finds the open log of a chat, opening it if needed. The log is indexed outside the map of
+     * open chats, so only lookups of the same chat wait for it.
+     */
+    private Chat chat(String chatId) {
+        var opening = new CompletableFuture<Chat>();
+        var open = chats.asMap().putIfAbsent(chatId, opening);
+        if (open == null) {
+            try {
+                opening.complete(openChat(chatId));
+            } catch (RuntimeException e) {
+                chats.asMap().remove(chatId, opening);
+                opening.completeExceptionally(e);
+            }
+            open = opening;
+        }
+        try {
+            return open.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private Chat openChat(String chatId) {
+        var chat = new Chat(chatId, SegmentLog.open(directoryOf(chatId), segmentSize, forceWrites), indexInterval);
+        for (var cursor = chat.segmentLog.cursor(); cursor.hasRecord(); cursor.advance()) {
+            var buffer = cursor.buffer();
+            int offset = cursor.payloadOffset();
+            chat.indexed(
+                    cursor.position(),
+                    buffer.getLong(offset + TIMESTAMP),
+                    string(buffer, offset + ID + Short.BYTES, Short.toUnsignedInt(buffer.getShort(offset + ID))),
+                    buffer.getLong(offset + SEQUENCE)
+            );
+        }
+        return chat;
+    }
+
+    private Path directoryOf(String chatId) {
+        // Chat IDs are built from user IDs, so they are encoded to be safe as file names
+        var name = Base64.getUrlEncoder().withoutPadding().encodeToString(chatId.getBytes(StandardCharsets.UTF_8));
+        return chatsDirectory.resolve(name);
+    }
+
+    /**
+     * A sampled record of a chat: its position and the keys queries search by.
+     */
+    private record IndexEntry(long position, long timestamp, String id, long sequence) {
+    }
+
+    /**
+     * A chat's segment log with its sparse index. Guarded by its own monitor.
+     */
+    private static final class Chat {
+        private final String chatId;
+        private final SegmentLog segmentLog;
+        private final int indexInterval;
+        private final List<IndexEntry> index = new ArrayList<>();
+        private long count;
+        private long lastTimestamp = Long.MIN_VALUE;
+        private String lastId = "";
+        private long lastSequence;
+        /** Whether the chat was evicted; it takes no more writes or cuts, but can still be read */
+        private boolean retired;
+
+        Chat(String chatId, SegmentLog segmentLog, int indexInterval) {
+            this.chatId = chatId;
+            this.segmentLog = segmentLog;
+            this.indexInterval = indexInterval;
+        }
+
+        void indexed(long position, long timestamp, String id, long sequence) {
+            if (count++ % indexInterval == 0) {
+                index.add(new IndexEntry(position, timestamp, id, sequence));
+            }
+            lastTimestamp = timestamp;
+            lastId = id;
+            lastSequence = Math.max(lastSequence, sequence);
+        }
+
+        synchronized void retire() {
+            retired = true;
+            segmentLog.close();
+        }
+
+        /**
+         * Finds which of some messages are among the chat's most recent records. The IDs are
+         * compared as bytes, so only the records' headers are read.
+         *
+         * @param window Number of the most recent records to search, at least
+         * @return IDs of the messages found
+         */
+        Set<String> recentIds(List<ChatMessage> messages, int window) {
+            var wanted = new HashSet<ByteBuffer>();
+            for (var message : messages) {
+                wanted.add(ByteBuffer.wrap(message.getId().getBytes(StandardCharsets.UTF_8)));
+            }
+            var found = new HashSet<String>();
+            var cursor = cursorFrom(index.size() - 1 - (window + indexInterval - 1) / indexInterval);
+            for (; cursor.hasRecord(); cursor.advance()) {
+                var buffer = cursor.buffer();
+                int offset = cursor.payloadOffset() + ID;
+                var id = buffer.slice(offset + Short.BYTES, Short.toUnsignedInt(buffer.getShort(offset)));
+                if (wanted.contains(id)) {
+                    found.add(StandardCharsets.UTF_8.decode(id).toString());
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Finds the last index entry matching a condition that holds for a prefix of the index.
+         *
+         * @return The index of the entry, or -1 if none matches
+         */
+        int lastEntry(Predicate<IndexEntry> condition) {
+            int low = 0;
+            int high = index.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (condition.test(index.get(middle))) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        /**
+         * @return A cursor at an index entry, or at the first record for a negative entry
+         */
+        SegmentLog.Cursor cursorFrom(int entry) {
+            return entry < 0 ? segmentLog.cursor() : segmentLog.cursorAt(index.get(entry).position());
+        }
+    }
+}
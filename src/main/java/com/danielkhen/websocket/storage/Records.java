@@ -0,0 +1,40 @@
+package com.danielkhen.websocket.storage;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.io.IOException;
+
+/**
+ * Encodes the records of the local logs as CBOR, the compact binary form of the JSON the
+ * documents are already mapped to. Unknown fields are ignored, so records written by a newer
+ * version can still be read.
+ */
+final class Records {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper(new CBORFactory())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private Records() {
+    }
+
+    static byte[] encode(Object record) {
+        try {
+            return MAPPER.writeValueAsBytes(record);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode " + record.getClass().getSimpleName(), e);
+        }
+    }
+
+    static <T> T decode(byte[] payload, Class<T> type) {
+        try {
+            return MAPPER.readValue(payload, type);
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not decode " + type.getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.danielkhen.websocket.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32C;
+
+/**
+ * A log of length-prefixed, checksummed records split into fixed-size, memory-mapped segment files.
+ * Records are written to and read from the mappings directly, so a reader gets a read-only view of
+ * the file instead of a copy. The position of a record is the base of its segment, which is also the
+ * segment's file name, plus its offset in the segment; positions never change.
+ * Segments are created sparse and filled with records from the start. A zero length marks the end
+ * of the records, so opening a log checks every record and zeroes a torn or corrupt tail left by a
+ * crash, like {@link AppendLog} truncates one.
+ * The head of the log can be cut off at any record: earlier segments are deleted, and the segment
+ * holding the record is rewritten to start at it, under a base equal to the record's position.
+ * Appends and cuts must be serialized by the caller; cursors can be used concurrently with both.
+ * I/O failures are thrown as {@link DataAccessResourceFailureException}, like database failures.
+ */
+@Slf4j
+public class SegmentLog implements Closeable {
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMPORARY_SUFFIX = ".compact";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean forceWrites;
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private SegmentLog(Path directory, int segmentSize, boolean forceWrites) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceWrites = forceWrites;
+    }
+
+    /**
+     * Opens a log, creating its directory if it does not exist, and checks its records.
+     *
+     * @param directory Directory holding the segment files
+     * @param segmentSize Size of new segment files, which bounds the size of a record
+     * @param forceWrites Whether appends are forced to disk before they return
+     * @return The open log, positioned after the last intact record
+     */
+    public static SegmentLog open(Path directory, int segmentSize, boolean forceWrites) {
+        var segmentLog = new SegmentLog(directory, segmentSize, forceWrites);
+        try {
+            Files.createDirectories(directory);
+            segmentLog.recover();
+        } catch (IOException e) {
+            throw new DataAccessResourceFailureException("Could not open segment log " + directory, e);
+        }
+        return segmentLog;
+    }
+
+    /**
+     * Appends records, rolling over to a new segment when one does not fit in the current segment.
+     * The records become visible to cursors only once all of them are written. If the append
+     * fails, the records already written are zeroed again, so a retried batch is not stored twice.
+     *
+     * @param payloads The records, each non-empty and smaller than a segment
+     * @return Positions of the records, in order
+     */
+    public synchronized long[] appendAll(List<byte[]> payloads) {
+        for (var payload : payloads) {
+            if (payload.length == 0 || HEADER_SIZE + payload.length > segmentSize) {
+                throw new IllegalArgumentException("Record of " + payload.length
+                        + " bytes does not fit a segment of " + segmentSize + " bytes");
+            }
+        }
+        var positions = new long[payloads.size()];
+        var written = new ArrayList<Written>();
+        var segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        int from = segment == null ? 0 : segment.end;
+        int end = from;
+        try {
+            for (int i = 0; i < payloads.size(); i++) {
+                var payload = payloads.get(i);
+                int size = HEADER_SIZE + payload.length;
+                if (segment == null || end + size > segment.capacity) {
+                    if (segment != null) {
+                        written.add(new Written(segment, from, end));
+                    }
+                    segment = createSegment(segment == null ? 0 : segment.base + segment.capacity);
+                    from = 0;
+                    end = 0;
+                }
+                segment.buffer.put(end + HEADER_SIZE, payload);
+                segment.buffer.putInt(end + Integer.BYTES, checksum(ByteBuffer.wrap(payload)));
+                // The length goes last: until it is written, a zero length still marks the end
+                segment.buffer.putInt(end, payload.length);
+                positions[i] = segment.base + end;
+                end += size;
+            }
+            if (segment != null) {
+                written.add(new Written(segment, from, end));
+            }
+            for (var range : written) {
+                force(range);
+            }
+        } catch (IOException | InternalError e) {
+            // A failed write to a mapping, such as on a full disk, surfaces as an InternalError
+            if (segment != null && (written.isEmpty() || written.get(written.size() - 1).segment() != segment)) {
+                written.add(new Written(segment, from, end));
+            }
+            var failure = new DataAccessResourceFailureException("Could not append to segment log " + directory, e);
+            discard(written, failure);
+            throw failure;
+        }
+        // Segments are published in order, so a cursor never skips past records still to appear
+        for (var range : written) {
+            range.segment().end = range.to();
+        }
+        return positions;
+    }
+
+    /**
+     * @return A cursor at the first record of the log
+     */
+    public Cursor cursor() {
+        var first = segments.firstEntry();
+        return new Cursor(first == null ? null : first.getValue(), 0);
+    }
+
+    /**
+     * Creates a cursor at a record, or at the end of the records of a segment.
+     * A position that was cut off moves the cursor to the first remaining record.
+     *
+     * @param position Position returned by an append or by a cursor
+     * @return A cursor at the position
+     */
+    public Cursor cursorAt(long position) {
+        var entry = segments.floorEntry(position);
+        if (entry == null) {
+            return cursor();
+        }
+        return new Cursor(entry.getValue(), (int) (position - entry.getKey()));
+    }
+
+    /**
+     * @return Position of the first segment, before which every record has been cut off
+     */
+    public long start() {
+        var first = segments.firstEntry();
+        return first == null ? 0 : first.getKey();
+    }
+
+    /**
+     * Cuts off every record before a position. The last segment, which appends go to, is never
+     * deleted or rewritten, so records before the position that share it are kept.
+     * A crash during the cut leaves either the original segment or both; opening the log then
+     * deletes the original.
+     *
+     * @param position Position of the first record to keep
+     */
+    public synchronized void cutBefore(long position) {
+        var last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        for (var segment : List.copyOf(segments.values())) {
+            if (segment == last || segment.base >= position) {
+                return;
+            }
+            try {
+                if (segment.base + segment.end > position) {
+                    rewriteFrom(segment, (int) (position - segment.base));
+                }
+                segments.remove(segment.base);
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                throw new DataAccessResourceFailureException("Could not cut segment log " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Forces the last segment to disk. Mappings stay valid for cursors still reading them.
+     */
+    @Override
+    public synchronized void close() {
+        if (!segments.isEmpty()) {
+            segments.lastEntry().getValue().buffer.force();
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (var listing = Files.list(directory)) {
+            // Bases are zero-padded, so file names sort by position
+            files = listing.sorted().toList();
+        }
+        var recovered = new ArrayList<Segment>();
+        for (var file : files) {
+            var name = file.getFileName().toString();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                Files.delete(file);
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                var previous = recovered.isEmpty() ? null : recovered.get(recovered.size() - 1);
+                if (previous != null && previous.base + previous.capacity > base) {
+                    // A crash during a cut left the original segment next to its rewritten tail
+                    log.warn("Deleting segment replaced by a cut path={}", previous.path);
+                    Files.delete(previous.path);
+                    recovered.remove(recovered.size() - 1);
+                }
+                recovered.add(mapSegment(file, base, (int) Files.size(file)));
+            }
+        }
+        for (var segment : recovered) {
+            segment.end = checkRecords(segment);
+            segments.put(segment.base, segment);
+        }
+    }
+
+    /**
+     * @return Offset of the end of the intact records, after which the segment is zeroed
+     */
+    private int checkRecords(Segment segment) {
+        var buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || offset + HEADER_SIZE + length > segment.capacity
+                    || checksum(buffer.slice(offset + HEADER_SIZE, length)) != buffer.getInt(offset + Integer.BYTES)) {
+                log.warn("Zeroing torn segment tail path={} offset={}", segment.path, offset);
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        // Pages may reach the disk out of order, so later records can survive a crash that tore an
+        // earlier one; they must not reappear once new records fill the gap
+        zeroFrom(segment, offset);
+        return offset;
+    }
+
+    private static void zeroFrom(Segment segment, int offset) {
+        var buffer = segment.buffer;
+        boolean zeroed = false;
+        for (int i = offset; i < segment.capacity; i++) {
+            // Only touch pages that hold data, so the rest of a sparse file stays unallocated
+            if ((i & 7) == 0 && i + Long.BYTES <= segment.capacity && buffer.getLong(i) == 0) {
+                i += Long.BYTES - 1;
+            } else if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+                zeroed = true;
+            }
+        }
+        if (zeroed) {
+            buffer.force();
+        }
+    }
+
+    private Segment createSegment(long base) throws IOException {
+        var segment = mapSegment(directory.resolve(fileName(base)), base, segmentSize);
+        segments.put(base, segment);
+        return segment;
+    }
+
+    private void rewriteFrom(Segment segment, int offset) throws IOException {
+        long base = segment.base + offset;
+        int length = segment.end - offset;
+        var path = directory.resolve(fileName(base));
+        var temporary = directory.resolve(fileName(base) + TEMPORARY_SUFFIX);
+        try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var records = segment.buffer.slice(offset, length);
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        var rewritten = mapSegment(path, base, length);
+        rewritten.end = length;
+        segments.put(base, rewritten);
+    }
+
+    private void force(Written range) {
+        if (forceWrites && range.to() > range.from()) {
+            range.segment().buffer.force(range.from(), range.to() - range.from());
+        }
+    }
+
+    /**
+     * Zeroes the records of a failed append, which were never published, so that opening the log
+     * does not find them either.
+     */
+    private void discard(List<Written> written, Exception failure) {
+        for (var range : written) {
+            try {
+                range.segment().buffer.put(range.from(), new byte[range.to() - range.from()]);
+                force(range);
+            } catch (RuntimeException | InternalError e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private static Segment mapSegment(Path path, long base, int capacity) throws IOException {
+        // The mapping outlives the channel, so no file stays open
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new Segment(base, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+
+    private static String fileName(long base) {
+        return String.format("%020d%s", base, SEGMENT_SUFFIX);
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        var crc = new CRC32C();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A mapped segment file. Records below {@code end} are immutable; {@code end} is published
+     * after the append that wrote the records it covers has succeeded.
+     */
+    private static final class Segment {
+        private final long base;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final ByteBuffer view;
+        private final int capacity;
+        private volatile int end;
+
+        Segment(long base, Path path, MappedByteBuffer buffer) {
+            this.base = base;
+            this.path = path;
+            this.buffer = buffer;
+            this.view = buffer.asReadOnlyBuffer();
+            this.capacity = buffer.capacity();
+        }
+    }
+
+    /**
+     * Bytes an append wrote to a segment, before they are published.
+     */
+    private record Written(Segment segment, int from, int to) {
+    }
+
+    /**
+     * Reads records in log order. A cursor keeps the segment it is in, so it reads the same
+     * records if the segment is cut meanwhile. Records are read with absolute offsets into a
+     * read-only view of the segment that is shared between cursors.
+     */
+    public final class Cursor {
+        private Segment segment;
+        private int offset;
+
+        private Cursor(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        /**
+         * @return Whether the cursor is at a record, moving on to the next segment at the end of one
+         */
+        public boolean hasRecord() {
+            if (segment == null) {
+                var first = segments.firstEntry();
+                if (first == null) {
+                    return false;
+                }
+                segment = first.getValue();
+                offset = 0;
+            }
+            while (offset >= segment.end) {
+                var next = segments.higherEntry(segment.base);
+                if (next == null) {
+                    return false;
+                }
+                segment = next.getValue();
+                offset = 0;
+            }
+            return true;
+        }
+
+        /**
+         * @return Position of the current record, for {@link SegmentLog#cursorAt(long)}
+         */
+        public long position() {
+            return segment.base + offset;
+        }
+
+        /**
+         * @return Read-only view of the whole segment holding the current record
+         */
+        public ByteBuffer buffer() {
+            return segment.view;
+        }
+
+        /**
+         * @return Offset of the current record's payload in {@link #buffer()}
+         */
+        public int payloadOffset() {
+            return offset + HEADER_SIZE;
+        }
+
+        /**
+         * @return Length of the current record's payload
+         */
+        public int payloadLength() {
+            return segment.view.getInt(offset);
+        }
+
+        /**
+         * Moves to the next record, which {@link #hasRecord()} checks for.
+         */
+        public void advance() {
+            offset += HEADER_SIZE + payloadLength();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.danielkhen.websocket.storage;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for the storage backend of chat messages, chat rooms and users.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.storage")
+public class StorageProperties {
+    /** Storage backend; LOCAL runs without MongoDB */
+    private Type type = Type.MONGO;
+
+    /** Directory holding the local storage files */
+    private String directory = "data";
+
+    /**
+     * Whether every local write is forced to disk before it is acknowledged.
+     * Without it, acknowledged writes survive a crash of the process but not of the machine.
+     */
+    private boolean forceWrites = false;
+
+    /**
+     * Number of sequence numbers a chat of the LOCAL backend reserves on disk at a time.
+     * After a crash, up to this many numbers of each chat are skipped.
+     */
+    private int sequenceBlockSize = 100;
+
+    /** Maximum number of chat logs kept open with their in-memory index */
+    private int maxOpenChats = 512;
+
+    /** Layout of the chat message files of the LOCAL backend */
+    private MessageLog messageLog = MessageLog.APPEND;
+
+    /** Settings of the MAPPED message log */
+    private Mapped mapped = new Mapped();
+
+    /**
+     * Storage backends.
+     */
+    public enum Type {
+        /** MongoDB, for multi-instance deployments */
+        MONGO,
+
+        /** Append-only logs on local disk, for single-node deployments */
+        LOCAL
+    }
+
+    /**
+     * Layouts of the chat message files of the LOCAL backend.
+     */
+    public enum MessageLog {
+        /** One append-only log per chat, indexed in memory by every message */
+        APPEND,
+
+        /** Fixed-size memory-mapped segments per chat with a sparse index, read without deserializing */
+        MAPPED
+    }
+
+    /**
+     * Settings of the MAPPED message log.
+     */
+    @Getter
+    @Setter
+    public static class Mapped {
+        /** Size of each segment file; files are sparse, so unused space takes no disk */
+        private DataSize segmentSize = DataSize.ofMegabytes(4);
+
+        /** Number of messages between two entries of a chat's in-memory index */
+        private int indexInterval = 64;
+
+        /**
+         * Number of a chat's most recent messages checked for an ID being stored again.
+         * A failed write-behind batch is retried at once, so this must exceed its batch size.
+         */
+        private int duplicateWindow = 1024;
+
+        /** Age after which messages are deleted, or null to keep them forever */
+        private Duration retention;
+
+        /** Interval between two runs of the retention task */
+        private Duration retentionInterval = Duration.ofHours(1);
+    }
+}
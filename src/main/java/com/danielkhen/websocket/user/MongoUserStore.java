@@ -0,0 +1,73 @@
+package com.danielkhen.websocket.user;
+
+import com.danielkhen.websocket.storage.ConditionalOnMongoStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link UserStore} backed by the user collection.
+ */
+@Component
+@ConditionalOnMongoStorage
+@RequiredArgsConstructor
+public class MongoUserStore implements UserStore {
+
+    private final UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public User save(User user) {
+        return userRepository.save(user);
+    }
+
+    @Override
+    public List<User> findAllByStatus(Status status) {
+        return userRepository.findAllByStatus(status);
+    }
+
+    @Override
+    public void markSeen(Collection<String> nickNames, Date seenAt) {
+        if (nickNames.isEmpty()) {
+            return;
+        }
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("nickName").in(nickNames)),
+                new Update().set("status", Status.ONLINE).set("lastSeen", seenAt),
+                User.class
+        );
+    }
+
+    @Override
+    public List<User> expireOnline(Date seenBefore) {
+        var expired = new ArrayList<User>();
+        for (var user : mongoTemplate.find(Query.query(stale(seenBefore)), User.class)) {
+            // Only the instance whose update matches still reports the user
+            var result = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("nickName").is(user.getNickName()).andOperator(stale(seenBefore))),
+                    new Update().set("status", Status.OFFLINE),
+                    User.class
+            );
+            if (result.getModifiedCount() > 0) {
+                user.setStatus(Status.OFFLINE);
+                expired.add(user);
+            }
+        }
+        return expired;
+    }
+
+    private static Criteria stale(Date seenBefore) {
+        return Criteria.where("status").is(Status.ONLINE).orOperator(
+                Criteria.where("lastSeen").lt(seenBefore),
+                Criteria.where("lastSeen").is(null)
+        );
+    }
+}
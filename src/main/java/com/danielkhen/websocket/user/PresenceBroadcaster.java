@@ -0,0 +1,172 @@
+package com.danielkhen.websocket.user;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import com.danielkhen.websocket.config.ChatMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces presence changes into versioned deltas on /topic/presence.
+ * The first change in an idle period opens a window; every user changed within it is put in
+ * a single delta, with the state the {@link PresenceRegistry} holds when the window closes. A
+ * connect and a disconnect of one user that race therefore cannot be announced in an order that
+ * disagrees with the registry. Versions are counted per instance, and each delta names the
+ * instance it came from. The most recent deltas are kept, so that a resumed session can be sent
+ * the ones it missed.
+ */
+@Component
+public class PresenceBroadcaster {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final PresenceRegistry presenceRegistry;
+    private final PresenceProperties properties;
+    private final String nodeId;
+    private final ChatMetrics chatMetrics;
+    private final ScheduledExecutorService scheduler;
+
+    /** Nicknames of the users changed in the open window, in order of first change */
+    private final Set<String> pending = new LinkedHashSet<>();
+    /** Most recently broadcast deltas, oldest first */
+    private final Deque<PresenceDelta> recent = new ArrayDeque<>();
+    private long version;
+    private boolean flushScheduled;
+
+    @Autowired
+    public PresenceBroadcaster(
+            SimpMessagingTemplate messagingTemplate,
+            PresenceRegistry presenceRegistry,
+            PresenceProperties properties,
+            BrokerProperties brokerProperties,
+            ChatMetrics chatMetrics
+    ) {
+        this(messagingTemplate, presenceRegistry, properties, brokerProperties, chatMetrics,
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    var thread = new Thread(runnable, "presence-broadcaster");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+    /**
+     * Creates a broadcaster whose windows are timed by the given scheduler.
+     */
+    PresenceBroadcaster(
+            SimpMessagingTemplate messagingTemplate,
+            PresenceRegistry presenceRegistry,
+            PresenceProperties properties,
+            BrokerProperties brokerProperties,
+            ChatMetrics chatMetrics,
+            ScheduledExecutorService scheduler
+    ) {
+        this.messagingTemplate = messagingTemplate;
+        this.presenceRegistry = presenceRegistry;
+        this.properties = properties;
+        this.nodeId = brokerProperties.getNodeId();
+        this.chatMetrics = chatMetrics;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Records that a user came online.
+     *
+     * @param user The user, with ONLINE status
+     */
+    public void userJoined(User user) {
+        record(user.getNickName());
+    }
+
+    /**
+     * Records that a user went offline. Users without a session on this instance are announced
+     * as having left, including those of stopped instances.
+     *
+     * @param user The user, with OFFLINE status
+     */
+    public void userLeft(User user) {
+        record(user.getNickName());
+    }
+
+    /**
+     * @return Identifier of the instance whose deltas this broadcaster sends
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return Version of the last broadcast delta
+     */
+    public synchronized long currentVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the deltas broadcast after a version.
+     *
+     * @param version The last version the caller has seen
+     * @return The later deltas, oldest first, or empty if some of them are no longer kept
+     */
+    public synchronized Optional<List<PresenceDelta>> deltasSince(long version) {
+        if (version > this.version) {
+            return Optional.empty();
+        }
+        if (version < this.version && (recent.isEmpty() || recent.peekFirst().getVersion() > version + 1)) {
+            return Optional.empty();
+        }
+        return Optional.of(recent.stream().filter(delta -> delta.getVersion() > version).toList());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void record(String nickName) {
+        pending.add(nickName);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, properties.getBroadcastWindow().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<User> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (var nickName : pending) {
+            presenceRegistry.find(nickName).ifPresentOrElse(joined::add, () -> left.add(nickName));
+        }
+        pending.clear();
+
+        var delta = PresenceDelta.builder()
+                .origin(nodeId)
+                .version(++version)
+                .joined(joined)
+                .left(left)
+                .build();
+        recent.addLast(delta);
+        while (recent.size() > properties.getRecentDeltas()) {
+            recent.removeFirst();
+        }
+
+        // Sent while holding the lock so that deltas leave in version order
+        messagingTemplate.convertAndSend("/topic/presence", delta);
+        chatMetrics.countDelivery("presence");
+    }
+}
@@ -0,0 +1,29 @@
+package com.danielkhen.websocket.user;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents the presence changes collected over one broadcast window.
+ * Versions increase by one per delta from the same instance, so a client that sees a gap
+ * knows to reload the snapshot.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PresenceDelta {
+    /** Identifier of the instance that sent this delta */
+    private String origin;
+
+    /** Presence version of the sending instance after applying this delta */
+    private long version;
+
+    /** Users who came online */
+    private List<User> joined;
+
+    /** Nicknames of users who went offline */
+    private List<String> left;
+}
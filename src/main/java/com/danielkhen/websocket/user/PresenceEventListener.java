@@ -0,0 +1,105 @@
+package com.danielkhen.websocket.user;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the presence registry in sync with the STOMP session lifecycle.
+ * Clients identify themselves with "nickName" and "fullName" headers on the CONNECT frame,
+ * and a closed session counts as a disconnect even if the client never sent one. A session that
+ * dropped without a clean disconnect is first parked by {@link SessionResumption}, and its user
+ * only goes offline if it is not resumed within the grace window. In RELAY mode the CONNECTED
+ * frame comes from the external broker and does not carry the CONNECT frame, so each CONNECT is
+ * kept until its session is confirmed.
+ */
+@Component
+@RequiredArgsConstructor
+public class PresenceEventListener {
+
+    /** CONNECT header carrying the user's nickname */
+    public static final String NICKNAME_HEADER = "nickName";
+
+    /** CONNECT header carrying the user's full name */
+    public static final String FULLNAME_HEADER = "fullName";
+
+    private final UserService userService;
+    private final SessionResumption sessionResumption;
+
+    /** CONNECT frames of sessions not confirmed yet, by session ID */
+    private final Map<String, Message<?>> pendingConnects = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps the CONNECT frame of a connecting session until the session is confirmed.
+     *
+     * @param event The session connect event
+     */
+    @EventListener
+    public void onSessionConnect(SessionConnectEvent event) {
+        var sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (sessionId != null) {
+            pendingConnects.put(sessionId, event.getMessage());
+        }
+    }
+
+    /**
+     * Registers the user of a newly connected session, resuming the session named by its resume token.
+     *
+     * @param event The session connected event
+     */
+    @EventListener
+    public void onSessionConnected(SessionConnectedEvent event) {
+        var headers = event.getMessage().getHeaders();
+        var sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        var pending = sessionId != null ? pendingConnects.remove(sessionId) : null;
+        var connectMessage = (Message<?>) headers.get(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER);
+        if (connectMessage == null) {
+            connectMessage = pending;
+        }
+        if (connectMessage == null) {
+            return;
+        }
+
+        var accessor = StompHeaderAccessor.wrap(connectMessage);
+        var nickName = accessor.getFirstNativeHeader(NICKNAME_HEADER);
+        if (nickName == null || nickName.isBlank()) {
+            return;
+        }
+
+        var user = new User();
+        user.setNickName(nickName);
+        user.setFullName(accessor.getFirstNativeHeader(FULLNAME_HEADER));
+        userService.connectSession(accessor.getSessionId(), user);
+        if (event.getUser() != null) {
+            sessionResumption.connected(
+                    accessor.getSessionId(),
+                    event.getUser(),
+                    accessor.getFirstNativeHeader(SessionResumption.RESUME_TOKEN_HEADER)
+            );
+        }
+    }
+
+    /**
+     * Removes a closed session and marks its user offline if it was their last one,
+     * unless the session was parked to be resumed.
+     *
+     * @param event The session disconnect event
+     */
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        // A session the broker refused is never confirmed
+        pendingConnects.remove(event.getSessionId());
+        if (!sessionResumption.disconnected(event.getSessionId(), event.getCloseStatus())) {
+            userService.disconnectSession(event.getSessionId());
+        }
+    }
+}
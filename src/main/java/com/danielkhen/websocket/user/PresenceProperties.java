@@ -0,0 +1,22 @@
+package com.danielkhen.websocket.user;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Configuration properties for presence tracking and broadcasting.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "chat.presence")
+public class PresenceProperties {
+
+    /** How long presence changes are collected before they are broadcast as one delta */
+    private Duration broadcastWindow = Duration.ofMillis(250);
+
+    /** Number of recent deltas kept for resumed sessions, which receive the ones they missed */
+    private int recentDeltas = 100;
+}
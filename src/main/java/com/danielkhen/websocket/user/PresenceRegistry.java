@@ -0,0 +1,146 @@
+package com.danielkhen.websocket.user;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory registry of the users connected to this instance.
+ * A user is online while at least one of their STOMP sessions is open, so several
+ * tabs or devices can be connected at once.
+ */
+@Component
+public class PresenceRegistry implements MeterBinder {
+
+    private final Map<String, Presence> presences = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionOwners = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a session for a user.
+     *
+     * @param sessionId ID of the STOMP session
+     * @param user The user owning the session
+     * @return true if this is the user's first session, i.e. the user just came online
+     */
+    public boolean connect(String sessionId, User user) {
+        var previousOwner = sessionOwners.put(sessionId, user.getNickName());
+        if (previousOwner != null && !previousOwner.equals(user.getNickName())) {
+            removeSession(previousOwner, sessionId);
+        }
+
+        var cameOnline = new boolean[1];
+        presences.compute(user.getNickName(), (nickName, presence) -> {
+            var snapshot = snapshotOf(user, Status.ONLINE);
+            if (presence == null) {
+                cameOnline[0] = true;
+                return new Presence(snapshot, Set.of(sessionId));
+            }
+            var sessions = new HashSet<>(presence.sessions());
+            sessions.add(sessionId);
+            return new Presence(snapshot, Set.copyOf(sessions));
+        });
+        return cameOnline[0];
+    }
+
+    /**
+     * Removes a session.
+     *
+     * @param sessionId ID of the STOMP session that closed
+     * @return The user if this was their last session, i.e. the user just went offline
+     */
+    public Optional<User> disconnectSession(String sessionId) {
+        var nickName = sessionOwners.remove(sessionId);
+        if (nickName == null) {
+            return Optional.empty();
+        }
+        return removeSession(nickName, sessionId);
+    }
+
+    /**
+     * Removes a user together with all of their sessions.
+     *
+     * @param nickName ID of the user
+     * @return The user if they were online
+     */
+    public Optional<User> disconnectUser(String nickName) {
+        var presence = presences.remove(nickName);
+        if (presence == null) {
+            return Optional.empty();
+        }
+        presence.sessions().forEach(sessionId -> sessionOwners.remove(sessionId, nickName));
+        return Optional.of(snapshotOf(presence.user(), Status.OFFLINE));
+    }
+
+    /**
+     * @return All users with at least one open session
+     */
+    public List<User> onlineUsers() {
+        return presences.values().stream()
+                .map(Presence::user)
+                .toList();
+    }
+
+    /**
+     * @param nickName ID of the user
+     * @return The user with ONLINE status, or empty if they have no open session
+     */
+    public Optional<User> find(String nickName) {
+        return Optional.ofNullable(presences.get(nickName)).map(Presence::user);
+    }
+
+    /**
+     * @param nickName ID of the user
+     * @return true if the user has at least one open session
+     */
+    public boolean isOnline(String nickName) {
+        return presences.containsKey(nickName);
+    }
+
+    /**
+     * Publishes the number of open sessions and online users as gauges.
+     *
+     * @param registry The registry to bind to
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chat.sessions.active", sessionOwners, Map::size)
+                .description("Open STOMP sessions of identified users")
+                .register(registry);
+        Gauge.builder("chat.users.online", presences, Map::size)
+                .description("Users with at least one open session")
+                .register(registry);
+    }
+
+    private Optional<User> removeSession(String nickName, String sessionId) {
+        var wentOffline = new User[1];
+        presences.computeIfPresent(nickName, (key, presence) -> {
+            var sessions = new HashSet<>(presence.sessions());
+            sessions.remove(sessionId);
+            if (sessions.isEmpty()) {
+                wentOffline[0] = snapshotOf(presence.user(), Status.OFFLINE);
+                return null;
+            }
+            return new Presence(presence.user(), Set.copyOf(sessions));
+        });
+        return Optional.ofNullable(wentOffline[0]);
+    }
+
+    private static User snapshotOf(User user, Status status) {
+        var snapshot = new User();
+        snapshot.setNickName(user.getNickName());
+        snapshot.setFullName(user.getFullName());
+        snapshot.setStatus(status);
+        return snapshot;
+    }
+
+    private record Presence(User user, Set<String> sessions) {
+    }
+}
@@ -0,0 +1,25 @@
+package com.danielkhen.websocket.user;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents the full list of online users at a presence version.
+ * Clients load it once and then apply every {@link PresenceDelta} with a higher version.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PresenceSnapshot {
+    /** Identifier of the instance that built this snapshot */
+    private String origin;
+
+    /** Version of that instance's last delta already reflected in this snapshot */
+    private long version;
+
+    /** Users who are online */
+    private List<User> users;
+}
@@ -0,0 +1,27 @@
+package com.danielkhen.websocket.user;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Represents what a newly connected session needs to know about itself.
+ * A resumed session already has the subscriptions and presence of the session it replaced, so
+ * the client only applies the presence deltas it missed instead of registering and loading
+ * the snapshot again.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class SessionInfo {
+    /** Token to send in the resume-token header of the next CONNECT to resume this session, or null */
+    private String resumeToken;
+
+    /** Whether this session resumed a dropped one */
+    private boolean resumed;
+
+    /** Presence deltas the resumed session missed, oldest first, or null if the client must load the snapshot */
+    private List<PresenceDelta> presenceDeltas;
+}
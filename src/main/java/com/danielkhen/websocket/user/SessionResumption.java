@@ -0,0 +1,249 @@
+package com.danielkhen.websocket.user;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import com.danielkhen.websocket.config.SessionProperties;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a client that lost its connection resume its session within a grace window.
+ * Every session gets a resume token. When a session drops without a clean disconnect, it is
+ * parked under its token: its user stays online and its subscriptions are remembered. A new
+ * session that presents the token on CONNECT takes over the parked one and is subscribed to
+ * the same destinations under the same subscription IDs, so the client needs neither
+ * /app/user.addUser nor a presence snapshot. A parked session that is not resumed in time is
+ * disconnected like any other. Tokens are single-use and only known to this instance.
+ * Sessions closed by the {@link com.danielkhen.websocket.config.IdleSessionReaper} or for missed
+ * heartbeats are parked as well, since their clients are the ones most likely to come back.
+ */
+@Component
+public class SessionResumption {
+
+    /** CONNECT header carrying the resume token of the session to resume */
+    public static final String RESUME_TOKEN_HEADER = "resume-token";
+
+    /** Prefix of destinations handled by the application rather than subscribed to on the broker */
+    private static final String APPLICATION_PREFIX = "/app";
+
+    private final UserService userService;
+    private final PresenceBroadcaster presenceBroadcaster;
+    private final BrokerProperties brokerProperties;
+    private final SessionProperties properties;
+    private final MessageChannel clientInboundChannel;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "session-resumption");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Open sessions of identified users, by session ID */
+    private final Map<String, LiveSession> liveSessions = new ConcurrentHashMap<>();
+    /** Dropped sessions waiting to be resumed, by resume token */
+    private final Map<String, ParkedSession> parkedSessions = new ConcurrentHashMap<>();
+
+    public SessionResumption(
+            UserService userService,
+            PresenceBroadcaster presenceBroadcaster,
+            BrokerProperties brokerProperties,
+            SessionProperties properties,
+            @Qualifier("clientInboundChannel") MessageChannel clientInboundChannel
+    ) {
+        this.userService = userService;
+        this.presenceBroadcaster = presenceBroadcaster;
+        this.brokerProperties = brokerProperties;
+        this.properties = properties;
+        this.clientInboundChannel = clientInboundChannel;
+    }
+
+    /**
+     * Issues a resume token for a newly connected session, and resumes the parked session
+     * named by the token the client sent, if any. The new session must already be registered
+     * with the {@link UserService}, so that the user stays online when the parked one is removed.
+     *
+     * @param sessionId ID of the new session
+     * @param principal The user of the new session
+     * @param resumeToken Token sent on CONNECT, or null
+     */
+    public void connected(String sessionId, Principal principal, String resumeToken) {
+        var parked = resumeToken == null ? null : parkedSessions.get(resumeToken);
+        var resumed = parked != null
+                && parked.nickName().equals(principal.getName())
+                && parkedSessions.remove(resumeToken, parked);
+
+        var session = new LiveSession(principal.getName(), newToken(), resumed);
+        liveSessions.put(sessionId, session);
+        if (!resumed) {
+            return;
+        }
+
+        parked.expiry().cancel(false);
+        userService.disconnectSession(parked.sessionId());
+        parked.subscriptions().forEach((subscriptionId, destination) -> {
+            session.subscriptions().put(subscriptionId, destination);
+            subscribe(sessionId, principal, subscriptionId, destination);
+        });
+    }
+
+    /**
+     * Parks a closed session, unless it was closed cleanly, has no resume token or resumption is off.
+     *
+     * @param sessionId ID of the closed session
+     * @param closeStatus Status the session was closed with
+     * @return true if the session was parked, in which case its user must not be disconnected yet
+     */
+    public boolean disconnected(String sessionId, CloseStatus closeStatus) {
+        var session = liveSessions.remove(sessionId);
+        var grace = properties.getResumeGrace();
+        if (session == null || grace.isZero() || CloseStatus.NORMAL.equalsCode(closeStatus)) {
+            return false;
+        }
+
+        var expiry = scheduler.schedule(() -> expire(session.resumeToken()), grace.toMillis(), TimeUnit.MILLISECONDS);
+        parkedSessions.put(session.resumeToken(), new ParkedSession(
+                sessionId, session.nickName(), Map.copyOf(session.subscriptions()), expiry));
+        return true;
+    }
+
+    /**
+     * Describes a session to its client.
+     *
+     * @param sessionId ID of the session
+     * @param presenceOrigin Instance whose presence versions the client tracks, or null
+     * @param presenceVersion Last presence version the client has applied, or null
+     * @return The session's resume token and, if it was resumed, the presence deltas it missed
+     */
+    public SessionInfo sessionInfo(String sessionId, String presenceOrigin, Long presenceVersion) {
+        var session = liveSessions.get(sessionId);
+        if (session == null) {
+            return SessionInfo.builder().build();
+        }
+
+        var info = SessionInfo.builder()
+                .resumeToken(session.resumeToken())
+                .resumed(session.resumed());
+        // Deltas of other instances are not kept here, so in RELAY mode the client reloads the snapshot
+        if (session.resumed()
+                && brokerProperties.getMode() == BrokerProperties.Mode.SIMPLE
+                && presenceBroadcaster.getNodeId().equals(presenceOrigin)
+                && presenceVersion != null) {
+            presenceBroadcaster.deltasSince(presenceVersion).ifPresent(info::presenceDeltas);
+        }
+        return info.build();
+    }
+
+    /**
+     * Makes the sessions of a user who logged out impossible to resume.
+     *
+     * @param nickName ID of the user
+     */
+    public void revoke(String nickName) {
+        liveSessions.values().removeIf(session -> session.nickName().equals(nickName));
+        parkedSessions.values().removeIf(parked -> {
+            if (!parked.nickName().equals(nickName)) {
+                return false;
+            }
+            parked.expiry().cancel(false);
+            return true;
+        });
+    }
+
+    /**
+     * Remembers a subscription to a broker destination, to restore it when the session is resumed.
+     *
+     * @param event The session subscribe event
+     */
+    @EventListener
+    public void onSessionSubscribe(SessionSubscribeEvent event) {
+        var accessor = StompHeaderAccessor.wrap(event.getMessage());
+        var session = liveSessions.get(accessor.getSessionId());
+        var destination = accessor.getDestination();
+        if (session != null && destination != null && accessor.getSubscriptionId() != null
+                && !destination.startsWith(APPLICATION_PREFIX)) {
+            session.subscriptions().put(accessor.getSubscriptionId(), destination);
+        }
+    }
+
+    /**
+     * Forgets a subscription that the client cancelled.
+     *
+     * @param event The session unsubscribe event
+     */
+    @EventListener
+    public void onSessionUnsubscribe(SessionUnsubscribeEvent event) {
+        var accessor = StompHeaderAccessor.wrap(event.getMessage());
+        var session = liveSessions.get(accessor.getSessionId());
+        if (session != null && accessor.getSubscriptionId() != null) {
+            session.subscriptions().remove(accessor.getSubscriptionId());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void expire(String resumeToken) {
+        var parked = parkedSessions.remove(resumeToken);
+        if (parked != null) {
+            userService.disconnectSession(parked.sessionId());
+        }
+    }
+
+    private void subscribe(String sessionId, Principal principal, String subscriptionId, String destination) {
+        // Handled like a SUBSCRIBE frame from the client, so user destinations are resolved as usual
+        var accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setUser(principal);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        clientInboundChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private String newToken() {
+        var bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @param nickName ID of the session's user
+     * @param resumeToken Token that resumes the session once it is dropped
+     * @param resumed Whether the session resumed a dropped one
+     * @param subscriptions Destinations subscribed to on the broker, by subscription ID
+     */
+    private record LiveSession(String nickName, String resumeToken, boolean resumed, Map<String, String> subscriptions) {
+
+        LiveSession(String nickName, String resumeToken, boolean resumed) {
+            this(nickName, resumeToken, resumed, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * @param sessionId ID of the dropped session, which still counts as one of its user's sessions
+     * @param nickName ID of the session's user
+     * @param subscriptions Destinations the session was subscribed to, by subscription ID
+     * @param expiry Disconnects the session once the grace window has passed
+     */
+    private record ParkedSession(String sessionId, String nickName, Map<String, String> subscriptions, ScheduledFuture<?> expiry) {
+    }
+}
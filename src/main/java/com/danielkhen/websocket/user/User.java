@@ -6,6 +6,8 @@ import lombok.Setter;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Date;
+
 /**
  * Represents a user in the chat system.
  * This entity is stored in MongoDB.
@@ -23,4 +25,11 @@ public class User {
 
     /** The current status of the user (online/offline) */
     private Status status;
+
+    /**
+     * When an instance holding one of the user's sessions last confirmed the ONLINE status, or
+     * null if none has. In RELAY broker mode an ONLINE status that is not confirmed within the
+     * presence TTL is left over from an instance that stopped, and is expired.
+     */
+    private Date lastSeen;
 }
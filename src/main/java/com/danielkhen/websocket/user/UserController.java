@@ -2,13 +2,18 @@ package com.danielkhen.websocket.user;
 
 import com.danielkhen.websocket.exception.UserNotFoundException;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -16,64 +21,126 @@ import java.util.List;
  * Controller for handling user-related operations.
  * Manages user connections, disconnections, and provides a REST endpoint for user queries.
  */
+@Slf4j
 @Controller
 @RequiredArgsConstructor
 public class UserController {
 
     private final UserService service;
+    private final SessionResumption sessionResumption;
 
     /**
      * Handles user connection via WebSocket.
+     * Other users are told about the connection through a coalesced presence delta.
      *
      * @param user The connecting user
-     * @return The connected user
+     * @param headerAccessor Headers of the STOMP frame, identifying the session
      */
     @MessageMapping("/user.addUser")
-    @SendTo("/user/public")
-    public User addUser(@Payload User user) {
+    public void addUser(@Payload User user, SimpMessageHeaderAccessor headerAccessor) {
         try {
-            service.saveUser(user);
-            return user;
+            service.saveUser(user, headerAccessor.getSessionId());
         } catch (Exception e) {
             // Log the error
-            System.err.println("Error adding user: " + e.getMessage());
-            return null;
+            log.error("Error adding user nickName={}", user.getNickName(), e);
         }
     }
 
     /**
      * Handles user disconnection via WebSocket.
+     * Other users are told about the disconnection through a coalesced presence delta.
      *
      * @param user The disconnecting user
-     * @return The disconnected user
      */
     @MessageMapping("/user.disconnectUser")
-    @SendTo("/user/public")
-    public User disconnect(@Payload User user) {
+    public void disconnect(@Payload User user) {
         try {
+            sessionResumption.revoke(user.getNickName());
             service.disconnect(user);
-            return user;
         } catch (UserNotFoundException e) {
             // Log the error
-            System.err.println("Error disconnecting user: " + e.getMessage());
-            return null;
+            log.warn("Error disconnecting user nickName={} error=\"{}\"", user.getNickName(), e.getMessage());
         }
     }
 
+    /**
+     * Tells a newly connected session its resume token and whether it resumed a dropped session.
+     * Clients subscribe right after connecting; a resumed session skips /app/user.addUser and
+     * the snapshot, and applies the presence deltas it missed since the version it sends.
+     *
+     * @param presenceOrigin Instance whose presence versions the client tracks, if any
+     * @param presenceVersion Last presence version the client has applied, if any
+     * @param headerAccessor Headers of the STOMP frame, identifying the session
+     * @return Information about the session
+     */
+    @SubscribeMapping("/session")
+    public SessionInfo sessionInfo(
+            @Header(name = "presence-origin", required = false) String presenceOrigin,
+            @Header(name = "presence-version", required = false) Long presenceVersion,
+            SimpMessageHeaderAccessor headerAccessor
+    ) {
+        return sessionResumption.sessionInfo(headerAccessor.getSessionId(), presenceOrigin, presenceVersion);
+    }
+
     /**
      * REST endpoint to retrieve all connected users.
+     * Responses carry the presence version as ETag, so a client whose list is still current
+     * gets a 304 without the list being built.
      *
-     * @return List of connected users
+     * @param request The request, for its conditional headers
+     * @return List of connected users, or null if not modified
      */
     @GetMapping("/users")
-    public ResponseEntity<List<User>> findConnectedUsers() {
+    public ResponseEntity<List<User>> findConnectedUsers(WebRequest request) {
         try {
+            if (presenceNotModified(request)) {
+                return null;
+            }
             List<User> users = service.findConnectedUsers();
-            return ResponseEntity.ok(users);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .body(users);
+        } catch (Exception e) {
+            // Log the error
+            log.error("Error retrieving connected users", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * REST endpoint to retrieve all connected users with the presence version they reflect.
+     * Clients apply presence deltas with a higher version on top of this snapshot.
+     * Conditional requests are answered like those for the list of connected users.
+     *
+     * @param request The request, for its conditional headers
+     * @return Snapshot of the connected users, or null if not modified
+     */
+    @GetMapping("/users/snapshot")
+    public ResponseEntity<PresenceSnapshot> findPresenceSnapshot(WebRequest request) {
+        try {
+            if (presenceNotModified(request)) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .body(service.findPresenceSnapshot());
         } catch (Exception e) {
             // Log the error
-            System.err.println("Error retrieving connected users: " + e.getMessage());
+            log.error("Error retrieving presence snapshot", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks a request's conditional headers against the presence version, and sets the ETag
+     * of the response. Users whose change is not yet broadcast are reported under the previous
+     * version, so a cached list can lag by at most one broadcast window.
+     *
+     * @return true if the client's copy is current, in which case the response is a 304
+     */
+    private boolean presenceNotModified(WebRequest request) {
+        return service.currentPresenceVersion()
+                .map(request::checkNotModified)
+                .orElse(false);
+    }
+}
@@ -1,42 +1,97 @@
 package com.danielkhen.websocket.user;
 
+import com.danielkhen.websocket.config.BrokerProperties;
 import com.danielkhen.websocket.exception.UserNotFoundException;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service class for managing user operations.
  * Handles user connections, disconnections, and queries.
+ * Presence is served from the in-memory {@link PresenceRegistry}; MongoDB only keeps the
+ * durable copy of each user and is written asynchronously, in order, on a single thread.
+ * In RELAY broker mode the registry only knows this instance's users, so the list of
+ * online users is read from the durable copy instead. Each instance then periodically confirms
+ * its users in the durable copy and expires the ONLINE users no instance has confirmed within
+ * the presence TTL, which are those of instances that stopped without disconnecting them.
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
-    private final UserRepository repository;
+    private final UserStore userStore;
+    private final PresenceRegistry presenceRegistry;
+    private final PresenceBroadcaster presenceBroadcaster;
+    private final BrokerProperties brokerProperties;
+    private final ScheduledExecutorService persistenceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "user-presence-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Saves a new user or updates an existing user's status to ONLINE.
      *
      * @param user The user to save
+     * @param sessionId ID of the STOMP session the user connected with
      */
-    public void saveUser(User user) {
+    public void saveUser(User user, String sessionId) {
+        connectSession(sessionId, user);
+    }
+
+    /**
+     * Registers a STOMP session for a user and marks the user ONLINE.
+     *
+     * @param sessionId ID of the STOMP session
+     * @param user The user owning the session
+     * @return true if this is the user's first session
+     */
+    public boolean connectSession(String sessionId, User user) {
         user.setStatus(Status.ONLINE);
-        repository.save(user);
+        user.setLastSeen(new Date());
+        var cameOnline = presenceRegistry.connect(sessionId, user);
+        if (cameOnline) {
+            presenceBroadcaster.userJoined(user);
+            persistAsync(user);
+        }
+        return cameOnline;
+    }
+
+    /**
+     * Removes a closed STOMP session, marking its user OFFLINE if it was their last one.
+     *
+     * @param sessionId ID of the STOMP session
+     * @return The user if they went offline
+     */
+    public Optional<User> disconnectSession(String sessionId) {
+        var wentOffline = presenceRegistry.disconnectSession(sessionId);
+        wentOffline.ifPresent(this::userLeft);
+        return wentOffline;
     }
 
     /**
-     * Updates a user's status to OFFLINE when they disconnect.
+     * Updates a user's status to OFFLINE when they disconnect, closing all of their sessions.
      *
      * @param user The user who is disconnecting
-     * @throws UserNotFoundException if the user is not found
+     * @throws UserNotFoundException if the user is not online
      */
     public void disconnect(User user) {
-        var storedUser = repository.findById(user.getNickName())
+        var storedUser = presenceRegistry.disconnectUser(user.getNickName())
                 .orElseThrow(() -> new UserNotFoundException("User not found: " + user.getNickName()));
-        storedUser.setStatus(Status.OFFLINE);
-        repository.save(storedUser);
+        user.setStatus(Status.OFFLINE);
+        userLeft(storedUser);
     }
 
     /**
@@ -45,6 +100,116 @@ public class UserService {
      * @return List of online users
      */
     public List<User> findConnectedUsers() {
-        return repository.findAllByStatus(Status.ONLINE);
+        if (brokerProperties.getMode() == BrokerProperties.Mode.RELAY) {
+            // Users not yet expired after their instance stopped are left out already
+            var seenAfter = System.currentTimeMillis() - brokerProperties.getPresenceTtl().toMillis();
+            return userStore.findAllByStatus(Status.ONLINE).stream()
+                    .filter(user -> user.getLastSeen() != null && user.getLastSeen().getTime() >= seenAfter)
+                    .toList();
+        }
+        return presenceRegistry.onlineUsers();
+    }
+
+    /**
+     * Identifies the current state of the online users, for caching. In RELAY mode the users are
+     * read from the database and no version covers them, so there is none.
+     *
+     * @return The instance and its presence version, or empty in RELAY mode
+     */
+    public Optional<String> currentPresenceVersion() {
+        if (brokerProperties.getMode() == BrokerProperties.Mode.RELAY) {
+            return Optional.empty();
+        }
+        return Optional.of(presenceBroadcaster.getNodeId() + "-" + presenceBroadcaster.currentVersion());
+    }
+
+    /**
+     * Retrieves all online users together with the presence version they reflect.
+     *
+     * @return Snapshot of the online users
+     */
+    public PresenceSnapshot findPresenceSnapshot() {
+        // Reading the version first means the users are at least as new as the version
+        var version = presenceBroadcaster.currentVersion();
+        return PresenceSnapshot.builder()
+                .origin(presenceBroadcaster.getNodeId())
+                .version(version)
+                .users(findConnectedUsers())
+                .build();
+    }
+
+    /**
+     * Marks users left ONLINE by a previous run as OFFLINE, since none of their sessions survived it.
+     * In RELAY mode other instances may still hold their sessions, so presence is instead refreshed
+     * periodically, which expires only the users no instance confirms any more.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void clearStalePresence() {
+        if (brokerProperties.getMode() == BrokerProperties.Mode.RELAY) {
+            long interval = brokerProperties.getPresenceRefreshInterval().toMillis();
+            persistenceExecutor.scheduleWithFixedDelay(this::refreshPresence, 0, interval, TimeUnit.MILLISECONDS);
+            return;
+        }
+        persistenceExecutor.execute(() -> {
+            try {
+                for (var user : userStore.findAllByStatus(Status.ONLINE)) {
+                    if (!presenceRegistry.isOnline(user.getNickName())) {
+                        user.setStatus(Status.OFFLINE);
+                        userStore.save(user);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Could not clear stale user status error=\"{}\"", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Confirms this instance's online users in the durable copy, then expires the ONLINE users that
+     * no instance has confirmed within the presence TTL and tells clients they left. Runs on the
+     * persistence thread, so it is ordered with the status writes of connects and disconnects.
+     */
+    void refreshPresence() {
+        try {
+            var now = new Date();
+            userStore.markSeen(presenceRegistry.onlineUsers().stream().map(User::getNickName).toList(), now);
+            var expired = userStore.expireOnline(new Date(now.getTime() - brokerProperties.getPresenceTtl().toMillis()));
+            for (var user : expired) {
+                if (!presenceRegistry.isOnline(user.getNickName())) {
+                    presenceBroadcaster.userLeft(user);
+                }
+            }
+            if (!expired.isEmpty()) {
+                log.info("Expired presence of users on stopped instances count={}", expired.size());
+            }
+        } catch (Exception e) {
+            log.warn("Could not refresh user presence error=\"{}\"", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the persistence thread once the queued writes are done.
+     */
+    @PreDestroy
+    public void shutdown() {
+        persistenceExecutor.shutdown();
+    }
+
+    private void userLeft(User user) {
+        presenceBroadcaster.userLeft(user);
+        persistAsync(user);
+    }
+
+    private void persistAsync(User user) {
+        persistenceExecutor.execute(() -> {
+            try {
+                // A connect and a disconnect of the user can race, so the registry's current state is stored
+                user.setStatus(presenceRegistry.isOnline(user.getNickName()) ? Status.ONLINE : Status.OFFLINE);
+                userStore.save(user);
+            } catch (Exception e) {
+                log.warn("Could not persist user status nickName={} status={} error=\"{}\"",
+                        user.getNickName(), user.getStatus(), e.getMessage());
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.danielkhen.websocket.user;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Storage of users, implemented for MongoDB and for local append-only logs.
+ */
+public interface UserStore {
+
+    /**
+     * Stores a user, replacing the stored user with the same nickname.
+     *
+     * @param user The user to store
+     * @return The stored user
+     */
+    User save(User user);
+
+    /**
+     * Finds the users with a status.
+     *
+     * @param status The status to look for
+     * @return The users with the status
+     */
+    List<User> findAllByStatus(Status status);
+
+    /**
+     * Marks stored users ONLINE and confirms them as seen. Users that are not stored are skipped.
+     *
+     * @param nickNames IDs of the users
+     * @param seenAt Time to record as their last confirmation
+     */
+    void markSeen(Collection<String> nickNames, Date seenAt);
+
+    /**
+     * Marks OFFLINE the ONLINE users that were last confirmed before a cutoff, or never.
+     * Each user is only returned by the call that changed it, so when several instances expire
+     * presence concurrently, exactly one of them reports each user.
+     *
+     * @param seenBefore Cutoff for the last confirmation
+     * @return The users this call marked OFFLINE
+     */
+    List<User> expireOnline(Date seenBefore);
+}
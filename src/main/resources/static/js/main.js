@@ -8,11 +8,36 @@ const messageInput = document.querySelector('#message');
 const connectingElement = document.querySelector('.connecting');
 const chatArea = document.querySelector('#chat-messages');
 const logout = document.querySelector('#logout');
+const typingIndicator = document.querySelector('#typing-indicator');
 
 let stompClient = null;
 let nickname = null;
 let fullname = null;
 let selectedUserId = null;
+let olderCursor = null;
+let loadingOlderMessages = false;
+let presenceVersions = new Map();
+const connectedUsers = new Map();
+const usersWithUnreadMessages = new Set();
+const conversationPartners = new Set();
+// Newest page of each conversation, loaded in one request at login and used once when it is opened
+const prefetchedPages = new Map();
+const PREFETCH_PAGE_SIZE = 20;
+// Highest message sequence seen per conversation partner, used to catch up after a reconnect
+const lastSequences = new Map();
+// IDs of recently received messages, since unacknowledged messages are sent again on resume
+const receivedMessageIds = new Set();
+const MAX_RECEIVED_MESSAGE_IDS = 1000;
+const RECONNECT_DELAY_MS = 2000;
+let reconnecting = false;
+let reconnectTimer = null;
+// Sent on the next CONNECT, so the server can resume the session if the connection dropped
+let resumeToken = null;
+// The server relays typing at most every few seconds, so the indicator outlives that interval
+const TYPING_NOTICE_INTERVAL_MS = 2000;
+const TYPING_INDICATOR_TIMEOUT_MS = 5000;
+let lastTypingNotice = 0;
+let typingIndicatorTimer = null;
 
 function connect(event) {
     nickname = document.querySelector('#nickname').value.trim();
@@ -21,39 +46,207 @@ function connect(event) {
     if (nickname && fullname) {
         usernamePage.classList.add('hidden');
         chatPage.classList.remove('hidden');
+        openConnection();
+    }
+    event.preventDefault();
+}
 
-        const socket = new SockJS('/ws');
-        stompClient = Stomp.over(socket);
+function openConnection() {
+    const socket = new SockJS('/ws');
+    stompClient = Stomp.over(socket);
 
-        stompClient.connect({}, onConnected, onError);
+    const headers = {nickName: nickname, fullName: fullname};
+    if (resumeToken) {
+        headers['resume-token'] = resumeToken;
     }
-    event.preventDefault();
+    stompClient.connect(headers, onConnected, onError);
 }
 
+// Subscriptions by fixed ID, so that ones restored by the server reach the same handlers
+const subscriptions = {
+    messages: ['/user/queue/messages', onMessageReceived],
+    presence: ['/topic/presence', onPresenceReceived],
+    errors: ['/user/queue/errors', onErrorReceived],
+    events: ['/user/queue/events', onChatEventReceived]
+};
 
 function onConnected() {
-    stompClient.subscribe(`/user/${nickname}/queue/messages`, onMessageReceived);
-    stompClient.subscribe(`/user/public`, onMessageReceived);
+    // A resumed session is subscribed by the server before it answers below, so the handlers are
+    // registered up front. stomp.js has no API for this: its subscriptions map, which it dispatches
+    // MESSAGE frames through, is internal. It is only relied on because index.html pins stomp.js
+    // 2.3.3; check this line before upgrading it.
+    Object.entries(subscriptions).forEach(([id, [, handler]]) => stompClient.subscriptions[id] = handler);
+
+    const sessionHeaders = {};
+    const [presenceOrigin, presenceVersion] = presenceVersions.entries().next().value || [];
+    if (presenceOrigin !== undefined) {
+        sessionHeaders['presence-origin'] = presenceOrigin;
+        sessionHeaders['presence-version'] = presenceVersion;
+    }
+    stompClient.subscribe('/app/session', onSessionReceived, sessionHeaders);
+}
+
+function onSessionReceived(payload) {
+    const session = JSON.parse(payload.body);
+    resumeToken = session.resumeToken;
+
+    if (!session.resumed) {
+        Object.entries(subscriptions).forEach(([id, [destination, handler]]) =>
+            stompClient.subscribe(destination, handler, {id: id}));
+        // register the connected user
+        stompClient.send("/app/user.addUser",
+            {},
+            JSON.stringify({nickName: nickname, fullName: fullname, status: 'ONLINE'})
+        );
+        // pages prefetched before the connection dropped may miss messages
+        prefetchedPages.clear();
+    }
+    let usersLoaded = Promise.resolve();
+    if (session.resumed && session.presenceDeltas) {
+        session.presenceDeltas.forEach(applyPresenceDelta);
+    } else {
+        usersLoaded = fetchConnectedUsersSnapshot();
+    }
+    // ask for anything that was sent while we were away and never acknowledged
+    stompClient.send("/app/chat.resume", {}, '');
+
+    document.querySelector('#connected-user-fullname').textContent = fullname;
+    const conversationsLoaded = fetchUnreadConversations();
+    if (!session.resumed) {
+        Promise.allSettled([usersLoaded, conversationsLoaded]).then(prefetchRecentMessages);
+    }
+
+    if (connectingElement) {
+        connectingElement.textContent = '';
+    }
+    if (reconnecting && selectedUserId) {
+        fetchAndDisplayMissedMessages().then();
+    }
+    reconnecting = false;
+}
+
+async function fetchConnectedUsersSnapshot() {
+    const snapshotResponse = await fetch('/users/snapshot');
+    const snapshot = await snapshotResponse.json();
+    presenceVersions = new Map([[snapshot.origin, snapshot.version]]);
+    connectedUsers.clear();
+    snapshot.users.forEach(user => connectedUsers.set(user.nickName, user));
+    displayConnectedUsers();
+}
+
+async function fetchUnreadConversations() {
+    const response = await fetch(`/conversations/${nickname}`);
+    // Conversation summaries need MongoDB, so the endpoint does not exist in local storage mode
+    if (!response.ok) {
+        return;
+    }
+    const conversations = await response.json();
+    conversations.forEach(conversation => conversationPartners.add(conversation.otherUserId));
+    conversations
+        .filter(conversation => conversation.unreadCount > 0 && conversation.otherUserId !== selectedUserId)
+        .forEach(conversation => usersWithUnreadMessages.add(conversation.otherUserId));
+    displayConnectedUsers();
+}
+
+async function prefetchRecentMessages() {
+    const userIds = [...new Set([...connectedUsers.keys(), ...conversationPartners])]
+        .filter(userId => userId !== nickname && userId !== selectedUserId);
+    if (userIds.length === 0) {
+        return;
+    }
+    const query = userIds.map(userId => `with=${encodeURIComponent(userId)}`).join('&');
+    const response = await fetch(`/messages/${nickname}?${query}&limit=${PREFETCH_PAGE_SIZE}`);
+    if (!response.ok) {
+        return;
+    }
+    const pages = await response.json();
+    Object.entries(pages)
+        .filter(([userId]) => userId !== selectedUserId)
+        .forEach(([userId, page]) => prefetchedPages.set(userId, page));
+}
 
-    // register the connected user
-    stompClient.send("/app/user.addUser",
+function sendReadReceipt(userId) {
+    sendChatEvent('READ', userId, lastSequences.get(userId) || null);
+}
+
+function sendChatEvent(type, recipientId, sequence = null) {
+    stompClient.send("/app/chat.event",
         {},
-        JSON.stringify({nickName: nickname, fullName: fullname, status: 'ONLINE'})
+        JSON.stringify({type: type, recipientId: recipientId, sequence: sequence})
     );
-    document.querySelector('#connected-user-fullname').textContent = fullname;
-    findAndDisplayConnectedUsers().then();
 }
 
-async function findAndDisplayConnectedUsers() {
-    const connectedUsersResponse = await fetch('/users');
-    let connectedUsers = await connectedUsersResponse.json();
-    connectedUsers = connectedUsers.filter(user => user.nickName !== nickname);
+function onMessageInput() {
+    if (!selectedUserId || !stompClient) {
+        return;
+    }
+    const now = Date.now();
+    if (messageInput.value.trim() && now - lastTypingNotice >= TYPING_NOTICE_INTERVAL_MS) {
+        lastTypingNotice = now;
+        sendChatEvent('TYPING', selectedUserId);
+    } else if (!messageInput.value.trim() && lastTypingNotice) {
+        stopTypingNotice();
+    }
+}
+
+function stopTypingNotice() {
+    if (lastTypingNotice && selectedUserId) {
+        lastTypingNotice = 0;
+        sendChatEvent('STOPPED_TYPING', selectedUserId);
+    }
+}
+
+function onChatEventReceived(payload) {
+    const event = JSON.parse(payload.body);
+    if (event.senderId !== selectedUserId) {
+        return;
+    }
+    if (event.type === 'TYPING') {
+        typingIndicator.textContent = `${event.senderId} is typing...`;
+        typingIndicator.classList.remove('hidden');
+        clearTimeout(typingIndicatorTimer);
+        typingIndicatorTimer = setTimeout(hideTypingIndicator, TYPING_INDICATOR_TIMEOUT_MS);
+    } else if (event.type === 'STOPPED_TYPING') {
+        hideTypingIndicator();
+    }
+}
+
+function hideTypingIndicator() {
+    clearTimeout(typingIndicatorTimer);
+    typingIndicator.classList.add('hidden');
+}
+
+function onPresenceReceived(payload) {
+    applyPresenceDelta(JSON.parse(payload.body));
+}
+
+function applyPresenceDelta(delta) {
+    // Versions are counted per server instance; deltas are idempotent, so a delta from an
+    // instance we have no version for yet can be applied as-is
+    const knownVersion = presenceVersions.get(delta.origin);
+    if (knownVersion !== undefined && delta.version <= knownVersion) {
+        // Already contained in the snapshot
+        return;
+    }
+    if (knownVersion !== undefined && delta.version !== knownVersion + 1) {
+        // A delta was missed, so catch up from a fresh snapshot
+        fetchConnectedUsersSnapshot().then();
+        return;
+    }
+    presenceVersions.set(delta.origin, delta.version);
+    delta.left.forEach(userId => connectedUsers.delete(userId));
+    delta.joined.forEach(user => connectedUsers.set(user.nickName, user));
+    displayConnectedUsers();
+}
+
+function displayConnectedUsers() {
+    const otherUsers = [...connectedUsers.values()].filter(user => user.nickName !== nickname);
     const connectedUsersList = document.getElementById('connectedUsers');
     connectedUsersList.innerHTML = '';
 
-    connectedUsers.forEach(user => {
+    otherUsers.forEach((user, index) => {
         appendUserElement(user, connectedUsersList);
-        if (connectedUsers.indexOf(user) < connectedUsers.length - 1) {
+        if (index < otherUsers.length - 1) {
             const separator = document.createElement('li');
             separator.classList.add('separator');
             connectedUsersList.appendChild(separator);
@@ -65,6 +258,9 @@ function appendUserElement(user, connectedUsersList) {
     const listItem = document.createElement('li');
     listItem.classList.add('user-item');
     listItem.id = user.nickName;
+    if (user.nickName === selectedUserId) {
+        listItem.classList.add('active');
+    }
 
     // const userImage = document.createElement('img');
     // userImage.src = '../img/user_icon.png';
@@ -74,8 +270,11 @@ function appendUserElement(user, connectedUsersList) {
     usernameSpan.textContent = user.fullName;
 
     const receivedMsgs = document.createElement('span');
-    receivedMsgs.textContent = '0';
-    receivedMsgs.classList.add('nbr-msg', 'hidden');
+    receivedMsgs.textContent = '';
+    receivedMsgs.classList.add('nbr-msg');
+    if (!usersWithUnreadMessages.has(user.nickName)) {
+        receivedMsgs.classList.add('hidden');
+    }
 
     // listItem.appendChild(userImage);
     listItem.appendChild(usernameSpan);
@@ -95,7 +294,10 @@ function userItemClick(event) {
     const clickedUser = event.currentTarget;
     clickedUser.classList.add('active');
 
+    stopTypingNotice();
+    hideTypingIndicator();
     selectedUserId = clickedUser.getAttribute('id');
+    usersWithUnreadMessages.delete(selectedUserId);
     fetchAndDisplayUserChat().then();
 
     const nbrMsg = clickedUser.querySelector('.nbr-msg');
@@ -104,7 +306,7 @@ function userItemClick(event) {
 
 }
 
-function displayMessage(senderId, content) {
+function createMessageElement(senderId, content, attachmentId) {
     const messageContainer = document.createElement('div');
     messageContainer.classList.add('message');
     if (senderId === nickname) {
@@ -115,23 +317,117 @@ function displayMessage(senderId, content) {
     const message = document.createElement('p');
     message.textContent = content;
     messageContainer.appendChild(message);
-    chatArea.appendChild(messageContainer);
+    if (attachmentId) {
+        // Only the start of a long message is sent inline; the rest is downloaded on demand
+        message.textContent = content + '…';
+        const showFull = document.createElement('a');
+        showFull.href = '#';
+        showFull.textContent = 'Show full message';
+        showFull.addEventListener('click', async event => {
+            event.preventDefault();
+            const response = await fetch(`/attachments/${attachmentId}`);
+            message.textContent = await response.text();
+            showFull.remove();
+        });
+        messageContainer.appendChild(showFull);
+    }
+    return messageContainer;
+}
+
+function displayMessage(senderId, content, attachmentId) {
+    chatArea.appendChild(createMessageElement(senderId, content, attachmentId));
+}
+
+async function fetchChatPage(userId, query = '') {
+    const response = await fetch(`/messages/${nickname}/${userId}${query}`);
+    return await response.json();
 }
 
 async function fetchAndDisplayUserChat() {
-    const userChatResponse = await fetch(`/messages/${nickname}/${selectedUserId}`);
-    const userChat = await userChatResponse.json();
+    const userId = selectedUserId;
+    // Later visits revalidate the page with the browser's cached ETag instead
+    const prefetched = prefetchedPages.get(userId);
+    prefetchedPages.delete(userId);
+    const page = prefetched || await fetchChatPage(userId);
+    if (userId !== selectedUserId) {
+        return;
+    }
     chatArea.innerHTML = '';
-    userChat.forEach(chat => {
-        displayMessage(chat.senderId, chat.content);
+    olderCursor = page.olderCursor;
+    page.messages.forEach(chat => {
+        displayMessage(chat.senderId, chat.content, chat.attachmentId);
+        recordSequence(userId, chat.sequence);
     });
     chatArea.scrollTop = chatArea.scrollHeight;
+    sendReadReceipt(userId);
+}
+
+async function fetchAndDisplayOlderMessages() {
+    if (!olderCursor || loadingOlderMessages) {
+        return;
+    }
+    loadingOlderMessages = true;
+    try {
+        const userId = selectedUserId;
+        const page = await fetchChatPage(userId, `?before=${encodeURIComponent(olderCursor)}`);
+        if (userId !== selectedUserId) {
+            return;
+        }
+        olderCursor = page.olderCursor;
+
+        // Prepend the older messages while keeping the visible messages in place
+        const previousHeight = chatArea.scrollHeight;
+        const firstMessage = chatArea.firstChild;
+        page.messages.forEach(chat => {
+            chatArea.insertBefore(createMessageElement(chat.senderId, chat.content, chat.attachmentId), firstMessage);
+        });
+        chatArea.scrollTop = chatArea.scrollHeight - previousHeight;
+    } finally {
+        loadingOlderMessages = false;
+    }
+}
+
+async function fetchAndDisplayMissedMessages() {
+    const userId = selectedUserId;
+    let hasMore = true;
+    while (hasMore && userId === selectedUserId) {
+        const sequence = lastSequences.get(userId) || 0;
+        const page = await fetchChatPage(userId, `/since?sequence=${sequence}`);
+        if (userId !== selectedUserId) {
+            return;
+        }
+        page.messages.forEach(chat => {
+            // Our own messages were displayed when they were sent
+            if (chat.senderId !== nickname && !receivedMessageIds.has(chat.id)) {
+                displayMessage(chat.senderId, chat.content, chat.attachmentId);
+            }
+            recordSequence(userId, chat.sequence);
+        });
+        hasMore = page.hasMore && page.messages.length > 0;
+    }
+    chatArea.scrollTop = chatArea.scrollHeight;
+}
+
+function recordSequence(userId, sequence) {
+    if (sequence != null && sequence > (lastSequences.get(userId) || 0)) {
+        lastSequences.set(userId, sequence);
+    }
 }
 
 
 function onError() {
-    connectingElement.textContent = 'Could not connect to WebSocket server. Please refresh this page to try again!';
-    connectingElement.style.color = 'red';
+    if (connectingElement) {
+        connectingElement.textContent = 'Connection lost. Reconnecting...';
+        connectingElement.style.color = 'red';
+    }
+    reconnecting = true;
+    // a failed attempt calls onError again and schedules the next one
+    if (!reconnectTimer) {
+        reconnectTimer = setTimeout(() => {
+            reconnectTimer = null;
+            openConnection();
+        }, RECONNECT_DELAY_MS);
+    }
 }
 
 
@@ -145,6 +441,7 @@ function sendMessage(event) {
             timestamp: new Date()
         };
         stompClient.send("/app/chat", {}, JSON.stringify(chatMessage));
+        stopTypingNotice();
         displayMessage(nickname, messageInput.value.trim());
         messageInput.value = '';
     }
@@ -153,29 +450,57 @@ function sendMessage(event) {
 }
 
 
-async function onMessageReceived(payload) {
-    await findAndDisplayConnectedUsers();
+function onMessageReceived(payload) {
     console.log('Message received', payload);
     const message = JSON.parse(payload.body);
+    stompClient.send("/app/chat.ack",
+        {},
+        JSON.stringify({messageId: message.id, chatId: message.chatId, sequence: message.sequence})
+    );
+    if (receivedMessageIds.has(message.id)) {
+        // Sent again on resume before our acknowledgement arrived
+        return;
+    }
+    rememberReceivedMessage(message.id);
+    recordSequence(message.senderId, message.sequence);
+    prefetchedPages.delete(message.senderId);
+
     if (selectedUserId && selectedUserId === message.senderId) {
-        displayMessage(message.senderId, message.content);
+        hideTypingIndicator();
+        displayMessage(message.senderId, message.content, message.attachmentId);
         chatArea.scrollTop = chatArea.scrollHeight;
+        sendReadReceipt(message.senderId);
     }
 
-    if (selectedUserId) {
-        document.querySelector(`#${selectedUserId}`).classList.add('active');
-    } else {
+    if (!selectedUserId) {
         messageForm.classList.add('hidden');
     }
 
-    const notifiedUser = document.querySelector(`#${message.senderId}`);
+    const notifiedUser = document.getElementById(message.senderId);
     if (notifiedUser && !notifiedUser.classList.contains('active')) {
+        usersWithUnreadMessages.add(message.senderId);
         const nbrMsg = notifiedUser.querySelector('.nbr-msg');
         nbrMsg.classList.remove('hidden');
         nbrMsg.textContent = '';
     }
 }
 
+function rememberReceivedMessage(messageId) {
+    receivedMessageIds.add(messageId);
+    if (receivedMessageIds.size > MAX_RECEIVED_MESSAGE_IDS) {
+        receivedMessageIds.delete(receivedMessageIds.values().next().value);
+    }
+}
+
+function onErrorReceived(payload) {
+    const error = JSON.parse(payload.body);
+    if (error.recipientId) {
+        console.warn('Message to ' + error.recipientId + ' failed: ' + error.reason);
+    } else {
+        console.warn('Message failed: ' + error.reason);
+    }
+}
+
 function onLogout() {
     stompClient.send("/app/user.disconnectUser",
         {},
@@ -186,5 +511,11 @@ function onLogout() {
 
 usernameForm.addEventListener('submit', connect, true); // step 1
 messageForm.addEventListener('submit', sendMessage, true);
+messageInput.addEventListener('input', onMessageInput);
 logout.addEventListener('click', onLogout, true);
+chatArea.addEventListener('scroll', () => {
+    if (chatArea.scrollTop === 0) {
+        fetchAndDisplayOlderMessages().then();
+    }
+});
 window.onbeforeunload = () => onLogout();
\ No newline at end of file
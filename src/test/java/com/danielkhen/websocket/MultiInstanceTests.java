@@ -0,0 +1,144 @@
+package com.danielkhen.websocket;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatNotification;
+import com.danielkhen.websocket.user.PresenceDelta;
+import com.danielkhen.websocket.user.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs two instances in RELAY broker mode against one {@link StompRelayStandIn}, each with its own
+ * local storage, and checks that users connected to different instances reach each other.
+ */
+class MultiInstanceTests {
+
+	@TempDir
+	Path directory;
+
+	private StompRelayStandIn relay;
+	private final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+	private final List<StompSession> sessions = new ArrayList<>();
+	/** Times the receipts the test waits for */
+	private final ThreadPoolTaskScheduler receiptScheduler = new ThreadPoolTaskScheduler();
+
+	@BeforeEach
+	void setUp() throws Exception {
+		relay = new StompRelayStandIn();
+		receiptScheduler.initialize();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		sessions.forEach(StompSession::disconnect);
+		instances.forEach(ConfigurableApplicationContext::close);
+		relay.close();
+		receiptScheduler.shutdown();
+	}
+
+	@Test
+	void deliversMessagesAndPresenceToUsersOnAnotherInstance() throws Exception {
+		var first = start("node-a");
+		var second = start("node-b");
+
+		var alice = connect(first, "alice");
+		var presence = new LinkedBlockingQueue<PresenceDelta>();
+		subscribe(alice, "/topic/presence", PresenceDelta.class, presence);
+
+		var bob = connect(second, "bob");
+		var notifications = new LinkedBlockingQueue<ChatNotification>();
+		subscribe(bob, "/user/queue/messages", ChatNotification.class, notifications);
+
+		// Bob's instance tells Alice's clients that he came online; her own arrival may come first
+		var delta = presence.poll(10, TimeUnit.SECONDS);
+		if (delta != null && delta.getOrigin().equals("node-a")) {
+			delta = presence.poll(10, TimeUnit.SECONDS);
+		}
+		assertNotNull(delta);
+		assertEquals("node-b", delta.getOrigin());
+		assertEquals(List.of("bob"), delta.getJoined().stream().map(User::getNickName).toList());
+
+		// Alice's instance has no session of Bob's, so the message goes through the relay to his
+		alice.send("/app/chat", ChatMessage.builder().senderId("alice").recipientId("bob").content("Hello").build());
+		var notification = notifications.poll(10, TimeUnit.SECONDS);
+		assertNotNull(notification);
+		assertEquals("alice", notification.getSenderId());
+		assertEquals("Hello", notification.getContent());
+	}
+
+	private ConfigurableApplicationContext start(String nodeId) {
+		var context = new SpringApplicationBuilder(WebsocketApplication.class).run(
+				"--server.port=0",
+				"--chat.storage.type=local",
+				"--chat.storage.directory=" + directory.resolve(nodeId),
+				"--chat.broker.mode=relay",
+				"--chat.broker.relay-host=127.0.0.1",
+				"--chat.broker.relay-port=" + relay.port(),
+				"--chat.broker.node-id=" + nodeId
+		);
+		instances.add(context);
+		return context;
+	}
+
+	private StompSession connect(ConfigurableApplicationContext instance, String nickName) throws Exception {
+		var client = new WebSocketStompClient(new StandardWebSocketClient());
+		client.setMessageConverter(new MappingJackson2MessageConverter());
+		client.setDefaultHeartbeat(new long[] {0, 0});
+		client.setTaskScheduler(receiptScheduler);
+		var connectHeaders = new StompHeaders();
+		connectHeaders.add("nickName", nickName);
+		connectHeaders.add("fullName", nickName);
+		var port = ((WebServerApplicationContext) instance).getWebServer().getPort();
+
+		var session = client.connectAsync("ws://localhost:" + port + "/ws-native", new WebSocketHttpHeaders(),
+				connectHeaders, new StompSessionHandlerAdapter() { }).get(10, TimeUnit.SECONDS);
+		session.setAutoReceipt(true);
+		sessions.add(session);
+		return session;
+	}
+
+	/**
+	 * Subscribes and waits until the stand-in has registered the subscription.
+	 */
+	private static <T> void subscribe(StompSession session, String destination, Class<T> type, BlockingQueue<T> received)
+			throws InterruptedException {
+		var subscribed = new CountDownLatch(1);
+		session.subscribe(destination, new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return type;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				received.add(type.cast(payload));
+			}
+		}).addReceiptTask(subscribed::countDown);
+		assertTrue(subscribed.await(10, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,216 @@
+package com.danielkhen.websocket;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM stand-in for the external STOMP broker of RELAY mode.
+ * It speaks just enough STOMP 1.2 over TCP for the broker relay: CONNECT, SUBSCRIBE, UNSUBSCRIBE,
+ * SEND, DISCONNECT and receipts. Every SEND is delivered to each subscription to its exact
+ * destination, whichever connection made it, so instances sharing the stand-in reach each other's
+ * users like they would through RabbitMQ or ActiveMQ. Heartbeats are turned off.
+ */
+final class StompRelayStandIn implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "stomp-relay-stand-in");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Subscriptions by destination */
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong messageIds = new AtomicLong();
+
+    StompRelayStandIn() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    /**
+     * @return Port the stand-in accepts STOMP connections on
+     */
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                var connection = new Connection(serverSocket.accept());
+                executor.execute(() -> serve(connection));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Connection connection) {
+        try (var socket = connection.socket) {
+            var in = new BufferedInputStream(socket.getInputStream());
+            Frame frame;
+            while ((frame = Frame.read(in)) != null) {
+                switch (frame.command()) {
+                    case "CONNECT", "STOMP" -> connection.write("CONNECTED", List.of("version:1.2", "heart-beat:0,0"), new byte[0]);
+                    case "SUBSCRIBE" -> {
+                        var subscription = new Subscription(connection, frame.header("id"));
+                        connection.subscriptions.put(subscription.id(), frame.header("destination"));
+                        subscriptions.computeIfAbsent(frame.header("destination"), key -> ConcurrentHashMap.newKeySet())
+                                .add(subscription);
+                    }
+                    case "UNSUBSCRIBE" -> unsubscribe(connection, frame.header("id"));
+                    case "SEND" -> deliver(frame);
+                    case "DISCONNECT" -> {
+                        receipt(connection, frame);
+                        return;
+                    }
+                    default -> {
+                    }
+                }
+                receipt(connection, frame);
+            }
+        } catch (IOException e) {
+            // The connection was closed by the relay or by close()
+        } finally {
+            List.copyOf(connection.subscriptions.keySet()).forEach(id -> unsubscribe(connection, id));
+        }
+    }
+
+    private void deliver(Frame frame) throws IOException {
+        var destination = frame.header("destination");
+        for (var subscription : subscriptions.getOrDefault(destination, Set.of())) {
+            var headers = new ArrayList<String>();
+            headers.add("subscription:" + subscription.id());
+            headers.add("message-id:" + messageIds.incrementAndGet());
+            // Header lines are passed on still escaped, as the relay wrote them
+            frame.headerLines().stream().filter(line -> !line.startsWith("receipt:")).forEach(headers::add);
+            try {
+                subscription.connection().write("MESSAGE", headers, frame.body());
+            } catch (IOException e) {
+                // A subscriber that went away misses the message, as it would on a real broker
+            }
+        }
+    }
+
+    private void unsubscribe(Connection connection, String id) {
+        var destination = connection.subscriptions.remove(id);
+        if (destination != null) {
+            subscriptions.getOrDefault(destination, Set.of()).remove(new Subscription(connection, id));
+        }
+    }
+
+    private static void receipt(Connection connection, Frame frame) throws IOException {
+        var receipt = frame.header("receipt");
+        if (receipt != null) {
+            connection.write("RECEIPT", List.of("receipt-id:" + receipt), new byte[0]);
+        }
+    }
+
+    private record Subscription(Connection connection, String id) {
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        /** Destinations by subscription ID */
+        final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        synchronized void write(String command, List<String> headerLines, byte[] body) throws IOException {
+            var frame = new ByteArrayOutputStream();
+            frame.writeBytes((command + "\n").getBytes(StandardCharsets.UTF_8));
+            for (var line : headerLines) {
+                frame.writeBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            frame.write('\n');
+            frame.writeBytes(body);
+            frame.write(0);
+            OutputStream out = socket.getOutputStream();
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+    }
+
+    /**
+     * A frame as received, with its header lines still escaped.
+     */
+    private record Frame(String command, List<String> headerLines, Map<String, String> headers, byte[] body) {
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * @return The next frame, or null once the connection is closed
+         */
+        static Frame read(InputStream in) throws IOException {
+            String command;
+            do {
+                command = readLine(in);
+                if (command == null) {
+                    return null;
+                }
+            } while (command.isEmpty());
+
+            var headerLines = new ArrayList<String>();
+            var headers = new LinkedHashMap<String, String>();
+            for (var line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                headerLines.add(line);
+                int colon = line.indexOf(':');
+                // As in STOMP, the first occurrence of a repeated header wins
+                headers.putIfAbsent(line.substring(0, colon), line.substring(colon + 1));
+            }
+
+            byte[] body;
+            var contentLength = headers.get("content-length");
+            if (contentLength != null) {
+                body = in.readNBytes(Integer.parseInt(contentLength));
+                in.read();
+            } else {
+                var bytes = new ByteArrayOutputStream();
+                for (int b = in.read(); b > 0; b = in.read()) {
+                    bytes.write(b);
+                }
+                body = bytes.toByteArray();
+            }
+            return new Frame(command, headerLines, headers, body);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            var line = new ByteArrayOutputStream();
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -3,7 +3,11 @@ package com.danielkhen.websocket;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// Local storage needs no MongoDB, so the suite runs without an external database
+@SpringBootTest(properties = {
+		"chat.storage.type=local",
+		"chat.storage.directory=target/test-data"
+})
 class WebsocketApplicationTests {
 
 	@Test
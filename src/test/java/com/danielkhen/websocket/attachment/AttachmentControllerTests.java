@@ -0,0 +1,55 @@
+package com.danielkhen.websocket.attachment;
+
+import com.danielkhen.websocket.exception.GlobalExceptionHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class AttachmentControllerTests {
+
+	private final AttachmentStore attachmentStore = mock(AttachmentStore.class);
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(new AttachmentController(attachmentStore))
+				.setControllerAdvice(new GlobalExceptionHandler())
+				.build();
+		when(attachmentStore.load("a1")).thenReturn(Optional.of(
+				new ByteArrayResource("Hello, world".getBytes(StandardCharsets.UTF_8))));
+		when(attachmentStore.load("missing")).thenReturn(Optional.empty());
+	}
+
+	@Test
+	void downloadsWholeContentAsUtf8Text() throws Exception {
+		mockMvc.perform(get("/attachments/a1"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_TYPE, "text/plain;charset=UTF-8"))
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andExpect(content().string("Hello, world"));
+	}
+
+	@Test
+	void servesByteRanges() throws Exception {
+		mockMvc.perform(get("/attachments/a1").header(HttpHeaders.RANGE, "bytes=7-11"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 7-11/12"))
+				.andExpect(content().string("world"));
+	}
+
+	@Test
+	void unknownAttachmentIsNotFound() throws Exception {
+		mockMvc.perform(get("/attachments/missing"))
+				.andExpect(status().isNotFound());
+	}
+}
@@ -0,0 +1,77 @@
+package com.danielkhen.websocket.attachment;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GridFsAttachmentStoreTests {
+
+	private final GridFsTemplate gridFsTemplate = mock(GridFsTemplate.class);
+	private final GridFsAttachmentStore store = new GridFsAttachmentStore(gridFsTemplate);
+
+	@Test
+	void storesContentWithItsChat() throws Exception {
+		var id = new ObjectId();
+		var content = ArgumentCaptor.forClass(InputStream.class);
+		when(gridFsTemplate.store(content.capture(), eq("alice_bob"), eq("text/plain"), any(Document.class))).thenReturn(id);
+
+		assertEquals(id.toHexString(), store.store("alice_bob", "Hello".getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals("Hello", new String(content.getValue().readAllBytes(), StandardCharsets.UTF_8));
+		var metadata = ArgumentCaptor.forClass(Document.class);
+		verify(gridFsTemplate).store(any(InputStream.class), anyString(), anyString(), metadata.capture());
+		assertEquals("alice_bob", metadata.getValue().get("chatId"));
+	}
+
+	@Test
+	void opensNewDownloadForEveryRead() throws Exception {
+		var id = new ObjectId();
+		var file = new GridFSFile(new BsonObjectId(id), "alice_bob", 5, 255, new Date(), null);
+		when(gridFsTemplate.findOne(any(Query.class))).thenReturn(file);
+		when(gridFsTemplate.getResource(file)).thenAnswer(invocation ->
+				new GridFsResource(file, new ByteArrayInputStream("Hello".getBytes(StandardCharsets.UTF_8))));
+
+		var resource = store.load(id.toHexString()).orElseThrow();
+
+		assertEquals(5, resource.contentLength());
+		assertEquals("Hello", new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+		assertEquals("Hello", new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+		verify(gridFsTemplate, times(2)).getResource(file);
+	}
+
+	@Test
+	void unknownOrInvalidIdsAreNotFound() {
+		when(gridFsTemplate.findOne(any(Query.class))).thenReturn(null);
+
+		assertTrue(store.load(new ObjectId().toHexString()).isEmpty());
+		assertTrue(store.load("../etc/passwd").isEmpty());
+		verify(gridFsTemplate, times(1)).findOne(any(Query.class));
+	}
+
+	@Test
+	void deletesByIdAndIgnoresInvalidIds() {
+		var id = new ObjectId();
+
+		store.delete(id.toHexString());
+		store.delete("not an id");
+
+		var query = ArgumentCaptor.forClass(Query.class);
+		verify(gridFsTemplate, times(1)).delete(query.capture());
+		assertEquals(id, query.getValue().getQueryObject().get("_id"));
+	}
+}
@@ -0,0 +1,169 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.config.WireFormatRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class ChatControllerTests {
+
+	private final ChatMessageService chatMessageService = mock(ChatMessageService.class);
+	private final HistoryProperties historyProperties = new HistoryProperties();
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void setUp() {
+		var controller = new ChatController(
+				mock(SimpMessagingTemplate.class),
+				chatMessageService,
+				new ObjectMapper(),
+				new WireFormatRegistry(),
+				new ChatMetrics(new SimpleMeterRegistry()),
+				mock(PendingDeliveries.class),
+				historyProperties);
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+		when(chatMessageService.findRawChatMessages(any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+	}
+
+	@Test
+	void unchangedHistoryIsNotModified() throws Exception {
+		var latest = new HistoryCursor(new Date(1_700_000_000_000L), "m2");
+		when(chatMessageService.findLatestCursor("alice", "bob")).thenReturn(Optional.of(latest));
+		when(chatMessageService.findChatMessages(eq("alice"), eq("bob"), isNull(), isNull(), isNull()))
+				.thenReturn(ChatMessagePage.builder().messages(List.of()).build());
+
+		var etag = mockMvc.perform(get("/messages/alice/bob"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+				.andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get("/messages/alice/bob").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		verify(chatMessageService, times(1)).findChatMessages(any(), any(), any(), any(), any());
+
+		when(chatMessageService.findLatestCursor("alice", "bob"))
+				.thenReturn(Optional.of(new HistoryCursor(new Date(1_700_000_001_000L), "m3")));
+		mockMvc.perform(get("/messages/alice/bob").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void historyEndingInLegacyMessageIsCachedByItsId() throws Exception {
+		when(chatMessageService.findLatestCursor("alice", "bob")).thenReturn(Optional.of(new HistoryCursor(null, "legacy")));
+		when(chatMessageService.findChatMessages(eq("alice"), eq("bob"), isNull(), isNull(), isNull()))
+				.thenReturn(ChatMessagePage.builder().messages(List.of()).build());
+		when(chatMessageService.findChatMessagesSince("alice", "bob", 0, null))
+				.thenReturn(ChatMessagePage.builder().messages(List.of()).build());
+
+		mockMvc.perform(get("/messages/alice/bob"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"legacy\""))
+				.andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED));
+		mockMvc.perform(get("/messages/alice/bob/since").param("sequence", "0"))
+				.andExpect(status().isOk());
+		mockMvc.perform(get("/messages/alice/bob").header(HttpHeaders.IF_NONE_MATCH, "\"legacy\""))
+				.andExpect(status().isNotModified());
+	}
+
+	@Test
+	void loadsTheNewestPageOfSeveralChats() throws Exception {
+		historyProperties.setMaxBatchChats(2);
+		when(chatMessageService.findChatMessages(eq("alice"), any(), isNull(), isNull(), eq(20)))
+				.thenReturn(ChatMessagePage.builder().messages(List.of()).olderCursor("older").build());
+
+		mockMvc.perform(get("/messages/alice").param("with", "bob", "carol", "bob", "dave").param("limit", "20"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.bob.olderCursor").value("older"))
+				.andExpect(jsonPath("$.carol.messages").isEmpty())
+				.andExpect(jsonPath("$.dave").doesNotExist());
+	}
+
+	@Test
+	void exportsMessagesInRangeAsNdjsonLines() throws Exception {
+		var from = Date.from(Instant.parse("2024-01-01T00:00:00Z"));
+		var to = Date.from(Instant.parse("2024-02-01T00:00:00Z"));
+		when(chatMessageService.streamChatMessages("alice", "bob", from, to))
+				.thenReturn(Stream.of(exported("m1", "Hello"), exported("m2", "Hi")));
+
+		var result = mockMvc.perform(get("/messages/alice/bob/export")
+						.param("from", "2024-01-01T00:00:00Z")
+						.param("to", "2024-02-01T00:00:00Z"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		var response = mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+				.andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+				.andReturn().getResponse();
+
+		assertEquals(List.of("m1", "m2"), exportedIds(response.getContentAsByteArray()));
+	}
+
+	@Test
+	void gzipsExportWhenAccepted() throws Exception {
+		when(chatMessageService.streamChatMessages("alice", "bob", null, null))
+				.thenReturn(Stream.of(exported("m1", "Hello")));
+
+		var result = mockMvc.perform(get("/messages/alice/bob/export").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+
+		var response = mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+				.andReturn().getResponse();
+
+		try (var gzip = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+			assertEquals(List.of("m1"), exportedIds(gzip.readAllBytes()));
+		}
+	}
+
+	@Test
+	void rejectsExportBoundsThatAreNotDates() throws Exception {
+		mockMvc.perform(get("/messages/alice/bob/export").param("from", "yesterday"))
+				.andExpect(status().isBadRequest());
+		verify(chatMessageService, never()).streamChatMessages(any(), any(), any(), any());
+	}
+
+	private static ChatMessage exported(String id, String content) {
+		return ChatMessage.builder().id(id).chatId("alice_bob").senderId("alice").recipientId("bob").content(content).build();
+	}
+
+	private static List<String> exportedIds(byte[] body) throws Exception {
+		var objectMapper = new ObjectMapper();
+		var ids = new ArrayList<String>();
+		for (var line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+			ids.add(objectMapper.readTree(line).get("id").asText());
+		}
+		return ids;
+	}
+}
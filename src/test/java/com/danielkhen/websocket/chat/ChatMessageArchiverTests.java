@@ -0,0 +1,111 @@
+package com.danielkhen.websocket.chat;
+
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChatMessageArchiverTests {
+
+	private static final Instant DAY = Instant.parse("2024-01-01T10:00:00Z");
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final ArchiveProperties properties = new ArchiveProperties();
+	private final ChatMessageArchiver archiver = new ChatMessageArchiver(mongoTemplate, properties);
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.remove(any(Query.class), eq(ChatMessage.class)))
+				.thenAnswer(invocation -> DeleteResult.acknowledged(removedIds(invocation.getArgument(0)).size()));
+	}
+
+	@Test
+	void splitsBusyDayIntoCappedBuckets() {
+		properties.setBatchSize(2);
+		archive(message("m1", 0, "a"), message("m2", 1, "b"), message("m3", 2, "c"),
+				message("m4", 3, "d"), message("m5", 4, "e"));
+
+		assertEquals(List.of("alice_bob/2024-01-01/m1", "alice_bob/2024-01-01/m3", "alice_bob/2024-01-01/m5"), bucketIds());
+		assertEquals(List.of(2, 2, 1), bucketSizes());
+	}
+
+	@Test
+	void startsNewBucketWhenSizeCapIsReached() {
+		properties.setMaxBucketSize(DataSize.ofBytes(1000));
+		var longContent = "x".repeat(600);
+		archive(message("m1", 0, longContent), message("m2", 1, longContent), message("m3", 2, "short"));
+
+		assertEquals(List.of("alice_bob/2024-01-01/m1", "alice_bob/2024-01-01/m2"), bucketIds());
+		assertEquals(List.of(1, 2), bucketSizes());
+	}
+
+	@Test
+	void startsNewBucketForEachDay() {
+		long archived = archive(message("m1", 0, "a"), message("m2", 24 * 60, "b"));
+
+		assertEquals(2, archived);
+		assertEquals(List.of("alice_bob/2024-01-01/m1", "alice_bob/2024-01-02/m2"), bucketIds());
+	}
+
+	@Test
+	void recordsTimeRangeOfEachBucket() {
+		archive(message("m1", 0, "a"), message("m2", 5, "b"));
+
+		var update = updates().get(0).getUpdateObject();
+		assertEquals(Date.from(DAY), ((Document) update.get("$min")).get("firstTimestamp"));
+		assertEquals(Date.from(DAY.plusSeconds(5 * 60)), ((Document) update.get("$max")).get("lastTimestamp"));
+		assertEquals(5L, ((Document) update.get("$max")).get("maxSequence"));
+	}
+
+	private long archive(ChatMessage... messages) {
+		when(mongoTemplate.stream(any(Query.class), eq(ChatMessage.class))).thenReturn(Stream.of(messages));
+		return archiver.archive();
+	}
+
+	private List<String> bucketIds() {
+		var queries = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate, atLeastOnce()).upsert(queries.capture(), any(Update.class), eq(ChatMessageBucket.class));
+		return queries.getAllValues().stream().map(query -> (String) query.getQueryObject().get("id")).toList();
+	}
+
+	private List<Integer> bucketSizes() {
+		var removals = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate, atLeastOnce()).remove(removals.capture(), eq(ChatMessage.class));
+		return removals.getAllValues().stream().map(query -> removedIds(query).size()).toList();
+	}
+
+	private static List<?> removedIds(Query query) {
+		return (List<?>) ((Document) query.getQueryObject().get("id")).get("$in");
+	}
+
+	private List<Update> updates() {
+		var updates = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate, atLeastOnce()).upsert(any(Query.class), updates.capture(), eq(ChatMessageBucket.class));
+		return updates.getAllValues();
+	}
+
+	private static ChatMessage message(String id, int minutes, String content) {
+		return ChatMessage.builder()
+				.id(id)
+				.chatId("alice_bob")
+				.content(content)
+				.timestamp(Date.from(DAY.plusSeconds(minutes * 60L)))
+				.sequence((long) minutes)
+				.build();
+	}
+}
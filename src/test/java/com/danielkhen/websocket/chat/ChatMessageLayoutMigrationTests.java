@@ -0,0 +1,60 @@
+package com.danielkhen.websocket.chat;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChatMessageLayoutMigrationTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	@SuppressWarnings("unchecked")
+	private final MongoCollection<Document> migrations = mock(MongoCollection.class);
+	@SuppressWarnings("unchecked")
+	private final MongoCollection<Document> messages = mock(MongoCollection.class);
+	@SuppressWarnings("unchecked")
+	private final FindIterable<Document> applied = mock(FindIterable.class);
+	private final ChatMessageLayoutMigration migration = new ChatMessageLayoutMigration(mongoTemplate);
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.getCollection(ChatMessageLayoutMigration.MIGRATIONS_COLLECTION)).thenReturn(migrations);
+		when(mongoTemplate.getCollectionName(ChatMessage.class)).thenReturn("chatMessage");
+		when(mongoTemplate.getCollection("chatMessage")).thenReturn(messages);
+		when(migrations.find(any(Document.class))).thenReturn(applied);
+	}
+
+	@Test
+	void staysPendingWhileLegacyMessagesAreFound() {
+		when(messages.updateMany(any(Document.class), any(Document.class))).thenReturn(UpdateResult.acknowledged(3, 3L, null));
+
+		assertFalse(migration.migrate());
+
+		verify(migrations, never()).insertOne(any());
+	}
+
+	@Test
+	void completesOnceARunFindsNothingToConvert() {
+		when(messages.updateMany(any(Document.class), any(Document.class))).thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+		assertTrue(migration.migrate());
+
+		verify(migrations).insertOne(any());
+	}
+
+	@Test
+	void skipsRecordedMigration() {
+		when(applied.first()).thenReturn(new Document("_id", ChatMessageLayoutMigration.MIGRATION_ID));
+
+		assertTrue(migration.migrate());
+
+		verifyNoInteractions(messages);
+	}
+}
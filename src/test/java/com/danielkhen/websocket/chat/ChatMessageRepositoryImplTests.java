@@ -0,0 +1,173 @@
+package com.danielkhen.websocket.chat;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChatMessageRepositoryImplTests {
+
+	private static final Instant START = Instant.parse("2024-01-01T10:00:00Z");
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final ChatMessageRepositoryImpl repository = new ChatMessageRepositoryImpl(mongoTemplate);
+
+	@Test
+	void searchesAllChatsInOneQueryRankedByScore() {
+		repository.searchChats(List.of("alice_bob", "alice_carol"), "lunch", 20, 21);
+
+		var query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate, times(1)).find(query.capture(), eq(ChatMessage.class));
+		assertEquals(new Document("$in", List.of("alice_bob", "alice_carol")), query.getValue().getQueryObject().get("chatId"));
+		assertEquals(List.of("score", "timestamp", "id"), List.copyOf(query.getValue().getSortObject().keySet()));
+		assertEquals(20, query.getValue().getSkip());
+		assertEquals(21, query.getValue().getLimit());
+		assertEquals(1, query.getValue().getFieldsObject().get("chatId"));
+	}
+
+	@Test
+	void newerPageSkipsArchiveWhileCursorIsStillLive() {
+		when(mongoTemplate.exists(any(Query.class), eq(ChatMessage.class))).thenReturn(true);
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class))).thenReturn(List.of(message("m2", 2)));
+
+		var page = repository.findNewerThan("alice_bob", HistoryCursor.of(message("m1", 1)), 10);
+
+		assertEquals(List.of("m2"), ids(page));
+		verify(mongoTemplate, never()).stream(any(Query.class), eq(ChatMessageBucket.class));
+	}
+
+	@Test
+	void newerPageReadsArchivedMessagesBeforeLiveOnes() {
+		when(mongoTemplate.exists(any(Query.class), eq(ChatMessage.class))).thenReturn(false);
+		when(mongoTemplate.stream(any(Query.class), eq(ChatMessageBucket.class))).thenReturn(
+				Stream.of(bucket(message("m1", 1), message("m2", 2), message("m3", 3))))
+				// An interrupted archive run can leave m3 in the next bucket as well
+				.thenReturn(Stream.of(bucket(message("m3", 3), message("m4", 4))));
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class))).thenReturn(List.of(message("m5", 5)));
+
+		var page = repository.findNewerThan("alice_bob", HistoryCursor.of(message("m1", 1)), 4);
+
+		assertEquals(List.of("m2", "m3", "m4", "m5"), ids(page));
+		var bucketQueries = bucketQueries(2);
+		assertNull(bucketQueries.get(0).getFieldsObject().get("messages"));
+		assertEquals(new Document("$slice", 2), bucketQueries.get(1).getFieldsObject().get("messages"));
+	}
+
+	@Test
+	void olderPageSlicesBucketsBeforeTheCursor() {
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class))).thenReturn(List.of(message("m5", 5)));
+		when(mongoTemplate.stream(any(Query.class), eq(ChatMessageBucket.class))).thenReturn(Stream.empty())
+				.thenReturn(Stream.of(bucket(message("m3", 3), message("m4", 4)), bucket(message("m2", 2))));
+
+		var page = repository.findOlderThan("alice_bob", null, 4);
+
+		assertEquals(List.of("m5", "m4", "m3", "m2"), ids(page));
+		var bucketQueries = bucketQueries(2);
+		assertEquals(new Document("$slice", -3), bucketQueries.get(1).getFieldsObject().get("messages"));
+	}
+
+	@Test
+	void olderPageStopsReadingBucketsOnceFull() {
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class))).thenReturn(List.of());
+		when(mongoTemplate.stream(any(Query.class), eq(ChatMessageBucket.class))).thenReturn(
+				Stream.of(bucket(message("m2", 2), message("m3", 3), message("m4", 4))));
+
+		var page = repository.findOlderThan("alice_bob", HistoryCursor.of(message("m4", 4)), 2);
+
+		assertEquals(List.of("m3", "m2"), ids(page));
+		bucketQueries(1);
+	}
+
+	@Test
+	void olderPageBreaksTiesByIdAndReachesMessagesWithoutTimestamp() {
+		var before = HistoryCursor.of(message("m4", 4));
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class))).thenReturn(List.of(message("m3", 3)));
+
+		repository.findOlderThan("alice_bob", before, 1);
+
+		var query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).find(query.capture(), eq(ChatMessage.class));
+		var alternatives = (List<?>) query.getValue().getQueryObject().get("$or");
+		assertEquals(List.of(
+				new Document("timestamp", new Document("$lt", before.timestamp())),
+				new Document("timestamp", before.timestamp()).append("id", new Document("$lt", "m4")),
+				new Document("timestamp", null)
+		), alternatives);
+		assertEquals(new Document("timestamp", -1).append("id", -1), query.getValue().getSortObject());
+	}
+
+	@Test
+	void olderPagePutsArchivedMessagesBeforeMessagesWithoutTimestamp() {
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class)))
+				.thenReturn(List.of(message("m5", 5), undated("legacy")));
+		when(mongoTemplate.stream(any(Query.class), eq(ChatMessageBucket.class))).thenReturn(Stream.empty())
+				.thenReturn(Stream.of(bucket(message("m2", 2))));
+
+		var page = repository.findOlderThan("alice_bob", null, 3);
+
+		assertEquals(List.of("m5", "m2", "legacy"), ids(page));
+	}
+
+	@Test
+	void newerPageFromMessageWithoutTimestampReadsArchiveBeforeDatedMessages() {
+		when(mongoTemplate.find(any(Query.class), eq(ChatMessage.class))).thenReturn(List.of(undated("legacy2")))
+				.thenReturn(List.of(message("m5", 5)));
+		when(mongoTemplate.stream(any(Query.class), eq(ChatMessageBucket.class)))
+				.thenReturn(Stream.of(bucket(message("m2", 2))));
+
+		var page = repository.findNewerThan("alice_bob", HistoryCursor.of(undated("legacy1")), 5);
+
+		assertEquals(List.of("legacy2", "m2", "m5"), ids(page));
+		verify(mongoTemplate, never()).exists(any(Query.class), eq(ChatMessage.class));
+		var queries = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate, times(2)).find(queries.capture(), eq(ChatMessage.class));
+		assertEquals(new Document("$gt", "legacy1"), queries.getAllValues().get(0).getQueryObject().get("id"));
+		var dated = (List<?>) queries.getAllValues().get(1).getQueryObject().get("$or");
+		assertEquals(new Document("timestamp", new Document("$gt", message("m2", 2).getTimestamp())), dated.get(0));
+	}
+
+	private List<Query> bucketQueries(int count) {
+		var queries = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate, times(count)).stream(queries.capture(), eq(ChatMessageBucket.class));
+		return queries.getAllValues();
+	}
+
+	private static List<String> ids(List<ChatMessage> messages) {
+		return messages.stream().map(ChatMessage::getId).toList();
+	}
+
+	private static ChatMessageBucket bucket(ChatMessage... messages) {
+		return ChatMessageBucket.builder()
+				.chatId("alice_bob")
+				.firstTimestamp(messages[0].getTimestamp())
+				.lastTimestamp(messages[messages.length - 1].getTimestamp())
+				.messages(List.of(messages))
+				.build();
+	}
+
+	private static ChatMessage undated(String id) {
+		var message = message(id, 0);
+		message.setTimestamp(null);
+		return message;
+	}
+
+	private static ChatMessage message(String id, int minutes) {
+		return ChatMessage.builder()
+				.id(id)
+				.chatId("alice_bob")
+				.content("Hello")
+				.timestamp(Date.from(START.plusSeconds(minutes * 60L)))
+				.build();
+	}
+}
@@ -0,0 +1,217 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.attachment.AttachmentStore;
+import com.danielkhen.websocket.chatroom.ChatRoomService;
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.exception.InvalidCursorException;
+import com.danielkhen.websocket.exception.MessageTooLargeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChatMessageServiceTests {
+
+	private final ChatMessageStore store = mock(ChatMessageStore.class);
+	private final ChatRoomService chatRoomService = mock(ChatRoomService.class);
+	private final AttachmentStore attachmentStore = mock(AttachmentStore.class);
+	private final MessageProperties messageProperties = new MessageProperties();
+	private ChatMessageService service;
+
+	@BeforeEach
+	void setUp() {
+		service = new ChatMessageService(store, chatRoomService, Optional.empty(), new HistoryProperties(),
+				new ChatMetrics(new SimpleMeterRegistry()), attachmentStore, messageProperties, Optional.empty(), Optional.empty());
+		when(chatRoomService.getChatRoomId("alice", "bob", true)).thenReturn(Optional.of("alice_bob"));
+		when(chatRoomService.nextSequence("alice_bob")).thenReturn(1L, 2L, 3L);
+		when(store.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+	}
+
+	@Test
+	void stampsServerTimeOverClientTimestamp() {
+		long before = System.currentTimeMillis();
+		var future = new Date(before + 365L * 24 * 60 * 60 * 1000);
+
+		var saved = service.save(message("Hello", future));
+
+		assertTrue(saved.getTimestamp().getTime() >= before);
+		assertTrue(saved.getTimestamp().before(future));
+		assertEquals(1, saved.getSequence());
+		assertEquals("alice_bob", saved.getChatId());
+	}
+
+	@Test
+	void queuesTheMessagesOfAChatInSequenceOrder() throws Exception {
+		var writeBehind = mock(ChatMessageWriteBehind.class);
+		var queued = new ConcurrentLinkedQueue<ChatMessage>();
+		doAnswer(invocation -> queued.add(invocation.getArgument(0))).when(writeBehind).enqueue(any());
+		var sequences = new AtomicLong();
+		when(chatRoomService.nextSequence("alice_bob")).thenAnswer(invocation -> sequences.incrementAndGet());
+		service = new ChatMessageService(store, chatRoomService, Optional.of(writeBehind), new HistoryProperties(),
+				new ChatMetrics(new SimpleMeterRegistry()), attachmentStore, messageProperties, Optional.empty(), Optional.empty());
+
+		var executor = Executors.newFixedThreadPool(8);
+		try {
+			var sends = IntStream.range(0, 2000)
+					.mapToObj(i -> executor.submit(() -> service.save(message("Hello " + i, null))))
+					.toList();
+			for (var send : sends) {
+				send.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		var order = List.copyOf(queued);
+		for (int i = 1; i < order.size(); i++) {
+			assertEquals(order.get(i - 1).getSequence() + 1, order.get(i).getSequence());
+			assertFalse(order.get(i).getTimestamp().before(order.get(i - 1).getTimestamp()));
+		}
+	}
+
+	@Test
+	void rejectsContentOverMaximumBeforeUsingASequenceNumber() {
+		var content = "x".repeat(messageProperties.getMaxContentLength() + 1);
+
+		assertThrows(MessageTooLargeException.class, () -> service.save(message(content, null)));
+
+		verifyNoInteractions(chatRoomService, attachmentStore, store);
+	}
+
+	@Test
+	void offloadsLongContentAndKeepsPreviewInline() {
+		var content = "😀".repeat(messageProperties.getInlineContentLimit());
+		var stored = ArgumentCaptor.forClass(byte[].class);
+		when(attachmentStore.store(eq("alice_bob"), stored.capture())).thenReturn("a1");
+
+		var saved = service.save(message(content, null));
+
+		assertEquals("a1", saved.getAttachmentId());
+		assertEquals(stored.getValue().length, saved.getContentLength());
+		// Downloading the attachment gives back the full content
+		assertEquals(content, new String(stored.getValue(), StandardCharsets.UTF_8));
+		assertEquals("😀".repeat(messageProperties.getPreviewLength() / 2), saved.getContent());
+	}
+
+	@Test
+	void failedOffloadUsesNoSequenceNumber() {
+		when(attachmentStore.store(any(), any())).thenThrow(new DataAccessResourceFailureException("down"));
+
+		assertThrows(DataAccessResourceFailureException.class,
+				() -> service.save(message("x".repeat(messageProperties.getInlineContentLimit() + 1), null)));
+
+		verify(chatRoomService, never()).nextSequence(any());
+	}
+
+	@Test
+	void deletesOffloadedContentOfMessageThatGetsNoSequenceNumber() {
+		when(attachmentStore.store(any(), any())).thenReturn("a1");
+		when(chatRoomService.nextSequence("alice_bob")).thenThrow(new DataAccessResourceFailureException("down"));
+
+		assertThrows(DataAccessResourceFailureException.class,
+				() -> service.save(message("x".repeat(messageProperties.getInlineContentLimit() + 1), null)));
+
+		verify(attachmentStore).delete("a1");
+		verifyNoInteractions(store);
+	}
+
+	@Test
+	void newestPageAsksForOneMoreMessageThanItReturns() {
+		when(chatRoomService.getChatRoomId("alice", "bob", false)).thenReturn(Optional.of("alice_bob"));
+		when(store.findOlderThan("alice_bob", null, 3)).thenReturn(List.of(stored("m3", 3), stored("m2", 2), stored("m1", 1)));
+
+		var page = service.findChatMessages("alice", "bob", null, null, 2);
+
+		assertEquals(List.of("m2", "m3"), page.getMessages().stream().map(ChatMessageView::getId).toList());
+		assertTrue(page.isHasMore());
+		assertEquals(new HistoryCursor(new Date(2), "m2"), HistoryCursor.decode(page.getOlderCursor()));
+		assertEquals(new HistoryCursor(new Date(3), "m3"), HistoryCursor.decode(page.getNewerCursor()));
+	}
+
+	@Test
+	void oldestPageHasNoOlderCursor() {
+		when(chatRoomService.getChatRoomId("alice", "bob", false)).thenReturn(Optional.of("alice_bob"));
+		var before = new HistoryCursor(new Date(3), "m3");
+		when(store.findOlderThan("alice_bob", before, 3)).thenReturn(List.of(stored("m2", 2), stored("m1", 1)));
+
+		var page = service.findChatMessages("alice", "bob", before, null, 2);
+
+		assertFalse(page.isHasMore());
+		assertNull(page.getOlderCursor());
+	}
+
+	@Test
+	void newerPageAlwaysHasOlderCursor() {
+		when(chatRoomService.getChatRoomId("alice", "bob", false)).thenReturn(Optional.of("alice_bob"));
+		var after = new HistoryCursor(new Date(1), "m1");
+		when(store.findNewerThan("alice_bob", after, 3)).thenReturn(List.of(stored("m2", 2)));
+
+		var page = service.findChatMessages("alice", "bob", null, after, 2);
+
+		assertFalse(page.isHasMore());
+		assertEquals(new HistoryCursor(new Date(2), "m2"), HistoryCursor.decode(page.getOlderCursor()));
+	}
+
+	@Test
+	void capsPageSizeAndDefaultsMissingLimit() {
+		when(chatRoomService.getChatRoomId("alice", "bob", false)).thenReturn(Optional.of("alice_bob"));
+		var properties = new HistoryProperties();
+
+		service.findChatMessages("alice", "bob", null, null, properties.getMaxPageSize() + 100);
+		service.findChatMessages("alice", "bob", null, null, null);
+
+		verify(store).findOlderThan("alice_bob", null, properties.getMaxPageSize() + 1);
+		verify(store).findOlderThan("alice_bob", null, properties.getDefaultPageSize() + 1);
+	}
+
+	@Test
+	void givesMessagesWithoutTimestampACursor() {
+		when(chatRoomService.getChatRoomId("alice", "bob", false)).thenReturn(Optional.of("alice_bob"));
+		when(store.findOlderThan("alice_bob", null, 51)).thenReturn(List.of(stored("legacy", null)));
+
+		var page = service.findChatMessages("alice", "bob", null, null, null);
+
+		assertEquals(new HistoryCursor(null, "legacy"), HistoryCursor.decode(page.getNewerCursor()));
+	}
+
+	@Test
+	void rejectsBothCursors() {
+		var cursor = new HistoryCursor(new Date(1), "m1");
+
+		assertThrows(InvalidCursorException.class, () -> service.findChatMessages("alice", "bob", cursor, cursor, null));
+	}
+
+	private static ChatMessage stored(String id, Integer timestamp) {
+		return ChatMessage.builder()
+				.id(id)
+				.chatId("alice_bob")
+				.senderId("alice")
+				.content(id)
+				.timestamp(timestamp == null ? null : new Date(timestamp))
+				.build();
+	}
+
+	static ChatMessage message(String content, Date timestamp) {
+		return ChatMessage.builder()
+				.senderId("alice")
+				.recipientId("bob")
+				.content(content)
+				.timestamp(timestamp)
+				.build();
+	}
+}
@@ -0,0 +1,141 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.exception.MessageQueueFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChatMessageWriteBehindTests {
+
+	private final ChatMessageStore store = mock(ChatMessageStore.class);
+	private final WriteBehindProperties properties = new WriteBehindProperties();
+	private final List<List<String>> inserted = new CopyOnWriteArrayList<>();
+	private ChatMessageWriteBehind writeBehind;
+
+	@BeforeEach
+	void setUp() {
+		properties.setFlushInterval(Duration.ofMillis(20));
+		properties.setRetryBackoff(Duration.ofMillis(1));
+		// Batches are reused by the writer, so their IDs are copied when they are inserted
+		doAnswer(invocation -> inserted.add(ids(invocation.getArgument(0))))
+				.when(store).insertAll(any());
+		writeBehind = new ChatMessageWriteBehind(store, mock(SimpMessagingTemplate.class), properties,
+				new ChatMetrics(new SimpleMeterRegistry()), Optional.empty());
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (writeBehind.isRunning()) {
+			writeBehind.stop();
+		}
+	}
+
+	@Test
+	void flushesPartialBatchAfterFlushInterval() {
+		writeBehind.start();
+		writeBehind.enqueue(message("m1"));
+		writeBehind.enqueue(message("m2"));
+
+		verify(store, timeout(1000)).insertAll(any());
+		assertEquals(List.of(List.of("m1", "m2")), inserted);
+	}
+
+	@Test
+	void splitsQueueIntoBatchesOfBatchSize() {
+		properties.setBatchSize(2);
+		properties.setFlushInterval(Duration.ofSeconds(5));
+		writeBehind.start();
+		for (int i = 1; i <= 5; i++) {
+			writeBehind.enqueue(message("m" + i));
+		}
+		writeBehind.stop();
+
+		assertEquals(List.of(List.of("m1", "m2"), List.of("m3", "m4"), List.of("m5")), inserted);
+	}
+
+	@Test
+	void stopPersistsEveryAcceptedMessageAndRejectsLaterOnes() {
+		properties.setFlushInterval(Duration.ofSeconds(5));
+		writeBehind.start();
+		writeBehind.enqueue(message("m1"));
+		writeBehind.enqueue(message("m2"));
+
+		writeBehind.stop();
+
+		assertEquals(List.of("m1", "m2"), inserted.stream().flatMap(List::stream).toList());
+		assertEquals(0, writeBehind.getQueueSize());
+		assertThrows(MessageQueueFullException.class, () -> writeBehind.enqueue(message("m3")));
+	}
+
+	@Test
+	void retriesFailedBatchWithIdempotentSaves() {
+		doThrow(new DataAccessResourceFailureException("down")).when(store).insertAll(any());
+		writeBehind.start();
+		writeBehind.enqueue(message("m1"));
+
+		verify(store, timeout(1000)).saveAll(any());
+	}
+
+	@Test
+	void deadLettersBatchAfterLastAttemptAndKeepsWriting() {
+		properties.setFailurePolicy(WriteBehindProperties.FailurePolicy.DEAD_LETTER);
+		properties.setMaxAttempts(2);
+		doThrow(new DataAccessResourceFailureException("down"))
+				.doAnswer(invocation -> inserted.add(ids(invocation.getArgument(0))))
+				.when(store).insertAll(any());
+		doThrow(new DataAccessResourceFailureException("down")).when(store).saveAll(any());
+		writeBehind.start();
+		writeBehind.enqueue(message("m1"));
+		verify(store, timeout(1000)).saveDeadLetters(any());
+
+		writeBehind.enqueue(message("m2"));
+
+		verify(store, timeout(1000).times(2)).insertAll(any());
+		assertEquals(List.of(List.of("m2")), inserted);
+	}
+
+	@Test
+	void keepsWritingAfterUnexpectedError() {
+		properties.setFailurePolicy(WriteBehindProperties.FailurePolicy.DEAD_LETTER);
+		properties.setMaxAttempts(1);
+		doThrow(new IllegalStateException("corrupt"))
+				.doAnswer(invocation -> inserted.add(ids(invocation.getArgument(0))))
+				.when(store).insertAll(any());
+		doThrow(new IllegalStateException("corrupt")).when(store).saveDeadLetters(any());
+		writeBehind.start();
+		writeBehind.enqueue(message("m1"));
+		verify(store, timeout(1000)).saveDeadLetters(any());
+
+		writeBehind.enqueue(message("m2"));
+
+		verify(store, timeout(1000).times(2)).insertAll(any());
+		assertEquals(List.of(List.of("m2")), inserted);
+	}
+
+	private static List<String> ids(List<ChatMessage> messages) {
+		return messages.stream().map(ChatMessage::getId).toList();
+	}
+
+	private static ChatMessage message(String id) {
+		return ChatMessage.builder()
+				.id(id)
+				.chatId("alice_bob")
+				.senderId("alice")
+				.recipientId("bob")
+				.content("Hello")
+				.build();
+	}
+}
@@ -0,0 +1,48 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCursorTests {
+
+	@Test
+	void decodesWhatItEncodes() {
+		var cursor = new HistoryCursor(new Date(1_700_000_000_000L), "65a1:b2");
+
+		assertEquals(cursor, HistoryCursor.decode(cursor.encode()));
+	}
+
+	@Test
+	void encodesMessageWithoutTimestamp() {
+		var cursor = HistoryCursor.of(ChatMessage.builder().id("legacy").build());
+
+		var decoded = HistoryCursor.decode(cursor.encode());
+
+		assertNull(decoded.timestamp());
+		assertEquals("legacy", decoded.id());
+		assertEquals(Long.MIN_VALUE, decoded.timeMillis());
+	}
+
+	@Test
+	void missingCursorDecodesToNull() {
+		assertNull(HistoryCursor.decode(null));
+		assertNull(HistoryCursor.decode(" "));
+	}
+
+	@Test
+	void rejectsInvalidCursors() {
+		assertThrows(InvalidCursorException.class, () -> HistoryCursor.decode("not base64!"));
+		assertThrows(InvalidCursorException.class, () -> HistoryCursor.decode(encode("no separator")));
+		assertThrows(InvalidCursorException.class, () -> HistoryCursor.decode(encode("yesterday:m1")));
+	}
+
+	private static String encode(String raw) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+}
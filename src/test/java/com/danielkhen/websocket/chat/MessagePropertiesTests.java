@@ -0,0 +1,31 @@
+package com.danielkhen.websocket.chat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagePropertiesTests {
+
+	private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(AutoConfigurations.of(ValidationAutoConfiguration.class))
+			.withUserConfiguration(Config.class);
+
+	@Test
+	void rejectsEmptyPreview() {
+		contextRunner.withPropertyValues("chat.messages.preview-length=0")
+				.run(context -> assertNotNull(context.getStartupFailure()));
+	}
+
+	@Test
+	void acceptsDefaults() {
+		contextRunner.run(context -> assertEquals(280, context.getBean(MessageProperties.class).getPreviewLength()));
+	}
+
+	@EnableConfigurationProperties(MessageProperties.class)
+	static class Config {
+	}
+}
@@ -0,0 +1,40 @@
+package com.danielkhen.websocket.chat;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingDeliveriesTests {
+
+	private final DeliveryProperties properties = new DeliveryProperties();
+	private final BrokerProperties brokerProperties = new BrokerProperties();
+
+	@Test
+	void keepsNotificationsUntilAcknowledged() {
+		var deliveries = new PendingDeliveries(properties, brokerProperties);
+		deliveries.add("bob", notification("m1"));
+		deliveries.add("bob", notification("m2"));
+
+		deliveries.acknowledge("bob", "m1");
+
+		assertEquals(List.of("m2"), deliveries.pending("bob").stream().map(ChatNotification::getId).toList());
+	}
+
+	@Test
+	void tracksNothingInRelayMode() {
+		// Another instance may receive the acknowledgement or the resume
+		brokerProperties.setMode(BrokerProperties.Mode.RELAY);
+		var deliveries = new PendingDeliveries(properties, brokerProperties);
+		deliveries.add("bob", notification("m1"));
+
+		assertTrue(deliveries.pending("bob").isEmpty());
+		assertEquals(0, deliveries.size());
+	}
+
+	private static ChatNotification notification(String id) {
+		return ChatNotification.builder().id(id).senderId("alice").recipientId("bob").content("Hello").build();
+	}
+}
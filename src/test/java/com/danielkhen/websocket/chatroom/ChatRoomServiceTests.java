@@ -0,0 +1,61 @@
+package com.danielkhen.websocket.chatroom;
+
+import com.danielkhen.websocket.config.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ChatRoomServiceTests {
+
+	private final ChatRoomStore store = mock(ChatRoomStore.class);
+	private final ChatRoomService service = new ChatRoomService(store, new ChatRoomIdCache(100),
+			new ChatMetrics(new SimpleMeterRegistry()));
+
+	@Test
+	void chatIdIsIndependentOfDirection() {
+		assertEquals("alice_bob", ChatRoomService.canonicalChatId("alice", "bob"));
+		assertEquals("alice_bob", ChatRoomService.canonicalChatId("bob", "alice"));
+	}
+
+	@Test
+	void createsRoomWithSingleUpsertAndCachesIt() {
+		when(store.upsertChatRoom("alice", "bob", "alice_bob"))
+				.thenReturn(ChatRoom.builder().chatId("alice_bob").senderId("alice").recipientId("bob").build());
+
+		assertEquals(Optional.of("alice_bob"), service.getChatRoomId("bob", "alice", true));
+		assertEquals(Optional.of("alice_bob"), service.getChatRoomId("alice", "bob", true));
+
+		verify(store, times(1)).upsertChatRoom("alice", "bob", "alice_bob");
+		verifyNoMoreInteractions(store);
+	}
+
+	@Test
+	void sendPathLooksUpRoomOnceAndOnlyIncrementsCounterPerMessage() {
+		when(store.upsertChatRoom("alice", "bob", "alice_bob"))
+				.thenReturn(ChatRoom.builder().chatId("alice_bob").senderId("alice").recipientId("bob").build());
+		when(store.nextSequence("alice_bob")).thenReturn(1L, 2L, 3L);
+
+		for (long expected = 1; expected <= 3; expected++) {
+			var chatId = service.getChatRoomId(expected % 2 == 0 ? "alice" : "bob", expected % 2 == 0 ? "bob" : "alice", true);
+			assertEquals(expected, service.nextSequence(chatId.orElseThrow()));
+		}
+
+		verify(store, times(1)).upsertChatRoom("alice", "bob", "alice_bob");
+		verify(store, times(3)).nextSequence("alice_bob");
+		verifyNoMoreInteractions(store);
+	}
+
+	@Test
+	void keepsExistingChatIdOfLegacyRoom() {
+		when(store.findBySenderIdAndRecipientId("alice", "bob"))
+				.thenReturn(Optional.of(ChatRoom.builder().chatId("bob_alice").build()));
+
+		assertEquals(Optional.of("bob_alice"), service.getChatRoomId("bob", "alice", false));
+		verify(store, never()).upsertChatRoom(anyString(), anyString(), anyString());
+	}
+}
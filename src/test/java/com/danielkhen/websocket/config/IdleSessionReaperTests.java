@@ -0,0 +1,74 @@
+package com.danielkhen.websocket.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class IdleSessionReaperTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final SessionProperties properties = new SessionProperties();
+	private final IdleSessionReaper reaper = new IdleSessionReaper(properties, new ChatMetrics(meterRegistry));
+	private final WebSocketHandler handler = reaper.decorate(mock(WebSocketHandler.class));
+
+	@AfterEach
+	void tearDown() {
+		reaper.shutdown();
+	}
+
+	@Test
+	void closesIdleSessionsSoTheyCanBeResumed() throws Exception {
+		properties.setIdleTimeout(Duration.ZERO);
+		var session = session("s1");
+		handler.afterConnectionEstablished(session);
+
+		assertEquals(1, reaper.reap());
+		assertEquals(0, reaper.reap());
+
+		// Not a normal close, so SessionResumption parks the session
+		verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+		assertEquals(1, meterRegistry.counter("chat.sessions.evicted").count());
+	}
+
+	@Test
+	void keepsSessionsThatSentAFrameWithinTheTimeout() throws Exception {
+		properties.setIdleTimeout(Duration.ofMillis(200));
+		var active = session("s1");
+		var idle = session("s2");
+		handler.afterConnectionEstablished(active);
+		handler.afterConnectionEstablished(idle);
+
+		Thread.sleep(300);
+		handler.handleMessage(active, new TextMessage("\n"));
+
+		assertEquals(1, reaper.reap());
+		verify(active, never()).close(any());
+		verify(idle).close(CloseStatus.SESSION_NOT_RELIABLE);
+	}
+
+	@Test
+	void forgetsClosedSessions() throws Exception {
+		properties.setIdleTimeout(Duration.ZERO);
+		var session = session("s1");
+		handler.afterConnectionEstablished(session);
+		handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+		assertEquals(0, reaper.reap());
+		verify(session, never()).close(any());
+	}
+
+	private static WebSocketSession session(String id) {
+		var session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn(id);
+		return session;
+	}
+}
@@ -0,0 +1,88 @@
+package com.danielkhen.websocket.config;
+
+import com.danielkhen.websocket.chat.ChatErrorNotification;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RateLimitInterceptorTests {
+
+	private final RateLimitProperties properties = new RateLimitProperties();
+	private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final RateLimitInterceptor interceptor =
+			new RateLimitInterceptor(properties, messagingTemplate, new ChatMetrics(meterRegistry));
+
+	@Test
+	void rejectsSessionOverItsBurstWhileOtherSessionsOfTheUserGoOn() {
+		// Refill so slowly that no token comes back during the test
+		properties.setSession(new RateLimitProperties.Limit(0.001, 2));
+		properties.setUser(new RateLimitProperties.Limit(0.001, 100));
+
+		assertTrue(send("alice", "s1"));
+		assertTrue(send("alice", "s1"));
+		assertFalse(send("alice", "s1"));
+		assertTrue(send("alice", "s2"));
+	}
+
+	@Test
+	void rejectsUserOverItsBurstAcrossSessions() {
+		properties.setSession(new RateLimitProperties.Limit(0.001, 100));
+		properties.setUser(new RateLimitProperties.Limit(0.001, 3));
+
+		assertTrue(send("alice", "s1"));
+		assertTrue(send("alice", "s2"));
+		assertTrue(send("alice", "s3"));
+		assertFalse(send("alice", "s4"));
+		assertTrue(send("bob", "s5"));
+	}
+
+	@Test
+	void tellsSenderItWasRateLimited() {
+		properties.setSession(new RateLimitProperties.Limit(0.001, 1));
+
+		send("alice", "s1");
+		verifyNoInteractions(messagingTemplate);
+		send("alice", "s1");
+
+		verify(messagingTemplate).convertAndSendToUser(eq("alice"), eq("/queue/errors"),
+				argThat(payload -> "Rate limit exceeded".equals(((ChatErrorNotification) payload).getReason())));
+		assertEquals(1, meterRegistry.counter("chat.send.failed", "reason", "rate_limited").count());
+	}
+
+	@Test
+	void onlyLimitsChatMessages() {
+		properties.setSession(new RateLimitProperties.Limit(0.001, 1));
+
+		assertTrue(send("alice", "s1"));
+		var accessor = StompHeaderAccessor.create(StompCommand.SEND);
+		accessor.setSessionId("s1");
+		accessor.setUser(() -> "alice");
+		accessor.setDestination("/app/chat.event");
+		assertNotNull(interceptor.preSend(message(accessor), mock(MessageChannel.class)));
+	}
+
+	/**
+	 * @return Whether the chat message got past the interceptor
+	 */
+	private boolean send(String userId, String sessionId) {
+		var accessor = StompHeaderAccessor.create(StompCommand.SEND);
+		accessor.setSessionId(sessionId);
+		accessor.setUser(() -> userId);
+		accessor.setDestination(RateLimitInterceptor.CHAT_DESTINATION);
+		return interceptor.preSend(message(accessor), mock(MessageChannel.class)) != null;
+	}
+
+	private static Message<byte[]> message(StompHeaderAccessor accessor) {
+		return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+	}
+}
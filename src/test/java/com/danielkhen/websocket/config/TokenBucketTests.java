@@ -0,0 +1,40 @@
+package com.danielkhen.websocket.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTests {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	@Test
+	void allowsBurstThenRejects() {
+		var bucket = new TokenBucket(10, 3, 0);
+
+		assertTrue(bucket.tryAcquire(0));
+		assertTrue(bucket.tryAcquire(0));
+		assertTrue(bucket.tryAcquire(0));
+		assertFalse(bucket.tryAcquire(0));
+	}
+
+	@Test
+	void refillsAtSustainedRate() {
+		var bucket = new TokenBucket(10, 1, 0);
+
+		assertTrue(bucket.tryAcquire(0));
+		assertFalse(bucket.tryAcquire(SECOND / 20));
+		assertTrue(bucket.tryAcquire(SECOND / 10));
+		assertFalse(bucket.tryAcquire(SECOND / 10));
+	}
+
+	@Test
+	void idleTimeDoesNotGrowBurstBeyondCapacity() {
+		var bucket = new TokenBucket(10, 2, 0);
+
+		long later = 60 * SECOND;
+		assertTrue(bucket.tryAcquire(later));
+		assertTrue(bucket.tryAcquire(later));
+		assertFalse(bucket.tryAcquire(later));
+	}
+}
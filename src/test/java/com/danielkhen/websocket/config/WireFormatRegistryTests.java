@@ -0,0 +1,58 @@
+package com.danielkhen.websocket.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class WireFormatRegistryTests {
+
+	private final WireFormatRegistry registry = new WireFormatRegistry();
+	private final WireFormatInterceptor interceptor = new WireFormatInterceptor(registry);
+
+	@Test
+	void sendsCborOnlyWhileEverySessionAskedForIt() {
+		connect("alice", "s1", "application/cbor");
+		assertEquals(WireFormatRegistry.APPLICATION_CBOR.toString(),
+				StompHeaderAccessor.getFirstNativeHeader(WireFormatRegistry.WIRE_FORMAT_HEADER, registry.headersFor("alice")));
+
+		// A second tab that sends no format gets JSON, so the user's messages fall back to JSON
+		connect("alice", "s2", null);
+		assertNull(registry.headersFor("alice"));
+
+		registry.onSessionDisconnect(new SessionDisconnectEvent(this, disconnect("s2"), "s2", CloseStatus.NORMAL));
+		assertNotNull(registry.headersFor("alice"));
+	}
+
+	@Test
+	void unknownFormatIsRecordedAsJson() {
+		connect("bob", "s1", "application/cbor");
+		connect("bob", "s2", "not a mime type");
+
+		assertNull(registry.headersFor("bob"));
+	}
+
+	private void connect(String userId, String sessionId, String acceptFormat) {
+		var accessor = StompHeaderAccessor.create(StompCommand.CONNECT);
+		accessor.setSessionId(sessionId);
+		accessor.setUser(() -> userId);
+		if (acceptFormat != null) {
+			accessor.setNativeHeader(WireFormatRegistry.ACCEPT_FORMAT_HEADER, acceptFormat);
+		}
+		accessor.setLeaveMutable(true);
+		interceptor.preSend(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), mock(MessageChannel.class));
+	}
+
+	private static Message<byte[]> disconnect(String sessionId) {
+		var accessor = StompHeaderAccessor.create(StompCommand.DISCONNECT);
+		accessor.setSessionId(sessionId);
+		return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+	}
+}
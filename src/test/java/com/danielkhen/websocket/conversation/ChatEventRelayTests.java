@@ -0,0 +1,120 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.config.ChatMetrics;
+import com.danielkhen.websocket.config.WireFormatRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+class ChatEventRelayTests {
+
+	private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+	private final ReadPositions readPositions = mock(ReadPositions.class);
+	private final ChatEventRelay relay = new ChatEventRelay(
+			messagingTemplate, properties(), new ChatMetrics(new SimpleMeterRegistry()), new WireFormatRegistry(),
+			Optional.of(readPositions));
+
+	@AfterEach
+	void tearDown() {
+		relay.shutdown();
+	}
+
+	@Test
+	void coalescesEventsOfAPairIntoTheLatestState() {
+		relay.record(event(ChatEvent.Type.TYPING, null));
+		relay.record(event(ChatEvent.Type.TYPING, null));
+		relay.record(event(ChatEvent.Type.READ, 4L));
+		relay.record(event(ChatEvent.Type.READ, 7L));
+		relay.record(event(ChatEvent.Type.READ, 5L));
+		relay.flush();
+
+		var events = sentEvents();
+		assertEquals(2, events.size());
+		assertEquals(ChatEvent.Type.TYPING, events.get(0).getType());
+		assertEquals("alice", events.get(0).getSenderId());
+		assertEquals(ChatEvent.Type.READ, events.get(1).getType());
+		assertEquals(7L, events.get(1).getSequence());
+		verify(readPositions).record("alice", "bob", 7L);
+	}
+
+	@Test
+	void relaysTypingOncePerRefreshAndStopsOnlyAfterAStart() {
+		relay.record(event(ChatEvent.Type.TYPING, null));
+		relay.flush();
+		relay.record(event(ChatEvent.Type.TYPING, null));
+		relay.flush();
+		relay.record(event(ChatEvent.Type.STOPPED_TYPING, null));
+		relay.flush();
+		// Typing that stopped within one window is never relayed
+		relay.record(event(ChatEvent.Type.TYPING, null));
+		relay.record(event(ChatEvent.Type.STOPPED_TYPING, null));
+		relay.flush();
+
+		var types = sentEvents().stream().map(ChatEvent::getType).toList();
+		assertEquals(List.of(ChatEvent.Type.TYPING, ChatEvent.Type.STOPPED_TYPING), types);
+	}
+
+	@Test
+	void relaysReadingEverythingWithoutASequence() {
+		relay.record(event(ChatEvent.Type.READ, 3L));
+		relay.record(event(ChatEvent.Type.READ, null));
+		relay.flush();
+
+		assertNull(sentEvents().get(0).getSequence());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void recordsEventsWhileEarlierOnesAreBeingSent() {
+		var recorded = new AtomicBoolean();
+		doAnswer(invocation -> {
+			// A sender on another thread must not wait for this delivery to finish
+			var sender = new Thread(() -> {
+				relay.record(event(ChatEvent.Type.READ, 9L));
+				recorded.set(true);
+			});
+			sender.start();
+			sender.join(5_000);
+			return null;
+		}).when(messagingTemplate).convertAndSendToUser(eq("bob"), eq("/queue/events"), any(Object.class), (Map<String, Object>) isNull());
+
+		relay.record(event(ChatEvent.Type.READ, 3L));
+		relay.flush();
+
+		assertTrue(recorded.get());
+		relay.flush();
+		assertEquals(9L, sentEvents().get(1).getSequence());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<ChatEvent> sentEvents() {
+		var captor = ArgumentCaptor.forClass(Object.class);
+		verify(messagingTemplate, atLeastOnce())
+				.convertAndSendToUser(eq("bob"), eq("/queue/events"), captor.capture(), (Map<String, Object>) isNull());
+		return captor.getAllValues().stream().map(ChatEvent.class::cast).toList();
+	}
+
+	private static ChatEvent event(ChatEvent.Type type, Long sequence) {
+		return ChatEvent.builder().type(type).senderId("alice").recipientId("bob").sequence(sequence).build();
+	}
+
+	private static ChatEventProperties properties() {
+		var properties = new ChatEventProperties();
+		// Flushed by the tests, not by the timer
+		properties.setWindow(Duration.ofHours(1));
+		return properties;
+	}
+}
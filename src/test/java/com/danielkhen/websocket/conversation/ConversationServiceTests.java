@@ -0,0 +1,60 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class ConversationServiceTests {
+
+	private final ConversationSummaryRepository repository = mock(ConversationSummaryRepository.class);
+	private final ConversationService service = new ConversationService(repository);
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void foldsBatchIntoOneActivityPerSummary() {
+		var first = message("m1", "alice", "bob");
+		var reply = message("m2", "bob", "alice");
+		var last = message("m3", "alice", "bob");
+
+		service.recordMessages(List.of(first, reply, last));
+
+		ArgumentCaptor<List<ConversationActivity>> captor = ArgumentCaptor.forClass(List.class);
+		verify(repository, times(1)).recordActivity(captor.capture());
+		Map<String, ConversationActivity> activities = captor.getValue().stream()
+				.collect(Collectors.toMap(ConversationActivity::userId, activity -> activity));
+
+		assertEquals(2, activities.size());
+		assertEquals("m3", activities.get("alice").lastMessage().getId());
+		assertEquals(1, activities.get("alice").unreadIncrement());
+		assertEquals("m3", activities.get("bob").lastMessage().getId());
+		assertEquals(2, activities.get("bob").unreadIncrement());
+	}
+
+	@Test
+	void keepsTheFurthestUnwrittenReadPositionUntilAWriteSucceeds() {
+		var readPositions = new ReadPositions(service, new ChatEventProperties());
+		doThrow(new DataAccessResourceFailureException("down")).doNothing().when(repository).markRead(anyList());
+
+		readPositions.record("alice", "bob", 3L);
+		readPositions.record("alice", "bob", 9L);
+		readPositions.record("alice", "bob", 5L);
+		readPositions.flush();
+		readPositions.record("alice", "bob", 6L);
+		readPositions.flush();
+		readPositions.flush();
+
+		verify(repository, times(2)).markRead(List.of(new ReadPosition("alice", "bob", 9)));
+	}
+
+	private static ChatMessage message(String id, String senderId, String recipientId) {
+		return ChatMessage.builder().id(id).senderId(senderId).recipientId(recipientId).content(id).build();
+	}
+}
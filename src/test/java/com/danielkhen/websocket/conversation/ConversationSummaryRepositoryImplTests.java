@@ -0,0 +1,69 @@
+package com.danielkhen.websocket.conversation;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ConversationSummaryRepositoryImplTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+	private final BulkOperations bulk = mock(BulkOperations.class);
+	private final ConversationSummaryRepositoryImpl repository = new ConversationSummaryRepositoryImpl(mongoTemplate);
+
+	@BeforeEach
+	void setUp() {
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ConversationSummary.class)).thenReturn(bulk);
+	}
+
+	@Test
+	void onlyReplacesLatestMessageWithHigherSequence() {
+		repository.recordActivity(List.of(new ConversationActivity("bob", "alice", message(7L, "Hello"), 1)));
+
+		var upsert = ArgumentCaptor.forClass(Update.class);
+		verify(bulk).upsert(any(Query.class), upsert.capture());
+		assertEquals(new Document("unreadCount", 1), upsert.getValue().getUpdateObject().get("$inc"));
+		assertNull(((Document) upsert.getValue().getUpdateObject().get("$setOnInsert")).get("lastSequence"));
+
+		var query = ArgumentCaptor.forClass(Query.class);
+		var update = ArgumentCaptor.forClass(Update.class);
+		verify(bulk).updateOne(query.capture(), update.capture());
+		var conditions = (List<?>) query.getValue().getQueryObject().get("$or");
+		assertEquals(new Document("lastSequence", new Document("$lt", 7L)), conditions.get(0));
+		assertEquals(7L, ((Document) update.getValue().getUpdateObject().get("$set")).get("lastSequence"));
+		verify(bulk).execute();
+	}
+
+	@Test
+	void previewDoesNotSplitSurrogatePair() {
+		var content = "a".repeat(99) + "😀" + "b";
+
+		repository.recordActivity(List.of(new ConversationActivity("bob", "alice", message(1L, content), 1)));
+
+		var update = ArgumentCaptor.forClass(Update.class);
+		verify(bulk).updateOne(any(Query.class), update.capture());
+		assertEquals("a".repeat(99), ((Document) update.getValue().getUpdateObject().get("$set")).get("lastMessagePreview"));
+	}
+
+	private static ChatMessage message(Long sequence, String content) {
+		return ChatMessage.builder()
+				.id("m" + sequence)
+				.chatId("alice_bob")
+				.senderId("alice")
+				.recipientId("bob")
+				.content(content)
+				.sequence(sequence)
+				.build();
+	}
+}
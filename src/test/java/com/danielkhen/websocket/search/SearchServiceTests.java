@@ -0,0 +1,70 @@
+package com.danielkhen.websocket.search;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessageRepository;
+import com.danielkhen.websocket.chatroom.ChatRoomService;
+import com.danielkhen.websocket.conversation.ConversationSummary;
+import com.danielkhen.websocket.conversation.ConversationSummaryRepository;
+import com.danielkhen.websocket.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SearchServiceTests {
+
+	private final ChatMessageRepository chatMessageRepository = mock(ChatMessageRepository.class);
+	private final ChatRoomService chatRoomService = mock(ChatRoomService.class);
+	private final ConversationSummaryRepository conversationSummaryRepository = mock(ConversationSummaryRepository.class);
+	private final SearchProperties searchProperties = new SearchProperties();
+	private final SearchService service = new SearchService(
+			chatMessageRepository, chatRoomService, conversationSummaryRepository, searchProperties);
+
+	@Test
+	void searchesRecentConversationsTogetherAndPagesByOffset() {
+		when(conversationSummaryRepository.findByUserIdOrderByLastActivityDesc(eq("alice"), any(Pageable.class))).thenReturn(List.of(
+				ConversationSummary.builder().chatId("alice_bob").otherUserId("bob").build(),
+				ConversationSummary.builder().chatId("alice_carol").otherUserId("carol").build()));
+		when(chatMessageRepository.searchChats(Set.of("alice_bob", "alice_carol"), "lunch", 0, 3)).thenReturn(List.of(
+				message("m1", "alice_carol", "lunch at noon"),
+				message("m2", "alice_bob", "lunch?"),
+				message("m3", "alice_bob", "no lunch today")));
+
+		var page = service.search("alice", "lunch", null, null, 2);
+
+		assertEquals(List.of("m1", "m2"), page.getHits().stream().map(hit -> hit.getMessage().getId()).toList());
+		assertEquals(List.of("carol", "bob"), page.getHits().stream().map(SearchHit::getOtherUserId).toList());
+
+		service.search("alice", "lunch", null, SearchCursor.decode(page.getNextCursor()), 2);
+		verify(chatMessageRepository).searchChats(Set.of("alice_bob", "alice_carol"), "lunch", 2, 3);
+	}
+
+	@Test
+	void searchesNothingWithoutAConversation() {
+		when(chatRoomService.getChatRoomId("alice", "bob", false)).thenReturn(Optional.empty());
+
+		var page = service.search("alice", "lunch", "bob", null, null);
+
+		assertTrue(page.getHits().isEmpty());
+		assertNull(page.getNextCursor());
+		verifyNoInteractions(chatMessageRepository);
+	}
+
+	@Test
+	void rejectsInvalidCursors() {
+		assertThrows(InvalidCursorException.class, () -> SearchCursor.decode("not a cursor"));
+		assertThrows(InvalidCursorException.class, () -> SearchCursor.decode(new SearchCursor(-1).encode()));
+		assertEquals(new SearchCursor(40), SearchCursor.decode(new SearchCursor(40).encode()));
+	}
+
+	private static ChatMessage message(String id, String chatId, String content) {
+		return ChatMessage.builder().id(id).chatId(chatId).senderId("alice").content(content).timestamp(new Date()).build();
+	}
+}
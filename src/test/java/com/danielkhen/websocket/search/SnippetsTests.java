@@ -0,0 +1,37 @@
+package com.danielkhen.websocket.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnippetsTests {
+
+	@Test
+	void termsDropNegationsAndQuotes() {
+		assertEquals(List.of("lunch", "friday"), Snippets.terms("  Lunch -dinner \"Friday\" "));
+	}
+
+	@Test
+	void highlightsWholeWordsStartingWithTerm() {
+		var highlights = Snippets.highlights("Meeting moved; we meet at noon", List.of("meet"));
+
+		assertEquals(List.of(new Highlight(0, 7), new Highlight(18, 22)), highlights);
+	}
+
+	@Test
+	void ignoresMatchesInsideWords() {
+		assertTrue(Snippets.highlights("helmet", List.of("met")).isEmpty());
+	}
+
+	@Test
+	void snippetCentersOnFirstMatch() {
+		var content = "x".repeat(200) + " needle " + "y".repeat(200);
+
+		var snippet = Snippets.snippet(content, List.of("needle"), 60);
+
+		assertEquals(60, snippet.length());
+		assertTrue(snippet.contains("needle"));
+	}
+}
@@ -0,0 +1,43 @@
+package com.danielkhen.websocket.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalAttachmentStoreTests {
+
+	@TempDir
+	Path directory;
+
+	private LocalAttachmentStore store;
+
+	@BeforeEach
+	void setUp() {
+		var properties = new StorageProperties();
+		properties.setDirectory(directory.toString());
+		store = new LocalAttachmentStore(properties);
+	}
+
+	@Test
+	void loadsStoredContentUntilDeleted() throws IOException {
+		var content = "é".repeat(5_000).getBytes(StandardCharsets.UTF_8);
+
+		var id = store.store("alice_bob", content);
+
+		assertArrayEquals(content, store.load(id).orElseThrow().getContentAsByteArray());
+		store.delete(id);
+		assertTrue(store.load(id).isEmpty());
+	}
+
+	@Test
+	void onlyLooksUpIdsItGenerated() {
+		assertTrue(store.load("../storage.log").isEmpty());
+		store.delete("../storage.log");
+	}
+}
@@ -0,0 +1,202 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.HistoryCursor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalChatMessageStoreTests {
+
+	@TempDir
+	Path directory;
+
+	private StorageProperties properties;
+	private LocalChatMessageStore store;
+
+	@BeforeEach
+	void setUp() {
+		properties = new StorageProperties();
+		properties.setDirectory(directory.toString());
+		store = new LocalChatMessageStore(properties);
+	}
+
+	@AfterEach
+	void tearDown() {
+		store.close();
+	}
+
+	@Test
+	void pagesHistoryInBothDirections() {
+		for (int i = 1; i <= 5; i++) {
+			store.save(message("m" + i, i));
+		}
+
+		var newest = store.findOlderThan("alice_bob", null, 2);
+		assertEquals(List.of("m5", "m4"), ids(newest));
+
+		var older = store.findOlderThan("alice_bob", HistoryCursor.of(newest.get(1)), 2);
+		assertEquals(List.of("m3", "m2"), ids(older));
+
+		var newer = store.findNewerThan("alice_bob", HistoryCursor.of(older.get(1)), 10);
+		assertEquals(List.of("m3", "m4", "m5"), ids(newer));
+
+		assertEquals(List.of("m4", "m5"), ids(store.findAfterSequence("alice_bob", 3, 10)));
+	}
+
+	@Test
+	void breaksTimestampTiesById() {
+		var timestamp = new Date(1_000);
+		for (var id : List.of("m3", "m1", "m4", "m2")) {
+			var message = message(id, 1);
+			message.setTimestamp(timestamp);
+			store.insertAll(List.of(message));
+		}
+
+		var newest = store.findOlderThan("alice_bob", null, 2);
+		assertEquals(List.of("m4", "m3"), ids(newest));
+		assertEquals(List.of("m2", "m1"), ids(store.findOlderThan("alice_bob", HistoryCursor.of(newest.get(1)), 2)));
+		assertEquals(List.of("m2", "m3"), ids(store.findNewerThan("alice_bob", new HistoryCursor(timestamp, "m1"), 2)));
+	}
+
+	@Test
+	void unknownChatIsEmptyAndNotCreated() {
+		assertTrue(store.findOlderThan("nobody_none", null, 10).isEmpty());
+		assertEquals(0, store.lastSequence("nobody_none"));
+		assertFalse(Files.exists(directory.resolve("chats")));
+	}
+
+	@Test
+	void replaysLogAfterRestart() {
+		store.insertAll(List.of(message("m1", 1), message("m2", 2)));
+		store.close();
+
+		store = new LocalChatMessageStore(properties);
+
+		assertEquals(List.of("m1", "m2"), ids(store.findAfterSequence("alice_bob", 0, 10)));
+		assertEquals(2, store.lastSequence("alice_bob"));
+	}
+
+	@Test
+	void cutsOffTornTailOnRestart() throws IOException {
+		store.save(message("m1", 1));
+		store.save(message("m2", 2));
+		store.close();
+
+		var log = Files.list(directory.resolve("chats")).findFirst().orElseThrow();
+		try (var channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		store = new LocalChatMessageStore(properties);
+		assertEquals(List.of("m1"), ids(store.findAfterSequence("alice_bob", 0, 10)));
+
+		store.save(message("m3", 3));
+		assertEquals(List.of("m1", "m3"), ids(store.findAfterSequence("alice_bob", 0, 10)));
+	}
+
+	@Test
+	void insertRejectsDuplicatesButSaveReplaces() {
+		store.insertAll(List.of(message("m1", 1)));
+
+		assertThrows(DuplicateKeyException.class, () -> store.insertAll(List.of(message("m1", 1))));
+
+		var edited = message("m1", 1);
+		edited.setContent("edited");
+		store.saveAll(List.of(edited));
+
+		var history = store.findOlderThan("alice_bob", null, 10);
+		assertEquals(1, history.size());
+		assertEquals("edited", history.get(0).getContent());
+	}
+
+	@Test
+	void roomContinuesSequenceAfterRestart() throws IOException {
+		var rooms = new LocalChatRoomStore(properties, store);
+		rooms.upsertChatRoom("alice", "bob", "alice_bob");
+		assertEquals(1, rooms.nextSequence("alice_bob"));
+		store.save(message("m1", 1));
+		rooms.close();
+		store.close();
+
+		store = new LocalChatMessageStore(properties);
+		rooms = new LocalChatRoomStore(properties, store);
+
+		assertEquals("alice_bob", rooms.findBySenderIdAndRecipientId("alice", "bob").orElseThrow().getChatId());
+		assertEquals(2, rooms.nextSequence("alice_bob"));
+		rooms.close();
+	}
+
+	@Test
+	void roomNeverReusesSequencesAfterCrash() throws IOException {
+		properties.setSequenceBlockSize(10);
+		var crashed = new LocalChatRoomStore(properties, store);
+		crashed.upsertChatRoom("alice", "bob", "alice_bob");
+		// Acknowledged to clients but still queued for write-behind when the process dies
+		for (long expected = 1; expected <= 12; expected++) {
+			assertEquals(expected, crashed.nextSequence("alice_bob"));
+		}
+		store.save(message("m1", 1));
+
+		var rooms = new LocalChatRoomStore(properties, store);
+		assertEquals(21, rooms.nextSequence("alice_bob"));
+		rooms.close();
+	}
+
+	@Test
+	void closesLeastRecentlyUsedChatsAndReopensThem() {
+		store.close();
+		properties.setMaxOpenChats(2);
+		store = new LocalChatMessageStore(properties);
+		store.save(message("m1", 1));
+
+		try (var exported = store.streamChatMessages("alice_bob", null, null)) {
+			// Using other chats evicts the exported one, whose log stays readable until the stream is closed
+			for (int chat = 0; chat < 20; chat++) {
+				for (int i = 1; i <= 5; i++) {
+					store.save(message("chat" + chat, "c" + chat + "m" + i, i));
+				}
+			}
+			store.save(message("m2", 2));
+			assertEquals(List.of("m1"), ids(exported.toList()));
+		}
+
+		for (int chat = 0; chat < 20; chat++) {
+			assertEquals(5, store.findOlderThan("chat" + chat, null, 10).size());
+		}
+		assertEquals(List.of("m2", "m1"), ids(store.findOlderThan("alice_bob", null, 10)));
+		assertEquals(2, store.lastSequence("alice_bob"));
+	}
+
+	private static ChatMessage message(String id, long sequence) {
+		return message("alice_bob", id, sequence);
+	}
+
+	private static ChatMessage message(String chatId, String id, long sequence) {
+		return ChatMessage.builder()
+				.id(id)
+				.chatId(chatId)
+				.senderId("alice")
+				.recipientId("bob")
+				.content("Hello " + id)
+				.timestamp(new Date(1_000 * sequence))
+				.sequence(sequence)
+				.build();
+	}
+
+	private static List<String> ids(List<ChatMessage> messages) {
+		return messages.stream().map(ChatMessage::getId).toList();
+	}
+}
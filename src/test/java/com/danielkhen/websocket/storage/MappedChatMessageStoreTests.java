@@ -0,0 +1,287 @@
+package com.danielkhen.websocket.storage;
+
+import com.danielkhen.websocket.chat.ChatMessage;
+import com.danielkhen.websocket.chat.ChatMessageView;
+import com.danielkhen.websocket.chat.HistoryCursor;
+import com.danielkhen.websocket.chat.RawChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedChatMessageStoreTests {
+
+	@TempDir
+	Path directory;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private StorageProperties properties;
+	private MappedChatMessageStore store;
+
+	@BeforeEach
+	void setUp() {
+		properties = new StorageProperties();
+		properties.setDirectory(directory.toString());
+		properties.setMessageLog(StorageProperties.MessageLog.MAPPED);
+		// Small segments and a sparse index, so queries cross segments and start between entries
+		properties.getMapped().setSegmentSize(DataSize.ofBytes(1024));
+		properties.getMapped().setIndexInterval(3);
+		store = new MappedChatMessageStore(properties, objectMapper);
+	}
+
+	@AfterEach
+	void tearDown() {
+		store.close();
+	}
+
+	@Test
+	void pagesHistoryAcrossSegments() throws IOException {
+		for (int i = 1; i <= 40; i++) {
+			store.save(message("m" + i, i));
+		}
+		assertTrue(segmentFiles().size() > 3);
+
+		var newest = store.findOlderThan("alice_bob", null, 5);
+		assertEquals(List.of("m40", "m39", "m38", "m37", "m36"), ids(newest));
+
+		var older = store.findOlderThan("alice_bob", HistoryCursor.of(store.findAfterSequence("alice_bob", 19, 1).get(0)), 4);
+		assertEquals(List.of("m19", "m18", "m17", "m16"), ids(older));
+
+		var newer = store.findNewerThan("alice_bob", HistoryCursor.of(older.get(0)), 3);
+		assertEquals(List.of("m20", "m21", "m22"), ids(newer));
+
+		assertEquals(List.of("m31", "m32"), ids(store.findAfterSequence("alice_bob", 30, 2)));
+		try (var exported = store.streamChatMessages("alice_bob", new Date(10_000), new Date(13_000))) {
+			assertEquals(List.of("m10", "m11", "m12"), ids(exported.toList()));
+		}
+	}
+
+	@Test
+	void storesTheJsonOfTheMessageView() throws IOException {
+		var message = message("m1", 1);
+		store.save(message);
+
+		var raw = store.findRawOlderThan("alice_bob", null, 1).get(0);
+		assertEquals(objectMapper.writeValueAsString(ChatMessageView.of(message)), objectMapper.writeValueAsString(raw));
+		assertArrayEquals(objectMapper.writeValueAsBytes(List.of(ChatMessageView.of(message))), objectMapper.writeValueAsBytes(List.of(raw)));
+		assertEquals("alice", raw.senderId());
+		assertEquals(HistoryCursor.of(message), raw.cursor());
+	}
+
+	@Test
+	void writesTheMessageViewToBinaryFormats() throws IOException {
+		var message = message("m1", 1);
+		store.save(message);
+
+		var cborMapper = new CBORMapper();
+		var raw = store.findRawOlderThan("alice_bob", null, 1).get(0);
+		assertArrayEquals(cborMapper.writeValueAsBytes(List.of(ChatMessageView.of(message))), cborMapper.writeValueAsBytes(List.of(raw)));
+	}
+
+	@Test
+	void unknownChatIsEmptyAndNotCreated() {
+		assertTrue(store.findRawOlderThan("nobody_none", null, 10).isEmpty());
+		assertEquals(0, store.lastSequence("nobody_none"));
+		assertFalse(Files.exists(directory.resolve("segments")));
+	}
+
+	@Test
+	void replaysSegmentsAfterRestart() {
+		IntStream.rangeClosed(1, 20).forEach(i -> store.save(message("m" + i, i)));
+		store.close();
+
+		store = new MappedChatMessageStore(properties, objectMapper);
+
+		assertEquals(20, store.findAfterSequence("alice_bob", 0, 100).size());
+		assertEquals(20, store.lastSequence("alice_bob"));
+		store.save(message("m21", 21));
+		assertEquals(List.of("m21", "m20"), ids(store.findOlderThan("alice_bob", null, 2)));
+	}
+
+	@Test
+	void zeroesTornTailOnRestart() throws IOException {
+		store.save(message("m1", 1));
+		store.save(message("m2", 2));
+		store.close();
+
+		var segment = segmentFiles().get(0);
+		try (var channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			var length = ByteBuffer.allocate(Integer.BYTES);
+			channel.read(length, 0);
+			// Corrupt the payload of the second record, as a write torn by a crash would
+			channel.write(ByteBuffer.wrap(new byte[]{42}), 2L * Integer.BYTES + length.getInt(0) + 2L * Integer.BYTES + 3);
+		}
+
+		store = new MappedChatMessageStore(properties, objectMapper);
+		assertEquals(List.of("m1"), ids(store.findAfterSequence("alice_bob", 0, 10)));
+
+		store.save(message("m3", 3));
+		assertEquals(List.of("m1", "m3"), ids(store.findAfterSequence("alice_bob", 0, 10)));
+	}
+
+	@Test
+	void failedBatchLeavesNoRecordsBehind() throws IOException {
+		store.save(message("m1", 1));
+		// Without its directory the log cannot create the segment the batch rolls over to
+		var chat = segmentFiles().get(0).getParent();
+		for (var segment : segmentFiles()) {
+			Files.delete(segment);
+		}
+		Files.delete(chat);
+
+		var batch = IntStream.rangeClosed(2, 10).mapToObj(i -> message("m" + i, i)).toList();
+		assertThrows(DataAccessResourceFailureException.class, () -> store.saveAll(batch));
+		assertEquals(List.of("m1"), ids(store.findAfterSequence("alice_bob", 0, 100)));
+
+		Files.createDirectories(chat);
+		store.saveAll(batch);
+		assertEquals(10, store.findAfterSequence("alice_bob", 0, 100).size());
+	}
+
+	@Test
+	void keepsHistoryOrderAndSkipsStoredMessages() {
+		store.insertAll(List.of(message("m1", 1), message("m3", 3)));
+		// Stored after m3 with an earlier timestamp, so it is moved after m3
+		store.save(message("m2", 2));
+
+		assertThrows(DuplicateKeyException.class, () -> store.insertAll(List.of(message("m1", 1))));
+		store.saveAll(List.of(message("m3", 3), message("m4", 4)));
+
+		var history = store.findOlderThan("alice_bob", null, 10);
+		assertEquals(List.of("m4", "m2", "m3", "m1"), ids(history));
+		assertTrue(history.get(1).getTimestamp().after(history.get(2).getTimestamp()));
+	}
+
+	@Test
+	void skipsStoredIdsWhateverTheirTimestamp() {
+		IntStream.rangeClosed(1, 20).forEach(i -> store.save(message("m" + i, i)));
+
+		// A retried copy stamped earlier than the stored message is still recognized
+		var retried = message("m15", 15);
+		retried.setTimestamp(new Date(1));
+		store.saveAll(List.of(retried));
+		assertThrows(DuplicateKeyException.class, () -> store.insertAll(List.of(message("m3", 30))));
+
+		assertEquals(20, store.findAfterSequence("alice_bob", 0, 100).size());
+	}
+
+	@Test
+	void checksOnlyRecentMessagesForStoredIds() {
+		store.close();
+		properties.getMapped().setDuplicateWindow(4);
+		store = new MappedChatMessageStore(properties, objectMapper);
+		IntStream.rangeClosed(1, 20).forEach(i -> store.save(message("m" + i, i)));
+
+		store.saveAll(List.of(message("m18", 18)));
+		assertThrows(DuplicateKeyException.class, () -> store.insertAll(List.of(message("m19", 19))));
+		assertEquals(20, store.findAfterSequence("alice_bob", 0, 100).size());
+
+		// IDs are made when messages are saved, so only a retry of a recent batch repeats one
+		store.saveAll(List.of(message("m1", 21)));
+		assertEquals(21, store.findAfterSequence("alice_bob", 0, 100).size());
+	}
+
+	@Test
+	void closesLeastRecentlyUsedChatsAndReopensThem() {
+		store.close();
+		properties.setMaxOpenChats(2);
+		store = new MappedChatMessageStore(properties, objectMapper);
+		store.save(message("m1", 1));
+
+		try (var exported = store.streamChatMessages("alice_bob", null, null)) {
+			// Using other chats evicts the exported one, whose segments stay readable
+			for (int chat = 0; chat < 20; chat++) {
+				for (int i = 1; i <= 5; i++) {
+					store.save(message("chat" + chat, "c" + chat + "m" + i, i));
+				}
+			}
+			store.save(message("m2", 2));
+			assertEquals(List.of("m1"), ids(exported.toList()));
+		}
+
+		for (int chat = 0; chat < 20; chat++) {
+			assertEquals(5, store.findOlderThan("chat" + chat, null, 10).size());
+		}
+		assertEquals(List.of("m2", "m1"), ids(store.findOlderThan("alice_bob", null, 10)));
+		assertEquals(2, store.lastSequence("alice_bob"));
+		assertThrows(DuplicateKeyException.class, () -> store.insertAll(List.of(message("m1", 1))));
+	}
+
+	@Test
+	void findsSequencesStoredOutOfOrder() {
+		for (int i = 1; i <= 12; i += 2) {
+			store.save(message("m" + (i + 1), i + 1));
+			store.save(message("m" + i, i));
+		}
+
+		assertEquals(List.of("m5", "m6", "m7"), ids(store.findAfterSequence("alice_bob", 4, 3)));
+	}
+
+	@Test
+	void retentionDeletesOldSegmentsAndKeepsPositions() throws IOException {
+		for (int i = 1; i <= 40; i++) {
+			store.save(message("m" + i, i));
+		}
+		int segments = segmentFiles().size();
+
+		store.deleteOlderThan(new Date(15_000));
+
+		assertTrue(segmentFiles().size() < segments);
+		var remaining = store.findAfterSequence("alice_bob", 0, 100);
+		assertEquals("m15", remaining.get(0).getId());
+		assertEquals(26, remaining.size());
+		assertEquals(List.of("m16", "m15"), ids(store.findOlderThan("alice_bob", HistoryCursor.of(remaining.get(2)), 5)));
+
+		store.close();
+		store = new MappedChatMessageStore(properties, objectMapper);
+		assertEquals(ids(remaining), ids(store.findAfterSequence("alice_bob", 0, 100)));
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		try (var chats = Files.list(directory.resolve("segments"))) {
+			var chat = chats.findFirst().orElseThrow();
+			try (var files = Files.list(chat)) {
+				return files.sorted().toList();
+			}
+		}
+	}
+
+	private static ChatMessage message(String id, long sequence) {
+		return message("alice_bob", id, sequence);
+	}
+
+	private static ChatMessage message(String chatId, String id, long sequence) {
+		return ChatMessage.builder()
+				.id(id)
+				.chatId(chatId)
+				.senderId("alice")
+				.recipientId("bob")
+				.content("Hello " + id)
+				.timestamp(new Date(1_000 * sequence))
+				.sequence(sequence)
+				.build();
+	}
+
+	private static List<String> ids(List<?> messages) {
+		return messages.stream()
+				.map(message -> message instanceof RawChatMessage raw ? raw.id() : ((ChatMessage) message).getId())
+				.toList();
+	}
+}
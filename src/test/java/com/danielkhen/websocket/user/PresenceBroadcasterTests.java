@@ -0,0 +1,122 @@
+package com.danielkhen.websocket.user;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import com.danielkhen.websocket.config.ChatMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PresenceBroadcasterTests {
+
+	private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+	private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+	private final PresenceProperties properties = new PresenceProperties();
+	private final BrokerProperties brokerProperties = new BrokerProperties();
+	private final PresenceRegistry presenceRegistry = new PresenceRegistry();
+	private final PresenceBroadcaster broadcaster = new PresenceBroadcaster(messagingTemplate, presenceRegistry,
+			properties, brokerProperties, new ChatMetrics(new SimpleMeterRegistry()), scheduler);
+
+	@Test
+	void coalescesChangesWithinAWindowIntoOneDelta() {
+		join("alice");
+		join("bob");
+		broadcaster.userLeft(user("carol", Status.OFFLINE));
+
+		verify(scheduler, times(1)).schedule(any(Runnable.class), eq(properties.getBroadcastWindow().toMillis()), eq(TimeUnit.MILLISECONDS));
+		closeWindow();
+
+		var delta = sentDeltas().get(0);
+		assertEquals(brokerProperties.getNodeId(), delta.getOrigin());
+		assertEquals(List.of("alice", "bob"), delta.getJoined().stream().map(User::getNickName).toList());
+		assertEquals(List.of("carol"), delta.getLeft());
+	}
+
+	@Test
+	void keepsOnlyTheLatestStateOfEachUser() {
+		join("alice");
+		leave("alice");
+		broadcaster.userLeft(user("bob", Status.OFFLINE));
+		join("bob");
+		closeWindow();
+
+		var delta = sentDeltas().get(0);
+		assertEquals(List.of("bob"), delta.getJoined().stream().map(User::getNickName).toList());
+		assertEquals(List.of("alice"), delta.getLeft());
+	}
+
+	@Test
+	void announcesTheRegistryStateWhateverOrderChangesAreRecordedIn() {
+		// A disconnect that loses the race to a reconnect is recorded last, but the user is online
+		presenceRegistry.connect("s1", user("alice", Status.ONLINE));
+		var left = presenceRegistry.disconnectSession("s1").orElseThrow();
+		presenceRegistry.connect("s2", user("alice", Status.ONLINE));
+		broadcaster.userJoined(user("alice", Status.ONLINE));
+		broadcaster.userLeft(left);
+		closeWindow();
+
+		var delta = sentDeltas().get(0);
+		assertEquals(List.of("alice"), delta.getJoined().stream().map(User::getNickName).toList());
+		assertEquals(List.of(), delta.getLeft());
+	}
+
+	@Test
+	void countsOneVersionPerWindowAndKeepsRecentDeltas() {
+		properties.setRecentDeltas(2);
+		for (var nickName : List.of("alice", "bob", "carol")) {
+			join(nickName);
+			closeWindow();
+		}
+
+		assertEquals(List.of(1L, 2L, 3L), sentDeltas().stream().map(PresenceDelta::getVersion).toList());
+		assertEquals(3, broadcaster.currentVersion());
+		assertEquals(List.of(3L), broadcaster.deltasSince(2).orElseThrow().stream().map(PresenceDelta::getVersion).toList());
+		assertEquals(List.of(), broadcaster.deltasSince(3).orElseThrow());
+		// Delta 2 is still kept, but delta 1 is not, so a client at version 0 must reload the snapshot
+		assertTrue(broadcaster.deltasSince(1).isPresent());
+		assertTrue(broadcaster.deltasSince(0).isEmpty());
+		assertTrue(broadcaster.deltasSince(4).isEmpty());
+	}
+
+	private void join(String nickName) {
+		presenceRegistry.connect(nickName + "-session", user(nickName, Status.ONLINE));
+		broadcaster.userJoined(user(nickName, Status.ONLINE));
+	}
+
+	private void leave(String nickName) {
+		broadcaster.userLeft(presenceRegistry.disconnectSession(nickName + "-session").orElseThrow());
+	}
+
+	/**
+	 * Runs the flush scheduled by the first change of the window.
+	 */
+	private void closeWindow() {
+		var flush = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler, atLeastOnce()).schedule(flush.capture(), anyLong(), any(TimeUnit.class));
+		flush.getValue().run();
+	}
+
+	private List<PresenceDelta> sentDeltas() {
+		var captor = ArgumentCaptor.forClass(Object.class);
+		verify(messagingTemplate, atLeastOnce()).convertAndSend(eq("/topic/presence"), captor.capture());
+		return captor.getAllValues().stream().map(PresenceDelta.class::cast).toList();
+	}
+
+	private static User user(String nickName, Status status) {
+		var user = new User();
+		user.setNickName(nickName);
+		user.setFullName(nickName);
+		user.setStatus(status);
+		return user;
+	}
+}
@@ -0,0 +1,41 @@
+package com.danielkhen.websocket.user;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceRegistryTests {
+
+	private final PresenceRegistry registry = new PresenceRegistry();
+
+	@Test
+	void userStaysOnlineUntilLastSessionCloses() {
+		assertTrue(registry.connect("s1", user("alice")));
+		assertFalse(registry.connect("s2", user("alice")));
+
+		assertTrue(registry.disconnectSession("s1").isEmpty());
+		assertTrue(registry.isOnline("alice"));
+
+		var wentOffline = registry.disconnectSession("s2");
+		assertTrue(wentOffline.isPresent());
+		assertEquals(Status.OFFLINE, wentOffline.get().getStatus());
+		assertTrue(registry.onlineUsers().isEmpty());
+	}
+
+	@Test
+	void disconnectingUserClosesAllSessions() {
+		registry.connect("s1", user("alice"));
+		registry.connect("s2", user("alice"));
+
+		assertTrue(registry.disconnectUser("alice").isPresent());
+		assertTrue(registry.disconnectSession("s1").isEmpty());
+		assertFalse(registry.isOnline("alice"));
+	}
+
+	private static User user(String nickName) {
+		var user = new User();
+		user.setNickName(nickName);
+		user.setFullName(nickName.toUpperCase());
+		return user;
+	}
+}
@@ -0,0 +1,105 @@
+package com.danielkhen.websocket.user;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import com.danielkhen.websocket.config.SessionProperties;
+import com.danielkhen.websocket.config.UserPrincipalInterceptor.UserPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SessionResumptionTests {
+
+	private static final UserPrincipal ALICE = new UserPrincipal("alice");
+
+	private final UserService userService = mock(UserService.class);
+	private final PresenceBroadcaster presenceBroadcaster = mock(PresenceBroadcaster.class);
+	private final MessageChannel clientInboundChannel = mock(MessageChannel.class);
+	private final SessionProperties properties = new SessionProperties();
+	private final SessionResumption resumption = new SessionResumption(
+			userService, presenceBroadcaster, new BrokerProperties(), properties, clientInboundChannel);
+
+	@AfterEach
+	void tearDown() {
+		resumption.shutdown();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void resumedSessionTakesOverSubscriptionsAndPresence() {
+		resumption.connected("s1", ALICE, null);
+		resumption.onSessionSubscribe(subscribeEvent("s1", "messages", "/user/queue/messages"));
+		resumption.onSessionSubscribe(subscribeEvent("s1", "info", "/app/session"));
+		var token = resumption.sessionInfo("s1", null, null).getResumeToken();
+
+		assertTrue(resumption.disconnected("s1", CloseStatus.SESSION_NOT_RELIABLE));
+		verify(userService, never()).disconnectSession(any());
+
+		var missed = List.of(PresenceDelta.builder().origin("node").version(4).build());
+		when(presenceBroadcaster.getNodeId()).thenReturn("node");
+		when(presenceBroadcaster.deltasSince(3)).thenReturn(Optional.of(missed));
+		resumption.connected("s2", ALICE, token);
+
+		verify(userService).disconnectSession("s1");
+		ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+		verify(clientInboundChannel).send(captor.capture());
+		var subscribe = StompHeaderAccessor.wrap(captor.getValue());
+		assertEquals(StompCommand.SUBSCRIBE, subscribe.getCommand());
+		assertEquals("s2", subscribe.getSessionId());
+		assertEquals("messages", subscribe.getSubscriptionId());
+		assertEquals("/user/queue/messages", subscribe.getDestination());
+
+		var info = resumption.sessionInfo("s2", "node", 3L);
+		assertTrue(info.isResumed());
+		assertEquals(missed, info.getPresenceDeltas());
+		assertNotEquals(token, info.getResumeToken());
+	}
+
+	@Test
+	void cleanDisconnectsAndOtherUsersCannotResume() {
+		resumption.connected("s1", ALICE, null);
+		assertFalse(resumption.disconnected("s1", CloseStatus.NORMAL));
+
+		resumption.connected("s2", ALICE, null);
+		var token = resumption.sessionInfo("s2", null, null).getResumeToken();
+		resumption.disconnected("s2", CloseStatus.GOING_AWAY);
+
+		resumption.connected("s3", new UserPrincipal("mallory"), token);
+		assertFalse(resumption.sessionInfo("s3", null, null).isResumed());
+		verify(userService, never()).disconnectSession(any());
+		verifyNoInteractions(clientInboundChannel);
+	}
+
+	@Test
+	void parkedSessionIsDisconnectedAfterTheGraceWindow() {
+		properties.setResumeGrace(Duration.ofMillis(20));
+		resumption.connected("s1", ALICE, null);
+		var token = resumption.sessionInfo("s1", null, null).getResumeToken();
+		resumption.disconnected("s1", CloseStatus.SESSION_NOT_RELIABLE);
+
+		verify(userService, timeout(1000)).disconnectSession("s1");
+		resumption.connected("s2", ALICE, token);
+		assertFalse(resumption.sessionInfo("s2", null, null).isResumed());
+	}
+
+	private static SessionSubscribeEvent subscribeEvent(String sessionId, String subscriptionId, String destination) {
+		var accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+		accessor.setSessionId(sessionId);
+		accessor.setSubscriptionId(subscriptionId);
+		accessor.setDestination(destination);
+		return new SessionSubscribeEvent(new Object(), MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()), ALICE);
+	}
+}
@@ -0,0 +1,88 @@
+package com.danielkhen.websocket.user;
+
+import com.danielkhen.websocket.config.BrokerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserServiceTests {
+
+	private final UserStore userStore = mock(UserStore.class);
+	private final PresenceRegistry presenceRegistry = new PresenceRegistry();
+	private final PresenceBroadcaster presenceBroadcaster = mock(PresenceBroadcaster.class);
+	private final BrokerProperties brokerProperties = new BrokerProperties();
+	private final UserService userService = new UserService(
+			userStore, presenceRegistry, presenceBroadcaster, brokerProperties);
+
+	@BeforeEach
+	void setUp() {
+		brokerProperties.setMode(BrokerProperties.Mode.RELAY);
+	}
+
+	@AfterEach
+	void tearDown() {
+		userService.shutdown();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void refreshConfirmsLocalUsersAndExpiresUsersOfStoppedInstances() {
+		presenceRegistry.connect("s1", user("alice", Status.ONLINE, new Date()));
+		var bob = user("bob", Status.OFFLINE, null);
+		when(userStore.expireOnline(any())).thenReturn(List.of(bob));
+
+		userService.refreshPresence();
+
+		ArgumentCaptor<Collection<String>> seen = ArgumentCaptor.forClass(Collection.class);
+		var seenAt = ArgumentCaptor.forClass(Date.class);
+		verify(userStore).markSeen(seen.capture(), seenAt.capture());
+		assertEquals(List.of("alice"), List.copyOf(seen.getValue()));
+
+		var seenBefore = ArgumentCaptor.forClass(Date.class);
+		verify(userStore).expireOnline(seenBefore.capture());
+		assertEquals(brokerProperties.getPresenceTtl().toMillis(),
+				seenAt.getValue().getTime() - seenBefore.getValue().getTime());
+		verify(presenceBroadcaster).userLeft(bob);
+	}
+
+	@Test
+	void expiredUserStillConnectedHereIsNotAnnouncedAsLeft() {
+		presenceRegistry.connect("s1", user("alice", Status.ONLINE, new Date()));
+		when(userStore.expireOnline(any())).thenReturn(List.of(user("alice", Status.OFFLINE, null)));
+
+		userService.refreshPresence();
+
+		verify(presenceBroadcaster, never()).userLeft(any());
+	}
+
+	@Test
+	void relayModeListsOnlyUsersConfirmedWithinTheTtl() {
+		var ttl = brokerProperties.getPresenceTtl().toMillis();
+		when(userStore.findAllByStatus(Status.ONLINE)).thenReturn(List.of(
+				user("alice", Status.ONLINE, new Date()),
+				user("bob", Status.ONLINE, new Date(System.currentTimeMillis() - 2 * ttl)),
+				user("carol", Status.ONLINE, null)
+		));
+
+		var online = userService.findConnectedUsers();
+
+		assertEquals(List.of("alice"), online.stream().map(User::getNickName).toList());
+	}
+
+	private static User user(String nickName, Status status, Date lastSeen) {
+		var user = new User();
+		user.setNickName(nickName);
+		user.setFullName(nickName.toUpperCase());
+		user.setStatus(status);
+		user.setLastSeen(lastSeen);
+		return user;
+	}
+}